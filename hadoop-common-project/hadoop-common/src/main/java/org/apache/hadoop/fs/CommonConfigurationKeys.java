@@ -76,6 +76,34 @@ public class CommonConfigurationKeys extends CommonConfigurationKeysPublic {
   
   public static final int IPC_MAXIMUM_DATA_LENGTH_DEFAULT = 64 * 1024 * 1024;
 
+  /**
+   * Maximum bytes of request and response buffers the RPC server keeps for
+   * reuse; 0 disables pooling.
+   */
+  public static final String  IPC_SERVER_BUFFER_POOL_MAX_BYTES_KEY =
+    "ipc.server.buffer.pool.max.bytes";
+  /** Default value for IPC_SERVER_BUFFER_POOL_MAX_BYTES_KEY */
+  public static final long    IPC_SERVER_BUFFER_POOL_MAX_BYTES_DEFAULT = 0;
+  /** Whether pooled response buffers are direct */
+  public static final String  IPC_SERVER_BUFFER_POOL_DIRECT_KEY =
+    "ipc.server.buffer.pool.direct";
+  /** Default value for IPC_SERVER_BUFFER_POOL_DIRECT_KEY */
+  public static final boolean IPC_SERVER_BUFFER_POOL_DIRECT_DEFAULT = false;
+
+  /**
+   * How long a call whose client has seen a newer state than the server
+   * waits for the server to catch up before it is failed.
+   */
+  public static final String  IPC_SERVER_STATE_WAIT_TIMEOUT_MS_KEY =
+    "ipc.server.state.wait.timeout.ms";
+  /** Default value for IPC_SERVER_STATE_WAIT_TIMEOUT_MS_KEY */
+  public static final long    IPC_SERVER_STATE_WAIT_TIMEOUT_MS_DEFAULT = 10000;
+  /** How many calls may wait for the server to catch up at once. */
+  public static final String  IPC_SERVER_STATE_WAIT_MAX_CALLS_KEY =
+    "ipc.server.state.wait.max.calls";
+  /** Default value for IPC_SERVER_STATE_WAIT_MAX_CALLS_KEY */
+  public static final int     IPC_SERVER_STATE_WAIT_MAX_CALLS_DEFAULT = 1000;
+
   /** How many calls per handler are allowed in the queue. */
   public static final String  IPC_SERVER_HANDLER_QUEUE_SIZE_KEY =
     "ipc.server.handler.queue.size";
@@ -134,6 +162,10 @@ public class CommonConfigurationKeys extends CommonConfigurationKeysPublic {
   public static final boolean IO_COMPRESSION_CODEC_LZ4_USELZ4HC_DEFAULT =
       false;
 
+  /** Raw coder factory for the Reed-Solomon erasure codec */
+  public static final String IO_ERASURECODE_CODEC_RS_RAWCODER_KEY =
+      "io.erasurecode.codec.rs.rawcoder";
+
   /**
    * Service Authorization
    */
@@ -269,6 +301,11 @@ public class CommonConfigurationKeys extends CommonConfigurationKeysPublic {
   public static final String  IPC_CLIENT_FALLBACK_TO_SIMPLE_AUTH_ALLOWED_KEY = "ipc.client.fallback-to-simple-auth-allowed";
   public static final boolean IPC_CLIENT_FALLBACK_TO_SIMPLE_AUTH_ALLOWED_DEFAULT = false;
 
+  /** Maximum number of outstanding asynchronous calls per client */
+  public static final String IPC_CLIENT_ASYNC_CALLS_MAX_KEY =
+      "ipc.client.async.calls.max";
+  public static final int    IPC_CLIENT_ASYNC_CALLS_MAX_DEFAULT = 100;
+
   public static final String IPC_CLIENT_CONNECT_MAX_RETRIES_ON_SASL_KEY =
     "ipc.client.connect.max.retries.on.sasl";
   public static final int    IPC_CLIENT_CONNECT_MAX_RETRIES_ON_SASL_DEFAULT = 5;
@@ -0,0 +1,77 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.fs;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.Future;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.classification.InterfaceStability;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * A range of a file to read with {@link VectoredReadable#readVectored}, and
+ * the future of its data.
+ */
+@InterfaceAudience.Public
+@InterfaceStability.Unstable
+public class FileRange {
+  private final long offset;
+  private final int length;
+  private volatile Future<ByteBuffer> data;
+
+  public FileRange(long offset, int length) {
+    Preconditions.checkArgument(offset >= 0, "Negative offset %s", offset);
+    Preconditions.checkArgument(length >= 0, "Negative length %s", length);
+    this.offset = offset;
+    this.length = length;
+  }
+
+  /** @return the offset of the range in the file */
+  public long getOffset() {
+    return offset;
+  }
+
+  /** @return the length of the range */
+  public int getLength() {
+    return length;
+  }
+
+  /** @return the offset in the file following the range */
+  public long getEnd() {
+    return offset + length;
+  }
+
+  /**
+   * @return the future of the data of the range, set by the read.  The
+   *         buffer holds the data from its position to its limit.
+   */
+  public Future<ByteBuffer> getData() {
+    return data;
+  }
+
+  public void setData(Future<ByteBuffer> data) {
+    this.data = data;
+  }
+
+  @Override
+  public String toString() {
+    return "range[" + offset + ", " + getEnd() + ")";
+  }
+}
@@ -33,13 +33,16 @@
 import java.io.FileDescriptor;
 import java.net.URI;
 import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.Arrays;
 import java.util.EnumSet;
+import java.util.List;
 import java.util.StringTokenizer;
 
 import org.apache.hadoop.classification.InterfaceAudience;
 import org.apache.hadoop.classification.InterfaceStability;
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.VectoredReadUtils.CombinedRange;
 import org.apache.hadoop.fs.permission.FsPermission;
 import org.apache.hadoop.io.IOUtils;
 import org.apache.hadoop.io.nativeio.NativeIO;
@@ -97,7 +100,8 @@ public void initialize(URI uri, Configuration conf) throws IOException {
   /*******************************************************
    * For open()'s FSInputStream.
    *******************************************************/
-  class LocalFSFileInputStream extends FSInputStream implements HasFileDescriptor {
+  class LocalFSFileInputStream extends FSInputStream
+      implements HasFileDescriptor, VectoredReadable {
     private FileInputStream fis;
     private long position;
 
@@ -178,6 +182,35 @@ public int read(long position, byte[] b, int off, int len)
       }
     }
     
+    /**
+     * Read the ranges with positional reads of the file channel, the ranges
+     * close to each other being read together.
+     */
+    @Override
+    public void readVectored(List<? extends FileRange> ranges)
+        throws IOException {
+      final FileChannel channel = fis.getChannel();
+      for (CombinedRange range : VectoredReadUtils.mergeSortedRanges(
+          VectoredReadUtils.sortRanges(ranges),
+          VectoredReadUtils.MIN_SEEK_DEFAULT,
+          VectoredReadUtils.MAX_MERGED_LENGTH_DEFAULT)) {
+        final ByteBuffer bb = ByteBuffer.allocate(range.getLength());
+        try {
+          while (bb.hasRemaining()) {
+            int n = channel.read(bb, range.getOffset() + bb.position());
+            if (n < 0) {
+              break;
+            }
+          }
+        } catch (IOException e) {
+          range.fail(e);
+          continue;
+        }
+        statistics.incrementBytesRead(bb.position());
+        range.complete(bb.array(), bb.position());
+      }
+    }
+
     @Override
     public long skip(long n) throws IOException {
       long value = fis.skip(n);
@@ -0,0 +1,187 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.fs;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.classification.InterfaceStability;
+
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.SettableFuture;
+
+/**
+ * Utilities for the implementations of {@link VectoredReadable}.
+ */
+@InterfaceAudience.Private
+@InterfaceStability.Unstable
+public final class VectoredReadUtils {
+  /** Ranges closer than this are read together, by default. */
+  public static final int MIN_SEEK_DEFAULT = 4 * 1024;
+  /** Ranges are read together up to this length, by default. */
+  public static final int MAX_MERGED_LENGTH_DEFAULT = 1024 * 1024;
+
+  private static final Comparator<FileRange> BY_OFFSET =
+      new Comparator<FileRange>() {
+        @Override
+        public int compare(FileRange a, FileRange b) {
+          return Long.compare(a.getOffset(), b.getOffset());
+        }
+      };
+
+  private VectoredReadUtils() {}
+
+  /**
+   * @return the ranges, sorted by offset
+   * @throws IllegalArgumentException if ranges overlap
+   */
+  public static List<FileRange> sortRanges(List<? extends FileRange> ranges) {
+    final List<FileRange> sorted = new ArrayList<FileRange>(ranges);
+    Collections.sort(sorted, BY_OFFSET);
+    for (int i = 1; i < sorted.size(); i++) {
+      if (sorted.get(i).getOffset() < sorted.get(i - 1).getEnd()) {
+        throw new IllegalArgumentException("Overlapping ranges "
+            + sorted.get(i - 1) + " and " + sorted.get(i));
+      }
+    }
+    return sorted;
+  }
+
+  /**
+   * Coalesce sorted ranges which are close to each other, to be read
+   * together.
+   * @param sorted the ranges, sorted by offset
+   * @param minSeek the gap between two ranges under which they are merged
+   * @param maxLength the maximum length of merged ranges
+   * @return the merged ranges, which set the futures of the ranges
+   */
+  public static List<CombinedRange> mergeSortedRanges(List<FileRange> sorted,
+      int minSeek, int maxLength) {
+    final List<CombinedRange> merged = new ArrayList<CombinedRange>();
+    CombinedRange current = null;
+    for (FileRange r : sorted) {
+      if (current == null || !current.merge(r, minSeek, maxLength)) {
+        current = new CombinedRange(r);
+        merged.add(current);
+      }
+    }
+    return merged;
+  }
+
+  /**
+   * Read ranges one at a time with positional reads, for the streams
+   * without vectored reads of their own.
+   */
+  public static void readRanges(PositionedReadable stream,
+      List<? extends FileRange> ranges) {
+    for (FileRange r : sortRanges(ranges)) {
+      final byte[] buf = new byte[r.getLength()];
+      try {
+        stream.readFully(r.getOffset(), buf, 0, buf.length);
+        r.setData(Futures.immediateFuture(ByteBuffer.wrap(buf)));
+      } catch (IOException e) {
+        r.setData(Futures.<ByteBuffer>immediateFailedFuture(e));
+      }
+    }
+  }
+
+  /**
+   * Ranges of a file read together, from the offset of the first one to the
+   * end of the last one.  The data of the ranges share the buffer read.
+   */
+  public static class CombinedRange {
+    private final long offset;
+    private long end;
+    private final List<FileRange> ranges = new ArrayList<FileRange>();
+    private final List<SettableFuture<ByteBuffer>> futures =
+        new ArrayList<SettableFuture<ByteBuffer>>();
+
+    CombinedRange(FileRange first) {
+      this.offset = first.getOffset();
+      this.end = first.getEnd();
+      add(first);
+    }
+
+    private void add(FileRange r) {
+      final SettableFuture<ByteBuffer> f = SettableFuture.create();
+      r.setData(f);
+      ranges.add(r);
+      futures.add(f);
+    }
+
+    private boolean merge(FileRange r, int minSeek, int maxLength) {
+      if (r.getOffset() - end > minSeek || r.getEnd() - offset > maxLength) {
+        return false;
+      }
+      add(r);
+      end = r.getEnd();
+      return true;
+    }
+
+    public long getOffset() {
+      return offset;
+    }
+
+    public int getLength() {
+      return (int) (end - offset);
+    }
+
+    public List<FileRange> getRanges() {
+      return ranges;
+    }
+
+    /**
+     * Set the data of the ranges.
+     * @param data the data read from the offset
+     * @param length the number of bytes read, which is less than the length
+     *               if the end of the file was reached
+     */
+    public void complete(byte[] data, int length) {
+      for (int i = 0; i < ranges.size(); i++) {
+        final FileRange r = ranges.get(i);
+        final int start = (int) (r.getOffset() - offset);
+        if (start + r.getLength() > length) {
+          futures.get(i).setException(new EOFException(
+              FSExceptionMessages.CANNOT_SEEK_PAST_EOF + ": " + r));
+        } else {
+          futures.get(i).set(
+              ByteBuffer.wrap(data, start, r.getLength()).slice());
+        }
+      }
+    }
+
+    /** Fail the ranges. */
+    public void fail(Throwable t) {
+      for (SettableFuture<ByteBuffer> f : futures) {
+        f.setException(t);
+      }
+    }
+
+    @Override
+    public String toString() {
+      return "range[" + offset + ", " + end + ") of " + ranges.size()
+          + " ranges";
+    }
+  }
+}
@@ -0,0 +1,45 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.fs;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.classification.InterfaceStability;
+
+/**
+ * Stream that permits reading a list of ranges of a file at once, so that
+ * the reads can be coalesced and issued in parallel.
+ */
+@InterfaceAudience.Public
+@InterfaceStability.Unstable
+public interface VectoredReadable {
+  /**
+   * Read a list of ranges of a file.  The data of each range is set as the
+   * future of the range, which fails with an {@link java.io.EOFException} if
+   * the range goes past the end of the file.  The futures may complete after
+   * the call returns.  This does not change the current offset of the file,
+   * and is thread-safe.
+   *
+   * @param ranges the ranges to read, which must not overlap
+   * @throws IOException if the reads could not be issued
+   */
+  public void readVectored(List<? extends FileRange> ranges)
+      throws IOException;
+}
@@ -0,0 +1,67 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.io.erasurecode;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.CommonConfigurationKeys;
+import org.apache.hadoop.io.erasurecode.rawcoder.RSRawErasureCoderFactory;
+import org.apache.hadoop.io.erasurecode.rawcoder.RawErasureCoderFactory;
+import org.apache.hadoop.io.erasurecode.rawcoder.RawErasureDecoder;
+import org.apache.hadoop.io.erasurecode.rawcoder.RawErasureEncoder;
+import org.apache.hadoop.util.ReflectionUtils;
+
+/**
+ * Creates the raw coders of the erasure codecs, with the factories
+ * configured for them.
+ */
+@InterfaceAudience.Private
+public final class CodecUtil {
+  private CodecUtil() {}
+
+  private static RawErasureCoderFactory getRSFactory(Configuration conf) {
+    Class<? extends RawErasureCoderFactory> factoryClass = conf.getClass(
+        CommonConfigurationKeys.IO_ERASURECODE_CODEC_RS_RAWCODER_KEY,
+        RSRawErasureCoderFactory.class, RawErasureCoderFactory.class);
+    return ReflectionUtils.newInstance(factoryClass, conf);
+  }
+
+  /**
+   * Create a Reed-Solomon raw encoder.
+   * @param conf the configuration of the factory
+   * @param numDataUnits the number of data units of a stripe
+   * @param numParityUnits the number of parity units of a stripe
+   * @return the encoder
+   */
+  public static RawErasureEncoder createRSRawEncoder(Configuration conf,
+      int numDataUnits, int numParityUnits) {
+    return getRSFactory(conf).createEncoder(numDataUnits, numParityUnits);
+  }
+
+  /**
+   * Create a Reed-Solomon raw decoder.
+   * @param conf the configuration of the factory
+   * @param numDataUnits the number of data units of a stripe
+   * @param numParityUnits the number of parity units of a stripe
+   * @return the decoder
+   */
+  public static RawErasureDecoder createRSRawDecoder(Configuration conf,
+      int numDataUnits, int numParityUnits) {
+    return getRSFactory(conf).createDecoder(numDataUnits, numParityUnits);
+  }
+}
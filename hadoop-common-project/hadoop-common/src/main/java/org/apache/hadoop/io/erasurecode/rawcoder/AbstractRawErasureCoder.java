@@ -0,0 +1,120 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.io.erasurecode.rawcoder;
+
+import java.nio.ByteBuffer;
+
+import org.apache.hadoop.HadoopIllegalArgumentException;
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.io.erasurecode.rawcoder.util.RSUtil;
+
+/**
+ * A base raw coder, coding units with a matrix of GF(2^8) coefficients.
+ * Buffers without a backing array are copied to temporary arrays.
+ */
+@InterfaceAudience.Private
+public abstract class AbstractRawErasureCoder implements RawErasureCoder {
+  private final int numDataUnits;
+  private final int numParityUnits;
+
+  protected AbstractRawErasureCoder(int numDataUnits, int numParityUnits) {
+    if (numDataUnits <= 0 || numParityUnits <= 0
+        || numDataUnits + numParityUnits > 256) {
+      throw new HadoopIllegalArgumentException("Invalid number of units: "
+          + numDataUnits + " data units, " + numParityUnits
+          + " parity units");
+    }
+    this.numDataUnits = numDataUnits;
+    this.numParityUnits = numParityUnits;
+  }
+
+  @Override
+  public int getNumDataUnits() {
+    return numDataUnits;
+  }
+
+  @Override
+  public int getNumParityUnits() {
+    return numParityUnits;
+  }
+
+  protected static void checkUnits(String name, Object[] units, int n) {
+    if (units == null || units.length != n) {
+      throw new HadoopIllegalArgumentException("Expected " + n + " " + name
+          + " units, got " + (units == null ? null : units.length));
+    }
+  }
+
+  /** Code the outputs, a row of coefs each, from the inputs. */
+  protected static void code(byte[][] coefs, byte[][] inputs,
+      byte[][] outputs) {
+    final int len = inputs[0].length;
+    for (byte[] b : inputs) {
+      checkLength(b.length, len);
+    }
+    for (byte[] b : outputs) {
+      checkLength(b.length, len);
+    }
+    RSUtil.encodeData(coefs, inputs, new int[inputs.length], len, outputs,
+        new int[outputs.length]);
+  }
+
+  /** Code the outputs, a row of coefs each, from the inputs. */
+  protected static void code(byte[][] coefs, ByteBuffer[] inputs,
+      ByteBuffer[] outputs) {
+    final int len = inputs[0].remaining();
+    byte[][] in = new byte[inputs.length][];
+    int[] inOffsets = new int[inputs.length];
+    for (int i = 0; i < inputs.length; i++) {
+      ByteBuffer b = inputs[i];
+      checkLength(b.remaining(), len);
+      if (b.hasArray()) {
+        in[i] = b.array();
+        inOffsets[i] = b.arrayOffset() + b.position();
+      } else {
+        in[i] = new byte[len];
+        b.duplicate().get(in[i]);
+      }
+    }
+    byte[][] out = new byte[outputs.length][];
+    int[] outOffsets = new int[outputs.length];
+    for (int i = 0; i < outputs.length; i++) {
+      ByteBuffer b = outputs[i];
+      checkLength(b.remaining(), len);
+      if (b.hasArray()) {
+        out[i] = b.array();
+        outOffsets[i] = b.arrayOffset() + b.position();
+      } else {
+        out[i] = new byte[len];
+      }
+    }
+    RSUtil.encodeData(coefs, in, inOffsets, len, out, outOffsets);
+    for (int i = 0; i < outputs.length; i++) {
+      if (!outputs[i].hasArray()) {
+        outputs[i].duplicate().put(out[i]);
+      }
+    }
+  }
+
+  private static void checkLength(int length, int expected) {
+    if (length != expected) {
+      throw new HadoopIllegalArgumentException(
+          "Units of different lengths: " + length + " != " + expected);
+    }
+  }
+}
@@ -0,0 +1,131 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.io.erasurecode.rawcoder;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import org.apache.hadoop.HadoopIllegalArgumentException;
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.io.erasurecode.rawcoder.util.GF256;
+import org.apache.hadoop.io.erasurecode.rawcoder.util.RSUtil;
+
+/**
+ * A pure Java Reed-Solomon decoder.  The erased units are coded from the
+ * first numDataUnits available units, with the inverse of their rows of the
+ * encoding matrix.  The decoding matrix of the last erasures is kept, since
+ * the same units are usually missing from the consecutive stripes of a
+ * block group.
+ */
+@InterfaceAudience.Private
+public class RSRawDecoder extends AbstractRawErasureCoder
+    implements RawErasureDecoder {
+  private final byte[][] encodeMatrix;
+
+  private int[] cachedValidIndexes;
+  private int[] cachedErasedIndexes;
+  private byte[][] cachedDecodeMatrix;
+
+  public RSRawDecoder(int numDataUnits, int numParityUnits) {
+    super(numDataUnits, numParityUnits);
+    encodeMatrix = RSUtil.genEncodeMatrix(numDataUnits, numParityUnits);
+  }
+
+  @Override
+  public void decode(ByteBuffer[] inputs, int[] erasedIndexes,
+      ByteBuffer[] outputs) {
+    int[] validIndexes = getValidIndexes(inputs, erasedIndexes, outputs);
+    ByteBuffer[] validInputs = new ByteBuffer[validIndexes.length];
+    for (int i = 0; i < validIndexes.length; i++) {
+      validInputs[i] = inputs[validIndexes[i]];
+    }
+    code(getDecodeMatrix(validIndexes, erasedIndexes), validInputs, outputs);
+  }
+
+  @Override
+  public void decode(byte[][] inputs, int[] erasedIndexes,
+      byte[][] outputs) {
+    int[] validIndexes = getValidIndexes(inputs, erasedIndexes, outputs);
+    byte[][] validInputs = new byte[validIndexes.length][];
+    for (int i = 0; i < validIndexes.length; i++) {
+      validInputs[i] = inputs[validIndexes[i]];
+    }
+    code(getDecodeMatrix(validIndexes, erasedIndexes), validInputs, outputs);
+  }
+
+  /** @return the indexes of the first numDataUnits available units */
+  private int[] getValidIndexes(Object[] inputs, int[] erasedIndexes,
+      Object[] outputs) {
+    final int numUnits = getNumDataUnits() + getNumParityUnits();
+    checkUnits("input", inputs, numUnits);
+    checkUnits("output", outputs, erasedIndexes.length);
+    boolean[] erased = new boolean[numUnits];
+    for (int e : erasedIndexes) {
+      if (e < 0 || e >= numUnits) {
+        throw new HadoopIllegalArgumentException("Invalid erased index " + e);
+      }
+      erased[e] = true;
+    }
+    int[] validIndexes = new int[getNumDataUnits()];
+    int n = 0;
+    for (int i = 0; i < numUnits && n < validIndexes.length; i++) {
+      if (inputs[i] != null && !erased[i]) {
+        validIndexes[n++] = i;
+      }
+    }
+    if (n < validIndexes.length) {
+      throw new HadoopIllegalArgumentException("Only " + n
+          + " units are available, " + validIndexes.length + " are needed");
+    }
+    return validIndexes;
+  }
+
+  /**
+   * @return the rows of the encoding matrix of the erased units, times the
+   *         inverse of the rows of the valid units
+   */
+  private byte[][] getDecodeMatrix(int[] validIndexes, int[] erasedIndexes) {
+    if (Arrays.equals(validIndexes, cachedValidIndexes)
+        && Arrays.equals(erasedIndexes, cachedErasedIndexes)) {
+      return cachedDecodeMatrix;
+    }
+    final int k = getNumDataUnits();
+    byte[][] validRows = new byte[k][];
+    for (int i = 0; i < k; i++) {
+      validRows[i] = encodeMatrix[validIndexes[i]];
+    }
+    byte[][] inverse = GF256.invert(validRows);
+    byte[][] decodeMatrix = new byte[erasedIndexes.length][k];
+    for (int r = 0; r < erasedIndexes.length; r++) {
+      byte[] row = encodeMatrix[erasedIndexes[r]];
+      for (int t = 0; t < k; t++) {
+        if (row[t] == 0) {
+          continue;
+        }
+        byte[] table = GF256.mulTable(row[t]);
+        for (int j = 0; j < k; j++) {
+          decodeMatrix[r][j] ^= table[inverse[t][j] & 0xff];
+        }
+      }
+    }
+    cachedValidIndexes = validIndexes;
+    cachedErasedIndexes = erasedIndexes.clone();
+    cachedDecodeMatrix = decodeMatrix;
+    return decodeMatrix;
+  }
+}
@@ -0,0 +1,53 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.io.erasurecode.rawcoder;
+
+import java.nio.ByteBuffer;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+
+/**
+ * Recovers erased units of a stripe from any numDataUnits of its other
+ * units.
+ */
+@InterfaceAudience.Private
+public interface RawErasureDecoder extends RawErasureCoder {
+
+  /**
+   * Decode the erased units, from the position to the limit of each buffer.
+   * The positions of the buffers are not changed.
+   *
+   * @param inputs the units of the stripe, data units first, with null for
+   *        the erased or unavailable units
+   * @param erasedIndexes the indexes of the units to recover
+   * @param outputs the recovered units, in the order of erasedIndexes
+   * @throws org.apache.hadoop.HadoopIllegalArgumentException if fewer than
+   *         numDataUnits units are available
+   */
+  void decode(ByteBuffer[] inputs, int[] erasedIndexes, ByteBuffer[] outputs);
+
+  /**
+   * Decode whole unit arrays.
+   *
+   * @param inputs the units of the stripe, with null for the erased or
+   *        unavailable units
+   * @param erasedIndexes the indexes of the units to recover
+   * @param outputs the recovered units, in the order of erasedIndexes
+   */
+  void decode(byte[][] inputs, int[] erasedIndexes, byte[][] outputs);
+}
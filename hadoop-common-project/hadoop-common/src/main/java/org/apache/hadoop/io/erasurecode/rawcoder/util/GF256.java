@@ -0,0 +1,121 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.io.erasurecode.rawcoder.util;
+
+import org.apache.hadoop.HadoopIllegalArgumentException;
+import org.apache.hadoop.classification.InterfaceAudience;
+
+/**
+ * Arithmetic in GF(2^8), with the primitive polynomial
+ * x^8 + x^4 + x^3 + x^2 + 1.  Additions are XORs, multiplications go
+ * through a full table so that coding loops are a lookup per byte.
+ */
+@InterfaceAudience.Private
+public final class GF256 {
+  private static final int PRIMITIVE_POLYNOMIAL = 0x11d;
+
+  private static final int[] EXP = new int[510];
+  private static final int[] LOG = new int[256];
+  private static final byte[][] MUL = new byte[256][256];
+
+  static {
+    int x = 1;
+    for (int i = 0; i < 255; i++) {
+      EXP[i] = x;
+      EXP[i + 255] = x;
+      LOG[x] = i;
+      x <<= 1;
+      if (x >= 256) {
+        x ^= PRIMITIVE_POLYNOMIAL;
+      }
+    }
+    for (int a = 1; a < 256; a++) {
+      for (int b = 1; b < 256; b++) {
+        MUL[a][b] = (byte) EXP[LOG[a] + LOG[b]];
+      }
+    }
+  }
+
+  private GF256() {}
+
+  /** @return a * b */
+  public static int mul(int a, int b) {
+    return MUL[a & 0xff][b & 0xff] & 0xff;
+  }
+
+  /** @return the inverse of a, which must not be zero */
+  public static int inv(int a) {
+    a &= 0xff;
+    if (a == 0) {
+      throw new HadoopIllegalArgumentException("Zero has no inverse");
+    }
+    return EXP[255 - LOG[a]];
+  }
+
+  /**
+   * @return the row of the multiplication table of a, mapping each byte b
+   *         to a * b
+   */
+  public static byte[] mulTable(int a) {
+    return MUL[a & 0xff];
+  }
+
+  /**
+   * Invert a square matrix.
+   * @param matrix the matrix, left unchanged
+   * @return the inverse
+   * @throws HadoopIllegalArgumentException if the matrix is singular
+   */
+  public static byte[][] invert(byte[][] matrix) {
+    final int n = matrix.length;
+    byte[][] m = new byte[n][];
+    byte[][] inv = new byte[n][n];
+    for (int i = 0; i < n; i++) {
+      m[i] = matrix[i].clone();
+      inv[i][i] = 1;
+    }
+    for (int col = 0; col < n; col++) {
+      int pivot = col;
+      while (pivot < n && m[pivot][col] == 0) {
+        pivot++;
+      }
+      if (pivot == n) {
+        throw new HadoopIllegalArgumentException("Singular matrix");
+      }
+      byte[] t = m[col]; m[col] = m[pivot]; m[pivot] = t;
+      t = inv[col]; inv[col] = inv[pivot]; inv[pivot] = t;
+
+      byte[] scale = mulTable(inv(m[col][col]));
+      for (int j = 0; j < n; j++) {
+        m[col][j] = scale[m[col][j] & 0xff];
+        inv[col][j] = scale[inv[col][j] & 0xff];
+      }
+      for (int row = 0; row < n; row++) {
+        if (row == col || m[row][col] == 0) {
+          continue;
+        }
+        byte[] factor = mulTable(m[row][col]);
+        for (int j = 0; j < n; j++) {
+          m[row][j] ^= factor[m[col][j] & 0xff];
+          inv[row][j] ^= factor[inv[col][j] & 0xff];
+        }
+      }
+    }
+    return inv;
+  }
+}
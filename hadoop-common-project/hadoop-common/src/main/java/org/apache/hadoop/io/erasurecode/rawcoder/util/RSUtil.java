@@ -0,0 +1,103 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.io.erasurecode.rawcoder.util;
+
+import java.util.Arrays;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+
+/**
+ * Utilities for the Reed-Solomon coders.
+ */
+@InterfaceAudience.Private
+public final class RSUtil {
+  private RSUtil() {}
+
+  /**
+   * Generate the systematic encoding matrix of a Reed-Solomon code: the
+   * identity for the data units, over a Cauchy matrix for the parity units.
+   * Any square matrix made of numDataUnits of its rows is invertible, so
+   * any numDataUnits units are enough to recover the others.
+   *
+   * @param numDataUnits the number of data units
+   * @param numParityUnits the number of parity units
+   * @return the (numDataUnits + numParityUnits) x numDataUnits matrix
+   */
+  public static byte[][] genEncodeMatrix(int numDataUnits,
+      int numParityUnits) {
+    byte[][] matrix = new byte[numDataUnits + numParityUnits][numDataUnits];
+    for (int i = 0; i < numDataUnits; i++) {
+      matrix[i][i] = 1;
+    }
+    for (int i = 0; i < numParityUnits; i++) {
+      for (int j = 0; j < numDataUnits; j++) {
+        // x_i = numDataUnits + i and y_j = j are all distinct
+        matrix[numDataUnits + i][j] =
+            (byte) GF256.inv((numDataUnits + i) ^ j);
+      }
+    }
+    return matrix;
+  }
+
+  /**
+   * Compute outputs[r] = sum of coefs[r][j] * inputs[j] over GF(2^8).
+   *
+   * @param coefs the coefficients, a row per output
+   * @param inputs the input arrays
+   * @param inputOffsets the offsets of the inputs
+   * @param len the number of bytes to code
+   * @param outputs the output arrays
+   * @param outputOffsets the offsets of the outputs
+   */
+  public static void encodeData(byte[][] coefs, byte[][] inputs,
+      int[] inputOffsets, int len, byte[][] outputs, int[] outputOffsets) {
+    for (int r = 0; r < outputs.length; r++) {
+      final byte[] out = outputs[r];
+      final int o = outputOffsets[r];
+      boolean first = true;
+      for (int j = 0; j < inputs.length; j++) {
+        final int c = coefs[r][j] & 0xff;
+        final byte[] in = inputs[j];
+        final int i = inputOffsets[j];
+        if (c == 0) {
+          continue;
+        } else if (first && c == 1) {
+          System.arraycopy(in, i, out, o, len);
+        } else if (first) {
+          final byte[] table = GF256.mulTable(c);
+          for (int p = 0; p < len; p++) {
+            out[o + p] = table[in[i + p] & 0xff];
+          }
+        } else if (c == 1) {
+          for (int p = 0; p < len; p++) {
+            out[o + p] ^= in[i + p];
+          }
+        } else {
+          final byte[] table = GF256.mulTable(c);
+          for (int p = 0; p < len; p++) {
+            out[o + p] ^= table[in[i + p] & 0xff];
+          }
+        }
+        first = false;
+      }
+      if (first) {
+        Arrays.fill(out, o, o + len, (byte) 0);
+      }
+    }
+  }
+}
@@ -93,6 +93,9 @@
 
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.protobuf.CodedOutputStream;
 
@@ -113,6 +116,46 @@ public class Client {
 
   private static final ThreadLocal<Integer> callId = new ThreadLocal<Integer>();
   private static final ThreadLocal<Integer> retryCount = new ThreadLocal<Integer>();
+  private static final ThreadLocal<Boolean> asynchronousMode =
+      new ThreadLocal<Boolean>() {
+        @Override
+        protected Boolean initialValue() {
+          return false;
+        }
+      };
+  private static final ThreadLocal<ListenableFuture<Writable>>
+      returnRpcResponse = new ThreadLocal<ListenableFuture<Writable>>();
+
+  /**
+   * Set whether calls made by the current thread are asynchronous.  In
+   * asynchronous mode {@link #call} sends the request and returns null
+   * without waiting for the response; the response is available from
+   * {@link #getReturnRpcResponse()} right after the call.
+   */
+  @InterfaceStability.Unstable
+  public static void setAsynchronousMode(boolean async) {
+    asynchronousMode.set(async);
+  }
+
+  /** @return whether calls made by the current thread are asynchronous. */
+  @InterfaceStability.Unstable
+  public static boolean isAsynchronousMode() {
+    return asynchronousMode.get();
+  }
+
+  /**
+   * Get the future response of the last asynchronous call made by the
+   * current thread, and clear it.  The future fails with the exception a
+   * synchronous call would have thrown.  Listeners without an executor of
+   * their own run on the connection thread that received the response, so
+   * they must not block.
+   */
+  @InterfaceStability.Unstable
+  public static ListenableFuture<Writable> getReturnRpcResponse() {
+    ListenableFuture<Writable> future = returnRpcResponse.get();
+    returnRpcResponse.remove();
+    return future;
+  }
 
   /** Set call id and retry count for the next call. */
   public static void setCallIdAndRetryCount(int cid, int rc) {
@@ -134,6 +177,10 @@ public static void setCallIdAndRetryCount(int cid, int rc) {
   private SocketFactory socketFactory;           // how to create sockets
   private int refCount = 1;
 
+  /** Maximum and current number of outstanding asynchronous calls. */
+  private final int maxAsyncCalls;
+  private final AtomicInteger asyncCallCounter = new AtomicInteger(0);
+
   private final int connectionTimeout;
 
   private final boolean fallbackAllowed;
@@ -311,6 +358,11 @@ static class Call {
     IOException error;          // exception, null if success
     final RPC.RpcKind rpcKind;      // Rpc EngineKind
     boolean done;               // true when call is done
+    /** Completed with the response if the call is asynchronous. */
+    private SettableFuture<Writable> asyncResponse;
+    private InetSocketAddress remoteAddress;
+    /** Carries the state id of the client, null if not aligned. */
+    private AlignmentContext alignmentContext;
 
     private Call(RPC.RpcKind rpcKind, Writable param) {
       this.rpcKind = rpcKind;
@@ -337,6 +389,33 @@ private Call(RPC.RpcKind rpcKind, Writable param) {
     protected synchronized void callComplete() {
       this.done = true;
       notify();                                 // notify caller
+      completeAsyncResponse();
+    }
+
+    /** Complete the call through a future instead of a waiting caller. */
+    synchronized void setAsync(SettableFuture<Writable> future,
+        InetSocketAddress address) {
+      this.asyncResponse = future;
+      this.remoteAddress = address;
+      if (done) {
+        // the connection failed before the call was handed to it
+        completeAsyncResponse();
+      }
+    }
+
+    void setAlignmentContext(AlignmentContext alignmentContext) {
+      this.alignmentContext = alignmentContext;
+    }
+
+    private void completeAsyncResponse() {
+      if (asyncResponse == null) {
+        return;
+      }
+      if (error != null) {
+        asyncResponse.setException(getCallError(this, remoteAddress));
+      } else {
+        asyncResponse.set(rpcResponse);
+      }
     }
 
     /** Set the exception when there is an error.
@@ -1030,7 +1109,7 @@ public void sendRpcRequest(final Call call)
       final DataOutputBuffer d = new DataOutputBuffer();
       RpcRequestHeaderProto header = ProtoUtil.makeRpcRequestHeader(
           call.rpcKind, OperationProto.RPC_FINAL_PACKET, call.id, call.retry,
-          clientId);
+          clientId, call.alignmentContext);
       header.writeDelimitedTo(d);
       call.rpcRequest.write(d);
 
@@ -1105,6 +1184,9 @@ private void receiveRpcResponse() {
           LOG.debug(getName() + " got value #" + callId);
 
         Call call = calls.get(callId);
+        if (call != null && call.alignmentContext != null) {
+          call.alignmentContext.receiveResponseState(header);
+        }
         RpcStatusProto status = header.getStatus();
         if (status == RpcStatusProto.SUCCESS) {
           Writable value = ReflectionUtils.newInstance(valueClass, conf);
@@ -1232,6 +1314,9 @@ public Client(Class<? extends Writable> valueClass, Configuration conf,
         CommonConfigurationKeys.IPC_CLIENT_FALLBACK_TO_SIMPLE_AUTH_ALLOWED_DEFAULT);
     this.clientId = ClientId.getClientId();
     this.sendParamsExecutor = clientExcecutorFactory.refAndGetInstance();
+    this.maxAsyncCalls = conf.getInt(
+        CommonConfigurationKeys.IPC_CLIENT_ASYNC_CALLS_MAX_KEY,
+        CommonConfigurationKeys.IPC_CLIENT_ASYNC_CALLS_MAX_DEFAULT);
   }
 
   /**
@@ -1458,17 +1543,60 @@ public Writable call(RPC.RpcKind rpcKind, Writable rpcRequest,
   public Writable call(RPC.RpcKind rpcKind, Writable rpcRequest,
       ConnectionId remoteId, int serviceClass,
       AtomicBoolean fallbackToSimpleAuth) throws IOException {
+    return call(rpcKind, rpcRequest, remoteId, serviceClass,
+        fallbackToSimpleAuth, null);
+  }
+
+  /**
+   * Make a call, passing <code>rpcRequest</code>, to the IPC server defined by
+   * <code>remoteId</code>, returning the rpc response.
+   *
+   * @param rpcKind
+   * @param rpcRequest -  contains serialized method and method parameters
+   * @param remoteId - the target rpc server
+   * @param serviceClass - service class for RPC
+   * @param fallbackToSimpleAuth - set to true or false during this method to
+   *   indicate if a secure client falls back to simple auth
+   * @param alignmentContext - state id of the client to send with the
+   *   request and to update from the response, may be null
+   * @returns the rpc response
+   * Throws exceptions if there are network problems or if the remote code
+   * threw an exception.
+   */
+  public Writable call(RPC.RpcKind rpcKind, Writable rpcRequest,
+      ConnectionId remoteId, int serviceClass,
+      AtomicBoolean fallbackToSimpleAuth, AlignmentContext alignmentContext)
+      throws IOException {
     final Call call = createCall(rpcKind, rpcRequest);
-    Connection connection = getConnection(remoteId, call, serviceClass,
-      fallbackToSimpleAuth);
+    call.setAlignmentContext(alignmentContext);
+    final SettableFuture<Writable> asyncResponse =
+        isAsynchronousMode() ? createAsyncResponse() : null;
+    Connection connection;
+    boolean sent = false;
     try {
+      connection = getConnection(remoteId, call, serviceClass,
+        fallbackToSimpleAuth);
+      if (asyncResponse != null) {
+        call.setAsync(asyncResponse, connection.getRemoteAddress());
+      }
       connection.sendRpcRequest(call);                 // send the rpc request
+      sent = true;
     } catch (RejectedExecutionException e) {
       throw new IOException("connection has been closed", e);
     } catch (InterruptedException e) {
       Thread.currentThread().interrupt();
       LOG.warn("interrupted waiting to send rpc request to server", e);
       throw new IOException(e);
+    } finally {
+      if (!sent && asyncResponse != null) {
+        // release the reservation of a call that never went out
+        asyncResponse.cancel(false);
+      }
+    }
+
+    if (asyncResponse != null) {
+      returnRpcResponse.set(asyncResponse);
+      return null;
     }
 
     boolean interrupted = false;
@@ -1488,23 +1616,57 @@ public Writable call(RPC.RpcKind rpcKind, Writable rpcRequest,
       }
 
       if (call.error != null) {
-        if (call.error instanceof RemoteException) {
-          call.error.fillInStackTrace();
-          throw call.error;
-        } else { // local exception
-          InetSocketAddress address = connection.getRemoteAddress();
-          throw NetUtils.wrapException(address.getHostName(),
-                  address.getPort(),
-                  NetUtils.getHostname(),
-                  0,
-                  call.error);
-        }
+        throw getCallError(call, connection.getRemoteAddress());
       } else {
         return call.getRpcResponse();
       }
     }
   }
 
+  /** @return the exception to report for a call that completed with an
+   * error. */
+  private static IOException getCallError(Call call,
+      InetSocketAddress address) {
+    if (call.error instanceof RemoteException) {
+      call.error.fillInStackTrace();
+      return call.error;
+    } else { // local exception
+      return NetUtils.wrapException(address.getHostName(),
+              address.getPort(),
+              NetUtils.getHostname(),
+              0,
+              call.error);
+    }
+  }
+
+  /**
+   * Reserve one of the outstanding asynchronous calls allowed by
+   * ipc.client.async.calls.max and return the future of the call; the
+   * reservation is released when the future completes.
+   */
+  private SettableFuture<Writable> createAsyncResponse()
+      throws AsyncCallLimitExceededException {
+    if (asyncCallCounter.incrementAndGet() > maxAsyncCalls) {
+      asyncCallCounter.decrementAndGet();
+      throw new AsyncCallLimitExceededException("Exceeded limit of "
+          + maxAsyncCalls + " outstanding asynchronous calls, set by "
+          + CommonConfigurationKeys.IPC_CLIENT_ASYNC_CALLS_MAX_KEY);
+    }
+    SettableFuture<Writable> future = SettableFuture.create();
+    future.addListener(new Runnable() {
+      @Override
+      public void run() {
+        asyncCallCounter.decrementAndGet();
+      }
+    }, MoreExecutors.sameThreadExecutor());
+    return future;
+  }
+
+  @VisibleForTesting
+  int getAsyncCallCount() {
+    return asyncCallCounter.get();
+  }
+
   // for unit testing only
   @InterfaceAudience.Private
   @InterfaceStability.Unstable
@@ -53,6 +53,11 @@
 import org.apache.htrace.TraceScope;
 
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
 import com.google.protobuf.BlockingService;
 import com.google.protobuf.CodedOutputStream;
 import com.google.protobuf.Descriptors.MethodDescriptor;
@@ -76,6 +81,22 @@ public class ProtobufRpcEngine implements RpcEngine {
 
   private static final ClientCache CLIENTS = new ClientCache();
 
+  private static final ThreadLocal<ListenableFuture<Message>>
+      asyncReturnMessage = new ThreadLocal<ListenableFuture<Message>>();
+
+  /**
+   * Get the future return message of the last call the current thread made
+   * through a protobuf proxy in {@link Client#setAsynchronousMode
+   * asynchronous mode}, and clear it.  The proxy method itself returns null
+   * in that mode.
+   */
+  @InterfaceStability.Unstable
+  public static ListenableFuture<Message> getAsyncReturnMessage() {
+    ListenableFuture<Message> future = asyncReturnMessage.get();
+    asyncReturnMessage.remove();
+    return future;
+  }
+
   public <T> ProtocolProxy<T> getProxy(Class<T> protocol, long clientVersion,
       InetSocketAddress addr, UserGroupInformation ticket, Configuration conf,
       SocketFactory factory, int rpcTimeout) throws IOException {
@@ -93,14 +114,25 @@ public <T> ProtocolProxy<T> getProxy(Class<T> protocol, long clientVersion,
   }
 
   @Override
-  @SuppressWarnings("unchecked")
   public <T> ProtocolProxy<T> getProxy(Class<T> protocol, long clientVersion,
       InetSocketAddress addr, UserGroupInformation ticket, Configuration conf,
       SocketFactory factory, int rpcTimeout, RetryPolicy connectionRetryPolicy,
       AtomicBoolean fallbackToSimpleAuth) throws IOException {
+    return getProxy(protocol, clientVersion, addr, ticket, conf, factory,
+        rpcTimeout, connectionRetryPolicy, fallbackToSimpleAuth, null);
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public <T> ProtocolProxy<T> getProxy(Class<T> protocol, long clientVersion,
+      InetSocketAddress addr, UserGroupInformation ticket, Configuration conf,
+      SocketFactory factory, int rpcTimeout, RetryPolicy connectionRetryPolicy,
+      AtomicBoolean fallbackToSimpleAuth, AlignmentContext alignmentContext)
+      throws IOException {
 
     final Invoker invoker = new Invoker(protocol, addr, ticket, conf, factory,
-        rpcTimeout, connectionRetryPolicy, fallbackToSimpleAuth);
+        rpcTimeout, connectionRetryPolicy, fallbackToSimpleAuth,
+        alignmentContext);
     return new ProtocolProxy<T>(protocol, (T) Proxy.newProxyInstance(
         protocol.getClassLoader(), new Class[]{protocol}, invoker), false);
   }
@@ -125,15 +157,18 @@ private static class Invoker implements RpcInvocationHandler {
     private final long clientProtocolVersion;
     private final String protocolName;
     private AtomicBoolean fallbackToSimpleAuth;
+    private AlignmentContext alignmentContext;
 
     private Invoker(Class<?> protocol, InetSocketAddress addr,
         UserGroupInformation ticket, Configuration conf, SocketFactory factory,
         int rpcTimeout, RetryPolicy connectionRetryPolicy,
-        AtomicBoolean fallbackToSimpleAuth) throws IOException {
+        AtomicBoolean fallbackToSimpleAuth, AlignmentContext alignmentContext)
+        throws IOException {
       this(protocol, Client.ConnectionId.getConnectionId(
           addr, protocol, ticket, rpcTimeout, connectionRetryPolicy, conf),
           conf, factory);
       this.fallbackToSimpleAuth = fallbackToSimpleAuth;
+      this.alignmentContext = alignmentContext;
     }
     
     /**
@@ -189,7 +224,7 @@ private RequestHeaderProto constructRpcRequestHeader(Method method) {
      * the server.
      */
     @Override
-    public Object invoke(Object proxy, Method method, Object[] args)
+    public Object invoke(Object proxy, final Method method, Object[] args)
         throws ServiceException {
       long startTime = 0;
       if (LOG.isDebugEnabled()) {
@@ -228,7 +263,8 @@ public Object invoke(Object proxy, Method method, Object[] args)
       try {
         val = (RpcResponseWrapper) client.call(RPC.RpcKind.RPC_PROTOCOL_BUFFER,
             new RpcRequestWrapper(rpcRequestHeader, theRequest), remoteId,
-            fallbackToSimpleAuth);
+            RPC.RPC_SERVICE_CLASS_DEFAULT, fallbackToSimpleAuth,
+            alignmentContext);
 
       } catch (Throwable e) {
         if (LOG.isTraceEnabled()) {
@@ -245,11 +281,38 @@ public Object invoke(Object proxy, Method method, Object[] args)
         if (traceScope != null) traceScope.close();
       }
 
+      if (Client.isAsynchronousMode()) {
+        final SettableFuture<Message> returnMessage = SettableFuture.create();
+        Futures.addCallback(Client.getReturnRpcResponse(),
+            new FutureCallback<Writable>() {
+              @Override
+              public void onSuccess(Writable response) {
+                try {
+                  returnMessage.set(getReturnMessage(method,
+                      (RpcResponseWrapper) response));
+                } catch (Throwable t) {
+                  returnMessage.setException(t);
+                }
+              }
+
+              @Override
+              public void onFailure(Throwable t) {
+                returnMessage.setException(t);
+              }
+            });
+        asyncReturnMessage.set(returnMessage);
+        return null;
+      }
+
       if (LOG.isDebugEnabled()) {
         long callTime = Time.now() - startTime;
         LOG.debug("Call: " + method.getName() + " took " + callTime + "ms");
       }
-      
+      return getReturnMessage(method, val);
+    }
+
+    private Message getReturnMessage(Method method, RpcResponseWrapper val)
+        throws ServiceException {
       Message prototype = null;
       try {
         prototype = getReturnProtoType(method);
@@ -538,6 +601,60 @@ numReaders, queueSizePerHandler, conf, classNameBase(protocolImpl
       registerProtocolAndImpl(RPC.RpcKind.RPC_PROTOCOL_BUFFER, protocolClass,
           protocolImpl);
     }
+
+    /**
+     * Defer the response of the protobuf call being served by the current
+     * handler thread.  The protocol implementation may return any value,
+     * including null, which is ignored; the response is sent once the
+     * returned callback is completed, possibly from another thread.  This
+     * lets calls that have to wait for something (a sync, a quorum, a lock)
+     * release their handler while waiting.
+     *
+     * @return callback to complete the current call with
+     * @throws IllegalStateException if not called from an RPC handler
+     */
+    public static ProtobufRpcEngineCallback registerForDeferredResponse() {
+      final Call call = getCurCall().get();
+      Preconditions.checkState(call != null,
+          "no RPC call is being served by this thread");
+      call.deferResponse();
+      return new ProtobufRpcEngineCallback() {
+        @Override
+        public void setResponse(Message message) {
+          call.setDeferredResponse(new RpcResponseWrapper(message));
+        }
+
+        @Override
+        public void error(Throwable t) {
+          if (t instanceof ServiceException && t.getCause() != null) {
+            t = t.getCause();
+          }
+          call.setDeferredError(t);
+        }
+      };
+    }
+
+    /**
+     * Defer the response of the current protobuf call until the given future
+     * completes.  The value or failure of the future becomes the response.
+     *
+     * @see #registerForDeferredResponse()
+     */
+    public static <T extends Message> void deferResponse(
+        ListenableFuture<T> future) {
+      final ProtobufRpcEngineCallback callback = registerForDeferredResponse();
+      Futures.addCallback(future, new FutureCallback<T>() {
+        @Override
+        public void onSuccess(T result) {
+          callback.setResponse(result);
+        }
+
+        @Override
+        public void onFailure(Throwable t) {
+          callback.error(t);
+        }
+      });
+    }
     
     /**
      * Protobuf invoker for {@link RpcInvoker}
@@ -0,0 +1,140 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.ipc;
+
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.io.ByteBufferPool;
+import org.apache.hadoop.ipc.metrics.RpcMetrics;
+
+import com.google.common.annotations.VisibleForTesting;
+
+/**
+ * A bounded pool of request and response buffers for a {@link Server}.
+ * <p>
+ * Buffers are kept in power of two size classes between
+ * {@link #MIN_BUFFER_SIZE} and the largest size class not above the
+ * configured maximum buffer size, so that a buffer can serve any request of
+ * up to its capacity.  Larger buffers are allocated with their exact size
+ * and never kept.  The pool keeps at most maxPooledBytes bytes of buffers;
+ * when it is 0 every buffer is allocated with its exact size, which is what
+ * the server did before it had a pool.
+ * <p>
+ * Every buffer handed out is counted in {@link RpcMetrics} as a hit or a
+ * miss, and the bytes of every miss are counted as allocated.
+ */
+@InterfaceAudience.Private
+class RpcBufferPool implements ByteBufferPool {
+  static final int MIN_BUFFER_SIZE = 1024;
+
+  private final long maxPooledBytes;
+  private final int maxBufferSize;
+  private final RpcMetrics metrics;
+  private final Queue<ByteBuffer>[] heapBuffers;
+  private final Queue<ByteBuffer>[] directBuffers;
+  private final AtomicLong pooledBytes = new AtomicLong(0);
+
+  @SuppressWarnings("unchecked")
+  RpcBufferPool(long maxPooledBytes, int maxBufferSize, RpcMetrics metrics) {
+    this.maxPooledBytes = maxPooledBytes;
+    this.metrics = metrics;
+    int size = MIN_BUFFER_SIZE;
+    int numClasses = 1;
+    while (size <= maxBufferSize / 2) {
+      size *= 2;
+      numClasses++;
+    }
+    this.maxBufferSize = size;
+    heapBuffers = new Queue[numClasses];
+    directBuffers = new Queue[numClasses];
+    for (int i = 0; i < numClasses; i++) {
+      heapBuffers[i] = new ConcurrentLinkedQueue<ByteBuffer>();
+      directBuffers[i] = new ConcurrentLinkedQueue<ByteBuffer>();
+    }
+  }
+
+  boolean isEnabled() {
+    return maxPooledBytes > 0;
+  }
+
+  /**
+   * Get a buffer whose position is 0 and whose limit is the given length.
+   */
+  @Override
+  public ByteBuffer getBuffer(boolean direct, int length) {
+    if (!isEnabled() || length > maxBufferSize) {
+      return allocate(direct, length);
+    }
+    int sizeClass = getSizeClass(length);
+    ByteBuffer buffer = getQueue(direct, sizeClass).poll();
+    if (buffer == null) {
+      buffer = allocate(direct, MIN_BUFFER_SIZE << sizeClass);
+    } else {
+      pooledBytes.addAndGet(-buffer.capacity());
+      metrics.incrBufferPoolHits();
+    }
+    buffer.clear();
+    buffer.limit(length);
+    return buffer;
+  }
+
+  /**
+   * Return a buffer that is no longer used.  Buffers that do not fit a size
+   * class, or that would grow the pool beyond its limit, are dropped.
+   */
+  @Override
+  public void putBuffer(ByteBuffer buffer) {
+    int capacity = buffer.capacity();
+    if (!isEnabled() || capacity > maxBufferSize || capacity < MIN_BUFFER_SIZE
+        || Integer.bitCount(capacity) != 1) {
+      return;
+    }
+    if (pooledBytes.addAndGet(capacity) > maxPooledBytes) {
+      pooledBytes.addAndGet(-capacity);
+      return;
+    }
+    getQueue(buffer.isDirect(), getSizeClass(capacity)).offer(buffer);
+  }
+
+  private ByteBuffer allocate(boolean direct, int size) {
+    metrics.incrBufferPoolMisses(size);
+    return direct ? ByteBuffer.allocateDirect(size) : ByteBuffer.allocate(size);
+  }
+
+  private Queue<ByteBuffer> getQueue(boolean direct, int sizeClass) {
+    return direct ? directBuffers[sizeClass] : heapBuffers[sizeClass];
+  }
+
+  /** @return the index of the smallest size class holding length bytes */
+  private static int getSizeClass(int length) {
+    if (length <= MIN_BUFFER_SIZE) {
+      return 0;
+    }
+    return 32 - Integer.numberOfLeadingZeros(length - 1)
+        - Integer.numberOfTrailingZeros(MIN_BUFFER_SIZE);
+  }
+
+  @VisibleForTesting
+  long getPooledBytes() {
+    return pooledBytes.get();
+  }
+}
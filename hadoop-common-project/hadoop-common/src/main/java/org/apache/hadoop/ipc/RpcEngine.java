@@ -52,6 +52,16 @@ <T> ProtocolProxy<T> getProxy(Class<T> protocol,
                   RetryPolicy connectionRetryPolicy,
                   AtomicBoolean fallbackToSimpleAuth) throws IOException;
 
+  /** Construct a client-side proxy object whose calls carry the state of
+   * the given alignment context, which may be null. */
+  <T> ProtocolProxy<T> getProxy(Class<T> protocol,
+                  long clientVersion, InetSocketAddress addr,
+                  UserGroupInformation ticket, Configuration conf,
+                  SocketFactory factory, int rpcTimeout,
+                  RetryPolicy connectionRetryPolicy,
+                  AtomicBoolean fallbackToSimpleAuth,
+                  AlignmentContext alignmentContext) throws IOException;
+
   /** 
    * Construct a server for a protocol implementation instance.
    * 
@@ -29,6 +29,7 @@
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.lang.reflect.UndeclaredThrowableException;
 import java.net.BindException;
 import java.net.InetAddress;
@@ -51,18 +52,21 @@
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.PriorityQueue;
 import java.util.Set;
 import java.util.Timer;
 import java.util.TimerTask;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.security.sasl.Sasl;
@@ -123,6 +127,7 @@
 import org.apache.htrace.TraceScope;
 
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
 import com.google.protobuf.ByteString;
 import com.google.protobuf.CodedOutputStream;
 import com.google.protobuf.Message;
@@ -288,6 +293,15 @@ public static Server get() {
    * after the call returns.
    */
   private static final ThreadLocal<Call> CurCall = new ThreadLocal<Call>();
+
+  /** The buffer each thread serializes the responses it sends into. */
+  private final ThreadLocal<ByteArrayOutputStream> responseBuffer =
+      new ThreadLocal<ByteArrayOutputStream>() {
+        @Override
+        protected ByteArrayOutputStream initialValue() {
+          return new ByteArrayOutputStream(INITIAL_RESP_BUF_SIZE);
+        }
+      };
   
   /** Get the current call */
   @VisibleForTesting
@@ -374,6 +388,8 @@ public static boolean isRpcInvocation() {
 
   private int maxQueueSize;
   private final int maxRespSize;
+  private final RpcBufferPool bufferPool;
+  private final boolean directResponseBuffers;
   private int socketSendBufferSize;
   private final int maxDataLength;
   private final boolean tcpNoDelay; // if T then disable Nagle's Algorithm
@@ -387,6 +403,23 @@ public static boolean isRpcInvocation() {
   private Responder responder = null;
   private Handler[] handlers = null;
 
+  private volatile AlignmentContext alignmentContext;
+  private final long stateWaitTimeoutMs;
+  private final int maxWaitingCalls;
+  /** Fails the calls which waited too long for the state of their client */
+  private Timer stateWaitTimer;
+  /**
+   * Calls whose client has seen a newer state than this server, ordered by
+   * that state id.  Guarded by itself.
+   */
+  private final PriorityQueue<Call> waitingCalls = new PriorityQueue<Call>(
+      16, new Comparator<Call>() {
+        @Override
+        public int compare(Call a, Call b) {
+          return Long.compare(a.clientStateId, b.clientStateId);
+        }
+      });
+
   /**
    * A convenience method to bind to a given address and report 
    * better exceptions if the address is not a valid host.
@@ -443,6 +476,125 @@ public RpcMetrics getRpcMetrics() {
     return rpcMetrics;
   }
 
+  /**
+   * Set the alignment context of this server.  Once set, every response
+   * carries the state id of the server, and a call whose client has seen a
+   * higher state id waits, without holding a handler, until
+   * {@link #alignmentStateAdvanced()} finds that the server has caught up.
+   * A call which waits too long, or finds too many calls waiting already,
+   * fails with a {@link StandbyException} instead, so that the client
+   * tries another server.
+   */
+  public synchronized void setAlignmentContext(
+      AlignmentContext alignmentContext) {
+    this.alignmentContext = alignmentContext;
+    if (stateWaitTimer == null && running) {
+      stateWaitTimer = new Timer(
+          "IPC Server state wait scanner for port " + port, true);
+      long period = Math.max(1, stateWaitTimeoutMs / 4);
+      stateWaitTimer.schedule(new TimerTask() {
+        @Override
+        public void run() {
+          expireWaitingCalls();
+        }
+      }, period, period);
+    }
+  }
+
+  /**
+   * Queue again every waiting call whose state id the server has reached.
+   * Must be called whenever the state id of the alignment context grows,
+   * and not while holding a lock that handlers may need, since queueing a
+   * call may block.
+   */
+  public void alignmentStateAdvanced() throws InterruptedException {
+    AlignmentContext context = alignmentContext;
+    if (context == null) {
+      return;
+    }
+    List<Call> ready = new ArrayList<Call>();
+    synchronized (waitingCalls) {
+      long stateId = context.getLastSeenStateId();
+      while (!waitingCalls.isEmpty()
+          && waitingCalls.peek().clientStateId <= stateId) {
+        ready.add(waitingCalls.poll());
+      }
+    }
+    for (Call call : ready) {
+      callQueue.put(call);
+    }
+  }
+
+  /**
+   * Set a call aside if its client has seen a state the server has not
+   * reached yet.
+   *
+   * @return true if the call was set aside
+   * @throws StandbyException if too many calls are waiting already
+   */
+  private boolean waitForState(Call call) throws StandbyException {
+    AlignmentContext context = alignmentContext;
+    if (context == null || call.clientStateId == Call.NO_STATE_ID) {
+      return false;
+    }
+    // checked again under the lock so that a concurrent
+    // alignmentStateAdvanced() cannot miss the call
+    synchronized (waitingCalls) {
+      if (call.clientStateId <= context.getLastSeenStateId()) {
+        return false;
+      }
+      if (waitingCalls.size() >= maxWaitingCalls) {
+        throw new StandbyException("Server is behind state "
+            + call.clientStateId + " of the client, and "
+            + waitingCalls.size() + " calls are waiting already");
+      }
+      call.stateWaitDeadline = Time.monotonicNow() + stateWaitTimeoutMs;
+      waitingCalls.add(call);
+    }
+    return true;
+  }
+
+  /** Fail the waiting calls whose deadline has passed. */
+  private void expireWaitingCalls() {
+    List<Call> expired = new ArrayList<Call>();
+    long now = Time.monotonicNow();
+    synchronized (waitingCalls) {
+      for (Iterator<Call> it = waitingCalls.iterator(); it.hasNext(); ) {
+        Call call = it.next();
+        if (call.stateWaitDeadline <= now) {
+          it.remove();
+          expired.add(call);
+        }
+      }
+    }
+    for (Call call : expired) {
+      failWaitingCall(call, new StandbyException("Server has not reached "
+          + "state " + call.clientStateId + " of the client within "
+          + stateWaitTimeoutMs + " ms"));
+    }
+  }
+
+  /** Send an error to a call which could not wait for its state. */
+  private void failWaitingCall(Call call, StandbyException e) {
+    if (LOG.isDebugEnabled()) {
+      LOG.debug("Failing " + call + ": " + e.getMessage());
+    }
+    call.setResult(RpcStatusProto.ERROR, RpcErrorCodeProto.ERROR_APPLICATION,
+        null, e.getClass().getName(), e.getMessage());
+    try {
+      call.sendResponse();
+    } catch (IOException ioe) {
+      LOG.warn("Failed to send the response of " + call, ioe);
+    }
+  }
+
+  @VisibleForTesting
+  int getNumWaitingCalls() {
+    synchronized (waitingCalls) {
+      return waitingCalls.size();
+    }
+  }
+
   @VisibleForTesting
   public RpcDetailedMetrics getRpcDetailedMetrics() {
     return rpcDetailedMetrics;
@@ -503,8 +655,27 @@ public synchronized void refreshCallQueue(Configuration conf) {
     callQueue.swapQueue(getQueueClass(prefix, conf), maxQueueSize, prefix, conf);
   }
 
-  /** A call queued for handling. */
+  /**
+   * A call queued for handling.
+   * <p>
+   * The response of a call is sent once every party holding the call has
+   * released it.  The handler holds the call while it runs, and releases it
+   * when it returns.  A server implementation may hold the call past the
+   * handler with {@link #postponeResponse()}, and release it with
+   * {@link #sendResponse()} from any thread, for instance once an edit is
+   * synced.  The response is set up and queued to the Responder by the last
+   * release.
+   * <p>
+   * The result of the call is what the handler returns or throws, unless
+   * the implementation calls {@link #deferResponse()}.  That postpones the
+   * response as well, and the result is then set by
+   * {@link #setDeferredResponse(Writable)} or
+   * {@link #setDeferredError(Throwable)}, which also release the call.
+   */
   public static class Call implements Schedulable {
+    /** The state id of a call whose client did not send one. */
+    public static final long NO_STATE_ID = Long.MIN_VALUE;
+
     private final int callId;             // the client's call id
     private final int retryCount;        // the retry count of the call
     private final Writable rpcRequest;    // Serialized Rpc request from client
@@ -515,6 +686,24 @@ public static class Call implements Schedulable {
     private final RPC.RpcKind rpcKind;
     private final byte[] clientId;
     private final Span traceSpan; // the tracing span on the server side
+    // the number of parties that must release the call before its response
+    // is sent; the handler always holds one, postponeResponse() adds more
+    private final AtomicInteger responseWaitCount = new AtomicInteger(1);
+    // true if the result is set by the server implementation instead of the
+    // handler, see deferResponse()
+    private volatile boolean deferredResponse = false;
+    private final AtomicBoolean deferredResponseSet = new AtomicBoolean(false);
+    private long deferredTime;            // time the response was deferred
+    // the result of the call, serialized once the call is fully released
+    private RpcStatusProto resultStatus = RpcStatusProto.SUCCESS;
+    private RpcErrorCodeProto resultErrorCode;
+    private Writable resultValue;
+    private String resultErrorClass;
+    private String resultError;
+    // the latest server state seen by the client, see AlignmentContext
+    private long clientStateId = NO_STATE_ID;
+    // when the call stops waiting for the server to reach clientStateId
+    private long stateWaitDeadline;
 
     public Call(int id, int retryCount, Writable param, 
         Connection connection) {
@@ -550,6 +739,109 @@ public void setResponse(ByteBuffer response) {
       this.rpcResponse = response;
     }
 
+    /**
+     * Set the result of the call, which is serialized and sent once the
+     * call is released by every party holding it.
+     */
+    private void setResult(RpcStatusProto status, RpcErrorCodeProto erCode,
+        Writable rv, String errorClass, String error) {
+      this.resultStatus = status;
+      this.resultErrorCode = erCode;
+      this.resultValue = rv;
+      this.resultErrorClass = errorClass;
+      this.resultError = error;
+    }
+
+    /**
+     * @return the latest server state id seen by the client, or
+     *         {@link #NO_STATE_ID} if the client did not send one.
+     */
+    public long getClientStateId() {
+      return clientStateId;
+    }
+
+    void setClientStateId(long clientStateId) {
+      this.clientStateId = clientStateId;
+    }
+
+    /**
+     * Hold this call past the handler, so that the handler thread can serve
+     * other calls meanwhile.  Every call to this method must be matched by a
+     * later call to {@link #sendResponse()}, from any thread.  The result is
+     * still the one of the handler.
+     */
+    public void postponeResponse() {
+      int count = responseWaitCount.incrementAndGet();
+      assert count > 1 : "response has already been sent";
+    }
+
+    /**
+     * Release this call.  The response is set up and queued to the
+     * Responder once the handler and every party that postponed the
+     * response have released it.
+     */
+    public void sendResponse() throws IOException {
+      int count = responseWaitCount.decrementAndGet();
+      assert count >= 0 : "response has already been sent";
+      if (count == 0) {
+        connection.sendResponse(this);
+      }
+    }
+
+    /**
+     * Postpone the response of this call, and let the server implementation
+     * set its result after the handler has returned.  Whatever the handler
+     * returns is discarded.  The call is released, and its response sent,
+     * once {@link #setDeferredResponse(Writable)} or
+     * {@link #setDeferredError(Throwable)} is called, from any thread.  If
+     * the handler throws after deferring, the exception is sent instead.
+     */
+    public void deferResponse() {
+      assert !deferredResponse : "response is already deferred";
+      deferredTime = Time.monotonicNow();
+      deferredResponse = true;
+      postponeResponse();
+      connection.getServer().rpcMetrics.incrDeferredCalls();
+    }
+
+    /** @return true if {@link #deferResponse()} was called. */
+    public boolean isDeferred() {
+      return deferredResponse;
+    }
+
+    /**
+     * Set the result of a deferred call, and release it.  Only the first
+     * completion of a call has an effect.
+     */
+    public void setDeferredResponse(Writable response) {
+      completeDeferred(response, null);
+    }
+
+    /**
+     * Set the error of a deferred call, and release it.  Only the first
+     * completion of a call has an effect.
+     */
+    public void setDeferredError(Throwable t) {
+      completeDeferred(null, t);
+    }
+
+    private void completeDeferred(Writable response, Throwable t) {
+      Preconditions.checkState(deferredResponse,
+          "response of %s was not deferred", this);
+      if (!deferredResponseSet.compareAndSet(false, true)) {
+        return;
+      }
+      Server server = connection.getServer();
+      server.rpcMetrics.addDeferredRpcProcessingTime(
+          (int) (Time.monotonicNow() - deferredTime));
+      server.setDeferredResult(this, response, t);
+      try {
+        sendResponse();
+      } catch (IOException e) {
+        LOG.warn("Failed to send the deferred response of " + this, e);
+      }
+    }
+
     // For Schedulable
     @Override
     public UserGroupInformation getUserGroupInformation() {
@@ -993,7 +1285,8 @@ private boolean processResponse(LinkedList<Call> responseQueue,
             return true;
           }
           if (!call.rpcResponse.hasRemaining()) {
-            //Clear out the response buffer so it can be collected
+            //Clear out the response buffer so it can be reused or collected
+            bufferPool.putBuffer(call.rpcResponse);
             call.rpcResponse = null;
             call.connection.decRpcCount();
             if (numElements == 1) {    // last call fully processes.
@@ -1222,6 +1515,34 @@ private boolean isIdle() {
       return rpcCount.get() == 0;
     }
     
+    /**
+     * Set up the response of a fully released call and queue it to the
+     * Responder.
+     */
+    private void sendResponse(Call call) throws IOException {
+      ByteArrayOutputStream buf = responseBuffer.get();
+      synchronized (responseQueue) {
+        // setupResponse() needs to be sync'ed together with
+        // responder.doResponse() since setupResponse may use
+        // SASL to encrypt response data and SASL enforces
+        // its own message ordering.
+        setupResponse(buf, call, call.resultStatus, call.resultErrorCode,
+            call.resultValue, call.resultErrorClass, call.resultError);
+        responder.doRespond(call);
+      }
+      // Discard the large buf and reset it back to smaller size
+      // to free up heap
+      if (buf.size() > maxRespSize) {
+        LOG.warn("Large response size " + buf.size() + " for call "
+            + call.toString());
+        responseBuffer.set(new ByteArrayOutputStream(INITIAL_RESP_BUF_SIZE));
+      }
+    }
+
+    private Server getServer() {
+      return Server.this;
+    }
+
     /* Decrement the outstanding RPC count */
     private void decRpcCount() {
       rpcCount.decrementAndGet();
@@ -1597,7 +1918,7 @@ public int readAndProcess()
           dataLength = dataLengthBuffer.getInt();
           checkDataLength(dataLength);
           // Set buffer for reading EXACTLY the RPC-packet length and no more.
-          data = ByteBuffer.allocate(dataLength);
+          data = bufferPool.getBuffer(false, dataLength);
         }
         // Now read the RPC packet
         count = channelRead(channel, data);
@@ -1606,8 +1927,13 @@ public int readAndProcess()
           dataLengthBuffer.clear(); // to read length of future rpc packets
           data.flip();
           boolean isHeaderRead = connectionContextRead;
-          processOneRpc(data.array());
-          data = null;
+          try {
+            processOneRpc(data);
+          } finally {
+            // the request has been copied out of the buffer by now
+            bufferPool.putBuffer(data);
+            data = null;
+          }
           // the last rpc-request we processed could have simply been the
           // connectionContext; if so continue to read the first RPC.
           if (!isHeaderRead) {
@@ -1821,7 +2147,7 @@ private void unwrapPacketAndProcessRpcs(byte[] inBuf)
         if (unwrappedData.remaining() == 0) {
           unwrappedDataLengthBuffer.clear();
           unwrappedData.flip();
-          processOneRpc(unwrappedData.array());
+          processOneRpc(unwrappedData);
           unwrappedData = null;
         }
       }
@@ -1846,13 +2172,14 @@ private void unwrapPacketAndProcessRpcs(byte[] inBuf)
      *         Listener thread
      * @throws InterruptedException
      */    
-    private void processOneRpc(byte[] buf)
+    private void processOneRpc(ByteBuffer buf)
         throws IOException, WrappedRpcServerException, InterruptedException {
       int callId = -1;
       int retry = RpcConstants.INVALID_RETRY_COUNT;
       try {
         final DataInputStream dis =
-            new DataInputStream(new ByteArrayInputStream(buf));
+            new DataInputStream(new ByteArrayInputStream(buf.array(),
+                buf.arrayOffset() + buf.position(), buf.remaining()));
         final RpcRequestHeaderProto header =
             decodeProtobufFromStream(RpcRequestHeaderProto.newBuilder(), dis);
         callId = header.getCallId();
@@ -1961,6 +2288,9 @@ private void processRpcRequest(RpcRequestHeaderProto header,
       Call call = new Call(header.getCallId(), header.getRetryCount(),
           rpcRequest, this, ProtoUtil.convert(header.getRpcKind()),
           header.getClientId().toByteArray(), traceSpan);
+      if (header.hasStateId()) {
+        call.setClientStateId(header.getStateId());
+      }
 
       callQueue.put(call);              // queue the call; maybe blocked here
       incRpcCount();  // Increment the rpc count
@@ -2102,8 +2432,6 @@ public Handler(int instanceNumber) {
     public void run() {
       LOG.debug(Thread.currentThread().getName() + ": starting");
       SERVER.set(Server.this);
-      ByteArrayOutputStream buf = 
-        new ByteArrayOutputStream(INITIAL_RESP_BUF_SIZE);
       while (running) {
         TraceScope traceScope = null;
         try {
@@ -2115,11 +2443,24 @@ public void run() {
             LOG.info(Thread.currentThread().getName() + ": skipped " + call);
             continue;
           }
+          try {
+            if (waitForState(call)) {
+              if (LOG.isDebugEnabled()) {
+                LOG.debug(Thread.currentThread().getName() + ": " + call
+                    + " waits for state " + call.getClientStateId());
+              }
+              continue;
+            }
+          } catch (StandbyException e) {
+            failWaitingCall(call, e);
+            continue;
+          }
           String errorClass = null;
           String error = null;
           RpcStatusProto returnStatus = RpcStatusProto.SUCCESS;
           RpcErrorCodeProto detailedErr = null;
           Writable value = null;
+          Throwable thrown = null;
 
           CurCall.set(call);
           if (call.traceSpan != null) {
@@ -2150,6 +2491,7 @@ public Writable run() throws Exception {
             if (e instanceof UndeclaredThrowableException) {
               e = e.getCause();
             }
+            thrown = e;
             String logMsg = Thread.currentThread().getName() + ", call " + call;
             if (exceptionsHandler.isTerse(e.getClass())) {
               // Don't log the whole stack trace. Way too noisy!
@@ -2179,23 +2521,16 @@ public Writable run() throws Exception {
             }
           }
           CurCall.set(null);
-          synchronized (call.connection.responseQueue) {
-            // setupResponse() needs to be sync'ed together with 
-            // responder.doResponse() since setupResponse may use
-            // SASL to encrypt response data and SASL enforces
-            // its own message ordering.
-            setupResponse(buf, call, returnStatus, detailedErr, 
-                value, errorClass, error);
-            
-            // Discard the large buf and reset it back to smaller size 
-            // to free up heap
-            if (buf.size() > maxRespSize) {
-              LOG.warn("Large response size " + buf.size() + " for call "
-                  + call.toString());
-              buf = new ByteArrayOutputStream(INITIAL_RESP_BUF_SIZE);
+          if (call.isDeferred()) {
+            // the server implementation completes the call later
+            if (thrown != null) {
+              call.setDeferredError(thrown);
             }
-            responder.doRespond(call);
+            call.sendResponse();
+            continue;
           }
+          call.setResult(returnStatus, detailedErr, value, errorClass, error);
+          call.sendResponse();
         } catch (InterruptedException e) {
           if (running) {                          // unexpected -- log it
             LOG.info(Thread.currentThread().getName() + " unexpectedly interrupted", e);
@@ -2309,6 +2644,19 @@ protected Server(String bindAddress, int port,
     this.port = listener.getAddress().getPort();    
     connectionManager = new ConnectionManager();
     this.rpcMetrics = RpcMetrics.create(this, conf);
+    this.bufferPool = new RpcBufferPool(conf.getLong(
+        CommonConfigurationKeys.IPC_SERVER_BUFFER_POOL_MAX_BYTES_KEY,
+        CommonConfigurationKeys.IPC_SERVER_BUFFER_POOL_MAX_BYTES_DEFAULT),
+        maxRespSize, rpcMetrics);
+    this.directResponseBuffers = conf.getBoolean(
+        CommonConfigurationKeys.IPC_SERVER_BUFFER_POOL_DIRECT_KEY,
+        CommonConfigurationKeys.IPC_SERVER_BUFFER_POOL_DIRECT_DEFAULT);
+    this.stateWaitTimeoutMs = conf.getLong(
+        CommonConfigurationKeys.IPC_SERVER_STATE_WAIT_TIMEOUT_MS_KEY,
+        CommonConfigurationKeys.IPC_SERVER_STATE_WAIT_TIMEOUT_MS_DEFAULT);
+    this.maxWaitingCalls = conf.getInt(
+        CommonConfigurationKeys.IPC_SERVER_STATE_WAIT_MAX_CALLS_KEY,
+        CommonConfigurationKeys.IPC_SERVER_STATE_WAIT_MAX_CALLS_DEFAULT);
     this.rpcDetailedMetrics = RpcDetailedMetrics.create(this.port);
     this.tcpNoDelay = conf.getBoolean(
         CommonConfigurationKeysPublic.IPC_SERVER_TCPNODELAY_KEY,
@@ -2402,6 +2750,9 @@ private void setupResponse(ByteArrayOutputStream responseBuf,
     headerBuilder.setRetryCount(call.retryCount);
     headerBuilder.setStatus(status);
     headerBuilder.setServerIpcVersionNum(CURRENT_VERSION);
+    if (alignmentContext != null) {
+      alignmentContext.updateResponseState(headerBuilder);
+    }
 
     if (status == RpcStatusProto.SUCCESS) {
       RpcResponseHeaderProto header = headerBuilder.build();
@@ -2450,9 +2801,66 @@ private void setupResponse(ByteArrayOutputStream responseBuf,
     if (call.connection.useWrap) {
       wrapWithSasl(responseBuf, call);
     }
-    call.setResponse(ByteBuffer.wrap(responseBuf.toByteArray()));
+    call.setResponse(toResponseBuffer(responseBuf));
+  }
+
+  /**
+   * Copy a serialized response into a buffer from the pool.  The Responder
+   * returns the buffer to the pool once the response has been sent.
+   */
+  private ByteBuffer toResponseBuffer(ByteArrayOutputStream responseBuf)
+      throws IOException {
+    if (!bufferPool.isEnabled()) {
+      return ByteBuffer.wrap(responseBuf.toByteArray());
+    }
+    final ByteBuffer response =
+        bufferPool.getBuffer(directResponseBuffers, responseBuf.size());
+    responseBuf.writeTo(new OutputStream() {
+      @Override
+      public void write(int b) {
+        response.put((byte) b);
+      }
+
+      @Override
+      public void write(byte[] b, int off, int len) {
+        response.put(b, off, len);
+      }
+    });
+    response.flip();
+    return response;
   }
   
+  /**
+   * Set the result of a deferred call, from the thread completing it.
+   *
+   * @param call the deferred call
+   * @param rv return value for the call, if t is null
+   * @param t the error to return, or null if the call was successful
+   */
+  private void setDeferredResult(Call call, Writable rv, Throwable t) {
+    RpcStatusProto status = RpcStatusProto.SUCCESS;
+    RpcErrorCodeProto detailedErr = null;
+    String errorClass = null;
+    String error = null;
+    if (t != null) {
+      if (t instanceof RpcServerException) {
+        RpcServerException rse = (RpcServerException) t;
+        status = rse.getRpcStatusProto();
+        detailedErr = rse.getRpcErrorCodeProto();
+      } else {
+        status = RpcStatusProto.ERROR;
+        detailedErr = RpcErrorCodeProto.ERROR_APPLICATION;
+      }
+      errorClass = t.getClass().getName();
+      error = StringUtils.stringifyException(t);
+      String exceptionHdr = errorClass + ": ";
+      if (error.startsWith(exceptionHdr)) {
+        error = error.substring(exceptionHdr.length());
+      }
+    }
+    call.setResult(status, detailedErr, rv, errorClass, error);
+  }
+
   /**
    * Setup response for the IPC Call on Fatal Error from a 
    * client that is using old version of Hadoop.
@@ -2481,7 +2889,7 @@ private void setupResponseOldVersionFatal(ByteArrayOutputStream response,
     if (call.connection.useWrap) {
       wrapWithSasl(response, call);
     }
-    call.setResponse(ByteBuffer.wrap(response.toByteArray()));
+    call.setResponse(toResponseBuffer(response));
   }
   
   
@@ -2549,6 +2957,9 @@ public synchronized void stop() {
     listener.interrupt();
     listener.doStop();
     responder.interrupt();
+    if (stateWaitTimer != null) {
+      stateWaitTimer.cancel();
+    }
     notifyAll();
     this.rpcMetrics.shutdown();
     this.rpcDetailedMetrics.shutdown();
@@ -95,6 +95,16 @@ public static RpcMetrics create(Server server, Configuration conf) {
   MutableCounterLong rpcAuthorizationFailures;
   @Metric("Number of authorization sucesses")
   MutableCounterLong rpcAuthorizationSuccesses;
+  @Metric("Number of calls whose response was deferred")
+  MutableCounterLong rpcDeferredCalls;
+  @Metric("Time from deferring a response until it is set")
+  MutableRate deferredRpcProcessingTime;
+  @Metric("Number of RPC buffers reused from the buffer pool")
+  MutableCounterLong rpcBufferPoolHits;
+  @Metric("Number of RPC buffers allocated because none was pooled")
+  MutableCounterLong rpcBufferPoolMisses;
+  @Metric("Number of bytes allocated for RPC buffers")
+  MutableCounterLong rpcBufferBytesAllocated;
 
   @Metric("Number of open connections") public int numOpenConnections() {
     return server.getNumOpenConnections();
@@ -141,6 +151,41 @@ public void incrAuthorizationFailures() {
     rpcAuthorizationFailures.incr();
   }
 
+  /**
+   * One call deferred its response
+   */
+  //@Override
+  public void incrDeferredCalls() {
+    rpcDeferredCalls.incr();
+  }
+
+  /**
+   * Add a deferred RPC processing time sample
+   * @param processingTime time from deferring the response until it is set
+   */
+  //@Override
+  public void addDeferredRpcProcessingTime(int processingTime) {
+    deferredRpcProcessingTime.add(processingTime);
+  }
+
+  /**
+   * One RPC buffer was reused from the buffer pool
+   */
+  //@Override
+  public void incrBufferPoolHits() {
+    rpcBufferPoolHits.incr();
+  }
+
+  /**
+   * One RPC buffer had to be allocated
+   * @param bytes size of the allocated buffer
+   */
+  //@Override
+  public void incrBufferPoolMisses(int bytes) {
+    rpcBufferPoolMisses.incr();
+    rpcBufferBytesAllocated.incr(bytes);
+  }
+
   /**
    * Shutdown the instrumentation for the process
    */
@@ -28,6 +28,7 @@
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.TreeMap;
+import java.util.TreeSet;
 import java.util.Map;
 import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.ReentrantLock;
@@ -91,7 +92,9 @@ public interface Handler {
      * readable, or the remote end being closed.
      *
      * @param sock    The socket that the event occurred on.
-     * @return        Whether we should close the socket.
+     * @return        Whether we should close the socket.  The socket is
+     *                not closed if the handler detached it, see
+     *                {@link DomainSocketWatcher#detach(DomainSocket)}.
      */
     boolean handle(DomainSocket sock);
   }
@@ -214,6 +217,11 @@ private static class FdSet {
   private final TreeMap<Integer, DomainSocket> toRemove =
       new TreeMap<Integer, DomainSocket>();
 
+  /**
+   * Entries to stop watching without closing their sockets.
+   */
+  private final TreeSet<Integer> toDetach = new TreeSet<Integer>();
+
   /**
    * Maximum length of time to go between checking whether the interrupted
    * bit has been set for this thread.
@@ -361,6 +369,20 @@ public void remove(DomainSocket sock) {
     }
   }
 
+  /**
+   * Stop watching a socket without closing it.  This may only be called by
+   * the handler of the socket: once the handler returns false, the socket
+   * is no longer watched, and it is left open for the caller to use or to
+   * close.
+   *
+   * @param sock     The socket to detach.
+   */
+  public void detach(DomainSocket sock) {
+    Preconditions.checkState(lock.isHeldByCurrentThread(),
+        "detach may only be called from the handler of the socket");
+    toDetach.add(sock.fd);
+  }
+
   /**
    * Wake up the DomainSocketWatcher thread.
    */
@@ -389,7 +411,8 @@ private void kick() {
    * @param entries mapping of file descriptor to entry
    * @param fdSet set of file descriptors
    * @param fd file descriptor
-   * @return true if the domain socket was closed as a result of processing
+   * @return true if the domain socket was closed or detached as a result of
+   *         processing
    */
   private boolean sendCallback(String caller, TreeMap<Integer, Entry> entries,
       FdSet fdSet, int fd) {
@@ -401,7 +424,24 @@ private boolean sendCallback(String caller, TreeMap<Integer, Entry> entries,
         this + ": fdSet contained " + fd + ", which we were " +
         "not tracking.");
     DomainSocket sock = entry.getDomainSocket();
-    if (entry.getHandler().handle(sock)) {
+    boolean close = entry.getHandler().handle(sock);
+    if (toDetach.remove(fd) && !close) {
+      if (LOG.isTraceEnabled()) {
+        LOG.trace(this + ": " + caller + ": detaching fd " + fd +
+            " at the request of the handler.");
+      }
+      toRemove.remove(fd);
+      try {
+        sock.refCount.unreferenceCheckClosed();
+      } catch (IOException e) {
+        Preconditions.checkArgument(false,
+            this + ": file descriptor " + sock.fd + " was closed while " +
+            "still in the poll(2) loop.");
+      }
+      fdSet.remove(fd);
+      return true;
+    }
+    if (close) {
       if (LOG.isTraceEnabled()) {
         LOG.trace(this + ": " + caller + ": closing fd " + fd +
             " at the request of the handler.");
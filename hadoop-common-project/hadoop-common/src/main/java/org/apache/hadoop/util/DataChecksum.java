@@ -21,6 +21,10 @@
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
 import java.nio.ByteBuffer;
 import java.util.zip.CRC32;
 import java.util.zip.Checksum;
@@ -29,6 +33,8 @@
 import org.apache.hadoop.classification.InterfaceStability;
 import org.apache.hadoop.fs.ChecksumException;
 
+import com.google.common.base.Throwables;
+
 /**
  * This class provides interface and utilities for processing checksums for
  * DFS data transfers.
@@ -70,6 +76,30 @@ public static Type valueOf(int id) {
     }
   }
 
+  /** The JDK implementation of CRC32C, intrinsified since Java 9 */
+  private static final Constructor<? extends Checksum> JDK_CRC32C;
+  /** Checksum.update(ByteBuffer), since Java 9 */
+  private static final MethodHandle UPDATE_BYTE_BUFFER;
+  static {
+    Constructor<? extends Checksum> crc32c = null;
+    try {
+      crc32c = Class.forName("java.util.zip.CRC32C")
+          .asSubclass(Checksum.class).getConstructor();
+    } catch (ClassNotFoundException | NoSuchMethodException e) {
+      // before Java 9
+    }
+    JDK_CRC32C = crc32c;
+
+    MethodHandle update = null;
+    try {
+      update = MethodHandles.publicLookup().findVirtual(Checksum.class,
+          "update", MethodType.methodType(void.class, ByteBuffer.class));
+    } catch (NoSuchMethodException | IllegalAccessException e) {
+      // before Java 9
+    }
+    UPDATE_BYTE_BUFFER = update;
+  }
+
   /**
    * Create a Crc32 Checksum object. The implementation of the Crc32 algorithm
    * is chosen depending on the platform.
@@ -78,6 +108,22 @@ public static Checksum newCrc32() {
     return Shell.isJava7OrAbove()? new CRC32(): new PureJavaCrc32();
   }
 
+  /**
+   * Create a Crc32C Checksum object. The JDK implementation is used when
+   * available, since the JVM compiles it to the CRC32 instructions of the
+   * processor; otherwise {@link PureJavaCrc32C}.
+   */
+  public static Checksum newCrc32C() {
+    if (JDK_CRC32C != null) {
+      try {
+        return JDK_CRC32C.newInstance();
+      } catch (ReflectiveOperationException e) {
+        // fall back to the pure java implementation
+      }
+    }
+    return new PureJavaCrc32C();
+  }
+
   public static DataChecksum newDataChecksum(Type type, int bytesPerChecksum ) {
     if ( bytesPerChecksum <= 0 ) {
       return null;
@@ -89,7 +135,7 @@ public static DataChecksum newDataChecksum(Type type, int bytesPerChecksum ) {
     case CRC32 :
       return new DataChecksum(type, newCrc32(), bytesPerChecksum );
     case CRC32C:
-      return new DataChecksum(type, new PureJavaCrc32C(), bytesPerChecksum);
+      return new DataChecksum(type, newCrc32C(), bytesPerChecksum);
     default:
       return null;  
     }
@@ -219,11 +265,15 @@ public boolean compare( byte buf[], int offset ) {
   private final Checksum summer;
   private final int bytesPerChecksum;
   private int inSum = 0;
+  /** Whether the summer reads direct buffers without copying them */
+  private final boolean summerReadsBuffers;
   
   private DataChecksum( Type type, Checksum checksum, int chunkSize ) {
     this.type = type;
     summer = checksum;
     bytesPerChecksum = chunkSize;
+    summerReadsBuffers = UPDATE_BYTE_BUFFER != null
+        && checksum.getClass().getName().startsWith("java.util.zip.");
   }
   
   /** @return the checksum algorithm type. */
@@ -312,9 +362,8 @@ public void verifyChunkedSums(ByteBuffer data, ByteBuffer checksums,
       while (data.remaining() > 0) {
         int n = Math.min(data.remaining(), bytesPerChecksum);
         checksums.get(sum);
-        data.get(buf, 0, n);
         summer.reset();
-        summer.update(buf, 0, n);
+        updateChunk(data, buf, n);
         int calculated = (int)summer.getValue();
         int stored = (sum[0] << 24 & 0xff000000) |
           (sum[1] << 16 & 0xff0000) |
@@ -406,9 +455,8 @@ public void calculateChunkedSums(ByteBuffer data, ByteBuffer checksums) {
       byte[] buf = new byte[bytesPerChecksum];
       while (data.remaining() > 0) {
         int n = Math.min(data.remaining(), bytesPerChecksum);
-        data.get(buf, 0, n);
         summer.reset();
-        summer.update(buf, 0, n);
+        updateChunk(data, buf, n);
         checksums.putInt((int)summer.getValue());
       }
     } finally {
@@ -417,6 +465,28 @@ public void calculateChunkedSums(ByteBuffer data, ByteBuffer checksums) {
     }
   }
 
+  /**
+   * Update the summer with the next n bytes of data, read in place if the
+   * summer can, else copied to buf.
+   */
+  private void updateChunk(ByteBuffer data, byte[] buf, int n) {
+    if (!summerReadsBuffers) {
+      data.get(buf, 0, n);
+      summer.update(buf, 0, n);
+      return;
+    }
+    final int limit = data.limit();
+    data.limit(data.position() + n);
+    try {
+      UPDATE_BYTE_BUFFER.invokeExact(summer, data);
+    } catch (Throwable t) {
+      Throwables.propagateIfPossible(t);
+      throw new IllegalStateException(t);
+    } finally {
+      data.limit(limit);
+    }
+  }
+
   /**
    * Implementation of chunked calculation specifically on byte arrays. This
    * is to avoid the copy when dealing with ByteBuffers that have array backing.
@@ -0,0 +1,106 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.fs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.EOFException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+
+import org.apache.hadoop.fs.VectoredReadUtils.CombinedRange;
+import org.junit.Test;
+
+/**
+ * Test the sorting and merging of the ranges of the vectored reads.
+ */
+public class TestVectoredReadUtils {
+
+  @Test
+  public void testSortRanges() {
+    List<FileRange> sorted = VectoredReadUtils.sortRanges(Arrays.asList(
+        new FileRange(300, 10), new FileRange(0, 100),
+        new FileRange(100, 10)));
+    assertEquals(0, sorted.get(0).getOffset());
+    assertEquals(100, sorted.get(1).getOffset());
+    assertEquals(300, sorted.get(2).getOffset());
+
+    try {
+      VectoredReadUtils.sortRanges(Arrays.asList(
+          new FileRange(50, 100), new FileRange(0, 100)));
+      fail("Expected an IllegalArgumentException for overlapping ranges");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+  }
+
+  @Test
+  public void testMergeRanges() {
+    List<FileRange> ranges = Arrays.asList(new FileRange(0, 100),
+        new FileRange(150, 100), new FileRange(1000, 10),
+        new FileRange(1010, 100), new FileRange(1200, 100));
+    // the gap of 100 bytes is too large, and 1000 to 1300 too long
+    List<CombinedRange> merged =
+        VectoredReadUtils.mergeSortedRanges(ranges, 50, 250);
+    assertEquals(3, merged.size());
+    assertEquals(0, merged.get(0).getOffset());
+    assertEquals(250, merged.get(0).getLength());
+    assertEquals(2, merged.get(0).getRanges().size());
+    assertEquals(1000, merged.get(1).getOffset());
+    assertEquals(110, merged.get(1).getLength());
+    assertEquals(1200, merged.get(2).getOffset());
+    assertEquals(1, merged.get(2).getRanges().size());
+
+    // everything is read at once
+    merged = VectoredReadUtils.mergeSortedRanges(ranges, 1000, 2000);
+    assertEquals(1, merged.size());
+    assertEquals(1300, merged.get(0).getLength());
+  }
+
+  @Test
+  public void testComplete() throws Exception {
+    List<FileRange> ranges = Arrays.asList(new FileRange(10, 2),
+        new FileRange(14, 2), new FileRange(18, 4));
+    CombinedRange range =
+        VectoredReadUtils.mergeSortedRanges(ranges, 10, 100).get(0);
+    byte[] data = new byte[range.getLength()];
+    for (int i = 0; i < data.length; i++) {
+      data[i] = (byte) (range.getOffset() + i);
+    }
+    // the end of the file is reached in the last range
+    range.complete(data, 10);
+
+    for (FileRange r : ranges.subList(0, 2)) {
+      ByteBuffer buf = r.getData().get();
+      assertEquals(0, buf.position());
+      assertEquals(2, buf.remaining());
+      assertEquals(r.getOffset(), buf.get());
+      assertEquals(r.getOffset() + 1, buf.get());
+    }
+    try {
+      ranges.get(2).getData().get();
+      fail("Expected an EOFException");
+    } catch (ExecutionException e) {
+      assertTrue(e.getCause() instanceof EOFException);
+    }
+  }
+}
@@ -0,0 +1,159 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.io.erasurecode;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.erasurecode.rawcoder.RawErasureDecoder;
+import org.apache.hadoop.io.erasurecode.rawcoder.RawErasureEncoder;
+import org.apache.hadoop.util.Time;
+
+/**
+ * Benchmark of the configured Reed-Solomon raw coders.  It reports the
+ * encoding and decoding throughputs, against copying the data to the
+ * replicas of 3x replication, and the storage cost of both layouts.
+ * <p>
+ * Usage: RawErasureCoderBenchmark [numDataUnits numParityUnits chunkKB
+ * dataMB]
+ */
+public class RawErasureCoderBenchmark {
+  private static final int REPLICATION = 3;
+
+  private final int numDataUnits;
+  private final int numParityUnits;
+  private final int chunkSize;
+  private final long dataSize;
+  private final Configuration conf = new Configuration();
+
+  RawErasureCoderBenchmark(int numDataUnits, int numParityUnits,
+      int chunkSize, long dataSize) {
+    this.numDataUnits = numDataUnits;
+    this.numParityUnits = numParityUnits;
+    this.chunkSize = chunkSize;
+    this.dataSize = dataSize;
+  }
+
+  private static ByteBuffer[] allocate(int n, int size) {
+    ByteBuffer[] buffers = new ByteBuffer[n];
+    for (int i = 0; i < n; i++) {
+      buffers[i] = ByteBuffer.allocate(size);
+    }
+    return buffers;
+  }
+
+  private long getNumStripes() {
+    return Math.max(1, dataSize / ((long) chunkSize * numDataUnits));
+  }
+
+  private static double mbPerSec(long bytes, long ms) {
+    return bytes / 1024.0 / 1024.0 / Math.max(ms, 1) * 1000;
+  }
+
+  /** @return the MB/s of data encoded */
+  double benchmarkEncode() {
+    RawErasureEncoder encoder =
+        CodecUtil.createRSRawEncoder(conf, numDataUnits, numParityUnits);
+    ByteBuffer[] data = allocate(numDataUnits, chunkSize);
+    ByteBuffer[] parity = allocate(numParityUnits, chunkSize);
+    Random random = new Random();
+    for (ByteBuffer b : data) {
+      random.nextBytes(b.array());
+    }
+    final long stripes = getNumStripes();
+    long start = Time.monotonicNow();
+    for (long i = 0; i < stripes; i++) {
+      encoder.encode(data, parity);
+    }
+    return mbPerSec(stripes * chunkSize * numDataUnits,
+        Time.monotonicNow() - start);
+  }
+
+  /** @return the MB/s of data read, with numParityUnits data units lost */
+  double benchmarkDecode() {
+    RawErasureEncoder encoder =
+        CodecUtil.createRSRawEncoder(conf, numDataUnits, numParityUnits);
+    RawErasureDecoder decoder =
+        CodecUtil.createRSRawDecoder(conf, numDataUnits, numParityUnits);
+    ByteBuffer[] units = allocate(numDataUnits + numParityUnits, chunkSize);
+    ByteBuffer[] data = new ByteBuffer[numDataUnits];
+    ByteBuffer[] parity = new ByteBuffer[numParityUnits];
+    System.arraycopy(units, 0, data, 0, numDataUnits);
+    System.arraycopy(units, numDataUnits, parity, 0, numParityUnits);
+    Random random = new Random();
+    for (ByteBuffer b : data) {
+      random.nextBytes(b.array());
+    }
+    encoder.encode(data, parity);
+
+    final int numErased = Math.min(numParityUnits, numDataUnits);
+    int[] erasedIndexes = new int[numErased];
+    for (int i = 0; i < numErased; i++) {
+      erasedIndexes[i] = i;
+      units[i] = null;
+    }
+    ByteBuffer[] outputs = allocate(numErased, chunkSize);
+    final long stripes = getNumStripes();
+    long start = Time.monotonicNow();
+    for (long i = 0; i < stripes; i++) {
+      decoder.decode(units, erasedIndexes, outputs);
+    }
+    return mbPerSec(stripes * chunkSize * numDataUnits,
+        Time.monotonicNow() - start);
+  }
+
+  /** @return the MB/s of data copied to the buffers of 3 replicas */
+  double benchmarkReplication() {
+    byte[] data = new byte[chunkSize * numDataUnits];
+    new Random().nextBytes(data);
+    byte[][] replicas = new byte[REPLICATION][data.length];
+    final long stripes = getNumStripes();
+    long start = Time.monotonicNow();
+    for (long i = 0; i < stripes; i++) {
+      for (byte[] r : replicas) {
+        System.arraycopy(data, 0, r, 0, data.length);
+      }
+    }
+    return mbPerSec(stripes * data.length, Time.monotonicNow() - start);
+  }
+
+  public static void main(String[] args) {
+    int k = args.length > 0 ? Integer.parseInt(args[0]) : 6;
+    int m = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+    int chunkKB = args.length > 2 ? Integer.parseInt(args[2]) : 64;
+    long dataMB = args.length > 3 ? Long.parseLong(args[3]) : 1024;
+    RawErasureCoderBenchmark bench = new RawErasureCoderBenchmark(k, m,
+        chunkKB * 1024, dataMB * 1024 * 1024);
+    // warm up the JIT
+    new RawErasureCoderBenchmark(k, m, chunkKB * 1024, 64L * 1024 * 1024)
+        .benchmarkEncode();
+
+    System.out.println(String.format("RS(%d,%d), %dKB chunks, %dMB of data",
+        k, m, chunkKB, dataMB));
+    System.out.println(String.format("Encode:      %10.1f MB/s",
+        bench.benchmarkEncode()));
+    System.out.println(String.format("Decode:      %10.1f MB/s (%d lost)",
+        bench.benchmarkDecode(), Math.min(k, m)));
+    System.out.println(String.format("Replication: %10.1f MB/s (%d copies)",
+        bench.benchmarkReplication(), REPLICATION));
+    System.out.println(String.format(
+        "Storage cost: %.2fx with RS(%d,%d), %dx with replication",
+        (double) (k + m) / k, k, m, REPLICATION));
+  }
+}
@@ -0,0 +1,147 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.io.erasurecode;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import org.apache.hadoop.HadoopIllegalArgumentException;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.erasurecode.rawcoder.RawErasureDecoder;
+import org.apache.hadoop.io.erasurecode.rawcoder.RawErasureEncoder;
+import org.apache.hadoop.io.erasurecode.rawcoder.util.GF256;
+import org.junit.Test;
+
+/**
+ * Test the Reed-Solomon raw coders.
+ */
+public class TestRSRawCoder {
+  private static final int CHUNK_SIZE = 1000;
+  private final Random random = new Random();
+
+  private static byte[][] newUnits(int n, int len) {
+    return new byte[n][len];
+  }
+
+  private byte[][] encode(RawErasureEncoder encoder) {
+    final int k = encoder.getNumDataUnits();
+    byte[][] units = newUnits(k + encoder.getNumParityUnits(), CHUNK_SIZE);
+    for (int i = 0; i < k; i++) {
+      random.nextBytes(units[i]);
+    }
+    byte[][] data = new byte[k][];
+    System.arraycopy(units, 0, data, 0, k);
+    byte[][] parity = new byte[encoder.getNumParityUnits()][];
+    System.arraycopy(units, k, parity, 0, parity.length);
+    encoder.encode(data, parity);
+    return units;
+  }
+
+  private void checkDecode(RawErasureDecoder decoder, byte[][] units,
+      int... erasedIndexes) {
+    byte[][] inputs = units.clone();
+    for (int e : erasedIndexes) {
+      inputs[e] = null;
+    }
+    byte[][] outputs = newUnits(erasedIndexes.length, CHUNK_SIZE);
+    decoder.decode(inputs, erasedIndexes, outputs);
+    for (int i = 0; i < erasedIndexes.length; i++) {
+      assertArrayEquals("unit " + erasedIndexes[i],
+          units[erasedIndexes[i]], outputs[i]);
+    }
+  }
+
+  @Test
+  public void testGF256() {
+    for (int a = 1; a < 256; a++) {
+      assertEquals(1, GF256.mul(a, GF256.inv(a)));
+      assertEquals(a, GF256.mul(a, 1));
+      assertEquals(0, GF256.mul(a, 0));
+    }
+    assertEquals(0x1d, GF256.mul(0x80, 2));
+  }
+
+  @Test
+  public void testCoding() {
+    Configuration conf = new Configuration();
+    RawErasureEncoder encoder = CodecUtil.createRSRawEncoder(conf, 6, 3);
+    RawErasureDecoder decoder = CodecUtil.createRSRawDecoder(conf, 6, 3);
+    byte[][] units = encode(encoder);
+    checkDecode(decoder, units, 0);
+    checkDecode(decoder, units, 5);
+    checkDecode(decoder, units, 7);
+    checkDecode(decoder, units, 0, 3);
+    checkDecode(decoder, units, 2, 6, 8);
+    checkDecode(decoder, units, 6, 7, 8);
+    checkDecode(decoder, units, 0, 1, 2);
+    // the decoding matrix of the last erasures is reused
+    checkDecode(decoder, units, 0, 1, 2);
+    units = encode(encoder);
+    checkDecode(decoder, units, 0, 1, 2);
+    checkDecode(decoder, units, 4, 5, 8);
+  }
+
+  @Test
+  public void testDirectBuffers() {
+    Configuration conf = new Configuration();
+    RawErasureEncoder encoder = CodecUtil.createRSRawEncoder(conf, 3, 2);
+    RawErasureDecoder decoder = CodecUtil.createRSRawDecoder(conf, 3, 2);
+    byte[][] units = encode(encoder);
+
+    ByteBuffer[] data = new ByteBuffer[3];
+    for (int i = 0; i < data.length; i++) {
+      data[i] = ByteBuffer.allocateDirect(CHUNK_SIZE + 10);
+      data[i].position(10);
+      data[i].duplicate().put(units[i]);
+    }
+    ByteBuffer[] parity = new ByteBuffer[2];
+    for (int i = 0; i < parity.length; i++) {
+      parity[i] = ByteBuffer.allocateDirect(CHUNK_SIZE);
+    }
+    encoder.encode(data, parity);
+    for (int i = 0; i < parity.length; i++) {
+      assertEquals(0, parity[i].position());
+      assertEquals(ByteBuffer.wrap(units[3 + i]), parity[i]);
+    }
+
+    ByteBuffer[] inputs = {null, data[1], null, parity[0], parity[1]};
+    ByteBuffer[] outputs = {ByteBuffer.allocateDirect(CHUNK_SIZE),
+        ByteBuffer.allocate(CHUNK_SIZE)};
+    decoder.decode(inputs, new int[] {0, 2}, outputs);
+    assertEquals(ByteBuffer.wrap(units[0]), outputs[0]);
+    assertEquals(ByteBuffer.wrap(units[2]), outputs[1]);
+  }
+
+  @Test
+  public void testTooManyErasures() {
+    RawErasureDecoder decoder =
+        CodecUtil.createRSRawDecoder(new Configuration(), 6, 3);
+    byte[][] units = encode(
+        CodecUtil.createRSRawEncoder(new Configuration(), 6, 3));
+    try {
+      checkDecode(decoder, units, 0, 1, 2, 3);
+      fail("Decoded with 4 erasures out of 3 parity units");
+    } catch (HadoopIllegalArgumentException e) {
+      // expected
+    }
+  }
+}
@@ -22,6 +22,10 @@
 import java.lang.management.ThreadMXBean;
 import java.net.InetSocketAddress;
 import java.security.PrivilegedExceptionAction;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.commons.cli.CommandLine;
@@ -49,6 +53,8 @@
 
 import com.google.common.base.Joiner;
 import com.google.protobuf.BlockingService;
+import com.google.protobuf.RpcController;
+import com.google.protobuf.ServiceException;
 
 /**
  * Benchmark for protobuf RPC.
@@ -69,6 +75,8 @@ private static class MyOptions {
     private int port = 0;
     public int secondsToRun = 15;
     private int msgSize = 1024;
+    private int serverDelayMs = 0;
+    private boolean deferred = false;
     public Class<? extends RpcEngine> rpcEngine =
       WritableRpcEngine.class;
     
@@ -90,6 +98,11 @@ private void validateOptions() throws ParseException {
       if (serverThreads <= 0 && clientThreads <= 0) {
         throw new ParseException("Must specify at least -c or -s");
       }
+      if ((serverDelayMs > 0 || deferred) &&
+          rpcEngine != ProtobufRpcEngine.class) {
+        throw new ParseException(
+            "-d and -D are only supported with the protobuf engine");
+      }
     }
 
     @SuppressWarnings("static-access")
@@ -141,6 +154,19 @@ private Options buildOptions() {
           .withDescription("engine to use")
           .create('e'));
       
+      opts.addOption(
+          OptionBuilder.withLongOpt("serverDelay").hasArg(true)
+          .withArgName("millis")
+          .withDescription("time each call waits on the server before it is"
+              + " answered, e.g. to simulate an edit log sync")
+          .create('d'));
+
+      opts.addOption(
+          OptionBuilder.withLongOpt("deferred").hasArg(false)
+          .withDescription("wait for the server delay with a deferred"
+              + " response instead of holding the handler thread")
+          .create('D'));
+
       opts.addOption(
           OptionBuilder.withLongOpt("help").hasArg(false)
           .withDescription("show this screen")
@@ -182,6 +208,10 @@ private void processOptions(CommandLine line, Options opts)
       if (line.hasOption('h')) {
         host = line.getOptionValue('h');
       }
+      if (line.hasOption('d')) {
+        serverDelayMs = Integer.parseInt(line.getOptionValue('d'));
+      }
+      deferred = line.hasOption('D');
       if (line.hasOption('e')) {
         String eng = line.getOptionValue('e');
         if ("protobuf".equals(eng)) {
@@ -215,10 +245,75 @@ public String toString() {
       return "rpcEngine=" + rpcEngine + "\nserverThreads=" + serverThreads
           + "\nserverReaderThreads=" + serverReaderThreads + "\nclientThreads="
           + clientThreads + "\nhost=" + host + "\nport=" + getPort()
-          + "\nsecondsToRun=" + secondsToRun + "\nmsgSize=" + msgSize;
+          + "\nsecondsToRun=" + secondsToRun + "\nmsgSize=" + msgSize
+          + "\nserverDelayMs=" + serverDelayMs + "\ndeferred=" + deferred;
+    }
+  }
+
+  /**
+   * Echo implementation whose calls wait on the server, either on the
+   * handler thread or after deferring the response.  It tracks how long the
+   * handlers are busy and how many calls are in flight at once.
+   */
+  private static class DelayingPBServerImpl extends PBServerImpl {
+    private final int delayMs;
+    private final boolean deferred;
+    private final ScheduledExecutorService timer =
+        Executors.newSingleThreadScheduledExecutor();
+    private final AtomicInteger inFlight = new AtomicInteger(0);
+    private final AtomicInteger maxInFlight = new AtomicInteger(0);
+    private final AtomicLong handlerBusyNanos = new AtomicLong(0);
+
+    DelayingPBServerImpl(int delayMs, boolean deferred) {
+      this.delayMs = delayMs;
+      this.deferred = deferred;
+    }
+
+    @Override
+    public EchoResponseProto echo(RpcController unused,
+        EchoRequestProto request) throws ServiceException {
+      long start = System.nanoTime();
+      int n = inFlight.incrementAndGet();
+      int max;
+      while (n > (max = maxInFlight.get()) &&
+          !maxInFlight.compareAndSet(max, n)) {
+      }
+      final EchoResponseProto response = EchoResponseProto.newBuilder()
+          .setMessage(request.getMessage()).build();
+      try {
+        if (deferred) {
+          final ProtobufRpcEngineCallback callback =
+              ProtobufRpcEngine.Server.registerForDeferredResponse();
+          timer.schedule(new Runnable() {
+            @Override
+            public void run() {
+              inFlight.decrementAndGet();
+              callback.setResponse(response);
+            }
+          }, delayMs, TimeUnit.MILLISECONDS);
+          return null;
+        }
+        if (delayMs > 0) {
+          try {
+            Thread.sleep(delayMs);
+          } catch (InterruptedException e) {
+            throw new ServiceException(e);
+          }
+        }
+        inFlight.decrementAndGet();
+        return response;
+      } finally {
+        handlerBusyNanos.addAndGet(System.nanoTime() - start);
+      }
+    }
+
+    void shutdown() {
+      timer.shutdownNow();
     }
   }
 
+  private DelayingPBServerImpl delayingImpl;
+
 
   
   private Server startServer(MyOptions opts) throws IOException {
@@ -232,7 +327,14 @@ private Server startServer(MyOptions opts) throws IOException {
     // Get RPC server for server side implementation
     if (opts.rpcEngine == ProtobufRpcEngine.class) {
       // Create server side implementation
-      PBServerImpl serverImpl = new PBServerImpl();
+      PBServerImpl serverImpl;
+      if (opts.serverDelayMs > 0 || opts.deferred) {
+        delayingImpl = new DelayingPBServerImpl(opts.serverDelayMs,
+            opts.deferred);
+        serverImpl = delayingImpl;
+      } else {
+        serverImpl = new PBServerImpl();
+      }
       BlockingService service = TestProtobufRpcProto
           .newReflectiveBlockingService(serverImpl);
 
@@ -311,6 +413,16 @@ public int run(String[] args) throws Exception {
             System.out.println("CPU time per call on server: " +
                 (cpuNanosServer / totalCalls) + " ns");
           }
+          if (delayingImpl != null) {
+            long wallNanos = veryEnd - veryStart;
+            double utilization = 100.0 * delayingImpl.handlerBusyNanos.get()
+                / ((double) wallNanos * opts.serverThreads);
+            System.out.println("Handler thread utilization: " +
+                String.format("%.1f", utilization) + "% of " +
+                opts.serverThreads + " handlers");
+            System.out.println("Max calls in flight on server: " +
+                delayingImpl.maxInFlight.get());
+          }
         } else {
           System.out.println("No calls!");
         }
@@ -325,6 +437,9 @@ public int run(String[] args) throws Exception {
       if (server != null) {
         server.stop();
       }
+      if (delayingImpl != null) {
+        delayingImpl.shutdown();
+      }
     }
     
     return 0;
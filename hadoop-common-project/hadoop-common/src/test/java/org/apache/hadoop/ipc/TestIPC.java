@@ -21,6 +21,7 @@
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 import static org.mockito.Matchers.anyInt;
@@ -47,6 +48,7 @@
 import java.util.concurrent.BrokenBarrierException;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.Future;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 
@@ -260,6 +262,81 @@ public void internalTestSerial(int handlerCount, boolean handlerSleep,
     server.stop();
   }
 	
+  @Test(timeout=60000)
+  public void testAsyncCalls() throws Exception {
+    Server server = new TestServer(2, false);
+    InetSocketAddress addr = NetUtils.getConnectAddress(server);
+    server.start();
+    Client client = new Client(LongWritable.class, conf);
+    final int numCalls = 50;
+    List<LongWritable> params = new ArrayList<LongWritable>();
+    List<Future<Writable>> results = new ArrayList<Future<Writable>>();
+    Client.setAsynchronousMode(true);
+    try {
+      // a single thread keeps every call in flight at once
+      for (int i = 0; i < numCalls; i++) {
+        LongWritable param = new LongWritable(RANDOM.nextLong());
+        assertNull(client.call(param, addr, null, null, 0, conf));
+        params.add(param);
+        results.add(Client.getReturnRpcResponse());
+      }
+      for (int i = 0; i < numCalls; i++) {
+        assertEquals(params.get(i), results.get(i).get());
+      }
+    } finally {
+      Client.setAsynchronousMode(false);
+      client.stop();
+      server.stop();
+    }
+  }
+
+  @Test(timeout=60000)
+  public void testAsyncCallLimit() throws Exception {
+    final CountDownLatch release = new CountDownLatch(1);
+    TestServer server = new TestServer(1, false);
+    server.callListener = new Runnable() {
+      @Override
+      public void run() {
+        try {
+          release.await();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+    };
+    InetSocketAddress addr = NetUtils.getConnectAddress(server);
+    server.start();
+    Configuration limitConf = new Configuration(conf);
+    limitConf.setInt(CommonConfigurationKeys.IPC_CLIENT_ASYNC_CALLS_MAX_KEY, 2);
+    Client client = new Client(LongWritable.class, limitConf);
+    Client.setAsynchronousMode(true);
+    try {
+      List<Future<Writable>> results = new ArrayList<Future<Writable>>();
+      for (int i = 0; i < 2; i++) {
+        client.call(new LongWritable(i), addr, null, null, 0, conf);
+        results.add(Client.getReturnRpcResponse());
+      }
+      try {
+        client.call(new LongWritable(2), addr, null, null, 0, conf);
+        fail("Expected the third asynchronous call to be refused");
+      } catch (AsyncCallLimitExceededException e) {
+        // expected
+      }
+      assertEquals(2, client.getAsyncCallCount());
+
+      release.countDown();
+      for (int i = 0; i < 2; i++) {
+        assertEquals(new LongWritable(i), results.get(i).get());
+      }
+      client.call(new LongWritable(3), addr, null, null, 0, conf);
+      assertEquals(new LongWritable(3), Client.getReturnRpcResponse().get());
+    } finally {
+      Client.setAsynchronousMode(false);
+      client.stop();
+      server.stop();
+    }
+  }
+
   @Test(timeout=60000)
   public void testStandAloneClient() throws IOException {
     Client client = new Client(LongWritable.class, conf);
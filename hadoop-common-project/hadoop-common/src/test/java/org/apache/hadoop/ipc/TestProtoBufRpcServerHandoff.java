@@ -0,0 +1,174 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.ipc;
+
+import static org.apache.hadoop.test.MetricsAsserts.assertCounter;
+import static org.apache.hadoop.test.MetricsAsserts.getMetrics;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.ipc.TestProtoBufRpc.PBServerImpl;
+import org.apache.hadoop.ipc.TestProtoBufRpc.TestRpcService;
+import org.apache.hadoop.ipc.protobuf.TestProtos.EchoRequestProto;
+import org.apache.hadoop.ipc.protobuf.TestProtos.EchoResponseProto;
+import org.apache.hadoop.ipc.protobuf.TestRpcServiceProtos.TestProtobufRpcProto;
+import org.apache.hadoop.net.NetUtils;
+import org.apache.hadoop.test.GenericTestUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.base.Supplier;
+import com.google.protobuf.BlockingService;
+import com.google.protobuf.RpcController;
+import com.google.protobuf.ServiceException;
+
+/**
+ * Test that protobuf calls can hand their response off from the handler
+ * and complete it later from another thread.
+ */
+public class TestProtoBufRpcServerHandoff {
+
+  /**
+   * Defers every echo until {@link #release} is counted down, then answers
+   * it from an executor thread.
+   */
+  static class DeferringServerImpl extends PBServerImpl {
+    final CountDownLatch release = new CountDownLatch(1);
+    final AtomicInteger received = new AtomicInteger(0);
+    final ExecutorService executor = Executors.newCachedThreadPool();
+
+    @Override
+    public EchoResponseProto echo(RpcController unused,
+        final EchoRequestProto request) throws ServiceException {
+      final ProtobufRpcEngineCallback callback =
+          ProtobufRpcEngine.Server.registerForDeferredResponse();
+      received.incrementAndGet();
+      executor.submit(new Callable<Void>() {
+        @Override
+        public Void call() throws Exception {
+          release.await();
+          if ("error".equals(request.getMessage())) {
+            callback.error(new IOException("deferred error"));
+          } else {
+            callback.setResponse(EchoResponseProto.newBuilder()
+                .setMessage(request.getMessage()).build());
+          }
+          return null;
+        }
+      });
+      return null;
+    }
+  }
+
+  private Configuration conf;
+  private RPC.Server server;
+  private DeferringServerImpl serverImpl;
+  private InetSocketAddress addr;
+
+  @Before
+  public void setUp() throws IOException {
+    conf = new Configuration();
+    RPC.setProtocolEngine(conf, TestRpcService.class, ProtobufRpcEngine.class);
+    serverImpl = new DeferringServerImpl();
+    BlockingService service = TestProtobufRpcProto
+        .newReflectiveBlockingService(serverImpl);
+    // a single handler has to serve all the concurrent calls
+    server = new RPC.Builder(conf).setProtocol(TestRpcService.class)
+        .setInstance(service).setBindAddress("0.0.0.0").setPort(0)
+        .setNumHandlers(1).build();
+    server.start();
+    addr = NetUtils.getConnectAddress(server);
+  }
+
+  @After
+  public void tearDown() {
+    serverImpl.executor.shutdownNow();
+    server.stop();
+  }
+
+  @Test(timeout = 20000)
+  public void testDeferredResponse() throws Exception {
+    final int numCalls = 5;
+    final TestRpcService proxy =
+        RPC.getProxy(TestRpcService.class, 0, addr, conf);
+    ExecutorService clients = Executors.newFixedThreadPool(numCalls);
+    try {
+      List<Future<String>> results = new ArrayList<Future<String>>();
+      for (int i = 0; i < numCalls; i++) {
+        final String msg = "hello" + i;
+        results.add(clients.submit(new Callable<String>() {
+          @Override
+          public String call() throws Exception {
+            return proxy.echo(null, EchoRequestProto.newBuilder()
+                .setMessage(msg).build()).getMessage();
+          }
+        }));
+      }
+      // every call reaches the implementation while none has been answered,
+      // so the single handler was not held by any of them
+      GenericTestUtils.waitFor(new Supplier<Boolean>() {
+        @Override
+        public Boolean get() {
+          return serverImpl.received.get() == numCalls;
+        }
+      }, 10, 10000);
+      for (Future<String> f : results) {
+        Assert.assertFalse(f.isDone());
+      }
+
+      serverImpl.release.countDown();
+      for (int i = 0; i < numCalls; i++) {
+        Assert.assertEquals("hello" + i, results.get(i).get());
+      }
+      assertCounter("RpcDeferredCalls", (long) numCalls,
+          getMetrics(server.getRpcMetrics().name()));
+    } finally {
+      clients.shutdownNow();
+      RPC.stopProxy(proxy);
+    }
+  }
+
+  @Test(timeout = 20000)
+  public void testDeferredError() throws Exception {
+    TestRpcService proxy = RPC.getProxy(TestRpcService.class, 0, addr, conf);
+    serverImpl.release.countDown();
+    try {
+      proxy.echo(null, EchoRequestProto.newBuilder().setMessage("error")
+          .build());
+      Assert.fail("expected the deferred error");
+    } catch (ServiceException e) {
+      RemoteException re = (RemoteException) e.getCause();
+      Assert.assertEquals(IOException.class.getName(), re.getClassName());
+      GenericTestUtils.assertExceptionContains("deferred error", re);
+    } finally {
+      RPC.stopProxy(proxy);
+    }
+  }
+}
@@ -304,6 +304,16 @@ public <T> ProtocolProxy<T> getProxy(Class<T> protocol, long clientVersion,
       return new ProtocolProxy<T>(protocol, proxy, false);
     }
 
+    @Override
+    public <T> ProtocolProxy<T> getProxy(Class<T> protocol, long clientVersion,
+        InetSocketAddress addr, UserGroupInformation ticket, Configuration conf,
+        SocketFactory factory, int rpcTimeout,
+        RetryPolicy connectionRetryPolicy, AtomicBoolean fallbackToSimpleAuth,
+        AlignmentContext alignmentContext) throws IOException {
+      return getProxy(protocol, clientVersion, addr, ticket, conf, factory,
+        rpcTimeout, connectionRetryPolicy, fallbackToSimpleAuth);
+    }
+
     @Override
     public org.apache.hadoop.ipc.RPC.Server getServer(Class<?> protocol,
         Object instance, String bindAddress, int port, int numHandlers,
@@ -1020,6 +1030,40 @@ public void testRpcMetrics() throws Exception {
     }
   }
 
+  @Test
+  public void testRpcBufferPool() throws Exception {
+    Configuration configuration = new Configuration();
+    configuration.setLong(
+        CommonConfigurationKeys.IPC_SERVER_BUFFER_POOL_MAX_BYTES_KEY,
+        1024 * 1024);
+    configuration.setBoolean(
+        CommonConfigurationKeys.IPC_SERVER_BUFFER_POOL_DIRECT_KEY, true);
+    final Server server = new RPC.Builder(configuration)
+        .setProtocol(TestProtocol.class).setInstance(new TestImpl())
+        .setBindAddress(ADDRESS).setPort(0).setNumHandlers(1).build();
+    server.start();
+    final TestProtocol proxy = RPC.getProxy(TestProtocol.class,
+        TestProtocol.versionID, server.getListenerAddress(), configuration);
+    final int numCalls = 100;
+    try {
+      for (int i = 0; i < numCalls; i++) {
+        assertEquals("" + i, proxy.echo("" + i));
+      }
+      // each call takes a request and a response buffer; after the first
+      // calls they come from the pool
+      MetricsRecordBuilder rpcMetrics =
+          getMetrics(server.getRpcMetrics().name());
+      long hits = getLongCounter("RpcBufferPoolHits", rpcMetrics);
+      long misses = getLongCounter("RpcBufferPoolMisses", rpcMetrics);
+      assertTrue("Expected most buffers from the pool, but got " + hits
+          + " hits and " + misses + " misses", hits > misses);
+      assertTrue(getLongCounter("RpcBufferBytesAllocated", rpcMetrics) > 0);
+    } finally {
+      RPC.stopProxy(proxy);
+      server.stop();
+    }
+  }
+
   /**
    *  Verify the RPC server can shutdown properly when callQueue is full.
    */
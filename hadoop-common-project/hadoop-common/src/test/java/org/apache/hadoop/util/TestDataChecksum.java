@@ -20,6 +20,7 @@
 import java.nio.ByteBuffer;
 import java.util.Random;
 import java.util.concurrent.TimeUnit;
+import java.util.zip.Checksum;
 
 import org.apache.hadoop.fs.ChecksumException;
 import org.junit.Test;
@@ -161,6 +162,112 @@ public void commonUsagePerfTest() throws Exception {
     }
   }
 
+  @Test
+  public void testCrc32C() {
+    final Random rand = new Random();
+    final byte[] bytes = new byte[4096];
+    rand.nextBytes(bytes);
+    final Checksum expected = new PureJavaCrc32C();
+    final Checksum actual = DataChecksum.newCrc32C();
+    for (int i = 0; i < 100; i++) {
+      final int off = rand.nextInt(bytes.length);
+      final int len = rand.nextInt(bytes.length - off + 1);
+      expected.reset();
+      expected.update(bytes, off, len);
+      actual.reset();
+      actual.update(bytes, off, len);
+      assertEquals(expected.getValue(), actual.getValue());
+    }
+  }
+
+  /**
+   * Performance test of the chunked checksums of 512 byte chunks, with the
+   * native, the pure java and the JDK CRC32C implementations, and with
+   * DataChecksum itself, on array backed and direct buffers. This can be run
+   * from the command line with:
+   *
+   *   java -cp path/to/test/classes:path/to/common/classes \
+   *      'org.apache.hadoop.util.TestDataChecksum$PerformanceTest'
+   */
+  public static class PerformanceTest {
+    static final int DATA_LENGTH = 64 * 1024 * 1024;
+    static final int RUNS = 10;
+
+    public static void main(String[] args) throws Exception {
+      System.out.println("java.version=" + System.getProperty("java.version")
+          + ", native=" + NativeCrc32.isAvailable()
+          + ", JDK CRC32C=" + DataChecksum.newCrc32C().getClass().getName());
+      for (boolean useDirect : new boolean[]{false, true}) {
+        final DataChecksum checksum = DataChecksum.newDataChecksum(
+            DataChecksum.Type.CRC32C, BYTES_PER_CHUNK);
+        final Harness h = new Harness(checksum, DATA_LENGTH, useDirect);
+        final String buffers = useDirect ? "direct" : "array-backed";
+        if (NativeCrc32.isAvailable()) {
+          bench("native, " + buffers, new Runnable() {
+            @Override
+            public void run() {
+              NativeCrc32.calculateChunkedSums(BYTES_PER_CHUNK,
+                  DataChecksum.CHECKSUM_CRC32C, h.checksumBuf, h.dataBuf);
+            }
+          });
+        }
+        bench("pure java, " + buffers,
+            new ChunkedSums(h, new PureJavaCrc32C()));
+        bench(DataChecksum.newCrc32C().getClass().getSimpleName() + ", "
+            + buffers, new ChunkedSums(h, DataChecksum.newCrc32C()));
+        bench("DataChecksum, " + buffers, new Runnable() {
+          @Override
+          public void run() {
+            checksum.calculateChunkedSums(h.dataBuf, h.checksumBuf);
+          }
+        });
+      }
+    }
+
+    private static void bench(String name, Runnable r) {
+      r.run(); // warm up
+      final StopWatch s = new StopWatch().start();
+      for (int i = 0; i < RUNS; i++) {
+        r.run();
+      }
+      s.stop();
+      final double mbps = (double) DATA_LENGTH * RUNS / (1 << 20)
+          / s.now(TimeUnit.MILLISECONDS) * 1000;
+      System.out.printf("%-40s %10.1f MB/s%n", name, mbps);
+    }
+
+    /** The chunked sums of DataChecksum, with a given implementation. */
+    private static class ChunkedSums implements Runnable {
+      private final Harness h;
+      private final Checksum summer;
+
+      ChunkedSums(Harness h, Checksum summer) {
+        this.h = h;
+        this.summer = summer;
+      }
+
+      @Override
+      public void run() {
+        final ByteBuffer data = h.dataBuf.duplicate();
+        final ByteBuffer sums = h.checksumBuf.duplicate();
+        final byte[] buf = new byte[BYTES_PER_CHUNK];
+        while (data.remaining() > 0) {
+          final int n = Math.min(data.remaining(), BYTES_PER_CHUNK);
+          summer.reset();
+          if (data.hasArray()) {
+            summer.update(data.array(), data.arrayOffset() + data.position(),
+                n);
+            data.position(data.position() + n);
+          } else {
+            data.get(buf, 0, n);
+            summer.update(buf, 0, n);
+          }
+          sums.putInt((int) summer.getValue());
+        }
+      }
+    }
+  }
+
   @Test
   public void testEquality() {
     assertEquals(
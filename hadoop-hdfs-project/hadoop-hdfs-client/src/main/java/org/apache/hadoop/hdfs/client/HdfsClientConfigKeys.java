@@ -109,6 +109,8 @@ interface BlockWrite {
     int     LOCATEFOLLOWINGBLOCK_RETRIES_DEFAULT = 5;
     String  LOCATEFOLLOWINGBLOCK_INITIAL_DELAY_MS_KEY = PREFIX + "locateFollowingBlock.initial.delay.ms";
     int     LOCATEFOLLOWINGBLOCK_INITIAL_DELAY_MS_DEFAULT = 400;
+    String  PARALLEL_STREAMS_ENABLED_KEY = PREFIX + "parallel-streams.enabled";
+    boolean PARALLEL_STREAMS_ENABLED_DEFAULT = false;
 
     interface ReplaceDatanodeOnFailure {
       String PREFIX = BlockWrite.PREFIX + "replace-datanode-on-failure.";
@@ -128,6 +130,24 @@ interface Read {
     
     String  PREFETCH_SIZE_KEY = PREFIX + "prefetch.size"; 
 
+    interface BlockPrefetch {
+      String PREFIX = Read.PREFIX + "block.prefetch.";
+
+      String  THREADPOOL_SIZE_KEY = PREFIX + "threadpool.size";
+      int     THREADPOOL_SIZE_DEFAULT = 0;
+      String  SEQUENTIAL_BYTES_KEY = PREFIX + "sequential.bytes";
+      long    SEQUENTIAL_BYTES_DEFAULT = 4 * 1024 * 1024;
+      String  WINDOW_BYTES_KEY = PREFIX + "window.bytes";
+      long    WINDOW_BYTES_DEFAULT = 1024 * 1024;
+    }
+
+    interface Vectored {
+      String PREFIX = Read.PREFIX + "vectored.";
+
+      String  THREADPOOL_SIZE_KEY = PREFIX + "threadpool.size";
+      int     THREADPOOL_SIZE_DEFAULT = 0;
+    }
+
     interface ShortCircuit {
       String PREFIX = Read.PREFIX + "shortcircuit.";
 
@@ -167,6 +187,20 @@ interface Mmap {
     long    RETRY_TIMEOUT_MS_DEFAULT = 5*MINUTE;
   }
 
+  /** dfs.client.metadata.cache configuration properties */
+  interface MetadataCache {
+    String PREFIX = HdfsClientConfigKeys.PREFIX + "metadata.cache.";
+
+    String  ENABLED_KEY = PREFIX + "enabled";
+    boolean ENABLED_DEFAULT = false;
+    String  TTL_MS_KEY = PREFIX + "ttl.ms";
+    long    TTL_MS_DEFAULT = MINUTE;
+    String  MAX_SIZE_KEY = PREFIX + "max.size";
+    long    MAX_SIZE_DEFAULT = 100000;
+    String  INOTIFY_POLL_MS_KEY = PREFIX + "inotify.poll.ms";
+    long    INOTIFY_POLL_MS_DEFAULT = SECOND;
+  }
+
   /** dfs.client.hedged.read configuration properties */
   interface HedgedRead {
     String  THRESHOLD_MILLIS_KEY = PREFIX + "threshold.millis";
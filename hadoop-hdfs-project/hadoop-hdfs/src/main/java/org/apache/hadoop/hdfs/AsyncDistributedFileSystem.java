@@ -0,0 +1,260 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.classification.InterfaceStability;
+import org.apache.hadoop.fs.FileAlreadyExistsException;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.InvalidPathException;
+import org.apache.hadoop.fs.ParentNotDirectoryException;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.permission.FsPermission;
+import org.apache.hadoop.hdfs.protocol.DSQuotaExceededException;
+import org.apache.hadoop.hdfs.protocol.HdfsFileStatus;
+import org.apache.hadoop.hdfs.protocol.NSQuotaExceededException;
+import org.apache.hadoop.hdfs.protocol.SnapshotAccessControlException;
+import org.apache.hadoop.hdfs.protocol.UnresolvedPathException;
+import org.apache.hadoop.hdfs.protocolPB.ClientNamenodeProtocolTranslatorPB;
+import org.apache.hadoop.hdfs.server.namenode.SafeModeException;
+import org.apache.hadoop.ipc.Client;
+import org.apache.hadoop.ipc.RemoteException;
+import org.apache.hadoop.security.AccessControlException;
+
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+
+/**
+ * Asynchronous metadata operations of a {@link DistributedFileSystem}.
+ * <p>
+ * Each operation sends its request to the NameNode and returns a future
+ * right away, so a single thread can keep many operations in flight over
+ * the multiplexed RPC connection.  The number of outstanding operations
+ * per client is bounded by ipc.client.async.calls.max; an operation beyond
+ * the bound fails with
+ * {@link org.apache.hadoop.ipc.AsyncCallLimitExceededException}.
+ * <p>
+ * Unlike their {@link DistributedFileSystem} counterparts, these operations
+ * are not retried, do not fail over, and do not resolve symlinks; such
+ * failures are reported through the returned future.  Callbacks added to
+ * the futures without an executor run on the RPC connection thread and
+ * must not block.
+ */
+@InterfaceAudience.Public
+@InterfaceStability.Unstable
+public class AsyncDistributedFileSystem {
+
+  /** An operation of the {@link DFSClient} made in asynchronous mode. */
+  private interface AsyncOp {
+    void invoke() throws IOException;
+  }
+
+  private final DistributedFileSystem dfs;
+
+  AsyncDistributedFileSystem(DistributedFileSystem dfs) {
+    this.dfs = dfs;
+  }
+
+  /**
+   * Get the status of a file or directory.  The future fails with
+   * {@link FileNotFoundException} if the path does not exist.
+   */
+  public ListenableFuture<FileStatus> getFileStatus(Path f)
+      throws IOException {
+    dfs.getFsStatistics().incrementReadOps(1);
+    final Path absF = dfs.fixRelativePart(f);
+    final String src = dfs.getPathName(absF);
+    ListenableFuture<HdfsFileStatus> status = callAsync(new AsyncOp() {
+      @Override
+      public void invoke() throws IOException {
+        dfs.getClient().getFileInfo(src);
+      }
+    });
+    final SettableFuture<FileStatus> result = SettableFuture.create();
+    Futures.addCallback(status, new FutureCallback<HdfsFileStatus>() {
+      @Override
+      public void onSuccess(HdfsFileStatus fi) {
+        if (fi != null) {
+          result.set(fi.makeQualified(dfs.getUri(), absF));
+        } else {
+          result.setException(
+              new FileNotFoundException("File does not exist: " + absF));
+        }
+      }
+
+      @Override
+      public void onFailure(Throwable t) {
+        result.setException(unwrap(t, AccessControlException.class,
+            FileNotFoundException.class, UnresolvedPathException.class));
+      }
+    });
+    return result;
+  }
+
+  /**
+   * Rename src to dst.
+   *
+   * @see DistributedFileSystem#rename(Path, Path)
+   */
+  public ListenableFuture<Boolean> rename(Path src, Path dst)
+      throws IOException {
+    dfs.getFsStatistics().incrementWriteOps(1);
+    final String srcName = dfs.getPathName(dfs.fixRelativePart(src));
+    final String dstName = dfs.getPathName(dfs.fixRelativePart(dst));
+    ListenableFuture<Boolean> result = callAsync(new AsyncOp() {
+      @Override
+      @SuppressWarnings("deprecation")
+      public void invoke() throws IOException {
+        dfs.getClient().rename(srcName, dstName);
+      }
+    });
+    result = invalidateOnCompletion(result, srcName, dstName);
+    return unwrapRemoteException(result, AccessControlException.class,
+        NSQuotaExceededException.class, DSQuotaExceededException.class,
+        UnresolvedPathException.class, SnapshotAccessControlException.class);
+  }
+
+  /**
+   * Delete a file or directory.
+   *
+   * @see DistributedFileSystem#delete(Path, boolean)
+   */
+  public ListenableFuture<Boolean> delete(Path f, final boolean recursive)
+      throws IOException {
+    dfs.getFsStatistics().incrementWriteOps(1);
+    final String src = dfs.getPathName(dfs.fixRelativePart(f));
+    ListenableFuture<Boolean> result = callAsync(new AsyncOp() {
+      @Override
+      public void invoke() throws IOException {
+        dfs.getClient().delete(src, recursive);
+      }
+    });
+    result = invalidateOnCompletion(result, src);
+    return unwrapRemoteException(result, AccessControlException.class,
+        FileNotFoundException.class, SafeModeException.class,
+        UnresolvedPathException.class, SnapshotAccessControlException.class);
+  }
+
+  /**
+   * Create a directory and any missing parents.
+   *
+   * @see DistributedFileSystem#mkdirs(Path, FsPermission)
+   */
+  public ListenableFuture<Boolean> mkdirs(Path f,
+      final FsPermission permission) throws IOException {
+    dfs.getFsStatistics().incrementWriteOps(1);
+    final String src = dfs.getPathName(dfs.fixRelativePart(f));
+    ListenableFuture<Boolean> result = callAsync(new AsyncOp() {
+      @Override
+      public void invoke() throws IOException {
+        dfs.getClient().mkdirs(src, permission, true);
+      }
+    });
+    result = invalidateOnCompletion(result, src);
+    return unwrapRemoteException(result, AccessControlException.class,
+        InvalidPathException.class, FileAlreadyExistsException.class,
+        FileNotFoundException.class, ParentNotDirectoryException.class,
+        SafeModeException.class, NSQuotaExceededException.class,
+        DSQuotaExceededException.class, UnresolvedPathException.class,
+        SnapshotAccessControlException.class);
+  }
+
+  /**
+   * Make the call of the given operation in asynchronous mode and return
+   * the future of its return value.
+   */
+  private static <T> ListenableFuture<T> callAsync(AsyncOp op)
+      throws IOException {
+    final boolean wasAsync = Client.isAsynchronousMode();
+    Client.setAsynchronousMode(true);
+    try {
+      op.invoke();
+    } finally {
+      Client.setAsynchronousMode(wasAsync);
+    }
+    ListenableFuture<T> future =
+        ClientNamenodeProtocolTranslatorPB.getAsyncReturnValue();
+    if (future == null) {
+      throw new UnsupportedOperationException(
+          "The NameNode proxy does not support asynchronous calls");
+    }
+    return future;
+  }
+
+  /**
+   * Invalidate the client metadata cache under the given paths once the
+   * operation has completed, successfully or not, and before the returned
+   * future completes.  The invalidation the synchronous {@link DFSClient}
+   * method makes runs when the call is sent and can be undone by a read
+   * that completes before the operation does.
+   */
+  private <T> ListenableFuture<T> invalidateOnCompletion(
+      ListenableFuture<T> future, final String... paths) {
+    final SettableFuture<T> result = SettableFuture.create();
+    Futures.addCallback(future, new FutureCallback<T>() {
+      @Override
+      public void onSuccess(T value) {
+        invalidate();
+        result.set(value);
+      }
+
+      @Override
+      public void onFailure(Throwable t) {
+        invalidate();
+        result.setException(t);
+      }
+
+      private void invalidate() {
+        for (String path : paths) {
+          dfs.getClient().invalidateMetadataTree(path);
+        }
+      }
+    });
+    return result;
+  }
+
+  private static <T> ListenableFuture<T> unwrapRemoteException(
+      ListenableFuture<T> future, final Class<?>... lookupTypes) {
+    final SettableFuture<T> result = SettableFuture.create();
+    Futures.addCallback(future, new FutureCallback<T>() {
+      @Override
+      public void onSuccess(T value) {
+        result.set(value);
+      }
+
+      @Override
+      public void onFailure(Throwable t) {
+        result.setException(unwrap(t, lookupTypes));
+      }
+    });
+    return result;
+  }
+
+  /** Unwrap the exceptions the synchronous call would have unwrapped. */
+  private static Throwable unwrap(Throwable t, Class<?>... lookupTypes) {
+    if (t instanceof RemoteException) {
+      return ((RemoteException) t).unwrapRemoteException(lookupTypes);
+    }
+    return t;
+  }
+}
@@ -0,0 +1,80 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.classification.InterfaceStability;
+import org.apache.hadoop.ipc.AlignmentContext;
+import org.apache.hadoop.ipc.protobuf.RpcHeaderProtos.RpcRequestHeaderProto;
+import org.apache.hadoop.ipc.protobuf.RpcHeaderProtos.RpcResponseHeaderProto;
+
+/**
+ * The client side {@link AlignmentContext} of the NameNode protocols.  It
+ * keeps the highest transaction id returned by any NameNode, and sends it
+ * with every request, so that a read served by a standby NameNode reflects
+ * every change the client has seen.
+ */
+@InterfaceAudience.Private
+@InterfaceStability.Evolving
+public class ClientGSIContext implements AlignmentContext {
+  private final AtomicLong lastSeenStateId =
+      new AtomicLong(Long.MIN_VALUE);
+
+  @Override
+  public long getLastSeenStateId() {
+    return lastSeenStateId.get();
+  }
+
+  /**
+   * A client only receives state ids from responses.
+   */
+  @Override
+  public void updateResponseState(RpcResponseHeaderProto.Builder header) {
+    throw new UnsupportedOperationException(
+        "A client does not send responses");
+  }
+
+  /**
+   * Keep the state id of the response if it is the highest seen so far.
+   */
+  @Override
+  public void receiveResponseState(RpcResponseHeaderProto header) {
+    if (!header.hasStateId()) {
+      return;
+    }
+    long stateId = header.getStateId();
+    long last = lastSeenStateId.get();
+    while (stateId > last
+        && !lastSeenStateId.compareAndSet(last, stateId)) {
+      last = lastSeenStateId.get();
+    }
+  }
+
+  /**
+   * Send the highest state id seen so far, if any.
+   */
+  @Override
+  public void updateRequestState(RpcRequestHeaderProto.Builder header) {
+    long stateId = lastSeenStateId.get();
+    if (stateId != Long.MIN_VALUE) {
+      header.setStateId(stateId);
+    }
+  }
+}
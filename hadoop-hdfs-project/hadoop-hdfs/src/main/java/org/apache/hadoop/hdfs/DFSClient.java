@@ -163,6 +163,7 @@
 import org.apache.hadoop.io.MD5Hash;
 import org.apache.hadoop.io.Text;
 import org.apache.hadoop.io.retry.LossyRetryInvocationHandler;
+import org.apache.hadoop.ipc.Client;
 import org.apache.hadoop.ipc.RPC;
 import org.apache.hadoop.ipc.RemoteException;
 import org.apache.hadoop.net.DNS;
@@ -232,10 +233,13 @@ public class DFSClient implements java.io.Closeable, RemotePeerFactory,
   private final CachingStrategy defaultReadCachingStrategy;
   private final CachingStrategy defaultWriteCachingStrategy;
   private final ClientContext clientContext;
+  private final DFSMetadataCache metadataCache;
 
   private static final DFSHedgedReadMetrics HEDGED_READ_METRIC =
       new DFSHedgedReadMetrics();
   private static ThreadPoolExecutor HEDGED_READ_THREAD_POOL;
+  private static ThreadPoolExecutor BLOCK_PREFETCH_THREAD_POOL;
+  private static ThreadPoolExecutor VECTORED_READ_THREAD_POOL;
   private final Sampler<?> traceSampler;
 
   public DfsClientConf getConf() {
@@ -371,9 +375,25 @@ public DFSClient(URI nameNodeUri, ClientProtocol rpcNamenode,
     if (dfsClientConf.getHedgedReadThreadpoolSize() > 0) {
       this.initThreadsNumForHedgedReads(dfsClientConf.getHedgedReadThreadpoolSize());
     }
+    if (dfsClientConf.getBlockPrefetchThreadpoolSize() > 0) {
+      initThreadsNumForBlockPrefetch(
+          dfsClientConf.getBlockPrefetchThreadpoolSize());
+    }
+    if (dfsClientConf.getVectoredReadThreadpoolSize() > 0) {
+      initThreadsNumForVectoredReads(
+          dfsClientConf.getVectoredReadThreadpoolSize());
+    }
     this.saslClient = new SaslDataTransferClient(
       conf, DataTransferSaslUtil.getSaslPropertiesResolver(conf),
       TrustedChannelResolver.getInstance(conf), nnFallbackToSimpleAuth);
+    if (dfsClientConf.isMetadataCacheEnabled()) {
+      this.metadataCache = new DFSMetadataCache(this,
+          dfsClientConf.getMetadataCacheTtlMs(),
+          dfsClientConf.getMetadataCacheMaxSize(),
+          dfsClientConf.getMetadataCacheInotifyPollMs());
+    } else {
+      this.metadataCache = null;
+    }
   }
   
   /**
@@ -614,6 +634,9 @@ public synchronized void close() throws IOException {
       closeAllFilesBeingWritten(false);
       clientRunning = false;
       getLeaseRenewer().closeClient(this);
+      if (metadataCache != null) {
+        metadataCache.close();
+      }
       // close connections to the namenode
       closeConnectionToNamenode();
     }
@@ -856,14 +879,62 @@ public LocatedBlocks getLocatedBlocks(String src, long start)
   @VisibleForTesting
   public LocatedBlocks getLocatedBlocks(String src, long start, long length)
       throws IOException {
+    final DFSMetadataCache cache = getMetadataCacheForCall();
+    long stamp = 0;
+    if (cache != null) {
+      final LocatedBlocks blocks = cache.getLocatedBlocks(src, start, length);
+      if (blocks != null) {
+        return blocks;
+      }
+      stamp = cache.getStamp(src);
+    }
     TraceScope scope = getPathTraceScope("getBlockLocations", src);
     try {
-      return callGetBlockLocations(namenode, src, start, length);
+      final LocatedBlocks blocks =
+          callGetBlockLocations(namenode, src, start, length);
+      if (cache != null) {
+        cache.putLocatedBlocks(src, start, length, blocks, stamp);
+      }
+      return blocks;
     } finally {
       scope.close();
     }
   }
 
+  /**
+   * Invalidate the cached metadata of a path, and of its parent directory.
+   */
+  void invalidateMetadata(String src) {
+    if (metadataCache != null) {
+      metadataCache.invalidate(src);
+    }
+  }
+
+  /**
+   * Invalidate the cached metadata of a path, of the paths under it, and of
+   * its parent directory.
+   */
+  void invalidateMetadataTree(String src) {
+    if (metadataCache != null) {
+      metadataCache.invalidateTree(src);
+    }
+  }
+
+  /**
+   * @return the metadata cache to use for a NameNode call, or null.  The
+   *         cache is bypassed in asynchronous mode, where the caller gets
+   *         the value of the call from its future.
+   */
+  private DFSMetadataCache getMetadataCacheForCall() {
+    return Client.isAsynchronousMode() ? null : metadataCache;
+  }
+
+  /** @return the metadata cache, or null if not enabled */
+  @VisibleForTesting
+  DFSMetadataCache getMetadataCache() {
+    return metadataCache;
+  }
+
   /**
    * @see ClientProtocol#getBlockLocations(String, long, long)
    */
@@ -1342,6 +1413,7 @@ public DFSOutputStream create(String src,
         src, masked, flag, createParent, replication, blockSize, progress,
         buffersize, dfsClientConf.createChecksum(checksumOpt),
         getFavoredNodesStr(favoredNodes));
+    invalidateMetadata(src);
     beginFileLease(result.getFileId(), result);
     return result;
   }
@@ -1403,6 +1475,7 @@ public DFSOutputStream primitiveCreate(String src,
           flag, createParent, replication, blockSize, progress, buffersize,
           checksum, null);
     }
+    invalidateMetadata(src);
     beginFileLease(result.getFileId(), result);
     return result;
   }
@@ -1429,6 +1502,7 @@ public void createSymlink(String target, String link, boolean createParent)
                                      SnapshotAccessControlException.class);
     } finally {
       scope.close();
+      invalidateMetadata(link);
     }
   }
 
@@ -1470,6 +1544,8 @@ private DFSOutputStream callAppend(String src, int buffersize,
                                      UnsupportedOperationException.class,
                                      UnresolvedPathException.class,
                                      SnapshotAccessControlException.class);
+    } finally {
+      invalidateMetadata(src);
     }
   }
   
@@ -1546,6 +1622,7 @@ public boolean setReplication(String src, short replication)
                                      SnapshotAccessControlException.class);
     } finally {
       scope.close();
+      invalidateMetadata(src);
     }
   }
 
@@ -1568,6 +1645,7 @@ public void setStoragePolicy(String src, String policyName)
                                     SnapshotAccessControlException.class);
     } finally {
       scope.close();
+      invalidateMetadata(src);
     }
   }
 
@@ -1602,6 +1680,8 @@ public boolean rename(String src, String dst) throws IOException {
                                      SnapshotAccessControlException.class);
     } finally {
       scope.close();
+      invalidateMetadataTree(src);
+      invalidateMetadataTree(dst);
     }
   }
 
@@ -1620,6 +1700,10 @@ public void concat(String trg, String [] srcs) throws IOException {
                                      SnapshotAccessControlException.class);
     } finally {
       scope.close();
+      invalidateMetadata(trg);
+      for (String src : srcs) {
+        invalidateMetadata(src);
+      }
     }
   }
   /**
@@ -1644,6 +1728,8 @@ public void rename(String src, String dst, Options.Rename... options)
                                      SnapshotAccessControlException.class);
     } finally {
       scope.close();
+      invalidateMetadataTree(src);
+      invalidateMetadataTree(dst);
     }
   }
 
@@ -1665,6 +1751,7 @@ public boolean truncate(String src, long newLength) throws IOException {
           UnresolvedPathException.class);
     } finally {
       scope.close();
+      invalidateMetadata(src);
     }
   }
 
@@ -1698,6 +1785,7 @@ public boolean delete(String src, boolean recursive) throws IOException {
                                      SnapshotAccessControlException.class);
     } finally {
       scope.close();
+      invalidateMetadataTree(src);
     }
   }
   
@@ -1751,9 +1839,22 @@ public DirectoryListing listPaths(String src,  byte[] startAfter,
    */
   public HdfsFileStatus getFileInfo(String src) throws IOException {
     checkOpen();
+    final DFSMetadataCache cache = getMetadataCacheForCall();
+    long stamp = 0;
+    if (cache != null) {
+      final HdfsFileStatus status = cache.getFileInfo(src);
+      if (status != null) {
+        return status;
+      }
+      stamp = cache.getStamp(src);
+    }
     TraceScope scope = getPathTraceScope("getFileInfo", src);
     try {
-      return namenode.getFileInfo(src);
+      final HdfsFileStatus status = namenode.getFileInfo(src);
+      if (cache != null) {
+        cache.putFileInfo(src, status, stamp);
+      }
+      return status;
     } catch(RemoteException re) {
       throw re.unwrapRemoteException(AccessControlException.class,
                                      FileNotFoundException.class,
@@ -2097,6 +2198,7 @@ public void setPermission(String src, FsPermission permission)
                                      SnapshotAccessControlException.class);
     } finally {
       scope.close();
+      invalidateMetadata(src);
     }
   }
 
@@ -2122,6 +2224,7 @@ public void setOwner(String src, String username, String groupname)
                                      SnapshotAccessControlException.class);                                   
     } finally {
       scope.close();
+      invalidateMetadata(src);
     }
   }
 
@@ -2265,6 +2368,7 @@ public String createSnapshot(String snapshotRoot, String snapshotName)
       throw re.unwrapRemoteException();
     } finally {
       scope.close();
+      invalidateMetadataTree(snapshotRoot);
     }
   }
   
@@ -2287,6 +2391,7 @@ public void deleteSnapshot(String snapshotRoot, String snapshotName)
       throw re.unwrapRemoteException();
     } finally {
       scope.close();
+      invalidateMetadataTree(snapshotRoot);
     }
   }
   
@@ -2308,6 +2413,7 @@ public void renameSnapshot(String snapshotDir, String snapshotOldName,
       throw re.unwrapRemoteException();
     } finally {
       scope.close();
+      invalidateMetadataTree(snapshotDir);
     }
   }
   
@@ -2345,6 +2451,7 @@ public void allowSnapshot(String snapshotRoot) throws IOException {
       throw re.unwrapRemoteException();
     } finally {
       scope.close();
+      invalidateMetadata(snapshotRoot);
     }
   }
   
@@ -2362,6 +2469,7 @@ public void disallowSnapshot(String snapshotRoot) throws IOException {
       throw re.unwrapRemoteException();
     } finally {
       scope.close();
+      invalidateMetadata(snapshotRoot);
     }
   }
   
@@ -2655,6 +2763,7 @@ public boolean primitiveMkdir(String src, FsPermission absPermission,
                                      SnapshotAccessControlException.class);
     } finally {
       scope.close();
+      invalidateMetadata(src);
     }
   }
   
@@ -2706,6 +2815,7 @@ void setQuota(String src, long namespaceQuota, long storagespaceQuota)
                                      SnapshotAccessControlException.class);
     } finally {
       scope.close();
+      invalidateMetadata(src);
     }
   }
 
@@ -2738,6 +2848,7 @@ void setQuotaByStorageType(String src, StorageType type, long quota)
         SnapshotAccessControlException.class);
     } finally {
       scope.close();
+      invalidateMetadata(src);
     }
   }
   /**
@@ -2757,6 +2868,7 @@ public void setTimes(String src, long mtime, long atime) throws IOException {
                                      SnapshotAccessControlException.class);
     } finally {
       scope.close();
+      invalidateMetadata(src);
     }
   }
 
@@ -2821,6 +2933,7 @@ public void modifyAclEntries(String src, List<AclEntry> aclSpec)
                                      UnresolvedPathException.class);
     } finally {
       scope.close();
+      invalidateMetadata(src);
     }
   }
 
@@ -2840,6 +2953,7 @@ public void removeAclEntries(String src, List<AclEntry> aclSpec)
                                      UnresolvedPathException.class);
     } finally {
       scope.close();
+      invalidateMetadata(src);
     }
   }
 
@@ -2858,6 +2972,7 @@ public void removeDefaultAcl(String src) throws IOException {
                                      UnresolvedPathException.class);
     } finally {
       scope.close();
+      invalidateMetadata(src);
     }
   }
 
@@ -2876,6 +2991,7 @@ public void removeAcl(String src) throws IOException {
                                      UnresolvedPathException.class);
     } finally {
       scope.close();
+      invalidateMetadata(src);
     }
   }
 
@@ -2894,6 +3010,7 @@ public void setAcl(String src, List<AclEntry> aclSpec) throws IOException {
                                      UnresolvedPathException.class);
     } finally {
       scope.close();
+      invalidateMetadata(src);
     }
   }
 
@@ -2924,6 +3041,7 @@ public void createEncryptionZone(String src, String keyName)
                                      UnresolvedPathException.class);
     } finally {
       scope.close();
+      invalidateMetadataTree(src);
     }
   }
 
@@ -2962,6 +3080,7 @@ public void setXAttr(String src, String name, byte[] value,
                                      UnresolvedPathException.class);
     } finally {
       scope.close();
+      invalidateMetadata(src);
     }
   }
   
@@ -3042,6 +3161,7 @@ public void removeXAttr(String src, String name) throws IOException {
                                      UnresolvedPathException.class);
     } finally {
       scope.close();
+      invalidateMetadata(src);
     }
   }
 
@@ -3134,6 +3254,70 @@ ThreadPoolExecutor getHedgedReadsThreadPool() {
     return HEDGED_READ_THREAD_POOL;
   }
 
+  /**
+   * Create the thread pool opening the block readers of the next blocks of
+   * the sequential reads, BLOCK_PREFETCH_THREAD_POOL, if it does not already
+   * exist.  A prefetch is dropped when all the threads are busy.
+   * @param num Number of threads for the block prefetch thread pool.
+   */
+  private static synchronized void initThreadsNumForBlockPrefetch(int num) {
+    if (num <= 0 || BLOCK_PREFETCH_THREAD_POOL != null) return;
+    BLOCK_PREFETCH_THREAD_POOL = new ThreadPoolExecutor(1, num, 60,
+        TimeUnit.SECONDS, new SynchronousQueue<Runnable>(),
+        new Daemon.DaemonFactory() {
+          private final AtomicInteger threadIndex =
+            new AtomicInteger(0);
+          @Override
+          public Thread newThread(Runnable r) {
+            Thread t = super.newThread(r);
+            t.setName("blockPrefetch-" + threadIndex.getAndIncrement());
+            return t;
+          }
+        },
+        new ThreadPoolExecutor.AbortPolicy());
+    BLOCK_PREFETCH_THREAD_POOL.allowCoreThreadTimeOut(true);
+    if (LOG.isDebugEnabled()) {
+      LOG.debug("Using block prefetch; pool threads=" + num);
+    }
+  }
+
+  /** @return the block prefetch thread pool, or null if not enabled */
+  ThreadPoolExecutor getBlockPrefetchThreadPool() {
+    return BLOCK_PREFETCH_THREAD_POOL;
+  }
+
+  /**
+   * Create the thread pool reading the ranges of the vectored reads,
+   * VECTORED_READ_THREAD_POOL, if it does not already exist.  A read runs in
+   * the calling thread when all the threads are busy.
+   * @param num Number of threads for the vectored read thread pool.
+   */
+  private static synchronized void initThreadsNumForVectoredReads(int num) {
+    if (num <= 0 || VECTORED_READ_THREAD_POOL != null) return;
+    VECTORED_READ_THREAD_POOL = new ThreadPoolExecutor(1, num, 60,
+        TimeUnit.SECONDS, new SynchronousQueue<Runnable>(),
+        new Daemon.DaemonFactory() {
+          private final AtomicInteger threadIndex =
+            new AtomicInteger(0);
+          @Override
+          public Thread newThread(Runnable r) {
+            Thread t = super.newThread(r);
+            t.setName("vectoredRead-" + threadIndex.getAndIncrement());
+            return t;
+          }
+        },
+        new ThreadPoolExecutor.CallerRunsPolicy());
+    VECTORED_READ_THREAD_POOL.allowCoreThreadTimeOut(true);
+    if (LOG.isDebugEnabled()) {
+      LOG.debug("Using vectored reads; pool threads=" + num);
+    }
+  }
+
+  /** @return the vectored read thread pool, or null if not enabled */
+  ThreadPoolExecutor getVectoredReadThreadPool() {
+    return VECTORED_READ_THREAD_POOL;
+  }
+
   boolean isHedgedReadsEnabled() {
     return (HEDGED_READ_THREAD_POOL != null) &&
       HEDGED_READ_THREAD_POOL.getMaximumPoolSize() > 0;
@@ -54,4 +54,6 @@ public void startFetchFromDatanode() {}
   public void fetchFromDatanodeException() {}
 
   public void readFromDatanodeDelay() {}
+
+  public void beforeLastPacketInBlock() {}
 }
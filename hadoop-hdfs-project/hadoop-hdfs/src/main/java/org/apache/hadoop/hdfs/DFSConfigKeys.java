@@ -97,6 +97,14 @@ public class DFSConfigKeys extends CommonConfigurationKeys {
   // This setting is for testing/internal use only.
   public static final String  DFS_DATANODE_DUPLICATE_REPLICA_DELETION = "dfs.datanode.duplicate.replica.deletion";
   public static final boolean DFS_DATANODE_DUPLICATE_REPLICA_DELETION_DEFAULT = true;
+  public static final String  DFS_DATANODE_DU_ENABLED_KEY = "dfs.datanode.du.enabled";
+  public static final boolean DFS_DATANODE_DU_ENABLED_DEFAULT = false;
+  public static final String  DFS_DATANODE_DU_RECONCILE_INTERVAL_MS_KEY = "dfs.datanode.du.reconcile.interval.ms";
+  public static final long    DFS_DATANODE_DU_RECONCILE_INTERVAL_MS_DEFAULT = 0;
+  public static final String  DFS_DATANODE_REPLICA_CACHE_SAVE_INTERVAL_MS_KEY = "dfs.datanode.replica.cache.save.interval.ms";
+  public static final long    DFS_DATANODE_REPLICA_CACHE_SAVE_INTERVAL_MS_DEFAULT = 0;
+  public static final String  DFS_DATANODE_REPLICA_CACHE_EXPIRY_MS_KEY = "dfs.datanode.replica.cache.expiry.ms";
+  public static final long    DFS_DATANODE_REPLICA_CACHE_EXPIRY_MS_DEFAULT = 5 * 60 * 1000;
 
   public static final String  DFS_NAMENODE_PATH_BASED_CACHE_BLOCK_MAP_ALLOCATION_PERCENT =
     "dfs.namenode.path.based.cache.block.map.allocation.percent";
@@ -207,6 +215,8 @@ public class DFSConfigKeys extends CommonConfigurationKeys {
   
   public static final String  DFS_NAMENODE_EDITS_NOEDITLOGCHANNELFLUSH = "dfs.namenode.edits.noeditlogchannelflush";
   public static final boolean DFS_NAMENODE_EDITS_NOEDITLOGCHANNELFLUSH_DEFAULT = false;
+  public static final String  DFS_NAMENODE_EDITS_ASYNC_LOGGING = "dfs.namenode.edits.asynclogging";
+  public static final boolean DFS_NAMENODE_EDITS_ASYNC_LOGGING_DEFAULT = false;
   
   public static final String  DFS_LIST_LIMIT = "dfs.ls.limit";
   public static final int     DFS_LIST_LIMIT_DEFAULT = 1000;
@@ -218,6 +228,8 @@ public class DFSConfigKeys extends CommonConfigurationKeys {
   public static final int     DFS_DATANODE_FAILED_VOLUMES_TOLERATED_DEFAULT = 0;
   public static final String  DFS_DATANODE_SYNCONCLOSE_KEY = "dfs.datanode.synconclose";
   public static final boolean DFS_DATANODE_SYNCONCLOSE_DEFAULT = false;
+  public static final String  DFS_DATANODE_WRITE_QUEUE_PACKETS_KEY = "dfs.datanode.write.queue.packets";
+  public static final int     DFS_DATANODE_WRITE_QUEUE_PACKETS_DEFAULT = 0;
   public static final String  DFS_DATANODE_SOCKET_REUSE_KEEPALIVE_KEY = "dfs.datanode.socket.reuse.keepalive";
   public static final int     DFS_DATANODE_SOCKET_REUSE_KEEPALIVE_DEFAULT = 4000;
   public static final String  DFS_DATANODE_OOB_TIMEOUT_KEY = "dfs.datanode.oob.timeout-ms";
@@ -268,6 +280,21 @@ public class DFSConfigKeys extends CommonConfigurationKeys {
   // Number of blocks to rescan for each iteration of postponedMisreplicatedBlocks.
   public static final String DFS_NAMENODE_BLOCKS_PER_POSTPONEDBLOCKS_RESCAN_KEY = "dfs.namenode.blocks.per.postponedblocks.rescan";
   public static final long DFS_NAMENODE_BLOCKS_PER_POSTPONEDBLOCKS_RESCAN_KEY_DEFAULT = 10000;
+  public static final String  DFS_NAMENODE_BLOCKS_OFF_HEAP_ENABLED_KEY = "dfs.namenode.blocks.off-heap.enabled";
+  public static final boolean DFS_NAMENODE_BLOCKS_OFF_HEAP_ENABLED_DEFAULT = false;
+  public static final String  DFS_NAMENODE_BLOCKS_OFF_HEAP_REPLICAS_KEY = "dfs.namenode.blocks.off-heap.replicas-per-record";
+  public static final int     DFS_NAMENODE_BLOCKS_OFF_HEAP_REPLICAS_DEFAULT = 3;
+  public static final String  DFS_NAMENODE_INODE_PAGER_ENABLED_KEY = "dfs.namenode.inode.pager.enabled";
+  public static final boolean DFS_NAMENODE_INODE_PAGER_ENABLED_DEFAULT = false;
+  public static final String  DFS_NAMENODE_INODE_PAGER_DIR_KEY = "dfs.namenode.inode.pager.dir";
+  public static final String  DFS_NAMENODE_INODE_PAGER_MAX_RESIDENT_KEY = "dfs.namenode.inode.pager.max-resident-inodes";
+  public static final long    DFS_NAMENODE_INODE_PAGER_MAX_RESIDENT_DEFAULT = 50000000;
+  public static final String  DFS_NAMENODE_INODE_PAGER_PAGE_DEPTH_KEY = "dfs.namenode.inode.pager.page.depth";
+  public static final int     DFS_NAMENODE_INODE_PAGER_PAGE_DEPTH_DEFAULT = 2;
+  public static final String  DFS_NAMENODE_INODE_PAGER_PAGE_MAX_INODES_KEY = "dfs.namenode.inode.pager.page.max-inodes";
+  public static final int     DFS_NAMENODE_INODE_PAGER_PAGE_MAX_INODES_DEFAULT = 100000;
+  public static final String  DFS_NAMENODE_INODE_PAGER_INTERVAL_MS_KEY = "dfs.namenode.inode.pager.interval.ms";
+  public static final long    DFS_NAMENODE_INODE_PAGER_INTERVAL_MS_DEFAULT = 10000;
 
   // Replication monitoring related keys
   public static final String DFS_NAMENODE_INVALIDATE_WORK_PCT_PER_ITERATION =
@@ -276,6 +303,9 @@ public class DFSConfigKeys extends CommonConfigurationKeys {
   public static final String DFS_NAMENODE_REPLICATION_WORK_MULTIPLIER_PER_ITERATION =
       "dfs.namenode.replication.work.multiplier.per.iteration";
   public static final int DFS_NAMENODE_REPLICATION_WORK_MULTIPLIER_PER_ITERATION_DEFAULT = 2;
+  public static final String DFS_NAMENODE_REPLICATION_WORK_THREADS_KEY =
+      "dfs.namenode.replication.work.threads";
+  public static final int DFS_NAMENODE_REPLICATION_WORK_THREADS_DEFAULT = 1;
 
   //Delegation token related keys
   public static final String  DFS_NAMENODE_DELEGATION_KEY_UPDATE_INTERVAL_KEY = "dfs.namenode.delegation.key.update-interval";
@@ -331,6 +361,12 @@ public class DFSConfigKeys extends CommonConfigurationKeys {
   public static final boolean DFS_NAMENODE_AUDIT_LOG_TOKEN_TRACKING_ID_DEFAULT = false;
   public static final String  DFS_NAMENODE_AUDIT_LOG_ASYNC_KEY = "dfs.namenode.audit.log.async";
   public static final boolean DFS_NAMENODE_AUDIT_LOG_ASYNC_DEFAULT = false;
+  public static final String  DFS_NAMENODE_FINE_GRAINED_LOCKING_ENABLED_KEY = "dfs.namenode.fine-grained-locking.enabled";
+  public static final boolean DFS_NAMENODE_FINE_GRAINED_LOCKING_ENABLED_DEFAULT = false;
+  public static final String  DFS_NAMENODE_NAMESPACE_PARTITION_LOCKS_KEY = "dfs.namenode.namespace-partition.locks";
+  public static final int     DFS_NAMENODE_NAMESPACE_PARTITION_LOCKS_DEFAULT = 0;
+  public static final String  DFS_NAMENODE_NAMESPACE_PARTITION_DEPTH_KEY = "dfs.namenode.namespace-partition.depth";
+  public static final int     DFS_NAMENODE_NAMESPACE_PARTITION_DEPTH_DEFAULT = 2;
 
   public static final String  DFS_BALANCER_MOVEDWINWIDTH_KEY = "dfs.balancer.movedWinWidth";
   public static final long    DFS_BALANCER_MOVEDWINWIDTH_DEFAULT = 5400*1000L;
@@ -353,6 +389,10 @@ public class DFSConfigKeys extends CommonConfigurationKeys {
   public static final int     DFS_DATANODE_DIRECTORYSCAN_INTERVAL_DEFAULT = 21600;
   public static final String  DFS_DATANODE_DIRECTORYSCAN_THREADS_KEY = "dfs.datanode.directoryscan.threads";
   public static final int     DFS_DATANODE_DIRECTORYSCAN_THREADS_DEFAULT = 1;
+  public static final String  DFS_DATANODE_DIRECTORYSCAN_INCREMENTAL_KEY = "dfs.datanode.directoryscan.incremental";
+  public static final boolean DFS_DATANODE_DIRECTORYSCAN_INCREMENTAL_DEFAULT = false;
+  public static final String  DFS_DATANODE_DIRECTORYSCAN_THROTTLE_MS_PER_SEC_KEY = "dfs.datanode.directoryscan.throttle.ms.per.sec";
+  public static final int     DFS_DATANODE_DIRECTORYSCAN_THROTTLE_MS_PER_SEC_DEFAULT = 100;
   public static final String  DFS_DATANODE_DNS_INTERFACE_KEY = "dfs.datanode.dns.interface";
   public static final String  DFS_DATANODE_DNS_INTERFACE_DEFAULT = "default";
   public static final String  DFS_DATANODE_DNS_NAMESERVER_KEY = "dfs.datanode.dns.nameserver";
@@ -366,6 +406,10 @@ public class DFSConfigKeys extends CommonConfigurationKeys {
   public static final String  DFS_DATANODE_HTTP_ADDRESS_DEFAULT = "0.0.0.0:" + DFS_DATANODE_HTTP_DEFAULT_PORT;
   public static final String  DFS_DATANODE_MAX_RECEIVER_THREADS_KEY = "dfs.datanode.max.transfer.threads";
   public static final int     DFS_DATANODE_MAX_RECEIVER_THREADS_DEFAULT = 4096;
+  public static final String  DFS_DATANODE_TRANSFER_WORKER_THREADS_KEY = "dfs.datanode.transfer.worker.threads";
+  public static final int     DFS_DATANODE_TRANSFER_WORKER_THREADS_DEFAULT = 0;
+  public static final String  DFS_DATANODE_TRANSFER_MAX_CONNECTIONS_KEY = "dfs.datanode.transfer.max.connections";
+  public static final int     DFS_DATANODE_TRANSFER_MAX_CONNECTIONS_DEFAULT = 16384;
   public static final String  DFS_DATANODE_SCAN_PERIOD_HOURS_KEY = "dfs.datanode.scan.period.hours";
   public static final int     DFS_DATANODE_SCAN_PERIOD_HOURS_DEFAULT = 0;
   public static final String  DFS_BLOCK_SCANNER_VOLUME_BYTES_PER_SECOND = "dfs.block.scanner.volume.bytes.per.second";
@@ -421,6 +465,8 @@ public class DFSConfigKeys extends CommonConfigurationKeys {
   public static final int     DFS_BLOCKREPORT_INITIAL_DELAY_DEFAULT = 0;
   public static final String  DFS_BLOCKREPORT_SPLIT_THRESHOLD_KEY = "dfs.blockreport.split.threshold";
   public static final long    DFS_BLOCKREPORT_SPLIT_THRESHOLD_DEFAULT = 1000 * 1000;
+  public static final String  DFS_BLOCKREPORT_SUMMARY_BUCKETS_KEY = "dfs.blockreport.summary.buckets";
+  public static final int     DFS_BLOCKREPORT_SUMMARY_BUCKETS_DEFAULT = 0;
   public static final String  DFS_CACHEREPORT_INTERVAL_MSEC_KEY = "dfs.cachereport.intervalMsec";
   public static final long    DFS_CACHEREPORT_INTERVAL_MSEC_DEFAULT = 10 * 1000;
   public static final String  DFS_BLOCK_INVALIDATE_LIMIT_KEY = "dfs.block.invalidate.limit";
@@ -439,6 +485,20 @@ public class DFSConfigKeys extends CommonConfigurationKeys {
   public static final String DFS_IMAGE_COMPRESSION_CODEC_DEFAULT =
                                    "org.apache.hadoop.io.compress.DefaultCodec";
 
+  // properties for parallel fsimage loading and saving
+  public static final String DFS_IMAGE_PARALLEL_LOAD_KEY =
+      "dfs.image.parallel.load";
+  public static final boolean DFS_IMAGE_PARALLEL_LOAD_DEFAULT = false;
+  public static final String DFS_IMAGE_PARALLEL_TARGET_SECTIONS_KEY =
+      "dfs.image.parallel.target.sections";
+  public static final int DFS_IMAGE_PARALLEL_TARGET_SECTIONS_DEFAULT = 12;
+  public static final String DFS_IMAGE_PARALLEL_INODE_THRESHOLD_KEY =
+      "dfs.image.parallel.inode.threshold";
+  public static final int DFS_IMAGE_PARALLEL_INODE_THRESHOLD_DEFAULT = 1000000;
+  public static final String DFS_IMAGE_PARALLEL_THREADS_KEY =
+      "dfs.image.parallel.threads";
+  public static final int DFS_IMAGE_PARALLEL_THREADS_DEFAULT = 4;
+
   public static final String DFS_IMAGE_TRANSFER_RATE_KEY =
                                            "dfs.image.transfer.bandwidthPerSec";
   public static final long DFS_IMAGE_TRANSFER_RATE_DEFAULT = 0;  //no throttling
@@ -526,6 +586,12 @@ public class DFSConfigKeys extends CommonConfigurationKeys {
   public static final int DFS_HA_LOGROLL_PERIOD_DEFAULT = 2 * 60; // 2m
   public static final String DFS_HA_TAILEDITS_PERIOD_KEY = "dfs.ha.tail-edits.period";
   public static final int DFS_HA_TAILEDITS_PERIOD_DEFAULT = 60; // 1m
+  public static final String DFS_HA_TAILEDITS_INPROGRESS_KEY = "dfs.ha.tail-edits.in-progress";
+  public static final boolean DFS_HA_TAILEDITS_INPROGRESS_DEFAULT = false;
+  public static final String DFS_HA_TAILEDITS_QJM_RPC_MAX_TXNS_KEY = "dfs.ha.tail-edits.qjm.rpc.max-txns";
+  public static final int DFS_HA_TAILEDITS_QJM_RPC_MAX_TXNS_DEFAULT = 5000;
+  public static final String DFS_NAMENODE_STATE_CONTEXT_ENABLED_KEY = "dfs.namenode.state.context.enabled";
+  public static final boolean DFS_NAMENODE_STATE_CONTEXT_ENABLED_DEFAULT = false;
   public static final String DFS_HA_LOGROLL_RPC_TIMEOUT_KEY = "dfs.ha.log-roll.rpc.timeout";
   public static final int DFS_HA_LOGROLL_RPC_TIMEOUT_DEFAULT = 20000; // 20s
   public static final String DFS_HA_FENCE_METHODS_KEY = "dfs.ha.fencing.methods";
@@ -566,6 +632,8 @@ public class DFSConfigKeys extends CommonConfigurationKeys {
   public static final String  DFS_JOURNALNODE_KEYTAB_FILE_KEY = "dfs.journalnode.keytab.file";
   public static final String  DFS_JOURNALNODE_KERBEROS_PRINCIPAL_KEY = "dfs.journalnode.kerberos.principal";
   public static final String  DFS_JOURNALNODE_KERBEROS_INTERNAL_SPNEGO_PRINCIPAL_KEY = "dfs.journalnode.kerberos.internal.spnego.principal";
+  public static final String  DFS_JOURNALNODE_EDIT_CACHE_SIZE_KEY = "dfs.journalnode.edit-cache-size.bytes";
+  public static final int     DFS_JOURNALNODE_EDIT_CACHE_SIZE_DEFAULT = 1024 * 1024;
 
   // Journal-node related configs for the client side.
   public static final String  DFS_QJOURNAL_QUEUE_SIZE_LIMIT_KEY = "dfs.qjournal.queued-edits.limit.mb";
@@ -592,6 +660,8 @@ public class DFSConfigKeys extends CommonConfigurationKeys {
   
   public static final String DFS_MAX_NUM_BLOCKS_TO_LOG_KEY = "dfs.namenode.max-num-blocks-to-log";
   public static final long   DFS_MAX_NUM_BLOCKS_TO_LOG_DEFAULT = 1000l;
+  public static final String DFS_NAMENODE_BLOCK_REPORT_LOCK_MAX_REPLICAS_KEY = "dfs.namenode.block-report.lock.max-replicas";
+  public static final int    DFS_NAMENODE_BLOCK_REPORT_LOCK_MAX_REPLICAS_DEFAULT = 0;
   
   public static final String DFS_NAMENODE_ENABLE_RETRY_CACHE_KEY = "dfs.namenode.enable.retrycache";
   public static final boolean DFS_NAMENODE_ENABLE_RETRY_CACHE_DEFAULT = true;
@@ -19,6 +19,7 @@
 
 import java.io.EOFException;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
 import java.util.AbstractMap;
@@ -40,6 +41,8 @@
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorCompletionService;
 import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 
@@ -53,10 +56,14 @@
 import org.apache.hadoop.fs.ChecksumException;
 import org.apache.hadoop.fs.FSInputStream;
 import org.apache.hadoop.fs.FileEncryptionInfo;
+import org.apache.hadoop.fs.FileRange;
 import org.apache.hadoop.fs.HasEnhancedByteBufferAccess;
 import org.apache.hadoop.fs.ReadOption;
 import org.apache.hadoop.fs.StorageType;
 import org.apache.hadoop.fs.UnresolvedLinkException;
+import org.apache.hadoop.fs.VectoredReadUtils;
+import org.apache.hadoop.fs.VectoredReadUtils.CombinedRange;
+import org.apache.hadoop.fs.VectoredReadable;
 import org.apache.hadoop.hdfs.client.impl.DfsClientConf;
 import org.apache.hadoop.hdfs.protocol.ClientDatanodeProtocol;
 import org.apache.hadoop.hdfs.protocol.DatanodeInfo;
@@ -89,7 +96,7 @@
 @InterfaceAudience.Private
 public class DFSInputStream extends FSInputStream
 implements ByteBufferReadable, CanSetDropBehind, CanSetReadahead,
-    HasEnhancedByteBufferAccess, CanUnbuffer {
+    HasEnhancedByteBufferAccess, CanUnbuffer, VectoredReadable {
   @VisibleForTesting
   public static boolean tcpReadsDisabledForTesting = false;
   private long hedgedReadOpsLoopNumForTesting = 0;
@@ -106,6 +113,10 @@ public class DFSInputStream extends FSInputStream
   private long pos = 0;
   private long blockEnd = -1;
   private BlockReader blockReader = null;
+  /** the bytes read since the last seek */
+  private long sequentialBytes = 0;
+  /** the reader of the next block being opened, if any */
+  private BlockPrefetch prefetch = null;
   ////
 
   // state shared by stateful and positional read:
@@ -149,6 +160,8 @@ public ReadStatistics(ReadStatistics rhs) {
       this.totalLocalBytesRead = rhs.getTotalLocalBytesRead();
       this.totalShortCircuitBytesRead = rhs.getTotalShortCircuitBytesRead();
       this.totalZeroCopyBytesRead = rhs.getTotalZeroCopyBytesRead();
+      this.blockPrefetchHits = rhs.getBlockPrefetchHits();
+      this.blockPrefetchMisses = rhs.getBlockPrefetchMisses();
     }
 
     /**
@@ -182,6 +195,22 @@ public long getTotalZeroCopyBytesRead() {
       return totalZeroCopyBytesRead;
     }
 
+    /**
+     * @return The number of blocks read with a block reader prefetched while
+     * the previous block was read.
+     */
+    public long getBlockPrefetchHits() {
+      return blockPrefetchHits;
+    }
+
+    /**
+     * @return The number of prefetched block readers which were not used,
+     * because they failed to open or the stream did not read on.
+     */
+    public long getBlockPrefetchMisses() {
+      return blockPrefetchMisses;
+    }
+
     /**
      * @return The total number of bytes read which were not local.
      */
@@ -211,11 +240,21 @@ void addZeroCopyBytes(long amt) {
       this.totalZeroCopyBytesRead += amt;
     }
 
+    void addBlockPrefetch(boolean hit) {
+      if (hit) {
+        this.blockPrefetchHits++;
+      } else {
+        this.blockPrefetchMisses++;
+      }
+    }
+
     void clear() {
       this.totalBytesRead = 0;
       this.totalLocalBytesRead = 0;
       this.totalShortCircuitBytesRead = 0;
       this.totalZeroCopyBytesRead = 0;
+      this.blockPrefetchHits = 0;
+      this.blockPrefetchMisses = 0;
     }
     
     private long totalBytesRead;
@@ -225,6 +264,10 @@ void clear() {
     private long totalShortCircuitBytesRead;
 
     private long totalZeroCopyBytesRead;
+
+    private long blockPrefetchHits;
+
+    private long blockPrefetchMisses;
   }
   
   /**
@@ -477,6 +520,8 @@ else if (offset >= locatedBlocks.getFileLength()) {
   /** Fetch a block from namenode and cache it */
   private void fetchBlockAt(long offset) throws IOException {
     synchronized(infoLock) {
+      // the cached locations may be stale, or their tokens expired
+      dfsClient.invalidateMetadata(src);
       int targetBlockIdx = locatedBlocks.findBlock(offset);
       if (targetBlockIdx < 0) { // block is not cached
         targetBlockIdx = LocatedBlocks.getInsertIndex(targetBlockIdx);
@@ -577,9 +622,31 @@ private synchronized DatanodeInfo blockSeekTo(long target) throws IOException {
       throw new IOException("Attempted to read past end of file");
     }
 
+    final BlockPrefetch p = prefetch;
+    prefetch = null;
+
     // Will be getting a new BlockReader.
     closeCurrentBlockReader();
 
+    // Use the reader of the block prefetched by a sequential read, if any
+    if (p != null) {
+      final BlockReader prefetched = p.take(target);
+      if (prefetched != null) {
+        final LocatedBlock targetBlock = getBlockAt(target);
+        if (targetBlock.getBlock().equals(p.block.getBlock())) {
+          this.pos = target;
+          this.blockEnd = targetBlock.getStartOffset() +
+              targetBlock.getBlockSize() - 1;
+          this.currentLocatedBlock = targetBlock;
+          this.blockReader = prefetched;
+          updateBlockPrefetchStatistics(true);
+          return p.node.info;
+        }
+        closeBlockReader(prefetched);
+      }
+      updateBlockPrefetchStatistics(false);
+    }
+
     //
     // Connect to best DataNode for desired Block, with potential offset
     //
@@ -607,35 +674,10 @@ private synchronized DatanodeInfo blockSeekTo(long target) throws IOException {
       DNAddrPair retval = chooseDataNode(targetBlock, null);
       chosenNode = retval.info;
       InetSocketAddress targetAddr = retval.addr;
-      StorageType storageType = retval.storageType;
 
       try {
         ExtendedBlock blk = targetBlock.getBlock();
-        Token<BlockTokenIdentifier> accessToken = targetBlock.getBlockToken();
-        CachingStrategy curCachingStrategy;
-        boolean shortCircuitForbidden;
-        synchronized(infoLock) {
-          curCachingStrategy = cachingStrategy;
-          shortCircuitForbidden = shortCircuitForbidden();
-        }
-        blockReader = new BlockReaderFactory(dfsClient.getConf()).
-            setInetSocketAddress(targetAddr).
-            setRemotePeerFactory(dfsClient).
-            setDatanodeInfo(chosenNode).
-            setStorageType(storageType).
-            setFileName(src).
-            setBlock(blk).
-            setBlockToken(accessToken).
-            setStartOffset(offsetIntoBlock).
-            setVerifyChecksum(verifyChecksum).
-            setClientName(dfsClient.clientName).
-            setLength(blk.getNumBytes() - offsetIntoBlock).
-            setCachingStrategy(curCachingStrategy).
-            setAllowShortCircuitLocalReads(!shortCircuitForbidden).
-            setClientCacheContext(dfsClient.getClientContext()).
-            setUserGroupInformation(dfsClient.ugi).
-            setConfiguration(dfsClient.getConfiguration()).
-            build();
+        blockReader = getBlockReader(targetBlock, offsetIntoBlock, retval);
         if(connectFailedOnce) {
           DFSClient.LOG.info("Successfully connected to " + targetAddr +
                              " for " + blk);
@@ -663,6 +705,173 @@ private synchronized DatanodeInfo blockSeekTo(long target) throws IOException {
     }
   }
 
+  /**
+   * Open a block reader from a given offset in a block.
+   */
+  private BlockReader getBlockReader(LocatedBlock targetBlock,
+      long offsetIntoBlock, DNAddrPair dnInfo) throws IOException {
+    ExtendedBlock blk = targetBlock.getBlock();
+    Token<BlockTokenIdentifier> accessToken = targetBlock.getBlockToken();
+    CachingStrategy curCachingStrategy;
+    boolean shortCircuitForbidden;
+    synchronized(infoLock) {
+      curCachingStrategy = cachingStrategy;
+      shortCircuitForbidden = shortCircuitForbidden();
+    }
+    return new BlockReaderFactory(dfsClient.getConf()).
+        setInetSocketAddress(dnInfo.addr).
+        setRemotePeerFactory(dfsClient).
+        setDatanodeInfo(dnInfo.info).
+        setStorageType(dnInfo.storageType).
+        setFileName(src).
+        setBlock(blk).
+        setBlockToken(accessToken).
+        setStartOffset(offsetIntoBlock).
+        setVerifyChecksum(verifyChecksum).
+        setClientName(dfsClient.clientName).
+        setLength(blk.getNumBytes() - offsetIntoBlock).
+        setCachingStrategy(curCachingStrategy).
+        setAllowShortCircuitLocalReads(!shortCircuitForbidden).
+        setClientCacheContext(dfsClient.getClientContext()).
+        setUserGroupInformation(dfsClient.ugi).
+        setConfiguration(dfsClient.getConfiguration()).
+        build();
+  }
+
+  /**
+   * Start opening the reader of the next block in the background, once the
+   * stream has read enough bytes without seeking and is close to the end of
+   * the current block, so that the read does not stall at the block
+   * boundary.  The reader is not opened earlier, as it holds a datanode
+   * connection until the stream reaches its block.
+   */
+  private synchronized void maybePrefetchNextBlock() {
+    final ThreadPoolExecutor pool = dfsClient.getBlockPrefetchThreadPool();
+    if (pool == null || prefetch != null || blockEnd < 0 || sequentialBytes
+        < dfsClient.getConf().getBlockPrefetchSequentialBytes()) {
+      return;
+    }
+    if (blockEnd + 1 - pos >
+        dfsClient.getConf().getBlockPrefetchWindowBytes()) {
+      return;
+    }
+    final long next = blockEnd + 1;
+    synchronized(infoLock) {
+      // the last block may still be written
+      if (next >= locatedBlocks.getFileLength()) {
+        return;
+      }
+    }
+    final BlockPrefetch p = new BlockPrefetch(next);
+    try {
+      pool.execute(p);
+      prefetch = p;
+    } catch (RejectedExecutionException e) {
+      // all the threads are busy, try again on the next read
+    }
+  }
+
+  private void updateBlockPrefetchStatistics(boolean hit) {
+    synchronized(infoLock) {
+      readStatistics.addBlockPrefetch(hit);
+    }
+  }
+
+  private static void closeBlockReader(BlockReader reader) {
+    try {
+      reader.close();
+    } catch (IOException e) {
+      DFSClient.LOG.error("error closing blockReader", e);
+    }
+  }
+
+  /**
+   * Locates a block and opens its reader, in the background.  The reader is
+   * taken by the stream once it reaches the block, or closed.
+   */
+  private class BlockPrefetch implements Runnable {
+    private final long offset;
+    // guarded by this
+    private LocatedBlock block;
+    private DNAddrPair node;
+    private BlockReader reader;
+    private boolean done = false;
+    private boolean discarded = false;
+
+    BlockPrefetch(long offset) {
+      this.offset = offset;
+    }
+
+    @Override
+    public void run() {
+      LocatedBlock b = null;
+      DNAddrPair n = null;
+      BlockReader r = null;
+      try {
+        b = getBlockAt(offset);
+        n = getBestNodeDNAddrPair(b, null);
+        r = getBlockReader(b, 0, n);
+      } catch (IOException e) {
+        if (DFSClient.LOG.isDebugEnabled()) {
+          DFSClient.LOG.debug("Failed to prefetch the block at " + offset
+              + " of " + src, e);
+        }
+      }
+      synchronized(this) {
+        done = true;
+        if (!discarded) {
+          block = b;
+          node = n;
+          reader = r;
+          r = null;
+        }
+        notifyAll();
+      }
+      if (r != null) {
+        closeBlockReader(r);
+      }
+    }
+
+    /**
+     * Wait for the reader of the block, if it starts at the target.
+     * @return the reader, or null if it failed to open or does not start
+     *         at the target, in which case it is closed
+     */
+    BlockReader take(long target) throws InterruptedIOException {
+      if (target != offset) {
+        discard();
+        return null;
+      }
+      synchronized(this) {
+        while (!done) {
+          try {
+            wait();
+          } catch (InterruptedException e) {
+            discarded = true;
+            throw new InterruptedIOException(
+                "Interrupted waiting for the block at " + offset);
+          }
+        }
+        discarded = true;
+        final BlockReader r = reader;
+        reader = null;
+        return r;
+      }
+    }
+
+    void discard() {
+      final BlockReader r;
+      synchronized(this) {
+        discarded = true;
+        r = reader;
+        reader = null;
+      }
+      if (r != null) {
+        closeBlockReader(r);
+      }
+    }
+  }
+
   /**
    * Close it down!
    */
@@ -857,6 +1066,8 @@ private synchronized int readWithStrategy(ReaderStrategy strategy, int off, int
           
           if (result >= 0) {
             pos += result;
+            sequentialBytes += result;
+            maybePrefetchNextBlock();
           } else {
             // got a EOS from reader though we expect more data on it.
             throw new IOException("Unexpected EOS from the reader");
@@ -974,6 +1185,7 @@ private DNAddrPair chooseDataNode(LocatedBlock block,
         } catch (InterruptedException iex) {
         }
         deadNodes.clear(); //2nd option is to remove only nodes[blockId]
+        dfsClient.invalidateMetadata(src);
         openInfo();
         block = getBlockAt(block.getStartOffset());
         failures++;
@@ -1297,6 +1509,11 @@ public long getHedgedReadOpsLoopNumForTesting() {
     return hedgedReadOpsLoopNumForTesting;
   }
 
+  @VisibleForTesting
+  synchronized boolean isBlockPrefetchStarted() {
+    return prefetch != null;
+  }
+
   private ByteBuffer getFirstToComplete(
       CompletionService<ByteBuffer> hedgedService,
       ArrayList<Future<ByteBuffer>> futures) throws InterruptedException {
@@ -1381,6 +1598,69 @@ public int read(long position, byte[] buffer, int offset, int length)
     }
   }
 
+  /**
+   * Read a list of ranges.  The ranges close to each other in a block are
+   * merged, and the merged ranges are read with positional reads, in
+   * parallel on the vectored read thread pool if enabled.
+   */
+  @Override
+  public void readVectored(List<? extends FileRange> ranges)
+      throws IOException {
+    dfsClient.checkOpen();
+    if (closed.get()) {
+      throw new IOException("Stream closed");
+    }
+    final List<FileRange> sorted = VectoredReadUtils.sortRanges(ranges);
+    final long filelen = getFileLength();
+    final List<CombinedRange> reads = new ArrayList<CombinedRange>();
+    // group the ranges by the block of their offset
+    for (int i = 0; i < sorted.size(); ) {
+      long blockEnd = Long.MAX_VALUE;
+      if (sorted.get(i).getOffset() < filelen) {
+        LocatedBlock blk = getBlockAt(sorted.get(i).getOffset());
+        blockEnd = blk.getStartOffset() + blk.getBlockSize();
+      }
+      int j = i + 1;
+      while (j < sorted.size() && sorted.get(j).getOffset() < blockEnd) {
+        j++;
+      }
+      reads.addAll(VectoredReadUtils.mergeSortedRanges(sorted.subList(i, j),
+          VectoredReadUtils.MIN_SEEK_DEFAULT,
+          VectoredReadUtils.MAX_MERGED_LENGTH_DEFAULT));
+      i = j;
+    }
+
+    final ThreadPoolExecutor pool = dfsClient.getVectoredReadThreadPool();
+    for (final CombinedRange range : reads) {
+      Runnable read = new Runnable() {
+        @Override
+        public void run() {
+          readCombinedRange(range, filelen);
+        }
+      };
+      if (pool == null) {
+        read.run();
+      } else {
+        pool.execute(read);
+      }
+    }
+  }
+
+  private void readCombinedRange(CombinedRange range, long filelen) {
+    final byte[] buf = new byte[range.getLength()];
+    final int length = (int) Math.max(0,
+        Math.min(buf.length, filelen - range.getOffset()));
+    try {
+      if (length > 0) {
+        readFully(range.getOffset(), buf, 0, length);
+      }
+      range.complete(buf, length);
+    } catch (IOException | RuntimeException e) {
+      DFSClient.LOG.debug("Failed to read " + range + " of " + src, e);
+      range.fail(e);
+    }
+  }
+
   private int pread(long position, byte[] buffer, int offset, int length)
       throws IOException {
     // sanity checks
@@ -1499,6 +1779,9 @@ public synchronized void seek(long targetPos) throws IOException {
     if (closed.get()) {
       throw new IOException("Stream is closed!");
     }
+    if (targetPos != pos) {
+      sequentialBytes = 0;
+    }
     boolean done = false;
     if (pos <= targetPos && targetPos <= blockEnd) {
       //
@@ -1645,14 +1928,15 @@ public FileEncryptionInfo getFileEncryptionInfo() {
   }
 
   private void closeCurrentBlockReader() {
+    if (prefetch != null) {
+      prefetch.discard();
+      prefetch = null;
+      updateBlockPrefetchStatistics(false);
+    }
     if (blockReader == null) return;
     // Close the current block reader so that the new caching settings can 
     // take effect immediately.
-    try {
-      blockReader.close();
-    } catch (IOException e) {
-      DFSClient.LOG.error("error closing blockReader", e);
-    }
+    closeBlockReader(blockReader);
     blockReader = null;
     blockEnd = -1;
   }
@@ -0,0 +1,376 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hdfs.inotify.Event;
+import org.apache.hadoop.hdfs.inotify.EventBatch;
+import org.apache.hadoop.hdfs.inotify.MissingEventsException;
+import org.apache.hadoop.hdfs.protocol.HdfsFileStatus;
+import org.apache.hadoop.hdfs.protocol.LocatedBlock;
+import org.apache.hadoop.hdfs.protocol.LocatedBlocks;
+import org.apache.hadoop.util.Daemon;
+import org.apache.hadoop.util.Time;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.Weigher;
+
+/**
+ * A client-side cache of the file statuses and block locations returned by
+ * the namenode, for the applications looking up the same files repeatedly.
+ * The entries expire after a TTL.  They are invalidated by the changes made
+ * through this client and, if enabled, by the events of the inotify stream
+ * of the namenode.  Reading the inotify stream requires superuser
+ * privilege: if it cannot be read, the entries only expire.
+ * <p>
+ * The size of the cache is the number of file statuses and located blocks it
+ * holds.  The block locations of files under construction are not cached.
+ * <p>
+ * A lookup which misses takes a stamp before calling the namenode, and its
+ * result is not cached if the path was invalidated since, so that a result
+ * fetched before a change is never cached after it.
+ */
+@InterfaceAudience.Private
+public class DFSMetadataCache implements Closeable {
+  static final Log LOG = LogFactory.getLog(DFSMetadataCache.class);
+
+  private static final int NUM_STRIPES = 256;
+
+  /** The metadata cached for a path, replaced on every update. */
+  private static class Entry {
+    private final HdfsFileStatus status;
+    private final long statusTime;
+    /** The located blocks by range, see {@link #getRange(long, long)} */
+    private final Map<String, LocatedBlocks> blocks;
+    private final Map<String, Long> blocksTime;
+
+    Entry(HdfsFileStatus status, long statusTime,
+        Map<String, LocatedBlocks> blocks, Map<String, Long> blocksTime) {
+      this.status = status;
+      this.statusTime = statusTime;
+      this.blocks = blocks;
+      this.blocksTime = blocksTime;
+    }
+
+    int getWeight() {
+      int weight = 1;
+      for (LocatedBlocks b : blocks.values()) {
+        weight += b.locatedBlockCount();
+      }
+      return weight;
+    }
+  }
+
+  private final DFSClient client;
+  private final long ttlMs;
+  private final long pollIntervalMs;
+  private final Cache<String, Entry> cache;
+  /** Bumped by the invalidations of the paths of a stripe */
+  private final AtomicLongArray stripes = new AtomicLongArray(NUM_STRIPES);
+  /** Bumped by the invalidations of subtrees */
+  private final AtomicLong generation = new AtomicLong();
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+  private final Daemon inotifyReader;
+  /** Whether the metadata can be cached, once the inotify stream is read */
+  private volatile boolean started;
+  private volatile boolean closed = false;
+
+  /**
+   * @param client the client reading the inotify stream
+   * @param ttlMs the time after which the entries expire
+   * @param maxSize the maximum number of file statuses and located blocks
+   * @param pollIntervalMs the interval at which the inotify stream is polled,
+   *                       or 0 to not read the inotify stream
+   */
+  DFSMetadataCache(DFSClient client, long ttlMs, long maxSize,
+      long pollIntervalMs) {
+    this.client = client;
+    this.ttlMs = ttlMs;
+    this.pollIntervalMs = pollIntervalMs;
+    this.cache = CacheBuilder.newBuilder()
+        .maximumWeight(maxSize)
+        .weigher(new Weigher<String, Entry>() {
+          @Override
+          public int weigh(String path, Entry entry) {
+            return entry.getWeight();
+          }
+        })
+        .expireAfterWrite(ttlMs, TimeUnit.MILLISECONDS)
+        .build();
+    if (pollIntervalMs > 0) {
+      started = false;
+      inotifyReader = new Daemon(new InotifyReader());
+      inotifyReader.setName("DFSMetadataCache inotify reader for "
+          + client.clientName);
+      inotifyReader.start();
+    } else {
+      started = true;
+      inotifyReader = null;
+    }
+  }
+
+  private static String getRange(long start, long length) {
+    return start + "+" + length;
+  }
+
+  private static int getStripe(String path) {
+    return (path.hashCode() & Integer.MAX_VALUE) % NUM_STRIPES;
+  }
+
+  private boolean isLive(long time) {
+    return Time.monotonicNow() - time < ttlMs;
+  }
+
+  /**
+   * @return the stamp to pass to {@link #putFileInfo} or
+   *         {@link #putLocatedBlocks}, taken before calling the namenode
+   */
+  long getStamp(String path) {
+    if (!started) {
+      return -1;
+    }
+    return generation.get() + stripes.get(getStripe(path));
+  }
+
+  private boolean isCurrent(String path, long stamp) {
+    return stamp != -1 && !closed && stamp == getStamp(path);
+  }
+
+  /** @return the cached status of a path, or null */
+  HdfsFileStatus getFileInfo(String path) {
+    final Entry e = cache.getIfPresent(path);
+    if (e != null && e.status != null && isLive(e.statusTime)) {
+      hits.incrementAndGet();
+      return e.status;
+    }
+    misses.incrementAndGet();
+    return null;
+  }
+
+  synchronized void putFileInfo(String path, HdfsFileStatus status,
+      long stamp) {
+    if (status == null || !isCurrent(path, stamp)) {
+      return;
+    }
+    final Entry e = cache.getIfPresent(path);
+    cache.put(path, new Entry(status, Time.monotonicNow(),
+        e == null ? new HashMap<String, LocatedBlocks>() : e.blocks,
+        e == null ? new HashMap<String, Long>() : e.blocksTime));
+  }
+
+  /** @return a copy of the cached located blocks of a range, or null */
+  LocatedBlocks getLocatedBlocks(String path, long start, long length) {
+    final Entry e = cache.getIfPresent(path);
+    if (e != null) {
+      final String range = getRange(start, length);
+      final LocatedBlocks blocks = e.blocks.get(range);
+      if (blocks != null && isLive(e.blocksTime.get(range))) {
+        hits.incrementAndGet();
+        return copy(blocks);
+      }
+    }
+    misses.incrementAndGet();
+    return null;
+  }
+
+  synchronized void putLocatedBlocks(String path, long start, long length,
+      LocatedBlocks blocks, long stamp) {
+    if (blocks == null || blocks.isUnderConstruction()
+        || blocks.getLocatedBlocks() == null || !isCurrent(path, stamp)) {
+      return;
+    }
+    final Entry e = cache.getIfPresent(path);
+    final Map<String, LocatedBlocks> newBlocks =
+        new HashMap<String, LocatedBlocks>();
+    final Map<String, Long> newBlocksTime = new HashMap<String, Long>();
+    if (e != null) {
+      newBlocks.putAll(e.blocks);
+      newBlocksTime.putAll(e.blocksTime);
+    }
+    final String range = getRange(start, length);
+    newBlocks.put(range, copy(blocks));
+    newBlocksTime.put(range, Time.monotonicNow());
+    cache.put(path, new Entry(e == null ? null : e.status,
+        e == null ? 0 : e.statusTime, newBlocks, newBlocksTime));
+  }
+
+  /**
+   * The streams reading the file change their list of blocks, the cached
+   * ones are copied.
+   */
+  private static LocatedBlocks copy(LocatedBlocks blocks) {
+    return new LocatedBlocks(blocks.getFileLength(),
+        blocks.isUnderConstruction(),
+        new ArrayList<LocatedBlock>(blocks.getLocatedBlocks()),
+        blocks.getLastLocatedBlock(), blocks.isLastBlockComplete(),
+        blocks.getFileEncryptionInfo());
+  }
+
+  /** Invalidate a path, changed, and its parent directory. */
+  synchronized void invalidate(String path) {
+    stripes.incrementAndGet(getStripe(path));
+    cache.invalidate(path);
+    invalidateParent(path);
+  }
+
+  /**
+   * Invalidate a path, renamed or deleted, the paths under it, and its
+   * parent directory.
+   */
+  synchronized void invalidateTree(String path) {
+    generation.incrementAndGet();
+    final String prefix = path.endsWith(Path.SEPARATOR)
+        ? path : path + Path.SEPARATOR;
+    for (Iterator<String> it = cache.asMap().keySet().iterator();
+        it.hasNext(); ) {
+      final String p = it.next();
+      if (p.equals(path) || p.startsWith(prefix)) {
+        it.remove();
+      }
+    }
+    invalidateParent(path);
+  }
+
+  private void invalidateParent(String path) {
+    final String parent = new Path(path).getParent() == null
+        ? null : new Path(path).getParent().toUri().getPath();
+    if (parent != null) {
+      stripes.incrementAndGet(getStripe(parent));
+      cache.invalidate(parent);
+    }
+  }
+
+  synchronized void invalidateAll() {
+    generation.incrementAndGet();
+    cache.invalidateAll();
+  }
+
+  private void apply(Event event) {
+    switch (event.getEventType()) {
+    case CREATE:
+      invalidate(((Event.CreateEvent) event).getPath());
+      break;
+    case CLOSE:
+      invalidate(((Event.CloseEvent) event).getPath());
+      break;
+    case APPEND:
+      invalidate(((Event.AppendEvent) event).getPath());
+      break;
+    case METADATA:
+      invalidate(((Event.MetadataUpdateEvent) event).getPath());
+      break;
+    case RENAME:
+      invalidateTree(((Event.RenameEvent) event).getSrcPath());
+      invalidateTree(((Event.RenameEvent) event).getDstPath());
+      break;
+    case UNLINK:
+      invalidateTree(((Event.UnlinkEvent) event).getPath());
+      break;
+    default:
+      invalidateAll();
+    }
+  }
+
+  /** Invalidate the cache with the events of the inotify stream. */
+  private class InotifyReader implements Runnable {
+    @Override
+    public void run() {
+      DFSInotifyEventInputStream events;
+      try {
+        events = client.getInotifyEventStream();
+        // the first poll gets the last transaction of the namenode
+        events.poll();
+      } catch (IOException | MissingEventsException e) {
+        LOG.warn("Failed to read the inotify stream, the metadata cache of "
+            + client.clientName + " is invalidated by its TTL only", e);
+        started = true;
+        return;
+      }
+      started = true;
+      while (!closed) {
+        try {
+          final EventBatch batch = events.poll();
+          if (batch == null) {
+            Thread.sleep(pollIntervalMs);
+            continue;
+          }
+          for (Event event : batch.getEvents()) {
+            apply(event);
+          }
+        } catch (MissingEventsException e) {
+          LOG.warn("Missed inotify events, invalidating the metadata cache",
+              e);
+          invalidateAll();
+        } catch (IOException e) {
+          LOG.warn("Failed to poll the inotify stream", e);
+          try {
+            Thread.sleep(pollIntervalMs);
+          } catch (InterruptedException ie) {
+            break;
+          }
+        } catch (InterruptedException e) {
+          break;
+        }
+      }
+    }
+  }
+
+  /** @return whether the cache is invalidated by the inotify stream */
+  @VisibleForTesting
+  boolean isStarted() {
+    return started;
+  }
+
+  public long getHits() {
+    return hits.get();
+  }
+
+  public long getMisses() {
+    return misses.get();
+  }
+
+  /** @return the number of paths cached */
+  public long getSize() {
+    return cache.size();
+  }
+
+  @Override
+  public void close() {
+    closed = true;
+    if (inotifyReader != null) {
+      inotifyReader.interrupt();
+    }
+    invalidateAll();
+  }
+}
@@ -107,6 +107,9 @@ public class DFSOutputStream extends FSOutputSummer
 
   protected DFSPacket currentPacket = null;
   protected DataStreamer streamer;
+  /** The streamer of the previous block, if it is written in parallel. */
+  private DataStreamer previousStreamer;
+  private final boolean parallelStreams;
   protected int packetSize = 0; // write packet size, not including the header.
   protected int chunksPerPacket = 0;
   protected long lastFlushOffset = 0; // offset when flush was invoked
@@ -187,6 +190,7 @@ private DFSOutputStream(DFSClient dfsClient, String src, Progressable progress,
     this.fileEncryptionInfo = stat.getFileEncryptionInfo();
     this.cachingStrategy = new AtomicReference<CachingStrategy>(
         dfsClient.getDefaultWriteCachingStrategy());
+    this.parallelStreams = dfsClient.getConf().isBlockWriteParallelStreams();
     if ((progress != null) && DFSClient.LOG.isDebugEnabled()) {
       DFSClient.LOG.debug(
           "Set non-null progress callback on DFSOutputStream " + src);
@@ -463,10 +467,75 @@ protected void endBlock() throws IOException {
       currentPacket = createPacket(0, 0, streamer.getBytesCurBlock(),
           streamer.getAndIncCurrentSeqno(), true);
       currentPacket.setSyncBlock(shouldSyncBlock);
+      if (parallelStreams) {
+        streamer.closeAfterPacket(currentPacket.getSeqno());
+      }
       streamer.waitAndQueuePacket(currentPacket);
       currentPacket = null;
       streamer.setBytesCurBlock(0);
       lastFlushOffset = 0;
+      if (parallelStreams) {
+        startNextStreamer();
+      }
+    }
+  }
+
+  /**
+   * Start writing the next block with a new streamer, while the current
+   * streamer waits for the acks of its block.  The new streamer commits the
+   * current block with its full length and allocates the next one as soon
+   * as the pipeline of the current block is set up.  The current streamer
+   * can still recover its pipeline, as the NameNode only completes the
+   * committed block once enough replicas are finalized.  At most two
+   * streamers are writing at the same time.
+   */
+  private void startNextStreamer() throws IOException {
+    // the previous block is committed by the current streamer
+    waitForPreviousStreamer(true);
+    DataStreamer next = new DataStreamer(streamer);
+    next.start();
+    previousStreamer = streamer;
+    streamer = next;
+  }
+
+  /**
+   * Wait for the previous streamer to get its block acked.
+   *
+   * @param committed whether the previous block has been committed with its
+   *        full length.  A failure of the previous streamer is then left to
+   *        the NameNode, which neither allocates another block nor completes
+   *        the file before the committed block has enough finalized
+   *        replicas.  The block may also have been completed before the
+   *        streamer could recover its pipeline.
+   * @throws IOException if the previous block failed to be written and is
+   *         not committed, the stream is closed then
+   */
+  private synchronized void waitForPreviousStreamer(boolean committed)
+      throws IOException {
+    if (previousStreamer == null) {
+      return;
+    }
+    try {
+      previousStreamer.join();
+    } catch (InterruptedException e) {
+      throw new InterruptedIOException(
+          "Interrupted while waiting for the previous block of " + src);
+    }
+    if (!previousStreamer.isBlockClosed()) {
+      IOException e = previousStreamer.getLastException().get();
+      if (e == null) {
+        e = new IOException("Failed to write " + previousStreamer.getBlock()
+            + " of " + src);
+      }
+      if (committed) {
+        DFSClient.LOG.warn("Failed to recover the pipeline of committed "
+            + previousStreamer.getBlock() + " of " + src
+            + ", leaving it to the NameNode to check its replicas", e);
+        return;
+      }
+      streamer.setLastException(e);
+      closeThreads(true);
+      throw e;
     }
   }
   
@@ -547,6 +616,8 @@ private void flushOrSync(boolean isSync, EnumSet<SyncFlag> syncFlags)
       boolean updateLength = syncFlags.contains(SyncFlag.UPDATE_LENGTH);
       boolean endBlock = syncFlags.contains(SyncFlag.END_BLOCK);
       synchronized (this) {
+        // the data of the previous block has to be acked as well
+        waitForPreviousStreamer(false);
         // flush checksum buffer, but keep checksum buffer intact if we do not
         // need to end the current block
         int numKept = flushBuffer(!endBlock, true);
@@ -737,12 +808,20 @@ void setClosed() {
   // interrupt datastreamer if force is true
   protected void closeThreads(boolean force) throws IOException {
     try {
+      if (previousStreamer != null) {
+        previousStreamer.close(force);
+        previousStreamer.join();
+        previousStreamer.closeSocket();
+      }
       streamer.close(force);
       streamer.join();
       streamer.closeSocket();
     } catch (InterruptedException e) {
       throw new IOException("Failed to shutdown streamer");
     } finally {
+      if (previousStreamer != null) {
+        previousStreamer.setSocketToNull();
+      }
       streamer.setSocketToNull();
       setClosed();
     }
@@ -788,14 +867,21 @@ protected synchronized void closeImpl() throws IOException {
       }
 
       flushInternal();             // flush all data to Datanodes
+      // the previous block is committed unless the file ends with it
+      waitForPreviousStreamer(streamer.getBlock() != null);
       // get last block before destroying the streamer
       ExtendedBlock lastBlock = streamer.getBlock();
+      if (lastBlock == null && previousStreamer != null) {
+        // the file ends with the block of the previous streamer
+        lastBlock = previousStreamer.getBlock();
+      }
       closeThreads(false);
       TraceScope scope = Trace.startSpan("completeFile", Sampler.NEVER);
       try {
         completeFile(lastBlock);
       } finally {
         scope.close();
+        dfsClient.invalidateMetadata(src);
       }
       dfsClient.endFileLease(fileId);
     } catch (ClosedChannelException e) {
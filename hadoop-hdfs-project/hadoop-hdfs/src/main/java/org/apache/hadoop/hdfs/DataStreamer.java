@@ -169,7 +169,7 @@ private static void releaseBuffer(List<DFSPacket> packets, ByteArrayManager bam)
   }
 
   private volatile boolean streamerClosed = false;
-  private ExtendedBlock block; // its length is number of bytes acked
+  private volatile ExtendedBlock block; // its length is number of bytes acked
   private Token<BlockTokenIdentifier> accessToken;
   private DataOutputStream blockStream;
   private DataInputStream blockReplyStream;
@@ -234,6 +234,20 @@ private static void releaseBuffer(List<DFSPacket> packets, ByteArrayManager bam)
 
   private final LoadingCache<DatanodeInfo, DatanodeInfo> excludedNodes;
 
+  /** The streamer of the previous block, still writing it, if any. */
+  private DataStreamer previous;
+  /** Close the streamer once the block ended by this packet is acked. */
+  private volatile long closeAfterSeqno = -1;
+  /** Has a pipeline been set up for the current block? */
+  private volatile boolean blockAllocated = false;
+  /** Has the block been closed before closing the streamer? */
+  private volatile boolean blockClosed = false;
+  /**
+   * Held while the generation stamp of the block changes at the NameNode,
+   * and by the streamer of the next block while it commits this block.
+   */
+  private final Object commitLock = new Object();
+
   private DataStreamer(HdfsFileStatus stat, DFSClient dfsClient, String src,
                        Progressable progress, DataChecksum checksum,
                        AtomicReference<CachingStrategy> cachingStrategy,
@@ -284,6 +298,24 @@ private DataStreamer(HdfsFileStatus stat, DFSClient dfsClient, String src,
     accessToken = lastBlock.getBlockToken();
   }
 
+  /**
+   * Construct a data streamer for the block following the block of another
+   * streamer, while the other streamer is still writing it.  The previous
+   * block is committed with its full length when the next one is allocated,
+   * as soon as the pipeline of the previous block is set up.
+   *
+   * @param previous the streamer of the previous block, which must be full
+   */
+  DataStreamer(DataStreamer previous) {
+    this(previous.stat, previous.dfsClient, previous.src, previous.progress,
+        previous.checksum4WriteBlock, previous.cachingStrategy,
+        previous.byteArrayManager);
+    isAppend = false;
+    stage = BlockConstructionStage.PIPELINE_SETUP_CREATE;
+    favoredNodes = previous.favoredNodes;
+    this.previous = previous;
+  }
+
   /**
    * Set pipeline in construction
    *
@@ -330,6 +362,10 @@ private void initDataStreaming() {
     response = new ResponseProcessor(nodes);
     response.start();
     stage = BlockConstructionStage.DATA_STREAMING;
+    synchronized (dataQueue) {
+      blockAllocated = true;
+      dataQueue.notifyAll();
+    }
   }
 
   private void endBlock() {
@@ -341,6 +377,7 @@ private void endBlock() {
     closeStream();
     setPipeline(null, null, null);
     stage = BlockConstructionStage.PIPELINE_SETUP_CREATE;
+    blockAllocated = false;
   }
 
   /*
@@ -456,6 +493,7 @@ public void run() {
           if (streamerClosed || hasError || !dfsClient.clientRunning) {
             continue;
           }
+          DFSClientFaultInjector.get().beforeLastPacketInBlock();
           stage = BlockConstructionStage.PIPELINE_CLOSE;
         }
 
@@ -520,6 +558,14 @@ public void run() {
           }
 
           endBlock();
+          if (one.getSeqno() == closeAfterSeqno) {
+            // the next block is written by another streamer
+            synchronized (dataQueue) {
+              blockClosed = true;
+              streamerClosed = true;
+              dataQueue.notifyAll();
+            }
+          }
         }
         if (progress != null) { progress.progress(); }
 
@@ -685,6 +731,54 @@ void close(boolean force) {
   }
 
 
+  /**
+   * Close the streamer once the block ended by a packet is acked, instead of
+   * setting up a pipeline for the next block.
+   *
+   * @param seqno the sequence number of the last packet of the block
+   */
+  void closeAfterPacket(long seqno) {
+    closeAfterSeqno = seqno;
+  }
+
+  /**
+   * @return whether the streamer was closed once its last block was acked
+   */
+  boolean isBlockClosed() {
+    return blockClosed;
+  }
+
+  /**
+   * Wait for the pipeline of the block of this streamer to be set up, and
+   * get the block to be committed as the previous block of the next one.
+   * Its packets may still be in flight.  The NameNode only completes the
+   * committed block once enough replicas are finalized, and lets this
+   * streamer recover its pipeline until then.  The caller holds
+   * {@link #commitLock}, so that the generation stamp does not change
+   * before the block is committed.
+   *
+   * @param length the length of the block once written
+   * @return the block with the given length
+   * @throws IOException if the streamer failed before setting up a pipeline
+   */
+  private ExtendedBlock getBlockToCommit(long length) throws IOException {
+    assert Thread.holdsLock(commitLock);
+    synchronized (dataQueue) {
+      while (!blockAllocated && !blockClosed) {
+        checkClosed();
+        try {
+          dataQueue.wait(1000);
+        } catch (InterruptedException e) {
+          throw new InterruptedIOException(
+              "Interrupted while waiting for the previous block of " + src);
+        }
+      }
+    }
+    ExtendedBlock b = new ExtendedBlock(block);
+    b.setNumBytes(length);
+    return b;
+  }
+
   private void checkClosed() throws IOException {
     if (streamerClosed) {
       IOException e = lastException.get();
@@ -1297,10 +1391,12 @@ private boolean setupPipelineForAppendOrRecovery() throws IOException {
       // update pipeline at the namenode
       ExtendedBlock newBlock = new ExtendedBlock(
           block.getBlockPoolId(), block.getBlockId(), block.getNumBytes(), newGS);
-      dfsClient.namenode.updatePipeline(dfsClient.clientName, block, newBlock,
-          nodes, storageIDs);
-      // update client side generation stamp
-      block = newBlock;
+      synchronized (commitLock) {
+        dfsClient.namenode.updatePipeline(dfsClient.clientName, block,
+            newBlock, nodes, storageIDs);
+        // update client side generation stamp
+        block = newBlock;
+      }
     }
     return false; // do not sleep, continue processing
   }
@@ -1328,8 +1424,16 @@ private LocatedBlock nextBlockOutputStream() throws IOException {
           excludedNodes.getAllPresent(excludedNodes.asMap().keySet())
               .keySet()
               .toArray(new DatanodeInfo[0]);
-      block = oldBlock;
-      lb = locateFollowingBlock(excluded.length > 0 ? excluded : null);
+      if (previous != null) {
+        // commit the block of the previous streamer, while it is written
+        synchronized (previous.commitLock) {
+          block = previous.getBlockToCommit(stat.getBlockSize());
+          lb = locateFollowingBlock(excluded.length > 0 ? excluded : null);
+        }
+      } else {
+        block = oldBlock;
+        lb = locateFollowingBlock(excluded.length > 0 ? excluded : null);
+      }
       block = lb.getBlock();
       block.setNumBytes(0);
       bytesSent = 0;
@@ -1355,6 +1459,7 @@ private LocatedBlock nextBlockOutputStream() throws IOException {
     if (!success) {
       throw new IOException("Unable to create new block.");
     }
+    previous = null;
     return lb;
   }
 
@@ -113,6 +113,7 @@ public class DistributedFileSystem extends FileSystem {
 
   DFSClient dfs;
   private boolean verifyChecksum = true;
+  private AsyncDistributedFileSystem asyncDfs;
   
   static{
     HdfsConfiguration.init();
@@ -192,7 +193,7 @@ public Path getHomeDirectory() {
    * @return path component of {file}
    * @throws IllegalArgumentException if URI does not belong to this DFS
    */
-  private String getPathName(Path file) {
+  String getPathName(Path file) {
     checkPath(file);
     String result = file.toUri().getPath();
     if (!DFSUtil.isValidName(result)) {
@@ -1092,6 +1093,28 @@ public String toString() {
   public DFSClient getClient() {
     return dfs;
   }        
+
+  /**
+   * Get a view of this file system whose metadata operations return futures
+   * instead of waiting for the NameNode, so that a single thread can keep
+   * many operations in flight.
+   */
+  @InterfaceStability.Unstable
+  public synchronized AsyncDistributedFileSystem getAsyncDistributedFileSystem() {
+    if (asyncDfs == null) {
+      asyncDfs = new AsyncDistributedFileSystem(this);
+    }
+    return asyncDfs;
+  }
+
+  Statistics getFsStatistics() {
+    return statistics;
+  }
+
+  @Override
+  protected Path fixRelativePart(Path p) {
+    return super.fixRelativePart(p);
+  }
   
   @Override
   public FsStatus getStatus(Path p) throws IOException {
@@ -82,6 +82,7 @@ public class DfsClientConf {
   private final int numBlockWriteRetry;
   private final int numBlockWriteLocateFollowingRetry;
   private final int blockWriteLocateFollowingInitialDelayMs;
+  private final boolean blockWriteParallelStreams;
   private final long defaultBlockSize;
   private final long prefetchSize;
   private final short defaultReplication;
@@ -101,6 +102,17 @@ public class DfsClientConf {
   private final long hedgedReadThresholdMillis;
   private final int hedgedReadThreadpoolSize;
 
+  private final int blockPrefetchThreadpoolSize;
+  private final long blockPrefetchSequentialBytes;
+  private final long blockPrefetchWindowBytes;
+
+  private final int vectoredReadThreadpoolSize;
+
+  private final boolean metadataCacheEnabled;
+  private final long metadataCacheTtlMs;
+  private final long metadataCacheMaxSize;
+  private final long metadataCacheInotifyPollMs;
+
   public DfsClientConf(Configuration conf) {
     // The hdfsTimeout is currently the same as the ipc timeout 
     hdfsTimeout = Client.getTimeout(conf);
@@ -187,6 +199,9 @@ public DfsClientConf(Configuration conf) {
     blockWriteLocateFollowingInitialDelayMs = conf.getInt(
         HdfsClientConfigKeys.BlockWrite.LOCATEFOLLOWINGBLOCK_INITIAL_DELAY_MS_KEY,
         HdfsClientConfigKeys.BlockWrite.LOCATEFOLLOWINGBLOCK_INITIAL_DELAY_MS_DEFAULT);
+    blockWriteParallelStreams = conf.getBoolean(
+        HdfsClientConfigKeys.BlockWrite.PARALLEL_STREAMS_ENABLED_KEY,
+        HdfsClientConfigKeys.BlockWrite.PARALLEL_STREAMS_ENABLED_DEFAULT);
     uMask = FsPermission.getUMask(conf);
     connectToDnViaHostname = conf.getBoolean(DFS_CLIENT_USE_DN_HOSTNAME,
         DFS_CLIENT_USE_DN_HOSTNAME_DEFAULT);
@@ -215,6 +230,33 @@ public DfsClientConf(Configuration conf) {
     hedgedReadThreadpoolSize = conf.getInt(
         HdfsClientConfigKeys.HedgedRead.THREADPOOL_SIZE_KEY,
         HdfsClientConfigKeys.HedgedRead.THREADPOOL_SIZE_DEFAULT);
+
+    blockPrefetchThreadpoolSize = conf.getInt(
+        HdfsClientConfigKeys.Read.BlockPrefetch.THREADPOOL_SIZE_KEY,
+        HdfsClientConfigKeys.Read.BlockPrefetch.THREADPOOL_SIZE_DEFAULT);
+    blockPrefetchSequentialBytes = conf.getLong(
+        HdfsClientConfigKeys.Read.BlockPrefetch.SEQUENTIAL_BYTES_KEY,
+        HdfsClientConfigKeys.Read.BlockPrefetch.SEQUENTIAL_BYTES_DEFAULT);
+    blockPrefetchWindowBytes = conf.getLong(
+        HdfsClientConfigKeys.Read.BlockPrefetch.WINDOW_BYTES_KEY,
+        HdfsClientConfigKeys.Read.BlockPrefetch.WINDOW_BYTES_DEFAULT);
+
+    vectoredReadThreadpoolSize = conf.getInt(
+        HdfsClientConfigKeys.Read.Vectored.THREADPOOL_SIZE_KEY,
+        HdfsClientConfigKeys.Read.Vectored.THREADPOOL_SIZE_DEFAULT);
+
+    metadataCacheEnabled = conf.getBoolean(
+        HdfsClientConfigKeys.MetadataCache.ENABLED_KEY,
+        HdfsClientConfigKeys.MetadataCache.ENABLED_DEFAULT);
+    metadataCacheTtlMs = conf.getLong(
+        HdfsClientConfigKeys.MetadataCache.TTL_MS_KEY,
+        HdfsClientConfigKeys.MetadataCache.TTL_MS_DEFAULT);
+    metadataCacheMaxSize = conf.getLong(
+        HdfsClientConfigKeys.MetadataCache.MAX_SIZE_KEY,
+        HdfsClientConfigKeys.MetadataCache.MAX_SIZE_DEFAULT);
+    metadataCacheInotifyPollMs = conf.getLong(
+        HdfsClientConfigKeys.MetadataCache.INOTIFY_POLL_MS_KEY,
+        HdfsClientConfigKeys.MetadataCache.INOTIFY_POLL_MS_DEFAULT);
   }
 
   private DataChecksum.Type getChecksumType(Configuration conf) {
@@ -260,6 +302,14 @@ public int getBlockWriteLocateFollowingInitialDelayMs() {
     return blockWriteLocateFollowingInitialDelayMs;
   }
 
+  /**
+   * @return whether the next block is written while the previous one is
+   *         still being written
+   */
+  public boolean isBlockWriteParallelStreams() {
+    return blockWriteParallelStreams;
+  }
+
   /**
    * @return the hdfsTimeout
    */
@@ -491,6 +541,62 @@ public int getHedgedReadThreadpoolSize() {
     return hedgedReadThreadpoolSize;
   }
 
+  /**
+   * @return the blockPrefetchThreadpoolSize
+   */
+  public int getBlockPrefetchThreadpoolSize() {
+    return blockPrefetchThreadpoolSize;
+  }
+
+  /**
+   * @return the blockPrefetchSequentialBytes
+   */
+  public long getBlockPrefetchSequentialBytes() {
+    return blockPrefetchSequentialBytes;
+  }
+
+  /**
+   * @return the blockPrefetchWindowBytes
+   */
+  public long getBlockPrefetchWindowBytes() {
+    return blockPrefetchWindowBytes;
+  }
+
+  /**
+   * @return the vectoredReadThreadpoolSize
+   */
+  public int getVectoredReadThreadpoolSize() {
+    return vectoredReadThreadpoolSize;
+  }
+
+  /**
+   * @return the metadataCacheEnabled
+   */
+  public boolean isMetadataCacheEnabled() {
+    return metadataCacheEnabled;
+  }
+
+  /**
+   * @return the metadataCacheTtlMs
+   */
+  public long getMetadataCacheTtlMs() {
+    return metadataCacheTtlMs;
+  }
+
+  /**
+   * @return the metadataCacheMaxSize
+   */
+  public long getMetadataCacheMaxSize() {
+    return metadataCacheMaxSize;
+  }
+
+  /**
+   * @return the metadataCacheInotifyPollMs
+   */
+  public long getMetadataCacheInotifyPollMs() {
+    return metadataCacheInotifyPollMs;
+  }
+
   /**
    * @return the shortCircuitConf
    */
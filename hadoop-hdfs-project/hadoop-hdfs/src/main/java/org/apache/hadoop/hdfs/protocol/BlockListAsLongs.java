@@ -21,6 +21,7 @@
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Iterator;
@@ -70,7 +71,20 @@ public Iterator<BlockReportReplica> iterator() {
    */
   public static BlockListAsLongs decodeBuffer(final int numBlocks,
       final ByteString blocksBuf) {
-    return new BufferDecoder(numBlocks, blocksBuf);
+    return decodeBuffer(numBlocks, blocksBuf, false);
+  }
+
+  /**
+   * Prepare an instance to in-place decode the given ByteString buffer
+   * @param numBlocks - blocks in the buffer
+   * @param blocksBuf - ByteString encoded varints
+   * @param sorted - whether the buffer is sorted by block id and delta
+   *                 encoded
+   * @return BlockListAsLongs
+   */
+  public static BlockListAsLongs decodeBuffer(final int numBlocks,
+      final ByteString blocksBuf, final boolean sorted) {
+    return new BufferDecoder(numBlocks, -1, blocksBuf, sorted);
   }
 
   /**
@@ -81,8 +95,21 @@ public static BlockListAsLongs decodeBuffer(final int numBlocks,
    */
   public static BlockListAsLongs decodeBuffers(final int numBlocks,
       final List<ByteString> blocksBufs) {
+    return decodeBuffers(numBlocks, blocksBufs, false);
+  }
+
+  /**
+   * Prepare an instance to in-place decode the given ByteString buffers
+   * @param numBlocks - blocks in the buffers
+   * @param blocksBufs - list of ByteString encoded varints
+   * @param sorted - whether the buffers are sorted by block id and delta
+   *                 encoded
+   * @return BlockListAsLongs
+   */
+  public static BlockListAsLongs decodeBuffers(final int numBlocks,
+      final List<ByteString> blocksBufs, final boolean sorted) {
     // this doesn't actually copy the data
-    return decodeBuffer(numBlocks, ByteString.copyFrom(blocksBufs));
+    return decodeBuffer(numBlocks, ByteString.copyFrom(blocksBufs), sorted);
   }
 
   /**
@@ -115,6 +142,7 @@ public static BlockListAsLongs readFrom(InputStream is) throws IOException {
     CodedInputStream cis = CodedInputStream.newInstance(is);
     int numBlocks = -1;
     ByteString blocksBuf = null;
+    boolean sorted = false;
     while (!cis.isAtEnd()) {
       int tag = cis.readTag();
       int field = WireFormat.getTagFieldNumber(tag);
@@ -127,13 +155,16 @@ public static BlockListAsLongs readFrom(InputStream is) throws IOException {
         case 2:
           blocksBuf = cis.readBytes();
           break;
+        case 3:
+          sorted = cis.readBool();
+          break;
         default:
           cis.skipField(tag);
           break;
       }
     }
     if (numBlocks != -1 && blocksBuf != null) {
-      return decodeBuffer(numBlocks, blocksBuf);
+      return decodeBuffer(numBlocks, blocksBuf, sorted);
     }
     return null;
   }
@@ -142,11 +173,47 @@ public void writeTo(OutputStream os) throws IOException {
     CodedOutputStream cos = CodedOutputStream.newInstance(os);
     cos.writeInt32(1, getNumberOfBlocks());
     cos.writeBytes(2, getBlocksBuffer());
+    if (isSorted()) {
+      cos.writeBool(3, true);
+    }
     cos.flush();
   }
   
   public static Builder builder() {
-    return new BlockListAsLongs.Builder();
+    return new BlockListAsLongs.Builder(false);
+  }
+
+  /**
+   * @return a builder of a report sorted by block id, whose buffer is
+   *         delta encoded
+   */
+  public static Builder sortedBuilder() {
+    return new BlockListAsLongs.Builder(true);
+  }
+
+  /**
+   * Whether the buffer of this report is sorted by block id and delta
+   * encoded, see {@link #getBlocksBuffer()}.  The replicas are then
+   * iterated in the order of their block ids.
+   * @return true if the report is sorted
+   */
+  public boolean isSorted() {
+    return false;
+  }
+
+  /**
+   * Encode this report sorted by block id.
+   * @return this report if it is already sorted, otherwise a sorted copy
+   */
+  public BlockListAsLongs sort() {
+    if (isSorted()) {
+      return this;
+    }
+    Builder builder = sortedBuilder();
+    for (Replica replica : this) {
+      builder.add(replica);
+    }
+    return builder.build();
   }
 
   /**
@@ -165,6 +232,11 @@ public static Builder builder() {
    * - each replica is represented by 4 longs:
    *   blockId, block length, genstamp, replica state
    *
+   * In a sorted report, the replicas are sorted by block id, and the
+   * block id and the genstamp of a replica are encoded as their difference
+   * with those of the previous replica.  As block ids are mostly
+   * sequential, most replicas then take a few bytes less.
+   *
    * @return ByteString encoded block report
    */
   abstract public ByteString getBlocksBuffer();
@@ -217,34 +289,124 @@ public List<ByteString> getBlocksBuffers() {
   abstract public Iterator<BlockReportReplica> iterator();
 
   public static class Builder {
+    /** Longs per replica buffered by a sorted builder */
+    private static final int LONGS_PER_REPLICA = 4;
+
     private final ByteString.Output out;
     private final CodedOutputStream cos;
+    private final boolean sorted;
+    /** The replicas of a sorted builder, until they are sorted */
+    private long[] replicas;
     private int numBlocks = 0;
     private int numFinalized = 0;
 
-    Builder() {
+    Builder(boolean sorted) {
       out = ByteString.newOutput(64*1024);
       cos = CodedOutputStream.newInstance(out);
+      this.sorted = sorted;
+      if (sorted) {
+        replicas = new long[1024 * LONGS_PER_REPLICA];
+      }
     }
 
     public void add(Replica replica) {
+      ReplicaState state = replica.getState();
+      if (sorted) {
+        int i = numBlocks * LONGS_PER_REPLICA;
+        if (i == replicas.length) {
+          replicas = Arrays.copyOf(replicas, replicas.length * 2);
+        }
+        replicas[i] = replica.getBlockId();
+        replicas[i + 1] = replica.getBytesOnDisk();
+        replicas[i + 2] = replica.getGenerationStamp();
+        replicas[i + 3] = state.getValue();
+      } else {
+        write(replica.getBlockId(), replica.getBytesOnDisk(),
+            replica.getGenerationStamp(), state.getValue());
+      }
+      if (state == ReplicaState.FINALIZED) {
+        numFinalized++;
+      }
+      numBlocks++;
+    }
+
+    private void write(long blockId, long numBytes, long genStamp,
+        long state) {
       try {
         // zig-zag to reduce size of legacy blocks
-        cos.writeSInt64NoTag(replica.getBlockId());
-        cos.writeRawVarint64(replica.getBytesOnDisk());
-        cos.writeRawVarint64(replica.getGenerationStamp());
-        ReplicaState state = replica.getState();
+        cos.writeSInt64NoTag(blockId);
+        cos.writeRawVarint64(numBytes);
+        cos.writeRawVarint64(genStamp);
         // although state is not a 64-bit value, using a long varint to
         // allow for future use of the upper bits
-        cos.writeRawVarint64(state.getValue());
-        if (state == ReplicaState.FINALIZED) {
-          numFinalized++;
+        cos.writeRawVarint64(state);
+      } catch (IOException ioe) {
+        // shouldn't happen, ByteString.Output doesn't throw IOE
+        throw new IllegalStateException(ioe);
+      }
+    }
+
+    private void writeSorted() {
+      sortById(replicas, numBlocks);
+      long prevBlockId = 0;
+      long prevGenStamp = 0;
+      try {
+        for (int i = 0; i < numBlocks * LONGS_PER_REPLICA;
+            i += LONGS_PER_REPLICA) {
+          // the difference may overflow, but is then decoded by overflowing
+          // back, and it is positive anyway for every block but the first
+          cos.writeRawVarint64(replicas[i] - prevBlockId);
+          cos.writeRawVarint64(replicas[i + 1]);
+          cos.writeSInt64NoTag(replicas[i + 2] - prevGenStamp);
+          cos.writeRawVarint64(replicas[i + 3]);
+          prevBlockId = replicas[i];
+          prevGenStamp = replicas[i + 2];
         }
-        numBlocks++;
       } catch (IOException ioe) {
         // shouldn't happen, ByteString.Output doesn't throw IOE
         throw new IllegalStateException(ioe);
       }
+      replicas = null;
+    }
+
+    /**
+     * Heap sort the given number of replicas, each a row of longs starting
+     * with its block id, without boxing them.
+     */
+    private static void sortById(long[] rows, int n) {
+      for (int i = n / 2 - 1; i >= 0; i--) {
+        siftDown(rows, i, n);
+      }
+      for (int end = n - 1; end > 0; end--) {
+        swap(rows, 0, end);
+        siftDown(rows, 0, end);
+      }
+    }
+
+    private static void siftDown(long[] rows, int i, int n) {
+      while (true) {
+        int child = 2 * i + 1;
+        if (child >= n) {
+          return;
+        }
+        if (child + 1 < n && rows[(child + 1) * LONGS_PER_REPLICA]
+            > rows[child * LONGS_PER_REPLICA]) {
+          child++;
+        }
+        if (rows[i * LONGS_PER_REPLICA] >= rows[child * LONGS_PER_REPLICA]) {
+          return;
+        }
+        swap(rows, i, child);
+        i = child;
+      }
+    }
+
+    private static void swap(long[] rows, int i, int j) {
+      for (int k = 0; k < LONGS_PER_REPLICA; k++) {
+        long tmp = rows[i * LONGS_PER_REPLICA + k];
+        rows[i * LONGS_PER_REPLICA + k] = rows[j * LONGS_PER_REPLICA + k];
+        rows[j * LONGS_PER_REPLICA + k] = tmp;
+      }
     }
 
     public int getNumberOfBlocks() {
@@ -252,13 +414,17 @@ public int getNumberOfBlocks() {
     }
     
     public BlockListAsLongs build() {
+      if (sorted) {
+        writeSorted();
+      }
       try {
         cos.flush();
       } catch (IOException ioe) {
         // shouldn't happen, ByteString.Output doesn't throw IOE
         throw new IllegalStateException(ioe);
       }
-      return new BufferDecoder(numBlocks, numFinalized, out.toByteString());
+      return new BufferDecoder(numBlocks, numFinalized, out.toByteString(),
+          sorted);
     }
   }
 
@@ -273,16 +439,19 @@ private static class BufferDecoder extends BlockListAsLongs {
     private final ByteString buffer;
     private final int numBlocks;
     private int numFinalized;
-
-    BufferDecoder(final int numBlocks, final ByteString buf) {
-      this(numBlocks, -1, buf);
-    }
+    private final boolean sorted;
 
     BufferDecoder(final int numBlocks, final int numFinalized,
-        final ByteString buf) {
+        final ByteString buf, final boolean sorted) {
       this.numBlocks = numBlocks;
       this.numFinalized = numFinalized;
       this.buffer = buf;
+      this.sorted = sorted;
+    }
+
+    @Override
+    public boolean isSorted() {
+      return sorted;
     }
 
     @Override
@@ -348,6 +517,8 @@ public Iterator<BlockReportReplica> iterator() {
         final BlockReportReplica block = new BlockReportReplica();
         final CodedInputStream cis = buffer.newCodedInput();
         private int currentBlockIndex = 0;
+        private long prevBlockId = 0;
+        private long prevGenStamp = 0;
 
         @Override
         public boolean hasNext() {
@@ -358,11 +529,19 @@ public boolean hasNext() {
         public BlockReportReplica next() {
           currentBlockIndex++;
           try {
-            // zig-zag to reduce size of legacy blocks and mask off bits
-            // we don't (yet) understand
-            block.setBlockId(cis.readSInt64());
-            block.setNumBytes(cis.readRawVarint64() & NUM_BYTES_MASK);
-            block.setGenerationStamp(cis.readRawVarint64());
+            if (sorted) {
+              prevBlockId += cis.readRawVarint64();
+              block.setBlockId(prevBlockId);
+              block.setNumBytes(cis.readRawVarint64() & NUM_BYTES_MASK);
+              prevGenStamp += cis.readSInt64();
+              block.setGenerationStamp(prevGenStamp);
+            } else {
+              // zig-zag to reduce size of legacy blocks and mask off bits
+              // we don't (yet) understand
+              block.setBlockId(cis.readSInt64());
+              block.setNumBytes(cis.readRawVarint64() & NUM_BYTES_MASK);
+              block.setGenerationStamp(cis.readRawVarint64());
+            }
             long state = cis.readRawVarint64() & REPLICA_STATE_MASK;
             block.setState(ReplicaState.getState((int)state));
           } catch (IOException e) {
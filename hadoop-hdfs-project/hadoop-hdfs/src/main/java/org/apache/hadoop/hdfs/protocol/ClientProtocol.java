@@ -51,6 +51,7 @@
 import org.apache.hadoop.hdfs.security.token.delegation.DelegationTokenSelector;
 import org.apache.hadoop.hdfs.server.namenode.NotReplicatedYetException;
 import org.apache.hadoop.hdfs.server.namenode.SafeModeException;
+import org.apache.hadoop.hdfs.server.namenode.ha.ReadOnly;
 import org.apache.hadoop.hdfs.server.protocol.DatanodeStorageReport;
 import org.apache.hadoop.io.EnumSetWritable;
 import org.apache.hadoop.io.Text;
@@ -126,6 +127,7 @@ public interface ClientProtocol {
    * @throws IOException If an I/O error occurred
    */
   @Idempotent
+  @ReadOnly
   public LocatedBlocks getBlockLocations(String src,
                                          long offset,
                                          long length) 
@@ -624,6 +626,7 @@ public boolean mkdirs(String src, FsPermission masked, boolean createParent)
    * @throws IOException If an I/O error occurred
    */
   @Idempotent
+  @ReadOnly
   public DirectoryListing getListing(String src,
                                      byte[] startAfter,
                                      boolean needLocation)
@@ -731,6 +734,7 @@ public DatanodeStorageReport[] getDatanodeStorageReport(
    * @throws UnresolvedLinkException if the path contains a symlink. 
    */
   @Idempotent
+  @ReadOnly
   public long getPreferredBlockSize(String filename) 
       throws IOException, UnresolvedLinkException;
 
@@ -904,6 +908,7 @@ public CorruptFileBlocks listCorruptFileBlocks(String path, String cookie)
    * @throws IOException If an I/O error occurred        
    */
   @Idempotent
+  @ReadOnly
   public HdfsFileStatus getFileInfo(String src) throws AccessControlException,
       FileNotFoundException, UnresolvedLinkException, IOException;
   
@@ -918,6 +923,7 @@ public HdfsFileStatus getFileInfo(String src) throws AccessControlException,
    * @throws IOException If an I/O error occurred     
    */
   @Idempotent
+  @ReadOnly
   public boolean isFileClosed(String src) throws AccessControlException,
       FileNotFoundException, UnresolvedLinkException, IOException;
   
@@ -934,6 +940,7 @@ public boolean isFileClosed(String src) throws AccessControlException,
    * @throws IOException If an I/O error occurred        
    */
   @Idempotent
+  @ReadOnly
   public HdfsFileStatus getFileLinkInfo(String src)
       throws AccessControlException, UnresolvedLinkException, IOException;
   
@@ -947,6 +954,7 @@ public HdfsFileStatus getFileLinkInfo(String src)
    * @throws IOException If an I/O error occurred
    */
   @Idempotent
+  @ReadOnly
   public ContentSummary getContentSummary(String path)
       throws AccessControlException, FileNotFoundException,
       UnresolvedLinkException, IOException;
@@ -1064,6 +1072,7 @@ public void createSymlink(String target, String link, FsPermission dirPerm,
    *           or an I/O error occurred
    */
   @Idempotent
+  @ReadOnly
   public String getLinkTarget(String path) throws AccessControlException,
       FileNotFoundException, IOException; 
   
@@ -93,6 +93,7 @@
 import org.apache.hadoop.hdfs.protocol.proto.ClientNamenodeProtocolProtos.CreateSnapshotRequestProto;
 import org.apache.hadoop.hdfs.protocol.proto.ClientNamenodeProtocolProtos.CreateSymlinkRequestProto;
 import org.apache.hadoop.hdfs.protocol.proto.ClientNamenodeProtocolProtos.DeleteRequestProto;
+import org.apache.hadoop.hdfs.protocol.proto.ClientNamenodeProtocolProtos.DeleteResponseProto;
 import org.apache.hadoop.hdfs.protocol.proto.ClientNamenodeProtocolProtos.DeleteSnapshotRequestProto;
 import org.apache.hadoop.hdfs.protocol.proto.ClientNamenodeProtocolProtos.DisallowSnapshotRequestProto;
 import org.apache.hadoop.hdfs.protocol.proto.ClientNamenodeProtocolProtos.FinalizeUpgradeRequestProto;
@@ -132,6 +133,7 @@
 import org.apache.hadoop.hdfs.protocol.proto.ClientNamenodeProtocolProtos.ListCorruptFileBlocksRequestProto;
 import org.apache.hadoop.hdfs.protocol.proto.ClientNamenodeProtocolProtos.MetaSaveRequestProto;
 import org.apache.hadoop.hdfs.protocol.proto.ClientNamenodeProtocolProtos.MkdirsRequestProto;
+import org.apache.hadoop.hdfs.protocol.proto.ClientNamenodeProtocolProtos.MkdirsResponseProto;
 import org.apache.hadoop.hdfs.protocol.proto.ClientNamenodeProtocolProtos.ModifyCacheDirectiveRequestProto;
 import org.apache.hadoop.hdfs.protocol.proto.ClientNamenodeProtocolProtos.ModifyCachePoolRequestProto;
 import org.apache.hadoop.hdfs.protocol.proto.ClientNamenodeProtocolProtos.RecoverLeaseRequestProto;
@@ -140,6 +142,7 @@
 import org.apache.hadoop.hdfs.protocol.proto.ClientNamenodeProtocolProtos.RemoveCachePoolRequestProto;
 import org.apache.hadoop.hdfs.protocol.proto.ClientNamenodeProtocolProtos.Rename2RequestProto;
 import org.apache.hadoop.hdfs.protocol.proto.ClientNamenodeProtocolProtos.RenameRequestProto;
+import org.apache.hadoop.hdfs.protocol.proto.ClientNamenodeProtocolProtos.RenameResponseProto;
 import org.apache.hadoop.hdfs.protocol.proto.ClientNamenodeProtocolProtos.RenameSnapshotRequestProto;
 import org.apache.hadoop.hdfs.protocol.proto.ClientNamenodeProtocolProtos.RenewLeaseRequestProto;
 import org.apache.hadoop.hdfs.protocol.proto.ClientNamenodeProtocolProtos.ReportBadBlocksRequestProto;
@@ -175,7 +178,9 @@
 import org.apache.hadoop.hdfs.server.protocol.DatanodeStorageReport;
 import org.apache.hadoop.io.EnumSetWritable;
 import org.apache.hadoop.io.Text;
+import org.apache.hadoop.ipc.Client;
 import org.apache.hadoop.ipc.ProtobufHelper;
+import org.apache.hadoop.ipc.ProtobufRpcEngine;
 import org.apache.hadoop.ipc.ProtocolMetaInterface;
 import org.apache.hadoop.ipc.ProtocolTranslator;
 import org.apache.hadoop.ipc.RPC;
@@ -187,7 +192,11 @@
 import org.apache.hadoop.security.proto.SecurityProtos.RenewDelegationTokenRequestProto;
 import org.apache.hadoop.security.token.Token;
 
+import com.google.common.base.Function;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
 import com.google.protobuf.ByteString;
+import com.google.protobuf.Message;
 import com.google.protobuf.ServiceException;
 
 import static org.apache.hadoop.fs.BatchedRemoteIterator.BatchedListEntries;
@@ -232,9 +241,31 @@ public class ClientNamenodeProtocolTranslatorPB implements
   VOID_GET_STORAGE_POLICIES_REQUEST =
       GetStoragePoliciesRequestProto.newBuilder().build();
 
+  private static final ThreadLocal<ListenableFuture<?>> asyncReturnValue =
+      new ThreadLocal<ListenableFuture<?>>();
+
   public ClientNamenodeProtocolTranslatorPB(ClientNamenodeProtocolPB proxy) {
     rpcProxy = proxy;
   }
+
+  /**
+   * Get the future return value of the last call the current thread made in
+   * {@link Client#setAsynchronousMode asynchronous mode}, and clear it.  Only
+   * {@link #getFileInfo}, {@link #rename}, {@link #delete} and
+   * {@link #mkdirs} support asynchronous mode; their return value is
+   * meaningless in that mode.
+   */
+  @SuppressWarnings("unchecked")
+  public static <T> ListenableFuture<T> getAsyncReturnValue() {
+    ListenableFuture<T> future = (ListenableFuture<T>) asyncReturnValue.get();
+    asyncReturnValue.remove();
+    return future;
+  }
+
+  private static <T> void setAsyncReturnValue(Function<Message, T> convert) {
+    asyncReturnValue.set(
+        Futures.transform(ProtobufRpcEngine.getAsyncReturnMessage(), convert));
+  }
   
   @Override
   public void close() {
@@ -484,6 +515,16 @@ public boolean rename(String src, String dst) throws UnresolvedLinkException,
         .setSrc(src)
         .setDst(dst).build();
     try {
+      if (Client.isAsynchronousMode()) {
+        rpcProxy.rename(null, req);
+        setAsyncReturnValue(new Function<Message, Boolean>() {
+          @Override
+          public Boolean apply(Message res) {
+            return ((RenameResponseProto) res).getResult();
+          }
+        });
+        return false;
+      }
       return rpcProxy.rename(null, req).getResult();
     } catch (ServiceException e) {
       throw ProtobufHelper.getRemoteException(e);
@@ -537,6 +578,16 @@ public boolean delete(String src, boolean recursive)
       UnresolvedLinkException, IOException {
     DeleteRequestProto req = DeleteRequestProto.newBuilder().setSrc(src).setRecursive(recursive).build();
     try {
+      if (Client.isAsynchronousMode()) {
+        rpcProxy.delete(null, req);
+        setAsyncReturnValue(new Function<Message, Boolean>() {
+          @Override
+          public Boolean apply(Message res) {
+            return ((DeleteResponseProto) res).getResult();
+          }
+        });
+        return false;
+      }
       return rpcProxy.delete(null, req).getResult();
     } catch (ServiceException e) {
       throw ProtobufHelper.getRemoteException(e);
@@ -555,6 +606,16 @@ public boolean mkdirs(String src, FsPermission masked, boolean createParent)
         .setCreateParent(createParent).build();
 
     try {
+      if (Client.isAsynchronousMode()) {
+        rpcProxy.mkdirs(null, req);
+        setAsyncReturnValue(new Function<Message, Boolean>() {
+          @Override
+          public Boolean apply(Message res) {
+            return ((MkdirsResponseProto) res).getResult();
+          }
+        });
+        return false;
+      }
       return rpcProxy.mkdirs(null, req).getResult();
     } catch (ServiceException e) {
       throw ProtobufHelper.getRemoteException(e);
@@ -770,6 +831,17 @@ public HdfsFileStatus getFileInfo(String src) throws AccessControlException,
     GetFileInfoRequestProto req = GetFileInfoRequestProto.newBuilder()
         .setSrc(src).build();
     try {
+      if (Client.isAsynchronousMode()) {
+        rpcProxy.getFileInfo(null, req);
+        setAsyncReturnValue(new Function<Message, HdfsFileStatus>() {
+          @Override
+          public HdfsFileStatus apply(Message message) {
+            GetFileInfoResponseProto res = (GetFileInfoResponseProto) message;
+            return res.hasFs() ? PBHelper.convert(res.getFs()) : null;
+          }
+        });
+        return null;
+      }
       GetFileInfoResponseProto res = rpcProxy.getFileInfo(null, req);
       return res.hasFs() ? PBHelper.convert(res.getFs()) : null;
     } catch (ServiceException e) {
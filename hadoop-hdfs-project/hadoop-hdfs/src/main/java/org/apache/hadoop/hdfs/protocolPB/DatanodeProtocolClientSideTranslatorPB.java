@@ -178,11 +178,29 @@ public DatanodeCommand blockReport(DatanodeRegistration registration,
     
     boolean useBlocksBuffer = registration.getNamespaceInfo()
         .isCapabilitySupported(Capability.STORAGE_BLOCK_REPORT_BUFFERS);
+    boolean useSortedBuffers = useBlocksBuffer && registration
+        .getNamespaceInfo().isCapabilitySupported(
+            Capability.STORAGE_BLOCK_REPORT_SORTED_BUFFERS);
 
     for (StorageBlockReport r : reports) {
       StorageBlockReportProto.Builder reportBuilder = StorageBlockReportProto
           .newBuilder().setStorage(PBHelper.convert(r.getStorage()));
+      if (r.getSummary() != null) {
+        reportBuilder.setSummary(PBHelper.convert(r.getSummary()));
+        builder.addReports(reportBuilder.build());
+        continue;
+      }
+      if (r.getBuckets() != null) {
+        reportBuilder.setNumBuckets(r.getNumBuckets());
+        for (int bucket : r.getBuckets()) {
+          reportBuilder.addBuckets(bucket);
+        }
+      }
       BlockListAsLongs blocks = r.getBlocks();
+      if (useSortedBuffers) {
+        blocks = blocks.sort();
+        reportBuilder.setSorted(true);
+      }
       if (useBlocksBuffer) {
         reportBuilder.setNumberOfBlocks(blocks.getNumberOfBlocks());
         reportBuilder.addAllBlocksBuffers(blocks.getBlocksBuffers());
@@ -147,17 +147,33 @@ public BlockReportResponseProto blockReport(RpcController controller,
     
     int index = 0;
     for (StorageBlockReportProto s : request.getReportsList()) {
+      if (s.hasSummary()) {
+        report[index++] = new StorageBlockReport(
+            PBHelper.convert(s.getStorage()), PBHelper.convert(s.getSummary()));
+        continue;
+      }
       final BlockListAsLongs blocks;
       if (s.hasNumberOfBlocks()) { // new style buffer based reports
         int num = (int)s.getNumberOfBlocks();
         Preconditions.checkState(s.getBlocksCount() == 0,
             "cannot send both blocks list and buffers");
-        blocks = BlockListAsLongs.decodeBuffers(num, s.getBlocksBuffersList());
+        blocks = BlockListAsLongs.decodeBuffers(num, s.getBlocksBuffersList(),
+            s.getSorted());
       } else {
         blocks = BlockListAsLongs.decodeLongs(s.getBlocksList());
       }
-      report[index++] = new StorageBlockReport(PBHelper.convert(s.getStorage()),
-          blocks);
+      if (s.hasNumBuckets()) {
+        int[] buckets = new int[s.getBucketsCount()];
+        for (int i = 0; i < buckets.length; i++) {
+          buckets[i] = s.getBuckets(i);
+        }
+        report[index++] = new StorageBlockReport(
+            PBHelper.convert(s.getStorage()), blocks, s.getNumBuckets(),
+            buckets);
+      } else {
+        report[index++] = new StorageBlockReport(
+            PBHelper.convert(s.getStorage()), blocks);
+      }
     }
     try {
       cmd = impl.blockReport(PBHelper.convert(request.getRegistration()),
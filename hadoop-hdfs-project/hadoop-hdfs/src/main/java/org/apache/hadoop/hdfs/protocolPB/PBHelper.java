@@ -29,7 +29,9 @@
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.EnumSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 import org.apache.hadoop.fs.CacheFlag;
 import org.apache.hadoop.fs.ContentSummary;
@@ -115,6 +117,9 @@
 import org.apache.hadoop.hdfs.protocol.proto.DatanodeProtocolProtos.BalancerBandwidthCommandProto;
 import org.apache.hadoop.hdfs.protocol.proto.DatanodeProtocolProtos.BlockCommandProto;
 import org.apache.hadoop.hdfs.protocol.proto.DatanodeProtocolProtos.BlockIdCommandProto;
+import org.apache.hadoop.hdfs.protocol.proto.DatanodeProtocolProtos.BlockReportBucketsCommandProto;
+import org.apache.hadoop.hdfs.protocol.proto.DatanodeProtocolProtos.BlockReportSummaryProto;
+import org.apache.hadoop.hdfs.protocol.proto.DatanodeProtocolProtos.StorageBucketsProto;
 import org.apache.hadoop.hdfs.protocol.proto.DatanodeProtocolProtos.BlockRecoveryCommandProto;
 import org.apache.hadoop.hdfs.protocol.proto.DatanodeProtocolProtos.DatanodeCommandProto;
 import org.apache.hadoop.hdfs.protocol.proto.DatanodeProtocolProtos.DatanodeRegistrationProto;
@@ -192,6 +197,8 @@
 import org.apache.hadoop.hdfs.server.protocol.BalancerBandwidthCommand;
 import org.apache.hadoop.hdfs.server.protocol.BlockCommand;
 import org.apache.hadoop.hdfs.server.protocol.BlockIdCommand;
+import org.apache.hadoop.hdfs.server.protocol.BlockReportBucketsCommand;
+import org.apache.hadoop.hdfs.server.protocol.BlockReportSummary;
 import org.apache.hadoop.hdfs.server.protocol.BlockRecoveryCommand;
 import org.apache.hadoop.hdfs.server.protocol.BlockRecoveryCommand.RecoveringBlock;
 import org.apache.hadoop.hdfs.server.protocol.BlockReportContext;
@@ -918,6 +925,8 @@ public static DatanodeCommand convert(DatanodeCommandProto proto) {
       return REG_CMD;
     case BlockIdCommand:
       return PBHelper.convert(proto.getBlkIdCmd());
+    case BlockReportBucketsCommand:
+      return PBHelper.convert(proto.getBlkReportBucketsCmd());
     default:
       return null;
     }
@@ -1009,6 +1018,54 @@ public static BlockIdCommandProto convert(BlockIdCommand cmd) {
     return builder.build();
   }
 
+  public static BlockReportBucketsCommandProto convert(
+      BlockReportBucketsCommand cmd) {
+    BlockReportBucketsCommandProto.Builder builder =
+        BlockReportBucketsCommandProto.newBuilder()
+        .setBlockPoolId(cmd.getBlockPoolId())
+        .setNumBuckets(cmd.getNumBuckets());
+    for (Map.Entry<String, int[]> e : cmd.getStorageBuckets().entrySet()) {
+      StorageBucketsProto.Builder storageBuilder =
+          StorageBucketsProto.newBuilder().setStorageUuid(e.getKey());
+      for (int bucket : e.getValue()) {
+        storageBuilder.addBuckets(bucket);
+      }
+      builder.addStorageBuckets(storageBuilder.build());
+    }
+    return builder.build();
+  }
+
+  public static BlockReportBucketsCommand convert(
+      BlockReportBucketsCommandProto proto) {
+    Map<String, int[]> storageBuckets = new LinkedHashMap<String, int[]>();
+    for (StorageBucketsProto s : proto.getStorageBucketsList()) {
+      int[] buckets = new int[s.getBucketsCount()];
+      for (int i = 0; i < buckets.length; i++) {
+        buckets[i] = s.getBuckets(i);
+      }
+      storageBuckets.put(s.getStorageUuid(), buckets);
+    }
+    return new BlockReportBucketsCommand(proto.getBlockPoolId(),
+        proto.getNumBuckets(), storageBuckets);
+  }
+
+  public static BlockReportSummaryProto convert(BlockReportSummary summary) {
+    BlockReportSummaryProto.Builder builder =
+        BlockReportSummaryProto.newBuilder();
+    for (long digest : summary.getDigests()) {
+      builder.addDigests(digest);
+    }
+    return builder.build();
+  }
+
+  public static BlockReportSummary convert(BlockReportSummaryProto proto) {
+    long[] digests = new long[proto.getDigestsCount()];
+    for (int i = 0; i < digests.length; i++) {
+      digests[i] = proto.getDigests(i);
+    }
+    return new BlockReportSummary(digests);
+  }
+
   private static List<DatanodeInfosProto> convert(DatanodeInfo[][] targets) {
     DatanodeInfosProto[] ret = new DatanodeInfosProto[targets.length];
     for (int i = 0; i < targets.length; i++) {
@@ -1068,6 +1125,11 @@ public static DatanodeCommandProto convert(DatanodeCommand datanodeCommand) {
       builder.setCmdType(DatanodeCommandProto.Type.BlockIdCommand).
         setBlkIdCmd(PBHelper.convert((BlockIdCommand) datanodeCommand));
       break;
+    case DatanodeProtocol.DNA_BLOCKREPORT_BUCKETS:
+      builder.setCmdType(DatanodeCommandProto.Type.BlockReportBucketsCommand)
+          .setBlkReportBucketsCmd(
+              PBHelper.convert((BlockReportBucketsCommand) datanodeCommand));
+      break;
     case DatanodeProtocol.DNA_UNKNOWN: //Not expected
     default:
       builder.setCmdType(DatanodeCommandProto.Type.NullDatanodeCommand);
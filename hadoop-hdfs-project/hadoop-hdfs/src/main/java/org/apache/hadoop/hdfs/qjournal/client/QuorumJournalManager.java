@@ -36,6 +36,7 @@
 import org.apache.hadoop.hdfs.DFSConfigKeys;
 import org.apache.hadoop.hdfs.DFSUtil;
 import org.apache.hadoop.hdfs.qjournal.protocol.QJournalProtocolProtos.GetJournalStateResponseProto;
+import org.apache.hadoop.hdfs.qjournal.protocol.QJournalProtocolProtos.GetJournaledEditsResponseProto;
 import org.apache.hadoop.hdfs.qjournal.protocol.QJournalProtocolProtos.NewEpochResponseProto;
 import org.apache.hadoop.hdfs.qjournal.protocol.QJournalProtocolProtos.PrepareRecoveryResponseProto;
 import org.apache.hadoop.hdfs.qjournal.protocol.QJournalProtocolProtos.SegmentStateProto;
@@ -77,6 +78,10 @@ public class QuorumJournalManager implements JournalManager {
   private final int newEpochTimeoutMs;
   private final int writeTxnsTimeoutMs;
 
+  // Whether in-progress edits are read by RPC from the JournalNode caches.
+  private final boolean inProgressTailingEnabled;
+  private final int maxTxnsPerRpc;
+
   // Since these don't occur during normal operation, we can
   // use rather lengthy timeouts, and don't need to make them
   // configurable.
@@ -142,6 +147,12 @@ public QuorumJournalManager(Configuration conf,
     this.writeTxnsTimeoutMs = conf.getInt(
         DFSConfigKeys.DFS_QJOURNAL_WRITE_TXNS_TIMEOUT_KEY,
         DFSConfigKeys.DFS_QJOURNAL_WRITE_TXNS_TIMEOUT_DEFAULT);
+    this.inProgressTailingEnabled = conf.getBoolean(
+        DFSConfigKeys.DFS_HA_TAILEDITS_INPROGRESS_KEY,
+        DFSConfigKeys.DFS_HA_TAILEDITS_INPROGRESS_DEFAULT);
+    this.maxTxnsPerRpc = conf.getInt(
+        DFSConfigKeys.DFS_HA_TAILEDITS_QJM_RPC_MAX_TXNS_KEY,
+        DFSConfigKeys.DFS_HA_TAILEDITS_QJM_RPC_MAX_TXNS_DEFAULT);
   }
   
   protected List<AsyncLogger> createLoggers(
@@ -465,7 +476,79 @@ public void close() throws IOException {
   @Override
   public void selectInputStreams(Collection<EditLogInputStream> streams,
       long fromTxnId, boolean inProgressOk) throws IOException {
+    if (inProgressOk && inProgressTailingEnabled) {
+      try {
+        selectRpcInputStreams(streams, fromTxnId);
+        return;
+      } catch (IOException ioe) {
+        // most often the edits are older than the JournalNode caches, as
+        // after a restart or when the reader has fallen behind
+        LOG.info("Could not read edits from txid " + fromTxnId
+            + " by RPC, reading them from the edit log segments instead: "
+            + ioe);
+      }
+    }
+    selectStreamingInputStreams(streams, fromTxnId, inProgressOk);
+  }
+
+  /**
+   * Select an input stream over the edits held in the caches of the
+   * JournalNodes.  Only the edits written to a quorum of JournalNodes are
+   * read, so the stream never holds edits that recovery might discard.
+   *
+   * @throws IOException if a quorum of JournalNodes could not serve the
+   *         edits from their caches
+   */
+  private void selectRpcInputStreams(Collection<EditLogInputStream> streams,
+      long fromTxnId) throws IOException {
+    QuorumCall<AsyncLogger, GetJournaledEditsResponseProto> q =
+        loggers.getJournaledEdits(fromTxnId, maxTxnsPerRpc);
+    Map<AsyncLogger, GetJournaledEditsResponseProto> resps =
+        loggers.waitForWriteQuorum(q, selectInputStreamsTimeoutMs,
+            "selectRpcInputStreams");
+    assert resps.size() >= loggers.getMajoritySize();
+
+    // The highest txid held by a majority of the JournalNodes is the
+    // majority-th highest last txid of the responses.  Every response with
+    // edits covers fromTxnId, so the one ending at that txid holds exactly
+    // the new edits known to be durable.
+    List<Long> lastTxIds = Lists.newArrayListWithCapacity(resps.size());
+    for (GetJournaledEditsResponseProto resp : resps.values()) {
+      lastTxIds.add(getLastTxId(resp));
+    }
+    Collections.sort(lastTxIds, Collections.reverseOrder());
+    long committedTxId = lastTxIds.get(loggers.getMajoritySize() - 1);
+    if (committedTxId < fromTxnId) {
+      LOG.debug("No new edits from txid " + fromTxnId
+          + " on a quorum of JournalNodes");
+      return;
+    }
+
+    for (Map.Entry<AsyncLogger, GetJournaledEditsResponseProto> e :
+        resps.entrySet()) {
+      GetJournaledEditsResponseProto resp = e.getValue();
+      if (getLastTxId(resp) == committedTxId) {
+        EditLogInputStream elis = EditLogFileInputStream.fromByteString(
+            resp.getEditLog(), "RPC edits from " + e.getKey(),
+            resp.getFirstTxId(), committedTxId, true);
+        PriorityQueue<EditLogInputStream> allStreams =
+            new PriorityQueue<EditLogInputStream>(1,
+                JournalSet.EDIT_LOG_INPUT_STREAM_COMPARATOR);
+        allStreams.add(elis);
+        JournalSet.chainAndMakeRedundantStreams(streams, allStreams,
+            fromTxnId);
+        return;
+      }
+    }
+  }
+
+  private static long getLastTxId(GetJournaledEditsResponseProto resp) {
+    return resp.getFirstTxId() + resp.getTxnCount() - 1;
+  }
 
+  private void selectStreamingInputStreams(
+      Collection<EditLogInputStream> streams, long fromTxnId,
+      boolean inProgressOk) throws IOException {
     QuorumCall<AsyncLogger, RemoteEditLogManifest> q =
         loggers.getEditLogManifest(fromTxnId, inProgressOk);
     Map<AsyncLogger, RemoteEditLogManifest> resps =
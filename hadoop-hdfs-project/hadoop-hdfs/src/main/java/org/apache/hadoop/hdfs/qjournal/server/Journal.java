@@ -34,11 +34,13 @@
 import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FileUtil;
+import org.apache.hadoop.hdfs.DFSConfigKeys;
 import org.apache.hadoop.hdfs.protocol.HdfsConstants;
 import org.apache.hadoop.hdfs.qjournal.protocol.JournalNotFormattedException;
 import org.apache.hadoop.hdfs.qjournal.protocol.JournalOutOfSyncException;
 import org.apache.hadoop.hdfs.qjournal.protocol.QJournalProtocol;
 import org.apache.hadoop.hdfs.qjournal.protocol.QJournalProtocolProtos;
+import org.apache.hadoop.hdfs.qjournal.protocol.QJournalProtocolProtos.GetJournaledEditsResponseProto;
 import org.apache.hadoop.hdfs.qjournal.protocol.QJournalProtocolProtos.NewEpochResponseProto;
 import org.apache.hadoop.hdfs.qjournal.protocol.QJournalProtocolProtos.PersistedRecoveryPaxosData;
 import org.apache.hadoop.hdfs.qjournal.protocol.QJournalProtocolProtos.PrepareRecoveryResponseProto;
@@ -82,6 +84,7 @@ public class Journal implements Closeable {
   // Current writing state
   private EditLogOutputStream curSegment;
   private long curSegmentTxId = HdfsConstants.INVALID_TXID;
+  private int curSegmentLayoutVersion = 0;
   private long nextTxId = HdfsConstants.INVALID_TXID;
   private long highestWrittenTxId = 0;
   
@@ -132,6 +135,12 @@ public class Journal implements Closeable {
 
   private final JournalMetrics metrics;
 
+  /**
+   * Recent edits served to NameNodes tailing the in-progress segment, or
+   * null if in-progress tailing is disabled.
+   */
+  private final JournaledEditsCache cache;
+
   /**
    * Time threshold for sync calls, beyond which a warning should be logged to the console.
    */
@@ -148,6 +157,15 @@ public class Journal implements Closeable {
     this.fjm = storage.getJournalManager();
     
     this.metrics = JournalMetrics.create(this);
+
+    if (conf.getBoolean(DFSConfigKeys.DFS_HA_TAILEDITS_INPROGRESS_KEY,
+        DFSConfigKeys.DFS_HA_TAILEDITS_INPROGRESS_DEFAULT)) {
+      this.cache = new JournaledEditsCache(conf.getInt(
+          DFSConfigKeys.DFS_JOURNALNODE_EDIT_CACHE_SIZE_KEY,
+          DFSConfigKeys.DFS_JOURNALNODE_EDIT_CACHE_SIZE_DEFAULT));
+    } else {
+      this.cache = null;
+    }
     
     EditLogFile latest = scanStorageForLatestEdits();
     if (latest != null) {
@@ -216,6 +234,7 @@ void format(NamespaceInfo nsInfo) throws IOException {
         nsInfo);
     storage.format(nsInfo);
     refreshCachedData();
+    clearEditsCache();
   }
 
   /**
@@ -321,6 +340,9 @@ private void updateLastPromisedEpoch(long newEpoch) throws IOException {
   }
 
   private void abortCurSegment() throws IOException {
+    // the aborted edits, and those of a segment being recovered, may yet
+    // be replaced by those of another writer
+    clearEditsCache();
     if (curSegment == null) {
       return;
     }
@@ -401,6 +423,11 @@ synchronized void journal(RequestInfo reqInfo,
     
     highestWrittenTxId = lastTxnId;
     nextTxId = lastTxnId + 1;
+
+    if (cache != null) {
+      cache.storeEdits(segmentTxId, firstTxnId, lastTxnId,
+          curSegmentLayoutVersion, records);
+    }
   }
 
   public void heartbeat(RequestInfo reqInfo) throws IOException {
@@ -547,6 +574,7 @@ public synchronized void startLogSegment(RequestInfo reqInfo, long txid,
     
     curSegment = fjm.startLogSegment(txid, layoutVersion);
     curSegmentTxId = txid;
+    curSegmentLayoutVersion = layoutVersion;
     nextTxId = txid;
   }
   
@@ -663,6 +691,27 @@ public RemoteEditLogManifest getEditLogManifest(long sinceTxId,
     return new RemoteEditLogManifest(logs);
   }
 
+  /**
+   * @see QJournalProtocol#getJournaledEdits(String, long, int)
+   */
+  public GetJournaledEditsResponseProto getJournaledEdits(long sinceTxId,
+      int maxTxns) throws IOException {
+    // As with getEditLogManifest(), anyone may read the edits.  This does
+    // not synchronize on the journal, which is held while edits are synced,
+    // since the cache has its own lock and is empty until edits are written.
+    if (cache == null) {
+      throw new IOException("The edits cache of " + this + " is disabled; "
+          + DFSConfigKeys.DFS_HA_TAILEDITS_INPROGRESS_KEY + " is false");
+    }
+    return cache.retrieveEdits(sinceTxId, maxTxns);
+  }
+
+  private void clearEditsCache() {
+    if (cache != null) {
+      cache.clear();
+    }
+  }
+
   /**
    * @return the current state of the given segment, or null if the
    * segment does not exist.
@@ -1059,10 +1108,12 @@ public synchronized void doRollback() throws IOException {
     // Do not hold file lock on committedTxnId, because the containing
     // directory will be renamed.  It will be reopened lazily on next access.
     IOUtils.cleanup(LOG, committedTxnId);
+    clearEditsCache();
     storage.getJournalManager().doRollback();
   }
 
   synchronized void discardSegments(long startTxId) throws IOException {
+    clearEditsCache();
     storage.getJournalManager().discardSegments(startTxId);
     // we delete all the segments after the startTxId. let's reset committedTxnId 
     committedTxnId.set(startTxId - 1);
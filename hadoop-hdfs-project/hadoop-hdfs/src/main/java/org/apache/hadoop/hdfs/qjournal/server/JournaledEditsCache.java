@@ -0,0 +1,198 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.qjournal.server;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.hdfs.qjournal.protocol.QJournalProtocolProtos.GetJournaledEditsResponseProto;
+import org.apache.hadoop.hdfs.server.namenode.EditLogFileOutputStream;
+import org.apache.hadoop.io.DataOutputBuffer;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.protobuf.ByteString;
+
+/**
+ * An in-memory cache of the most recent edits written to a {@link Journal},
+ * used to serve in-progress edits to tailing NameNodes over RPC without
+ * reading the edit log files back from disk.
+ * <p>
+ * Edits are kept in the batches they were written in, so a batch is never
+ * split: a request returns whole batches, starting with the one holding the
+ * first requested transaction.  The cache holds a contiguous range of
+ * transactions; it is reset whenever a batch does not follow the last one,
+ * and the oldest batches are evicted once the cache is over its capacity.
+ * <p>
+ * Writes come from the single writer of the journal while reads may come
+ * from several NameNodes at once, so the cache has its own read-write lock
+ * rather than relying on the {@link Journal} monitor.
+ */
+@InterfaceAudience.Private
+class JournaledEditsCache {
+
+  /** Thrown when the requested edits are not in the cache. */
+  static class CacheMissException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    CacheMissException(String msg) {
+      super(msg);
+    }
+  }
+
+  /** A batch of edits, as received by {@link Journal#journal}. */
+  private static class Batch {
+    private final long segmentTxId;
+    private final long firstTxId;
+    private final long lastTxId;
+    private final int layoutVersion;
+    private final byte[] records;
+
+    Batch(long segmentTxId, long firstTxId, long lastTxId,
+        int layoutVersion, byte[] records) {
+      this.segmentTxId = segmentTxId;
+      this.firstTxId = firstTxId;
+      this.lastTxId = lastTxId;
+      this.layoutVersion = layoutVersion;
+      this.records = records;
+    }
+  }
+
+  private final long capacity;
+  /** Cached batches, keyed by their first transaction ID. */
+  private final NavigableMap<Long, Batch> batches = new TreeMap<Long, Batch>();
+  private long size = 0;
+  private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+  JournaledEditsCache(long capacity) {
+    this.capacity = capacity;
+  }
+
+  /**
+   * Add a batch of edits to the cache.  The records are kept by reference
+   * and must not be modified afterwards.
+   */
+  void storeEdits(long segmentTxId, long firstTxId, long lastTxId,
+      int layoutVersion, byte[] records) {
+    lock.writeLock().lock();
+    try {
+      if (!batches.isEmpty()
+          && batches.lastEntry().getValue().lastTxId + 1 != firstTxId) {
+        clearInternal();
+      }
+      if (records.length > capacity) {
+        // it would evict everything, including itself
+        clearInternal();
+        return;
+      }
+      batches.put(firstTxId, new Batch(segmentTxId, firstTxId, lastTxId,
+          layoutVersion, records));
+      size += records.length;
+      while (size > capacity) {
+        size -= batches.pollFirstEntry().getValue().records.length;
+      }
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Get the cached edits starting at the batch holding sinceTxId.  The
+   * edits are serialized like an edit log file, header included, and do
+   * not span more than one segment.
+   *
+   * @param sinceTxId the first transaction the caller is interested in
+   * @param maxTxns the number of transactions after which no further batch
+   *        is added
+   * @throws CacheMissException if sinceTxId is older than the cache
+   */
+  GetJournaledEditsResponseProto retrieveEdits(long sinceTxId, int maxTxns)
+      throws IOException {
+    List<Batch> result = new ArrayList<Batch>();
+    lock.readLock().lock();
+    try {
+      if (batches.isEmpty() || sinceTxId < batches.firstKey()) {
+        throw new CacheMissException("Transaction " + sinceTxId
+            + " is not in the edits cache, which holds "
+            + (batches.isEmpty() ? "no transactions" : "transactions "
+                + batches.firstKey() + "-"
+                + batches.lastEntry().getValue().lastTxId));
+      }
+      Batch first = batches.floorEntry(sinceTxId).getValue();
+      if (sinceTxId > first.lastTxId) {
+        // nothing written at or after sinceTxId yet
+        return GetJournaledEditsResponseProto.newBuilder()
+            .setFirstTxId(sinceTxId).setTxnCount(0).build();
+      }
+      long numTxns = 0;
+      for (Batch b : batches.tailMap(first.firstTxId, true).values()) {
+        if (numTxns >= maxTxns || b.segmentTxId != first.segmentTxId) {
+          break;
+        }
+        result.add(b);
+        numTxns += b.lastTxId - b.firstTxId + 1;
+      }
+    } finally {
+      lock.readLock().unlock();
+    }
+
+    // the batches themselves are immutable, so serialize them unlocked
+    Batch first = result.get(0);
+    Batch last = result.get(result.size() - 1);
+    DataOutputBuffer out = new DataOutputBuffer();
+    EditLogFileOutputStream.writeHeader(first.layoutVersion, out);
+    for (Batch b : result) {
+      out.write(b.records);
+    }
+    return GetJournaledEditsResponseProto.newBuilder()
+        .setFirstTxId(first.firstTxId)
+        .setTxnCount((int) (last.lastTxId - first.firstTxId + 1))
+        .setEditLog(ByteString.copyFrom(out.getData(), 0, out.getLength()))
+        .build();
+  }
+
+  /** Drop every cached batch. */
+  void clear() {
+    lock.writeLock().lock();
+    try {
+      clearInternal();
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  private void clearInternal() {
+    batches.clear();
+    size = 0;
+  }
+
+  @VisibleForTesting
+  long getSize() {
+    lock.readLock().lock();
+    try {
+      return size;
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+}
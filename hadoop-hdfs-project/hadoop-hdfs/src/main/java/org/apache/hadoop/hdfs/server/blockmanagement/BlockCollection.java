@@ -28,6 +28,11 @@
  */
 @InterfaceAudience.Private
 public interface BlockCollection {
+  /**
+   * @return the id of the collection, i.e. the id of the inode of the file
+   */
+  public long getId();
+
   /**
    * Get the last block of the collection.
    */
@@ -50,8 +50,15 @@ public class BlockInfoContiguous extends Block
    * {@link LinkedList} list to efficiently use memory. With LinkedList the cost
    * per replica is 42 bytes (LinkedList#Entry object per replica) versus 16
    * bytes using the triplets.
+   *
+   * While the triplets are kept off-heap, this is the
+   * {@link OffHeapTripletStore} holding them in the record of
+   * {@link #offHeapId} instead of an array.
    */
-  private Object[] triplets;
+  private Object triplets;
+
+  /** The id of this block in the off-heap store of its map, or -1. */
+  private int offHeapId = -1;
 
   /**
    * Construct an entry for blocksmap
@@ -95,14 +102,61 @@ public DatanodeDescriptor getDatanode(int index) {
     return storage == null ? null : storage.getDatanodeDescriptor();
   }
 
-  DatanodeStorageInfo getStorageInfo(int index) {
+  int getOffHeapId() {
+    return offHeapId;
+  }
+
+  void setOffHeapId(int id) {
+    this.offHeapId = id;
+  }
+
+  boolean isOffHeap() {
+    return triplets instanceof OffHeapTripletStore;
+  }
+
+  private OffHeapTripletStore getStore() {
+    return (OffHeapTripletStore)triplets;
+  }
+
+  private Object[] getTriplets() {
     assert this.triplets != null : "BlockInfo is not initialized";
+    return (Object[])triplets;
+  }
+
+  /** Hand the triplets over to the record of this block in the store. */
+  void moveTripletsOffHeap(OffHeapTripletStore store) {
+    Object[] t = getTriplets();
+    triplets = store;
+    for (int i = 0; i < store.getReplicasPerRecord(); i++) {
+      boolean inArray = i*3 < t.length;
+      store.setStorage(offHeapId, i,
+          inArray ? (DatanodeStorageInfo)t[i*3] : null);
+      store.setPrevious(offHeapId, i,
+          inArray ? (BlockInfoContiguous)t[i*3+1] : null);
+      store.setNext(offHeapId, i,
+          inArray ? (BlockInfoContiguous)t[i*3+2] : null);
+    }
+  }
+
+  /** Take the triplets back from the store. */
+  void moveTripletsOnHeap(Object[] t) {
+    triplets = t;
+  }
+
+  DatanodeStorageInfo getStorageInfo(int index) {
+    if (isOffHeap()) {
+      return getStore().getStorage(offHeapId, index);
+    }
+    Object[] triplets = getTriplets();
     assert index >= 0 && index*3 < triplets.length : "Index is out of bound";
     return (DatanodeStorageInfo)triplets[index*3];
   }
 
   private BlockInfoContiguous getPrevious(int index) {
-    assert this.triplets != null : "BlockInfo is not initialized";
+    if (isOffHeap()) {
+      return getStore().getPrevious(offHeapId, index);
+    }
+    Object[] triplets = getTriplets();
     assert index >= 0 && index*3+1 < triplets.length : "Index is out of bound";
     BlockInfoContiguous info = (BlockInfoContiguous)triplets[index*3+1];
     assert info == null || 
@@ -112,7 +166,10 @@ private BlockInfoContiguous getPrevious(int index) {
   }
 
   BlockInfoContiguous getNext(int index) {
-    assert this.triplets != null : "BlockInfo is not initialized";
+    if (isOffHeap()) {
+      return getStore().getNext(offHeapId, index);
+    }
+    Object[] triplets = getTriplets();
     assert index >= 0 && index*3+2 < triplets.length : "Index is out of bound";
     BlockInfoContiguous info = (BlockInfoContiguous)triplets[index*3+2];
     assert info == null || info.getClass().getName().startsWith(
@@ -122,7 +179,11 @@ BlockInfoContiguous getNext(int index) {
   }
 
   private void setStorageInfo(int index, DatanodeStorageInfo storage) {
-    assert this.triplets != null : "BlockInfo is not initialized";
+    if (isOffHeap()) {
+      getStore().setStorage(offHeapId, index, storage);
+      return;
+    }
+    Object[] triplets = getTriplets();
     assert index >= 0 && index*3 < triplets.length : "Index is out of bound";
     triplets[index*3] = storage;
   }
@@ -136,7 +197,10 @@ private void setStorageInfo(int index, DatanodeStorageInfo storage) {
    * @return current previous block on the list of blocks
    */
   private BlockInfoContiguous setPrevious(int index, BlockInfoContiguous to) {
-    assert this.triplets != null : "BlockInfo is not initialized";
+    if (isOffHeap()) {
+      return getStore().setPrevious(offHeapId, index, to);
+    }
+    Object[] triplets = getTriplets();
     assert index >= 0 && index*3+1 < triplets.length : "Index is out of bound";
     BlockInfoContiguous info = (BlockInfoContiguous)triplets[index*3+1];
     triplets[index*3+1] = to;
@@ -152,7 +216,10 @@ private BlockInfoContiguous setPrevious(int index, BlockInfoContiguous to) {
    *    * @return current next block on the list of blocks
    */
   private BlockInfoContiguous setNext(int index, BlockInfoContiguous to) {
-    assert this.triplets != null : "BlockInfo is not initialized";
+    if (isOffHeap()) {
+      return getStore().setNext(offHeapId, index, to);
+    }
+    Object[] triplets = getTriplets();
     assert index >= 0 && index*3+2 < triplets.length : "Index is out of bound";
     BlockInfoContiguous info = (BlockInfoContiguous)triplets[index*3+2];
     triplets[index*3+2] = to;
@@ -160,7 +227,10 @@ private BlockInfoContiguous setNext(int index, BlockInfoContiguous to) {
   }
 
   public int getCapacity() {
-    assert this.triplets != null : "BlockInfo is not initialized";
+    if (isOffHeap()) {
+      return getStore().getReplicasPerRecord();
+    }
+    Object[] triplets = getTriplets();
     assert triplets.length % 3 == 0 : "Malformed BlockInfo";
     return triplets.length / 3;
   }
@@ -170,15 +240,20 @@ public int getCapacity() {
    * @return first free triplet index.
    */
   private int ensureCapacity(int num) {
-    assert this.triplets != null : "BlockInfo is not initialized";
     int last = numNodes();
-    if(triplets.length >= (last+num)*3)
+    if(getCapacity() >= last+num)
       return last;
     /* Not enough space left. Create a new array. Should normally 
      * happen only when replication is manually increased by the user. */
-    Object[] old = triplets;
-    triplets = new Object[(last+num)*3];
+    if (isOffHeap()) {
+      // the record cannot grow; the block keeps its id for its neighbours
+      triplets = getStore().takeTriplets(offHeapId, last+num);
+      return last;
+    }
+    Object[] old = getTriplets();
+    Object[] triplets = new Object[(last+num)*3];
     System.arraycopy(old, 0, triplets, 0, last*3);
+    this.triplets = triplets;
     return last;
   }
 
@@ -186,8 +261,6 @@ private int ensureCapacity(int num) {
    * Count the number of data-nodes the block belongs to.
    */
   public int numNodes() {
-    assert this.triplets != null : "BlockInfo is not initialized";
-    assert triplets.length % 3 == 0 : "Malformed BlockInfo";
     for(int idx = getCapacity()-1; idx >= 0; idx--) {
       if(getDatanode(idx) != null)
         return idx+1;
@@ -22,6 +22,7 @@
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.EnumSet;
@@ -35,6 +36,11 @@
 import java.util.Set;
 import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.hadoop.HadoopIllegalArgumentException;
@@ -71,6 +77,7 @@
 import org.apache.hadoop.hdfs.server.namenode.metrics.NameNodeMetrics;
 import org.apache.hadoop.hdfs.server.protocol.BlockCommand;
 import org.apache.hadoop.hdfs.server.protocol.BlockReportContext;
+import org.apache.hadoop.hdfs.server.protocol.BlockReportSummary;
 import org.apache.hadoop.hdfs.server.protocol.BlocksWithLocations;
 import org.apache.hadoop.hdfs.server.protocol.BlocksWithLocations.BlockWithLocations;
 import org.apache.hadoop.hdfs.server.protocol.DatanodeCommand;
@@ -88,7 +95,9 @@
 
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
 import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -172,6 +181,14 @@ public int getPendingDataNodeMessageCount() {
 
   /** Replication thread. */
   final Daemon replicationThread = new Daemon(new ReplicationMonitor());
+
+  /**
+   * Threads choosing the targets of the replication work, or null when the
+   * replication thread chooses them by itself.
+   */
+  private final ExecutorService replicationWorkExecutor;
+  /** When the replication work was last computed, for the metrics */
+  private long lastReplicationWorkTime;
   
   /** Store blocks -> datanodedescriptor(s) map of corrupt replicas */
   final CorruptReplicasMap corruptReplicas = new CorruptReplicasMap();
@@ -235,6 +252,12 @@ public int getPendingDataNodeMessageCount() {
   // Max number of blocks to log info about during a block report.
   private final long maxNumBlocksToLog;
 
+  /**
+   * Max number of replicas of a block report processed per hold of the
+   * namesystem lock, or 0 to process a report under a single write lock.
+   */
+  private final int maxReplicasPerReportLock;
+
   /**
    * When running inside a Standby node, the node may receive block reports
    * from datanodes before receiving the corresponding namespace edits from
@@ -279,8 +302,21 @@ public BlockManager(final Namesystem namesystem, final Configuration conf)
         datanodeManager.blockInvalidateLimit, startupDelayBlockDeletionInMs);
 
     // Compute the map capacity by allocating 2% of total memory
+    int offHeapReplicas = 0;
+    if (conf.getBoolean(
+        DFSConfigKeys.DFS_NAMENODE_BLOCKS_OFF_HEAP_ENABLED_KEY,
+        DFSConfigKeys.DFS_NAMENODE_BLOCKS_OFF_HEAP_ENABLED_DEFAULT)) {
+      offHeapReplicas = conf.getInt(
+          DFSConfigKeys.DFS_NAMENODE_BLOCKS_OFF_HEAP_REPLICAS_KEY,
+          DFSConfigKeys.DFS_NAMENODE_BLOCKS_OFF_HEAP_REPLICAS_DEFAULT);
+      Preconditions.checkArgument(offHeapReplicas > 0,
+          DFSConfigKeys.DFS_NAMENODE_BLOCKS_OFF_HEAP_REPLICAS_KEY
+          + " must be positive");
+      LOG.info("Keeping block replica locations off-heap, in records of "
+          + offHeapReplicas + " replicas");
+    }
     blocksMap = new BlocksMap(
-        LightWeightGSet.computeCapacity(2.0, "BlocksMap"));
+        LightWeightGSet.computeCapacity(2.0, "BlocksMap"), offHeapReplicas);
     blockplacement = BlockPlacementPolicy.getInstance(
       conf, datanodeManager.getFSClusterStats(),
       datanodeManager.getNetworkTopology(),
@@ -332,6 +368,13 @@ public BlockManager(final Namesystem namesystem, final Configuration conf)
 
     this.blocksInvalidateWorkPct = DFSUtil.getInvalidateWorkPctPerIteration(conf);
     this.blocksReplWorkMultiplier = DFSUtil.getReplWorkMultiplier(conf);
+    final int replicationWorkThreads = conf.getInt(
+        DFSConfigKeys.DFS_NAMENODE_REPLICATION_WORK_THREADS_KEY,
+        DFSConfigKeys.DFS_NAMENODE_REPLICATION_WORK_THREADS_DEFAULT);
+    this.replicationWorkExecutor = replicationWorkThreads <= 1 ? null :
+        Executors.newFixedThreadPool(replicationWorkThreads,
+            new ThreadFactoryBuilder().setNameFormat("ReplicationWork-%d")
+                .setDaemon(true).build());
 
     this.replicationRecheckInterval = 
       conf.getInt(DFSConfigKeys.DFS_NAMENODE_REPLICATION_INTERVAL_KEY, 
@@ -344,6 +387,9 @@ public BlockManager(final Namesystem namesystem, final Configuration conf)
     this.maxNumBlocksToLog =
         conf.getLong(DFSConfigKeys.DFS_MAX_NUM_BLOCKS_TO_LOG_KEY,
             DFSConfigKeys.DFS_MAX_NUM_BLOCKS_TO_LOG_DEFAULT);
+    this.maxReplicasPerReportLock = conf.getInt(
+        DFSConfigKeys.DFS_NAMENODE_BLOCK_REPORT_LOCK_MAX_REPLICAS_KEY,
+        DFSConfigKeys.DFS_NAMENODE_BLOCK_REPORT_LOCK_MAX_REPLICAS_DEFAULT);
     this.numBlocksPerIteration = conf.getInt(
         DFSConfigKeys.DFS_BLOCK_MISREPLICATION_PROCESSING_LIMIT,
         DFSConfigKeys.DFS_BLOCK_MISREPLICATION_PROCESSING_LIMIT_DEFAULT);
@@ -356,6 +402,8 @@ public BlockManager(final Namesystem namesystem, final Configuration conf)
     LOG.info("replicationRecheckInterval = " + replicationRecheckInterval);
     LOG.info("encryptDataTransfer        = " + encryptDataTransfer);
     LOG.info("maxNumBlocksToLog          = " + maxNumBlocksToLog);
+    LOG.info("maxReplicasPerReportLock   = " + maxReplicasPerReportLock);
+    LOG.info("replicationWorkThreads     = " + replicationWorkThreads);
   }
 
   private static BlockTokenSecretManager createBlockTokenSecretManager(
@@ -453,6 +501,7 @@ boolean shouldUpdateBlockKey(final long updateTime) throws IOException {
   public void activate(Configuration conf) {
     pendingReplications.start();
     datanodeManager.activate(conf);
+    this.lastReplicationWorkTime = Time.monotonicNow();
     this.replicationThread.start();
   }
 
@@ -462,6 +511,9 @@ public void close() {
       replicationThread.join(3000);
     } catch (InterruptedException ie) {
     }
+    if (replicationWorkExecutor != null) {
+      replicationWorkExecutor.shutdownNow();
+    }
     datanodeManager.close();
     pendingReplications.stop();
     blocksMap.close();
@@ -1001,12 +1053,12 @@ public boolean isSufficientlyReplicated(BlockInfoContiguous b) {
   public BlocksWithLocations getBlocks(DatanodeID datanode, long size
       ) throws IOException {
     namesystem.checkOperation(OperationCategory.READ);
-    namesystem.readLock();
+    namesystem.blockReadLock();
     try {
       namesystem.checkOperation(OperationCategory.READ);
       return getBlocksWithLocations(datanode, size);  
     } finally {
-      namesystem.readUnlock();
+      namesystem.blockReadUnlock();
     }
   }
 
@@ -1395,20 +1447,8 @@ int computeReplicationWorkForBlocks(List<List<Block>> blocksToReplicate) {
       namesystem.writeUnlock();
     }
 
-    final Set<Node> excludedNodes = new HashSet<Node>();
-    for(ReplicationWork rw : work){
-      // Exclude all of the containing nodes from being targets.
-      // This list includes decommissioning or corrupt nodes.
-      excludedNodes.clear();
-      for (DatanodeDescriptor dn : rw.containingNodes) {
-        excludedNodes.add(dn);
-      }
-
-      // choose replication targets: NOT HOLDING THE GLOBAL LOCK
-      // It is costly to extract the filename for which chooseTargets is called,
-      // so for now we pass in the block collection itself.
-      rw.chooseTargets(blockplacement, storagePolicySuite, excludedNodes);
-    }
+    // choose replication targets: NOT HOLDING THE GLOBAL LOCK
+    chooseTargets(work);
 
     namesystem.writeLock();
     try {
@@ -1504,6 +1544,69 @@ int computeReplicationWorkForBlocks(List<List<Block>> blocksToReplicate) {
     return scheduledWork;
   }
 
+  /**
+   * Choose the targets of some replication work.  The work is queued per
+   * source datanode, and the queues are served in parallel by the
+   * replication work threads, if any.  The work of a datanode is thus only
+   * handled by one thread at a time.
+   * @param work the replication work, in priority order
+   */
+  private void chooseTargets(List<ReplicationWork> work) {
+    if (replicationWorkExecutor == null || work.size() <= 1) {
+      chooseTargets(work, new HashSet<Node>());
+      return;
+    }
+
+    final Map<DatanodeDescriptor, List<ReplicationWork>> queues =
+        new HashMap<DatanodeDescriptor, List<ReplicationWork>>();
+    for (ReplicationWork rw : work) {
+      List<ReplicationWork> queue = queues.get(rw.srcNode);
+      if (queue == null) {
+        queue = new ArrayList<ReplicationWork>();
+        queues.put(rw.srcNode, queue);
+      }
+      queue.add(rw);
+    }
+    final List<Callable<Void>> tasks =
+        new ArrayList<Callable<Void>>(queues.size());
+    for (final List<ReplicationWork> queue : queues.values()) {
+      tasks.add(new Callable<Void>() {
+        @Override
+        public Void call() {
+          chooseTargets(queue, new HashSet<Node>());
+          return null;
+        }
+      });
+    }
+    try {
+      for (Future<Void> f : replicationWorkExecutor.invokeAll(tasks)) {
+        f.get();
+      }
+    } catch (InterruptedException ie) {
+      // the replication monitor is stopping, the work without targets is
+      // not scheduled
+      Thread.currentThread().interrupt();
+    } catch (ExecutionException e) {
+      throw Throwables.propagate(e.getCause());
+    }
+  }
+
+  private void chooseTargets(List<ReplicationWork> work,
+      Set<Node> excludedNodes) {
+    for (ReplicationWork rw : work) {
+      // Exclude all of the containing nodes from being targets.
+      // This list includes decommissioning or corrupt nodes.
+      excludedNodes.clear();
+      for (DatanodeDescriptor dn : rw.containingNodes) {
+        excludedNodes.add(dn);
+      }
+
+      // It is costly to extract the filename for which chooseTargets is called,
+      // so for now we pass in the block collection itself.
+      rw.chooseTargets(blockplacement, storagePolicySuite, excludedNodes);
+    }
+  }
+
   /** Choose target for WebHDFS redirection. */
   public DatanodeStorageInfo[] chooseTarget4WebHDFS(String src,
       DatanodeDescriptor clientnode, Set<Node> excludes, long blocksize) {
@@ -1772,6 +1875,11 @@ public String toString() {
   /**
    * The given storage is reporting all its blocks.
    * Update the (storage-->block list) and (block-->storage list) maps.
+   * <p>
+   * With a maximum number of replicas per lock, a report from a storage
+   * that already has replicas is processed in chunks first, see
+   * {@link #processReportInChunks}; what is left, i.e. the bookkeeping of
+   * the report, is done under a single write lock.
    *
    * @return true if all known storages of the given DN have finished reporting.
    * @throws IOException
@@ -1780,8 +1888,39 @@ public boolean processReport(final DatanodeID nodeID,
       final DatanodeStorage storage,
       final BlockListAsLongs newReport, BlockReportContext context,
       boolean lastStorageInRpc) throws IOException {
+    return processReport(nodeID, storage, newReport, context,
+        lastStorageInRpc, 0, null);
+  }
+
+  /**
+   * The given storage is reporting all its blocks, or all its blocks of the
+   * given buckets of its {@link BlockReportSummary}.  The blocks of the
+   * other buckets are left as they are, and the context of a report of
+   * some buckets is ignored, as the summary report carried it.
+   *
+   * @param numBuckets the number of buckets of the summary
+   * @param buckets the reported buckets, or null if the report is complete
+   * @return true if all known storages of the given DN have finished reporting.
+   * @throws IOException
+   */
+  public boolean processReport(final DatanodeID nodeID,
+      final DatanodeStorage storage,
+      final BlockListAsLongs newReport, BlockReportContext context,
+      boolean lastStorageInRpc, int numBuckets, int[] buckets)
+      throws IOException {
+    final long startTime = Time.monotonicNow();
+    boolean[] reportedBuckets = null;
+    if (buckets != null) {
+      reportedBuckets = new boolean[numBuckets];
+      for (int bucket : buckets) {
+        reportedBuckets[bucket] = true;
+      }
+    }
+    final ChunkedReport chunked = maxReplicasPerReportLock > 0 ?
+        processReportInChunks(nodeID, storage, newReport, reportedBuckets)
+        : null;
     namesystem.writeLock();
-    final long startTime = Time.monotonicNow(); //after acquiring write lock
+    final long lockStartTime = Time.monotonicNow();
     final long endTime;
     DatanodeDescriptor node;
     Collection<Block> invalidatedBlocks = null;
@@ -1809,37 +1948,21 @@ public boolean processReport(final DatanodeID nodeID,
         return !node.hasStaleStorages();
       }
 
-      if (storageInfo.numBlocks() == 0) {
+      if (chunked != null) {
+        // the replicas were already processed
+        invalidatedBlocks = chunked.invalidated;
+      } else if (storageInfo.numBlocks() == 0) {
         // The first block report can be processed a lot more efficiently than
         // ordinary block reports.  This shortens restart times.
         processFirstBlockReport(storageInfo, newReport);
       } else {
-        invalidatedBlocks = processReport(storageInfo, newReport);
+        invalidatedBlocks = processReport(storageInfo, newReport,
+            reportedBuckets);
       }
       
       storageInfo.receivedBlockReport();
-      if (context != null) {
-        storageInfo.setLastBlockReportId(context.getReportId());
-        if (lastStorageInRpc) {
-          int rpcsSeen = node.updateBlockReportContext(context);
-          if (rpcsSeen >= context.getTotalRpcs()) {
-            List<DatanodeStorageInfo> zombies = node.removeZombieStorages();
-            if (zombies.isEmpty()) {
-              LOG.debug("processReport 0x{}: no zombie storages found.",
-                  Long.toHexString(context.getReportId()));
-            } else {
-              for (DatanodeStorageInfo zombie : zombies) {
-                removeZombieReplicas(context, zombie);
-              }
-            }
-            node.clearBlockReportContext();
-          } else {
-            LOG.debug("processReport 0x{}: {} more RPCs remaining in this " +
-                    "report.", Long.toHexString(context.getReportId()),
-                (context.getTotalRpcs() - rpcsSeen)
-            );
-          }
-        }
+      if (context != null && buckets == null) {
+        processReportContext(node, storageInfo, context, lastStorageInRpc);
       }
     } finally {
       endTime = Time.monotonicNow();
@@ -1854,17 +1977,151 @@ public boolean processReport(final DatanodeID nodeID,
     }
 
     // Log the block report processing stats from Namenode perspective
+    final long lockHoldTime = (endTime - lockStartTime)
+        + (chunked == null ? 0 : chunked.lockHoldTime);
     final NameNodeMetrics metrics = NameNode.getNameNodeMetrics();
     if (metrics != null) {
       metrics.addBlockReport((int) (endTime - startTime));
+      metrics.addBlockReportLockHold(lockHoldTime);
     }
     blockLog.info("BLOCK* processReport: from storage {} node {}, " +
-        "blocks: {}, hasStaleStorage: {}, processing time: {} msecs", storage
-        .getStorageID(), nodeID, newReport.getNumberOfBlocks(),
-        node.hasStaleStorages(), (endTime - startTime));
+        "blocks: {}, hasStaleStorage: {}, processing time: {} msecs, " +
+        "write lock held: {} msecs in {} chunks", storage.getStorageID(),
+        nodeID, newReport.getNumberOfBlocks(), node.hasStaleStorages(),
+        (endTime - startTime), lockHoldTime,
+        1 + (chunked == null ? 0 : chunked.numLockHolds));
+    return !node.hasStaleStorages();
+  }
+
+  private void processReportContext(DatanodeDescriptor node,
+      DatanodeStorageInfo storageInfo, BlockReportContext context,
+      boolean lastStorageInRpc) {
+    storageInfo.setLastBlockReportId(context.getReportId());
+    if (lastStorageInRpc) {
+      int rpcsSeen = node.updateBlockReportContext(context);
+      if (rpcsSeen >= context.getTotalRpcs()) {
+        List<DatanodeStorageInfo> zombies = node.removeZombieStorages();
+        if (zombies.isEmpty()) {
+          LOG.debug("processReport 0x{}: no zombie storages found.",
+              Long.toHexString(context.getReportId()));
+        } else {
+          for (DatanodeStorageInfo zombie : zombies) {
+            removeZombieReplicas(context, zombie);
+          }
+        }
+        node.clearBlockReportContext();
+      } else {
+        LOG.debug("processReport 0x{}: {} more RPCs remaining in this " +
+                "report.", Long.toHexString(context.getReportId()),
+            (context.getTotalRpcs() - rpcsSeen)
+        );
+      }
+    }
+  }
+
+  /**
+   * The given storage is reporting the {@link BlockReportSummary} of its
+   * blocks.  The namenode summarizes the blocks it knows on the storage
+   * under the read lock, and compares the summaries.  When they match, the
+   * storage is up to date, as if it had reported all its blocks.
+   *
+   * @param mismatchedBuckets the buckets whose summaries do not match are
+   *        added to it by storage id, for the DN to report their blocks
+   * @return true if all known storages of the given DN have finished reporting.
+   * @throws IOException
+   */
+  public boolean processSummaryReport(final DatanodeID nodeID,
+      final DatanodeStorage storage, final BlockReportSummary summary,
+      BlockReportContext context, boolean lastStorageInRpc,
+      Map<String, int[]> mismatchedBuckets) throws IOException {
+    final long startTime = Time.monotonicNow();
+    BlockReportSummary stored = null;
+    DatanodeStorageInfo summarized = null;
+    namesystem.readLock();
+    try {
+      final DatanodeDescriptor node = datanodeManager.getDatanode(nodeID);
+      if (node != null && node.isAlive) {
+        summarized = node.getStorageInfo(storage.getStorageID());
+        if (summarized != null) {
+          stored = summarize(summarized, summary.getNumBuckets());
+        }
+      }
+    } finally {
+      namesystem.readUnlock();
+    }
+
+    final DatanodeDescriptor node;
+    final int[] mismatched;
+    namesystem.writeLock();
+    try {
+      node = datanodeManager.getDatanode(nodeID);
+      if (node == null || !node.isAlive) {
+        throw new IOException(
+            "ProcessReport from dead or unregistered node: " + nodeID);
+      }
+      DatanodeStorageInfo storageInfo =
+          node.getStorageInfo(storage.getStorageID());
+      if (storageInfo == null) {
+        storageInfo = node.updateStorage(storage);
+      }
+      if (namesystem.isInStartupSafeMode()
+          && storageInfo.getBlockReportCount() > 0) {
+        blockLog.info("BLOCK* processSummaryReport: "
+            + "discarded non-initial block report from {}"
+            + " because namenode still in startup phase", nodeID);
+        return !node.hasStaleStorages();
+      }
+      if (storageInfo != summarized) {
+        // the storage changed since it was summarized
+        stored = summarize(storageInfo, summary.getNumBuckets());
+      }
+      mismatched = stored.getMismatchedBuckets(summary);
+      if (mismatched.length == 0) {
+        storageInfo.receivedBlockReport();
+      } else {
+        mismatchedBuckets.put(storageInfo.getStorageID(), mismatched);
+      }
+      if (context != null) {
+        processReportContext(node, storageInfo, context, lastStorageInRpc);
+      }
+    } finally {
+      namesystem.writeUnlock();
+    }
+
+    final NameNodeMetrics metrics = NameNode.getNameNodeMetrics();
+    if (metrics != null) {
+      metrics.incrBlockReportBuckets(
+          summary.getNumBuckets() - mismatched.length, mismatched.length);
+    }
+    blockLog.info("BLOCK* processSummaryReport: from storage {} node {}, " +
+        "mismatched buckets: {} of {}, processing time: {} msecs",
+        storage.getStorageID(), nodeID, mismatched.length,
+        summary.getNumBuckets(), Time.monotonicNow() - startTime);
     return !node.hasStaleStorages();
   }
 
+  /**
+   * Summarize the blocks of a storage.  A replica of a block under
+   * construction, or scheduled for deletion, is to be reported whatever its
+   * state, as the report may change the block or drop the replica.
+   */
+  private BlockReportSummary summarize(DatanodeStorageInfo storageInfo,
+      int numBuckets) {
+    final BlockReportSummary summary = new BlockReportSummary(numBuckets);
+    final DatanodeDescriptor node = storageInfo.getDatanodeDescriptor();
+    final Iterator<BlockInfoContiguous> it = storageInfo.getBlockIterator();
+    while (it.hasNext()) {
+      final BlockInfoContiguous b = it.next();
+      if (!b.isComplete() || invalidateBlocks.contains(node, b)) {
+        summary.mismatch(b.getBlockId());
+      } else {
+        summary.add(b.getBlockId(), b.getGenerationStamp(), b.getNumBytes(),
+            ReplicaState.FINALIZED);
+      }
+    }
+    return summary;
+  }
+
   private void removeZombieReplicas(BlockReportContext context,
       DatanodeStorageInfo zombie) {
     LOG.warn("processReport 0x{}: removing zombie storage {}, which no " +
@@ -1967,7 +2224,8 @@ void rescanPostponedMisreplicatedBlocks() {
   
   private Collection<Block> processReport(
       final DatanodeStorageInfo storageInfo,
-      final BlockListAsLongs report) throws IOException {
+      final BlockListAsLongs report, final boolean[] reportedBuckets)
+      throws IOException {
     // Normal case:
     // Modify the (block-->datanode) map, according to the difference
     // between the old and new block report.
@@ -1977,11 +2235,19 @@ private Collection<Block> processReport(
     Collection<Block> toInvalidate = new LinkedList<Block>();
     Collection<BlockToMarkCorrupt> toCorrupt = new LinkedList<BlockToMarkCorrupt>();
     Collection<StatefulBlockInfo> toUC = new LinkedList<StatefulBlockInfo>();
-    reportDiff(storageInfo, report,
+    reportDiff(storageInfo, report, reportedBuckets,
         toAdd, toRemove, toInvalidate, toCorrupt, toUC);
-   
+    applyReportDiff(storageInfo, toAdd, toRemove, toInvalidate, toCorrupt,
+        toUC);
+    return toInvalidate;
+  }
+
+  /** Process the blocks on each queue of a report diff. */
+  private void applyReportDiff(final DatanodeStorageInfo storageInfo,
+      Collection<BlockInfoContiguous> toAdd, Collection<Block> toRemove,
+      Collection<Block> toInvalidate, Collection<BlockToMarkCorrupt> toCorrupt,
+      Collection<StatefulBlockInfo> toUC) throws IOException {
     DatanodeDescriptor node = storageInfo.getDatanodeDescriptor();
-    // Process the blocks on each queue
     for (StatefulBlockInfo b : toUC) { 
       addStoredBlockUnderConstruction(b, storageInfo);
     }
@@ -2003,8 +2269,180 @@ private Collection<Block> processReport(
     for (BlockToMarkCorrupt b : toCorrupt) {
       markBlockAsCorrupt(b, storageInfo, node);
     }
+  }
 
-    return toInvalidate;
+  /** The outcome of a block report processed in chunks. */
+  private static class ChunkedReport {
+    /** Reported replicas of blocks that do not belong to any file */
+    private final Collection<Block> invalidated = new ArrayList<Block>();
+    private long lockHoldTime = 0;
+    private int numLockHolds = 0;
+  }
+
+  /**
+   * Process a block report from a storage that already has replicas
+   * without holding the write lock for the whole report.
+   * <ol>
+   * <li>Under the read lock, take a snapshot of the ids of the blocks on
+   * the storage.</li>
+   * <li>Without a lock, sort the ids of the snapshot and of the report,
+   * and diff them: the blocks of the snapshot that are not reported are to
+   * be removed from the storage.</li>
+   * <li>Under the read lock, in chunks, drop the reported replicas that
+   * would change nothing, i.e. the finalized replicas of complete blocks
+   * the storage already has, with the same length and generation stamp.
+   * In a steady state, these are nearly all the replicas.</li>
+   * <li>Under the write lock, in chunks, process the remaining replicas
+   * like {@link #processReport(DatanodeStorageInfo, BlockListAsLongs)}
+   * does, then remove the blocks not reported.  The fair lock lets the
+   * waiting RPCs in between two chunks.</li>
+   * </ol>
+   * Every chunk of the last phase checks the state of the blocks again, so
+   * that the changes made in between, e.g. an incremental block report or
+   * a deletion, are taken into account.
+   *
+   * @return null if the report is to be processed under a single write
+   *         lock instead: a first report, a report to discard or from an
+   *         unknown storage
+   */
+  private ChunkedReport processReportInChunks(final DatanodeID nodeID,
+      final DatanodeStorage storage, final BlockListAsLongs report,
+      final boolean[] reportedBuckets) throws IOException {
+    final DatanodeStorageInfo storageInfo;
+    long[] storedIds;
+    namesystem.readLock();
+    try {
+      final DatanodeDescriptor node = datanodeManager.getDatanode(nodeID);
+      storageInfo = node == null || !node.isAlive ? null
+          : node.getStorageInfo(storage.getStorageID());
+      if (storageInfo == null || storageInfo.numBlocks() == 0
+          || (namesystem.isInStartupSafeMode()
+              && storageInfo.getBlockReportCount() > 0)) {
+        return null;
+      }
+      storedIds = new long[storageInfo.numBlocks()];
+      int n = 0;
+      final Iterator<BlockInfoContiguous> it = storageInfo.getBlockIterator();
+      while (it.hasNext() && n < storedIds.length) {
+        final long id = it.next().getBlockId();
+        if (isInBuckets(id, reportedBuckets)) {
+          storedIds[n++] = id;
+        }
+      }
+      storedIds = Arrays.copyOf(storedIds, n);
+    } finally {
+      namesystem.readUnlock();
+    }
+
+    final BlockListAsLongs newReport = report == null ?
+        BlockListAsLongs.EMPTY : report;
+    final long[] reportedIds = new long[newReport.getNumberOfBlocks()];
+    int n = 0;
+    for (BlockReportReplica r : newReport) {
+      reportedIds[n++] = r.getBlockId();
+    }
+    if (!newReport.isSorted()) {
+      Arrays.sort(reportedIds);
+    }
+    Arrays.sort(storedIds);
+    final List<Block> toRemove = new ArrayList<Block>();
+    for (long id : storedIds) {
+      if (Arrays.binarySearch(reportedIds, id) < 0) {
+        toRemove.add(new Block(id));
+      }
+    }
+
+    final List<BlockReportReplica> toProcess =
+        new ArrayList<BlockReportReplica>();
+    final Iterator<BlockReportReplica> it = newReport.iterator();
+    while (it.hasNext()) {
+      namesystem.readLock();
+      try {
+        for (int i = 0; i < maxReplicasPerReportLock && it.hasNext(); i++) {
+          final BlockReportReplica r = it.next();
+          if (Arrays.binarySearch(storedIds, r.getBlockId()) < 0
+              || !isReplicaUpToDate(storageInfo, r)) {
+            // the iterator reuses its replica
+            toProcess.add(new BlockReportReplica(r));
+          }
+        }
+      } finally {
+        namesystem.readUnlock();
+      }
+    }
+
+    final ChunkedReport result = new ChunkedReport();
+    int nextToProcess = 0;
+    int nextToRemove = 0;
+    while (nextToProcess < toProcess.size()
+        || nextToRemove < toRemove.size()) {
+      namesystem.writeLock();
+      final long lockStartTime = Time.monotonicNow();
+      try {
+        checkReportingStorage(nodeID, storageInfo);
+        final Collection<BlockInfoContiguous> toAdd =
+            new LinkedList<BlockInfoContiguous>();
+        final Collection<Block> toInvalidate = new LinkedList<Block>();
+        final Collection<BlockToMarkCorrupt> toCorrupt =
+            new LinkedList<BlockToMarkCorrupt>();
+        final Collection<StatefulBlockInfo> toUC =
+            new LinkedList<StatefulBlockInfo>();
+        int i = 0;
+        for (; i < maxReplicasPerReportLock
+            && nextToProcess < toProcess.size(); i++) {
+          final BlockReportReplica r = toProcess.get(nextToProcess++);
+          processReportedBlock(storageInfo, r, r.getState(), toAdd,
+              toInvalidate, toCorrupt, toUC);
+        }
+        final int end = Math.min(toRemove.size(),
+            nextToRemove + maxReplicasPerReportLock - i);
+        applyReportDiff(storageInfo, toAdd,
+            toRemove.subList(nextToRemove, end), toInvalidate, toCorrupt,
+            toUC);
+        nextToRemove = end;
+        result.invalidated.addAll(toInvalidate);
+      } finally {
+        result.lockHoldTime += Time.monotonicNow() - lockStartTime;
+        result.numLockHolds++;
+        namesystem.writeUnlock();
+      }
+    }
+    return result;
+  }
+
+  /**
+   * @return true if processing the reported replica would change nothing:
+   *         it is a finalized replica of a complete block the storage
+   *         already has, with the stored length and generation stamp, and
+   *         not corrupt
+   */
+  private boolean isReplicaUpToDate(DatanodeStorageInfo storageInfo,
+      BlockReportReplica replica) {
+    if (replica.getState() != ReplicaState.FINALIZED) {
+      return false;
+    }
+    final BlockInfoContiguous storedBlock = blocksMap.getStoredBlock(replica);
+    return storedBlock != null
+        && storedBlock.isComplete()
+        && storedBlock.getGenerationStamp() == replica.getGenerationStamp()
+        && storedBlock.getNumBytes() == replica.getNumBytes()
+        && storedBlock.findStorageInfo(storageInfo) >= 0
+        && !corruptReplicas.isReplicaCorrupt(storedBlock,
+            storageInfo.getDatanodeDescriptor());
+  }
+
+  /**
+   * Check that the storage of a report processed in chunks is still the one
+   * of a live datanode, as the lock was released since the last chunk.
+   */
+  private void checkReportingStorage(DatanodeID nodeID,
+      DatanodeStorageInfo storageInfo) throws IOException {
+    final DatanodeDescriptor node = datanodeManager.getDatanode(nodeID);
+    if (node == null || !node.isAlive
+        || node.getStorageInfo(storageInfo.getStorageID()) != storageInfo) {
+      throw new IOException(
+          "ProcessReport from dead or unregistered node: " + nodeID);
+    }
   }
 
   /**
@@ -2118,8 +2556,14 @@ private void processFirstBlockReport(
     }
   }
 
+  /** @return true if the block is in the buckets, or there are none */
+  private static boolean isInBuckets(long blockId, boolean[] buckets) {
+    return buckets == null
+        || buckets[BlockReportSummary.getBucket(blockId, buckets.length)];
+  }
+
   private void reportDiff(DatanodeStorageInfo storageInfo, 
-      BlockListAsLongs newReport, 
+      BlockListAsLongs newReport, boolean[] reportedBuckets,
       Collection<BlockInfoContiguous> toAdd,              // add to DatanodeDescriptor
       Collection<Block> toRemove,           // remove from DatanodeDescriptor
       Collection<Block> toInvalidate,       // should be removed from DN
@@ -2155,8 +2599,12 @@ private void reportDiff(DatanodeStorageInfo storageInfo,
     // all of them are next to the delimiter
     Iterator<BlockInfoContiguous> it =
         storageInfo.new BlockIterator(delimiter.getNext(0));
-    while(it.hasNext())
-      toRemove.add(it.next());
+    while(it.hasNext()) {
+      BlockInfoContiguous b = it.next();
+      if (isInBuckets(b.getBlockId(), reportedBuckets)) {
+        toRemove.add(b);
+      }
+    }
     storageInfo.removeBlock(delimiter);
   }
 
@@ -3590,6 +4038,11 @@ private void removeFromExcessReplicateMap(Block block) {
   public int getCapacity() {
     return blocksMap.getCapacity();
   }
+
+  /** @return the bytes of direct memory holding block replica locations */
+  public long getOffHeapBytes() {
+    return blocksMap.getOffHeapBytes();
+  }
   
   /**
    * Return a range of corrupt replica block ids. Up to numExpectedBlocks 
@@ -3699,6 +4152,13 @@ int computeDatanodeWork() {
 
     int workFound = this.computeReplicationWork(blocksToProcess);
 
+    final long now = Time.monotonicNow();
+    final NameNodeMetrics metrics = NameNode.getNameNodeMetrics();
+    if (metrics != null) {
+      metrics.addReplicationWork(workFound, now - lastReplicationWorkTime);
+    }
+    lastReplicationWorkTime = now;
+
     // Update counters
     namesystem.writeLock();
     try {
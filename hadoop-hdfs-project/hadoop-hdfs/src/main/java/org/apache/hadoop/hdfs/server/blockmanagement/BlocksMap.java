@@ -65,9 +65,22 @@ public void remove()  {
   
   private GSet<Block, BlockInfoContiguous> blocks;
 
+  /** The off-heap store of the triplets of the blocks, or null. */
+  private final OffHeapTripletStore offHeapStore;
+
   BlocksMap(int capacity) {
+    this(capacity, 0);
+  }
+
+  /**
+   * @param offHeapReplicas if positive, keep the triplets of the blocks
+   *        off-heap in records of this many replicas
+   */
+  BlocksMap(int capacity, int offHeapReplicas) {
     // Use 2% of total memory to size the GSet capacity
     this.capacity = capacity;
+    this.offHeapStore = offHeapReplicas > 0 ?
+        new OffHeapTripletStore(offHeapReplicas) : null;
     this.blocks = new LightWeightGSet<Block, BlockInfoContiguous>(capacity) {
       @Override
       public Iterator<BlockInfoContiguous> iterator() {
@@ -94,6 +107,9 @@ void clear() {
     if (blocks != null) {
       blocks.clear();
     }
+    if (offHeapStore != null) {
+      offHeapStore.clear();
+    }
   }
 
   BlockCollection getBlockCollection(Block b) {
@@ -107,8 +123,17 @@ BlockCollection getBlockCollection(Block b) {
   BlockInfoContiguous addBlockCollection(BlockInfoContiguous b, BlockCollection bc) {
     BlockInfoContiguous info = blocks.get(b);
     if (info != b) {
+      if (info != null) {
+        // the new block takes over the replicas of the one it replaces, so
+        // that the replaced block leaves the storage lists and the store
+        replaceBlock(b);
+      } else {
+        blocks.put(b);
+        if (offHeapStore != null) {
+          offHeapStore.add(b);
+        }
+      }
       info = b;
-      blocks.put(info);
     }
     info.setBlockCollection(bc);
     return info;
@@ -129,6 +154,19 @@ void removeBlock(Block block) {
       DatanodeDescriptor dn = blockInfo.getDatanode(idx);
       dn.removeBlock(blockInfo); // remove from the list and wipe the location
     }
+    releaseOffHeap(blockInfo);
+  }
+
+  /** Move the triplets of a block that left the map back on the heap. */
+  private void releaseOffHeap(BlockInfoContiguous info) {
+    if (offHeapStore != null) {
+      offHeapStore.remove(info);
+    }
+  }
+
+  /** @return the bytes of direct memory holding block triplets */
+  long getOffHeapBytes() {
+    return offHeapStore == null ? 0 : offHeapStore.getOffHeapBytes();
   }
   
   /** Returns the block object it it exists in the map. */
@@ -195,6 +233,7 @@ boolean removeNode(Block b, DatanodeDescriptor node) {
     if (info.getDatanode(0) == null     // no datanodes left
               && info.isDeleted()) {  // does not belong to a file
       blocks.remove(b);  // remove block from the map
+      releaseOffHeap(info);
     }
     return removed;
   }
@@ -221,6 +260,10 @@ int getCapacity() {
   BlockInfoContiguous replaceBlock(BlockInfoContiguous newBlock) {
     BlockInfoContiguous currentBlock = blocks.get(newBlock);
     assert currentBlock != null : "the block if not in blocksMap";
+    if (offHeapStore != null) {
+      // the new block joins the storage lists of its neighbours
+      offHeapStore.add(newBlock);
+    }
     // replace block in data-node lists
     for (int i = currentBlock.numNodes() - 1; i >= 0; i--) {
       final DatanodeDescriptor dn = currentBlock.getDatanode(i);
@@ -234,6 +277,9 @@ BlockInfoContiguous replaceBlock(BlockInfoContiguous newBlock) {
     }
     // replace block in the map itself
     blocks.put(newBlock);
+    if (currentBlock != newBlock) {
+      releaseOffHeap(currentBlock);
+    }
     return newBlock;
   }
 }
@@ -0,0 +1,334 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.blockmanagement;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+
+import com.google.common.annotations.VisibleForTesting;
+
+/**
+ * Keeps the replica triplets of the blocks of a {@link BlocksMap} outside of
+ * the Java heap.
+ * <p>
+ * Every block in the map gets an id.  The id indexes a fixed-size record in
+ * direct memory slabs, holding replicasPerRecord triplets of ints: the index
+ * of the {@link DatanodeStorageInfo} in this store, and the ids of the
+ * previous and the next blocks in the block list of that storage, each
+ * stored plus one so that 0 stands for null.  The heap then holds no
+ * triplets array per block, only one reference per id in a table that maps
+ * ids back to blocks.
+ * <p>
+ * A block whose replication grows beyond replicasPerRecord moves its
+ * triplets back into an array on the heap, but keeps its id so that the
+ * records of its neighbours stay valid.  Blocks get their ids when they
+ * are added to the map with no replicas, and give them back, with their
+ * triplets moved back on the heap, when they leave the map.
+ * <p>
+ * The index of a storage is reference counted by the triplets referring to
+ * it, and is released for reuse when the last of them goes, e.g. once all
+ * the replicas of a removed storage are gone.
+ * <p>
+ * Only the triplets move: the {@link BlockInfoContiguous} objects, and the
+ * INodes, stay on the heap.
+ * <p>
+ * Like the {@link BlocksMap}, this class is not thread-safe and relies on
+ * the namesystem lock.
+ */
+@InterfaceAudience.Private
+final class OffHeapTripletStore {
+  /** Number of records per slab, as a shift, so that ids split cheaply. */
+  private static final int SLAB_SHIFT = 16;
+  private static final int SLAB_RECORDS = 1 << SLAB_SHIFT;
+  private static final int SLAB_MASK = SLAB_RECORDS - 1;
+  /** Ints per replica: the storage, the previous and the next block. */
+  private static final int INTS_PER_REPLICA = 3;
+
+  private final int replicasPerRecord;
+  private final int intsPerRecord;
+
+  private IntBuffer[] slabs = new IntBuffer[0];
+  private BlockInfoContiguous[][] blocks = new BlockInfoContiguous[0][];
+  /** Number of ids handed out, including the free ones */
+  private int numIds = 0;
+  private int[] freeIds = new int[64];
+  private int numFreeIds = 0;
+
+  private final List<DatanodeStorageInfo> storages =
+      new ArrayList<DatanodeStorageInfo>();
+  private final Map<DatanodeStorageInfo, Integer> storageIndexes =
+      new IdentityHashMap<DatanodeStorageInfo, Integer>();
+  /** Number of triplets referring to each storage index */
+  private int[] storageRefs = new int[64];
+  private int[] freeStorageIndexes = new int[64];
+  private int numFreeStorageIndexes = 0;
+
+  OffHeapTripletStore(int replicasPerRecord) {
+    this.replicasPerRecord = replicasPerRecord;
+    this.intsPerRecord = replicasPerRecord * INTS_PER_REPLICA;
+  }
+
+  int getReplicasPerRecord() {
+    return replicasPerRecord;
+  }
+
+  /**
+   * Give the block an id.  Its triplets move off the heap if it has no
+   * replicas yet, as its triplets can then not refer to blocks without an
+   * id, and if its capacity fits in a record.
+   */
+  void add(BlockInfoContiguous b) {
+    if (b.getOffHeapId() >= 0) {
+      return;
+    }
+    final int id = allocateId();
+    blocks[id >>> SLAB_SHIFT][id & SLAB_MASK] = b;
+    b.setOffHeapId(id);
+    if (b.numNodes() == 0 && b.getCapacity() <= replicasPerRecord) {
+      b.moveTripletsOffHeap(this);
+    }
+  }
+
+  /**
+   * Take the id back from a block leaving the map, moving its triplets back
+   * on the heap first.
+   */
+  void remove(BlockInfoContiguous b) {
+    final int id = b.getOffHeapId();
+    if (id < 0) {
+      return;
+    }
+    if (b.isOffHeap()) {
+      b.moveTripletsOnHeap(takeTriplets(id, replicasPerRecord));
+    }
+    clearRecord(id);
+    blocks[id >>> SLAB_SHIFT][id & SLAB_MASK] = null;
+    b.setOffHeapId(-1);
+    if (numFreeIds == freeIds.length) {
+      freeIds = Arrays.copyOf(freeIds, freeIds.length * 2);
+    }
+    freeIds[numFreeIds++] = id;
+  }
+
+  /**
+   * Move the triplets of every block back on the heap and release the
+   * slabs, e.g. when the map is cleared while the blocks are still in use.
+   */
+  void clear() {
+    // every block is restored before any id is forgotten, as restoring a
+    // block resolves the ids of its neighbours
+    for (int id = 0; id < numIds; id++) {
+      BlockInfoContiguous b = getBlock(id);
+      if (b != null && b.isOffHeap()) {
+        b.moveTripletsOnHeap(toArray(id, replicasPerRecord));
+      }
+    }
+    for (int id = 0; id < numIds; id++) {
+      BlockInfoContiguous b = getBlock(id);
+      if (b != null) {
+        b.setOffHeapId(-1);
+      }
+    }
+    slabs = new IntBuffer[0];
+    blocks = new BlockInfoContiguous[0][];
+    numIds = 0;
+    numFreeIds = 0;
+    storages.clear();
+    storageIndexes.clear();
+    Arrays.fill(storageRefs, 0);
+    numFreeStorageIndexes = 0;
+  }
+
+  /**
+   * Move the triplets of the record of the given id to an array of
+   * references, with room for the given number of replicas, and clear the
+   * record.  The block keeps its id for its neighbours.
+   */
+  Object[] takeTriplets(int id, int capacity) {
+    Object[] triplets = toArray(id, capacity);
+    clearRecord(id);
+    return triplets;
+  }
+
+  /**
+   * Copy the triplets of the record of the given id to an array of
+   * references, with room for the given number of replicas.
+   */
+  private Object[] toArray(int id, int capacity) {
+    Object[] triplets = new Object[capacity * INTS_PER_REPLICA];
+    for (int i = 0; i < replicasPerRecord; i++) {
+      triplets[i * 3] = getStorage(id, i);
+      triplets[i * 3 + 1] = getPrevious(id, i);
+      triplets[i * 3 + 2] = getNext(id, i);
+    }
+    return triplets;
+  }
+
+  DatanodeStorageInfo getStorage(int id, int index) {
+    int s = getInt(id, index, 0);
+    return s == 0 ? null : storages.get(s - 1);
+  }
+
+  void setStorage(int id, int index, DatanodeStorageInfo storage) {
+    final int old = getInt(id, index, 0);
+    setInt(id, index, 0, storage == null ? 0 : referStorage(storage) + 1);
+    if (old != 0) {
+      releaseStorage(old - 1);
+    }
+  }
+
+  BlockInfoContiguous getPrevious(int id, int index) {
+    return getBlock(getInt(id, index, 1) - 1);
+  }
+
+  BlockInfoContiguous setPrevious(int id, int index, BlockInfoContiguous to) {
+    BlockInfoContiguous old = getPrevious(id, index);
+    setInt(id, index, 1, toInt(to));
+    return old;
+  }
+
+  BlockInfoContiguous getNext(int id, int index) {
+    return getBlock(getInt(id, index, 2) - 1);
+  }
+
+  BlockInfoContiguous setNext(int id, int index, BlockInfoContiguous to) {
+    BlockInfoContiguous old = getNext(id, index);
+    setInt(id, index, 2, toInt(to));
+    return old;
+  }
+
+  /** @return the bytes of direct memory held by the slabs */
+  long getOffHeapBytes() {
+    return (long) slabs.length * SLAB_RECORDS * intsPerRecord * 4;
+  }
+
+  @VisibleForTesting
+  int getNumBlocks() {
+    return numIds - numFreeIds;
+  }
+
+  @VisibleForTesting
+  int getNumStorages() {
+    return storageIndexes.size();
+  }
+
+  private BlockInfoContiguous getBlock(int id) {
+    return id < 0 ? null : blocks[id >>> SLAB_SHIFT][id & SLAB_MASK];
+  }
+
+  private static int toInt(BlockInfoContiguous b) {
+    if (b == null) {
+      return 0;
+    }
+    assert b.getOffHeapId() >= 0 : "Block " + b + " is not in the store";
+    return b.getOffHeapId() + 1;
+  }
+
+  private int getInt(int id, int index, int field) {
+    assert index >= 0 && index < replicasPerRecord : "Index is out of bound";
+    return slabs[id >>> SLAB_SHIFT].get(
+        (id & SLAB_MASK) * intsPerRecord + index * INTS_PER_REPLICA + field);
+  }
+
+  private void setInt(int id, int index, int field, int value) {
+    assert index >= 0 && index < replicasPerRecord : "Index is out of bound";
+    slabs[id >>> SLAB_SHIFT].put(
+        (id & SLAB_MASK) * intsPerRecord + index * INTS_PER_REPLICA + field,
+        value);
+  }
+
+  private void clearRecord(int id) {
+    for (int i = 0; i < replicasPerRecord; i++) {
+      int s = getInt(id, i, 0);
+      if (s != 0) {
+        releaseStorage(s - 1);
+      }
+    }
+    IntBuffer slab = slabs[id >>> SLAB_SHIFT];
+    int offset = (id & SLAB_MASK) * intsPerRecord;
+    for (int i = 0; i < intsPerRecord; i++) {
+      slab.put(offset + i, 0);
+    }
+  }
+
+  private int allocateId() {
+    if (numFreeIds > 0) {
+      return freeIds[--numFreeIds];
+    }
+    if (numIds == slabs.length * SLAB_RECORDS) {
+      // direct memory is zeroed on allocation
+      slabs = Arrays.copyOf(slabs, slabs.length + 1);
+      slabs[slabs.length - 1] = ByteBuffer.allocateDirect(
+          SLAB_RECORDS * intsPerRecord * 4).order(ByteOrder.nativeOrder())
+          .asIntBuffer();
+      blocks = Arrays.copyOf(blocks, blocks.length + 1);
+      blocks[blocks.length - 1] = new BlockInfoContiguous[SLAB_RECORDS];
+    }
+    return numIds++;
+  }
+
+  /**
+   * Add a reference from a triplet to a storage.
+   *
+   * @return the index of the storage
+   */
+  private int referStorage(DatanodeStorageInfo storage) {
+    Integer i = storageIndexes.get(storage);
+    if (i == null) {
+      if (numFreeStorageIndexes > 0) {
+        i = freeStorageIndexes[--numFreeStorageIndexes];
+        storages.set(i, storage);
+      } else {
+        i = storages.size();
+        storages.add(storage);
+        if (i == storageRefs.length) {
+          storageRefs = Arrays.copyOf(storageRefs, storageRefs.length * 2);
+        }
+      }
+      storageIndexes.put(storage, i);
+    }
+    storageRefs[i]++;
+    return i;
+  }
+
+  /**
+   * Remove a reference from a triplet to the storage of the given index,
+   * releasing the index with the last reference.
+   */
+  private void releaseStorage(int i) {
+    assert storageRefs[i] > 0 : "Storage index " + i + " is not referred";
+    if (--storageRefs[i] > 0) {
+      return;
+    }
+    storageIndexes.remove(storages.get(i));
+    storages.set(i, null);
+    if (numFreeStorageIndexes == freeStorageIndexes.length) {
+      freeStorageIndexes = Arrays.copyOf(freeStorageIndexes,
+          freeStorageIndexes.length * 2);
+    }
+    freeStorageIndexes[numFreeStorageIndexes++] = i;
+  }
+}
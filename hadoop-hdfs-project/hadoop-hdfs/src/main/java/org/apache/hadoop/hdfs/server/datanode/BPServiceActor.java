@@ -28,6 +28,7 @@
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
 
 import com.google.common.base.Joiner;
 import org.apache.commons.logging.Log;
@@ -44,13 +45,16 @@
 import org.apache.hadoop.hdfs.protocolPB.DatanodeProtocolClientSideTranslatorPB;
 import org.apache.hadoop.hdfs.server.common.IncorrectVersionException;
 import org.apache.hadoop.hdfs.server.namenode.FSNamesystem;
+import org.apache.hadoop.hdfs.server.protocol.BlockReportBucketsCommand;
 import org.apache.hadoop.hdfs.server.protocol.BlockReportContext;
+import org.apache.hadoop.hdfs.server.protocol.BlockReportSummary;
 import org.apache.hadoop.hdfs.server.protocol.DatanodeCommand;
 import org.apache.hadoop.hdfs.server.protocol.DatanodeRegistration;
 import org.apache.hadoop.hdfs.server.protocol.DatanodeStorage;
 import org.apache.hadoop.hdfs.server.protocol.DisallowedDatanodeException;
 import org.apache.hadoop.hdfs.server.protocol.HeartbeatResponse;
 import org.apache.hadoop.hdfs.server.protocol.NamespaceInfo;
+import org.apache.hadoop.hdfs.server.protocol.NamespaceInfo.Capability;
 import org.apache.hadoop.hdfs.server.protocol.ReceivedDeletedBlockInfo;
 import org.apache.hadoop.hdfs.server.protocol.StorageBlockReport;
 import org.apache.hadoop.hdfs.server.protocol.StorageReceivedDeletedBlocks;
@@ -453,27 +457,58 @@ List<DatanodeCommand> blockReport() throws IOException {
     int numReportsSent = 0;
     int numRPCs = 0;
     boolean success = false;
+    final boolean useSummaries = dnConf.blockReportSummaryBuckets > 0
+        && bpRegistration.getNamespaceInfo().isCapabilitySupported(
+            Capability.STORAGE_BLOCK_REPORT_SUMMARY);
+    StorageBlockReport[] toSend = reports;
+    int numMismatchedBuckets = 0;
     long brSendStartTime = monotonicNow();
     long reportId = generateUniqueBlockReportId();
     try {
-      if (totalBlockCount < dnConf.blockReportSplitThreshold) {
+      if (useSummaries) {
+        // Send the summaries of all the storages first, then the replicas
+        // of the buckets whose summaries the NN could not match.
+        DatanodeCommand cmd = bpNamenode.blockReport(
+            bpRegistration, bpos.getBlockPoolId(), summarize(reports),
+            new BlockReportContext(1, 0, reportId));
+        numRPCs++;
+        numReportsSent = reports.length;
+        toSend = new StorageBlockReport[0];
+        if (cmd instanceof BlockReportBucketsCommand) {
+          toSend = selectBuckets(reports, (BlockReportBucketsCommand) cmd);
+        } else if (cmd != null) {
+          cmds.add(cmd);
+        }
+        totalBlockCount = 0;
+        for (StorageBlockReport report : toSend) {
+          totalBlockCount += report.getBlocks().getNumberOfBlocks();
+          numMismatchedBuckets += report.getBuckets().length;
+        }
+        // the NN ignores the context of these reports
+        reportId = generateUniqueBlockReportId();
+      }
+      if (useSummaries && toSend.length == 0) {
+        // every summary matched
+      } else if (totalBlockCount < dnConf.blockReportSplitThreshold) {
         // Below split threshold, send all reports in a single message.
         DatanodeCommand cmd = bpNamenode.blockReport(
-            bpRegistration, bpos.getBlockPoolId(), reports,
+            bpRegistration, bpos.getBlockPoolId(), toSend,
               new BlockReportContext(1, 0, reportId));
-        numRPCs = 1;
+        numRPCs++;
         numReportsSent = reports.length;
         if (cmd != null) {
           cmds.add(cmd);
         }
       } else {
         // Send one block report per message.
-        for (int r = 0; r < reports.length; r++) {
-          StorageBlockReport singleReport[] = { reports[r] };
+        for (int r = 0; r < toSend.length; r++) {
+          StorageBlockReport singleReport[] = { toSend[r] };
           DatanodeCommand cmd = bpNamenode.blockReport(
               bpRegistration, bpos.getBlockPoolId(), singleReport,
-              new BlockReportContext(reports.length, r, reportId));
-          numReportsSent++;
+              new BlockReportContext(toSend.length, r, reportId));
+          if (!useSummaries) {
+            numReportsSent++;
+          }
           numRPCs++;
           if (cmd != null) {
             cmds.add(cmd);
@@ -486,11 +521,21 @@ List<DatanodeCommand> blockReport() throws IOException {
       long brSendCost = monotonicNow() - brSendStartTime;
       long brCreateCost = brSendStartTime - brCreateStartTime;
       dn.getMetrics().addBlockReport(brSendCost);
+      if (success) {
+        final long sinceStartup = dn.getMetrics().firstBlockReportSent();
+        if (sinceStartup >= 0) {
+          LOG.info("Sent the first block report of the datanode "
+              + sinceStartup + " msecs after its startup");
+        }
+      }
       final int nCmds = cmds.size();
       LOG.info((success ? "S" : "Uns") +
           "uccessfully sent block report 0x" +
           Long.toHexString(reportId) + ",  containing " + reports.length +
           " storage report(s), of which we sent " + numReportsSent + "." +
+          (useSummaries ? " They were summarized in " + dnConf
+              .blockReportSummaryBuckets + " buckets, of which " +
+              numMismatchedBuckets + " did not match." : "") +
           " The reports had " + totalBlockCount +
           " total blocks and used " + numRPCs +
           " RPC(s). This took " + brCreateCost +
@@ -506,6 +551,37 @@ List<DatanodeCommand> blockReport() throws IOException {
     return cmds.size() == 0 ? null : cmds;
   }
 
+  /** @return the summaries of the given reports */
+  private StorageBlockReport[] summarize(StorageBlockReport[] reports) {
+    StorageBlockReport[] summaries = new StorageBlockReport[reports.length];
+    for (int i = 0; i < reports.length; i++) {
+      summaries[i] = new StorageBlockReport(reports[i].getStorage(),
+          BlockReportSummary.summarize(reports[i].getBlocks(),
+              dnConf.blockReportSummaryBuckets));
+    }
+    return summaries;
+  }
+
+  /**
+   * @return the reports of the replicas of the buckets the NN asks for,
+   *         from the given reports
+   */
+  private static StorageBlockReport[] selectBuckets(
+      StorageBlockReport[] reports, BlockReportBucketsCommand cmd) {
+    List<StorageBlockReport> selected = new ArrayList<StorageBlockReport>();
+    for (Entry<String, int[]> e : cmd.getStorageBuckets().entrySet()) {
+      for (StorageBlockReport report : reports) {
+        if (report.getStorage().getStorageID().equals(e.getKey())) {
+          selected.add(new StorageBlockReport(report.getStorage(),
+              BlockReportSummary.select(report.getBlocks(),
+                  cmd.getNumBuckets(), e.getValue()),
+              cmd.getNumBuckets(), e.getValue()));
+        }
+      }
+    }
+    return selected.toArray(new StorageBlockReport[selected.size()]);
+  }
+
   DatanodeCommand cacheReport() throws IOException {
     // If caching is disabled, do not send a cache report
     if (dn.getFSDataset().getCacheCapacity() == 0) {
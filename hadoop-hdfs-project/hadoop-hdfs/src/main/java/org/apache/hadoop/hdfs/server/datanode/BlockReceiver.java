@@ -27,12 +27,17 @@
 import java.io.FileDescriptor;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.Writer;
 import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.LinkedList;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.zip.Checksum;
 
 import org.apache.commons.logging.Log;
@@ -95,6 +100,8 @@ class BlockReceiver implements Closeable {
   private String mirrorAddr;
   private DataOutputStream mirrorOut;
   private Daemon responder = null;
+  /** writes the packets to disk, if they are queued for it */
+  private Daemon writer = null;
   private DataTransferThrottler throttler;
   private ReplicaOutputStreams streams;
   private DatanodeInfo srcDataNode = null;
@@ -508,8 +515,10 @@ private int receivePacket() throws IOException {
       replicaInfo.setNumBytes(offsetInBlock);
     }
     
-    // put in queue for pending acks, unless sync was requested
-    if (responder != null && !syncBlock && !shouldVerifyChecksum()) {
+    // put in queue for pending acks, unless sync was requested or the
+    // packet is written by the writer thread
+    if (responder != null && writer == null && !syncBlock
+        && !shouldVerifyChecksum()) {
       ((PacketResponder) responder.getRunnable()).enqueue(seqno,
           lastPacketInBlock, offsetInBlock, Status.SUCCESS);
     }
@@ -532,15 +541,12 @@ private int receivePacket() throws IOException {
     
     ByteBuffer dataBuf = packetReceiver.getDataSlice();
     ByteBuffer checksumBuf = packetReceiver.getChecksumSlice();
+    boolean shouldNotWriteChecksum = false;
     
     if (lastPacketInBlock || len == 0) {
       if(LOG.isDebugEnabled()) {
         LOG.debug("Receiving an empty packet or the end of the block " + block);
       }
-      // sync block if requested
-      if (syncBlock) {
-        flushOrSync(true);
-      }
     } else {
       final int checksumLen = diskChecksum.getChecksumSize(len);
       final int checksumReceivedLen = checksumBuf.capacity();
@@ -557,9 +563,16 @@ private int receivePacket() throws IOException {
           // checksum error detected locally. there is no reason to continue.
           if (responder != null) {
             try {
-              ((PacketResponder) responder.getRunnable()).enqueue(seqno,
-                  lastPacketInBlock, offsetInBlock,
-                  Status.ERROR_CHECKSUM);
+              if (writer != null) {
+                // ack after the packets queued for the disk
+                ((PacketWriter) writer.getRunnable()).enqueue(new DiskPacket(
+                    seqno, lastPacketInBlock, offsetInBlock,
+                    Status.ERROR_CHECKSUM));
+              } else {
+                ((PacketResponder) responder.getRunnable()).enqueue(seqno,
+                    lastPacketInBlock, offsetInBlock,
+                    Status.ERROR_CHECKSUM);
+              }
               // Wait until the responder sends back the response
               // and interrupt this thread.
               Thread.sleep(3000);
@@ -583,8 +596,62 @@ private int receivePacket() throws IOException {
       
       // by this point, the data in the buffer uses the disk checksum
 
-      final boolean shouldNotWriteChecksum = checksumReceivedLen == 0
+      shouldNotWriteChecksum = checksumReceivedLen == 0
           && streams.isTransientStorage();
+    }
+
+    final DiskPacket pkt = new DiskPacket(seqno, lastPacketInBlock,
+        syncBlock, firstByteInBlock, len, dataBuf, checksumBuf,
+        shouldNotWriteChecksum);
+    if (writer != null) {
+      ((PacketWriter) writer.getRunnable()).enqueue(pkt.copy());
+    } else {
+      writePacket(pkt);
+    }
+
+    /*
+     * Send in-progress responses for the replaceBlock() calls back to caller to
+     * avoid timeouts due to balancer throttling. HDFS-6247
+     */
+    if (isReplaceBlock
+        && (Time.monotonicNow() - lastResponseTime > responseInterval)) {
+      BlockOpResponseProto.Builder response = BlockOpResponseProto.newBuilder()
+          .setStatus(Status.IN_PROGRESS);
+      response.build().writeDelimitedTo(replyOut);
+      replyOut.flush();
+
+      lastResponseTime = Time.monotonicNow();
+    }
+
+    if (throttler != null) { // throttle I/O
+      throttler.throttle(len);
+    }
+    
+    return lastPacketInBlock?-1:len;
+  }
+
+  /**
+   * Writes a received packet to disk, and queues its ack if it is sent once
+   * the packet is written.
+   */
+  private void writePacket(DiskPacket pkt) throws IOException {
+    final long seqno = pkt.seqno;
+    final boolean lastPacketInBlock = pkt.lastPacketInBlock;
+    final boolean syncBlock = pkt.syncBlock;
+    final long firstByteInBlock = pkt.firstByteInBlock;
+    final int len = pkt.len;
+    final long offsetInBlock = firstByteInBlock + len;
+    final ByteBuffer dataBuf = pkt.dataBuf;
+    final ByteBuffer checksumBuf = pkt.checksumBuf;
+    final boolean shouldNotWriteChecksum = pkt.shouldNotWriteChecksum;
+
+    if (lastPacketInBlock || len == 0) {
+      // sync block if requested
+      if (syncBlock) {
+        flushOrSync(true);
+      }
+    } else {
+      final int checksumLen = diskChecksum.getChecksumSize(len);
       try {
         long onDiskLen = replicaInfo.getBytesOnDisk();
         if (onDiskLen<offsetInBlock) {
@@ -669,31 +736,13 @@ private int receivePacket() throws IOException {
     }
 
     // if sync was requested, put in queue for pending acks here
-    // (after the fsync finished)
-    if (responder != null && (syncBlock || shouldVerifyChecksum())) {
+    // (after the fsync finished). The acks queued by the writer all wait
+    // for their packet to be written, so that they stay in order.
+    if (responder != null
+        && (writer != null || syncBlock || shouldVerifyChecksum())) {
       ((PacketResponder) responder.getRunnable()).enqueue(seqno,
           lastPacketInBlock, offsetInBlock, Status.SUCCESS);
     }
-
-    /*
-     * Send in-progress responses for the replaceBlock() calls back to caller to
-     * avoid timeouts due to balancer throttling. HDFS-6247
-     */
-    if (isReplaceBlock
-        && (Time.monotonicNow() - lastResponseTime > responseInterval)) {
-      BlockOpResponseProto.Builder response = BlockOpResponseProto.newBuilder()
-          .setStatus(Status.IN_PROGRESS);
-      response.build().writeDelimitedTo(replyOut);
-      replyOut.flush();
-
-      lastResponseTime = Time.monotonicNow();
-    }
-
-    if (throttler != null) { // throttle I/O
-      throttler.throttle(len);
-    }
-    
-    return lastPacketInBlock?-1:len;
   }
 
   private static byte[] copyLastChunkChecksum(byte[] array, int size, int end) {
@@ -783,9 +832,20 @@ void receiveBlock(
             new PacketResponder(replyOut, mirrIn, downstreams));
         responder.start(); // start thread to processes responses
       }
+      final int writeQueuePackets = datanode.getDnConf().writeQueuePackets;
+      if (writeQueuePackets > 0) {
+        writer = new Daemon(datanode.threadGroup,
+            new PacketWriter(writeQueuePackets));
+        writer.start();
+      }
 
       while (receivePacket() >= 0) { /* Receive until the last packet */ }
 
+      // wait for the queued packets to be written
+      if (writer != null) {
+        ((PacketWriter) writer.getRunnable()).waitForWrites(writer);
+      }
+
       // wait for all outstanding packet responses. And then
       // indicate responder to gracefully shutdown.
       // Mark that responder has been closed for future processing
@@ -830,6 +890,17 @@ void receiveBlock(
       // Clear the previous interrupt state of this thread.
       Thread.interrupted();
 
+      // Stop the writer, if still running, before the block files are closed
+      if (writer != null) {
+        writer.interrupt();
+        try {
+          writer.join(datanode.getDnConf().getXceiverStopTimeout());
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+        writer = null;
+      }
+
       // If a shutdown for restart was initiated, upstream needs to be notified.
       // There is no need to do anything special if the responder was closed
       // normally.
@@ -1441,6 +1512,159 @@ private void removeAckHead() {
     }
   }
 
+  /**
+   * Writes the packets queued for the disk, in order, then queues their acks.
+   * The receiver thread goes on receiving, mirroring and verifying the next
+   * packets while a packet is written, flushed or synced.  A failure to
+   * write is reported to the receiver thread when it queues the next packet,
+   * or waits for the writes: the packets queued after it are discarded.
+   */
+  private class PacketWriter implements Runnable {
+    private final BlockingQueue<DiskPacket> queue;
+    /** buffers of the written packets, to copy the next ones into */
+    private final Queue<byte[]> freeBuffers =
+        new ConcurrentLinkedQueue<byte[]>();
+    private volatile IOException error = null;
+
+    PacketWriter(int capacity) {
+      this.queue = new ArrayBlockingQueue<DiskPacket>(capacity);
+    }
+
+    /**
+     * Queue a packet to be written, waiting while the queue is full.
+     * @throws IOException if a previous packet failed to be written
+     */
+    void enqueue(DiskPacket pkt) throws IOException {
+      checkError();
+      try {
+        queue.put(pkt);
+      } catch (InterruptedException e) {
+        throw new InterruptedIOException("Interrupted queueing packet "
+            + pkt.seqno + " of " + block);
+      }
+    }
+
+    /** Wait for the writer thread to write the last packet of the block. */
+    void waitForWrites(Thread writerThread) throws IOException {
+      try {
+        writerThread.join();
+      } catch (InterruptedException e) {
+        throw new InterruptedIOException("Interrupted waiting for the writes"
+            + " of " + block);
+      }
+      checkError();
+    }
+
+    private void checkError() throws IOException {
+      if (error != null) {
+        throw new IOException("Failed to write " + block, error);
+      }
+    }
+
+    @Override
+    public void run() {
+      try {
+        DiskPacket pkt;
+        do {
+          pkt = queue.take();
+          if (error != null) {
+            // keep taking the packets, not to block the receiver thread
+          } else if (pkt.ackStatus != Status.SUCCESS) {
+            ((PacketResponder) responder.getRunnable()).enqueue(pkt.seqno,
+                pkt.lastPacketInBlock, pkt.firstByteInBlock, pkt.ackStatus);
+          } else {
+            try {
+              writePacket(pkt);
+            } catch (IOException e) {
+              LOG.warn(this + ": failed to write packet " + pkt.seqno, e);
+              error = e;
+            }
+          }
+          if (pkt.buf != null) {
+            freeBuffers.offer(pkt.buf);
+          }
+        } while (!pkt.lastPacketInBlock);
+      } catch (InterruptedException e) {
+        // the block receiver is stopping
+      } catch (Throwable t) {
+        LOG.warn(this + ": unexpected failure", t);
+        error = new IOException(t);
+      }
+    }
+
+    @Override
+    public String toString() {
+      return getClass().getSimpleName() + ": " + block;
+    }
+  }
+
+  /**
+   * A received packet, verified and ready to be written to disk.
+   */
+  private class DiskPacket {
+    final long seqno;
+    final boolean lastPacketInBlock;
+    final boolean syncBlock;
+    final long firstByteInBlock;
+    final int len;
+    final ByteBuffer dataBuf;
+    final ByteBuffer checksumBuf;
+    final boolean shouldNotWriteChecksum;
+    /** the status to ack the packet with without writing it, if an error */
+    final Status ackStatus;
+    /** the buffer of dataBuf and checksumBuf, if copied */
+    final byte[] buf;
+
+    DiskPacket(long seqno, boolean lastPacketInBlock, boolean syncBlock,
+        long firstByteInBlock, int len, ByteBuffer dataBuf,
+        ByteBuffer checksumBuf, boolean shouldNotWriteChecksum) {
+      this(seqno, lastPacketInBlock, syncBlock, firstByteInBlock, len,
+          dataBuf, checksumBuf, shouldNotWriteChecksum, Status.SUCCESS, null);
+    }
+
+    /** A packet acked with an error, and not written. */
+    DiskPacket(long seqno, boolean lastPacketInBlock, long offsetInBlock,
+        Status ackStatus) {
+      this(seqno, lastPacketInBlock, false, offsetInBlock, 0, null, null,
+          false, ackStatus, null);
+    }
+
+    private DiskPacket(long seqno, boolean lastPacketInBlock,
+        boolean syncBlock, long firstByteInBlock, int len, ByteBuffer dataBuf,
+        ByteBuffer checksumBuf, boolean shouldNotWriteChecksum,
+        Status ackStatus, byte[] buf) {
+      this.seqno = seqno;
+      this.lastPacketInBlock = lastPacketInBlock;
+      this.syncBlock = syncBlock;
+      this.firstByteInBlock = firstByteInBlock;
+      this.len = len;
+      this.dataBuf = dataBuf;
+      this.checksumBuf = checksumBuf;
+      this.shouldNotWriteChecksum = shouldNotWriteChecksum;
+      this.ackStatus = ackStatus;
+      this.buf = buf;
+    }
+
+    /**
+     * Copy the packet out of the buffers of the packet receiver, which are
+     * reused for the next packet, into a free buffer of the writer.
+     */
+    DiskPacket copy() {
+      final int dataLen = dataBuf.remaining();
+      final int checksumLen = checksumBuf.remaining();
+      byte[] b = ((PacketWriter) writer.getRunnable()).freeBuffers.poll();
+      if (b == null || b.length < dataLen + checksumLen) {
+        b = new byte[dataLen + checksumLen];
+      }
+      dataBuf.duplicate().get(b, 0, dataLen);
+      checksumBuf.duplicate().get(b, dataLen, checksumLen);
+      return new DiskPacket(seqno, lastPacketInBlock, syncBlock,
+          firstByteInBlock, len, ByteBuffer.wrap(b, 0, dataLen).slice(),
+          ByteBuffer.wrap(b, dataLen, checksumLen).slice(),
+          shouldNotWriteChecksum, ackStatus, b);
+    }
+  }
+
   /**
    * This information is cached by the Datanode in the ackQueue.
    */
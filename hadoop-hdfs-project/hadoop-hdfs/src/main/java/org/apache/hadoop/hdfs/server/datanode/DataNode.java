@@ -1868,7 +1868,17 @@ private void handleDiskError(String errMsgr) {
   /** Number of concurrent xceivers per node. */
   @Override // DataNodeMXBean
   public int getXceiverCount() {
-    return threadGroup == null ? 0 : threadGroup.activeCount();
+    int count = threadGroup == null ? 0 : threadGroup.activeCount();
+    // the worker threads of the servers are not in the thread group, and
+    // only run an xceiver while a connection has an operation to process
+    if (xserver != null) {
+      count += xserver.getNumActiveWorkers();
+    }
+    if (localDataXceiverServer != null) {
+      count += ((DataXceiverServer) localDataXceiverServer.getRunnable())
+          .getNumActiveWorkers();
+    }
+    return count;
   }
 
   @Override // DataNodeMXBean
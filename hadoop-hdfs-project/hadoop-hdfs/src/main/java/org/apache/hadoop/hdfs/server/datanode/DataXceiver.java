@@ -109,6 +109,13 @@ class DataXceiver extends Receiver implements Runnable {
   private final InputStream socketIn;
   private OutputStream socketOut;
   private BlockReceiver blockReceiver = null;
+  private int opsProcessed = 0;
+  /**
+   * Whether the connection may wait for its next operation without a
+   * thread, i.e. whether nothing is buffered between the socket and the
+   * operations read.
+   */
+  private boolean parkable = false;
   
   /**
    * Client Name used in previous operation. Not available on first request
@@ -174,42 +181,59 @@ public void sendOOB() throws IOException, InterruptedException {
       blockReceiver.sendOOB();
   }
   
+  Peer getPeer() {
+    return peer;
+  }
+
+  /** Close the connection of a parked xceiver. */
+  void closeIdle() {
+    if (LOG.isDebugEnabled()) {
+      LOG.debug("Cached " + peer + " closing after " + opsProcessed + " ops");
+    }
+    dataXceiverServer.closePeer(peer);
+    IOUtils.closeStream(in);
+  }
+
   /**
    * Read/write data from/to the DataXceiverServer.
    */
   @Override
   public void run() {
-    int opsProcessed = 0;
     Op op = null;
+    boolean parked = false;
 
     try {
       dataXceiverServer.addPeer(peer, Thread.currentThread(), this);
-      peer.setWriteTimeout(datanode.getDnConf().socketWriteTimeout);
-      InputStream input = socketIn;
-      try {
-        IOStreamPair saslStreams = datanode.saslServer.receive(peer, socketOut,
-          socketIn, datanode.getXferAddress().getPort(),
-          datanode.getDatanodeId());
-        input = new BufferedInputStream(saslStreams.in,
-          HdfsConstants.SMALL_BUFFER_SIZE);
-        socketOut = saslStreams.out;
-      } catch (InvalidMagicNumberException imne) {
-        if (imne.isHandshake4Encryption()) {
-          LOG.info("Failed to read expected encryption handshake from client " +
-              "at " + peer.getRemoteAddressString() + ". Perhaps the client " +
-              "is running an older version of Hadoop which does not support " +
-              "encryption");
-        } else {
-          LOG.info("Failed to read expected SASL data transfer protection " +
-              "handshake from client at " + peer.getRemoteAddressString() + 
-              ". Perhaps the client is running an older version of Hadoop " +
-              "which does not support SASL data transfer protection");
+      // a parked xceiver resumes where it left off
+      if (in == null) {
+        peer.setWriteTimeout(datanode.getDnConf().socketWriteTimeout);
+        InputStream input = socketIn;
+        try {
+          IOStreamPair saslStreams = datanode.saslServer.receive(peer,
+            socketOut, socketIn, datanode.getXferAddress().getPort(),
+            datanode.getDatanodeId());
+          input = new BufferedInputStream(saslStreams.in,
+            HdfsConstants.SMALL_BUFFER_SIZE);
+          socketOut = saslStreams.out;
+          parkable = saslStreams.in == socketIn;
+        } catch (InvalidMagicNumberException imne) {
+          if (imne.isHandshake4Encryption()) {
+            LOG.info("Failed to read expected encryption handshake from " +
+                "client at " + peer.getRemoteAddressString() + ". Perhaps " +
+                "the client is running an older version of Hadoop which " +
+                "does not support encryption");
+          } else {
+            LOG.info("Failed to read expected SASL data transfer protection " +
+                "handshake from client at " + peer.getRemoteAddressString() + 
+                ". Perhaps the client is running an older version of Hadoop " +
+                "which does not support SASL data transfer protection");
+          }
+          return;
         }
-        return;
+
+        super.initialize(new DataInputStream(input));
       }
       
-      super.initialize(new DataInputStream(input));
-      
       // We process requests in a loop, and stay around for a short timeout.
       // This optimistic behaviour allows the other end to reuse connections.
       // Setting keepalive timeout to 0 disable this behavior.
@@ -249,6 +273,14 @@ public void run() {
         opStartTime = monotonicNow();
         processOp(op);
         ++opsProcessed;
+
+        // wait for the next operation without a thread, if possible
+        if (peer != null && !peer.isClosed() && parkable
+            && dnConf.socketKeepaliveTimeout > 0 && in.available() == 0
+            && dataXceiverServer.park(this)) {
+          parked = true;
+          return;
+        }
       } while ((peer != null) &&
           (!peer.isClosed() && dnConf.socketKeepaliveTimeout > 0));
     } catch (Throwable t) {
@@ -281,6 +313,9 @@ public void run() {
         LOG.debug(datanode.getDisplayName() + ":Number of active connections is: "
             + datanode.getXceiverCount());
       }
+      if (parked) {
+        return;
+      }
       updateCurrentThreadName("Cleaning up");
       if (peer != null) {
         dataXceiverServer.closePeer(peer);
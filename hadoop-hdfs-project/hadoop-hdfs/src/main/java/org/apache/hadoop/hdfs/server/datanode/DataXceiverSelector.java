@@ -0,0 +1,291 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.datanode;
+
+import java.io.IOException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.commons.logging.Log;
+import org.apache.hadoop.hdfs.net.Peer;
+import org.apache.hadoop.io.IOUtils;
+import org.apache.hadoop.net.SocketInputStream;
+import org.apache.hadoop.net.unix.DomainSocket;
+import org.apache.hadoop.net.unix.DomainSocketWatcher;
+import org.apache.hadoop.util.Daemon;
+import org.apache.hadoop.util.Time;
+
+/**
+ * Serves the connections of a {@link DataXceiverServer} with a bounded pool
+ * of worker threads.
+ * <p>
+ * A connection waiting for its first or next operation holds no thread: its
+ * {@link DataXceiver} is parked, and the connection is watched by a
+ * {@link Selector} for TCP peers, or by a {@link DomainSocketWatcher} for
+ * UNIX domain socket peers.  Once the connection is readable, the xceiver is
+ * resumed on a worker thread, where the operation runs as before.  A parked
+ * connection which stays idle past its timeout is closed.
+ * <p>
+ * The number of connections of a datanode is then bounded by the number of
+ * sockets it may open rather than by the number of its threads, and the
+ * cached connections of the clients cost a file descriptor only.
+ */
+class DataXceiverSelector implements Runnable {
+  public static final Log LOG = DataNode.LOG;
+
+  /** How often the parked connections are checked for their timeouts */
+  private static final long SWEEP_INTERVAL_MS = 1000;
+
+  private final String name;
+  private final ThreadPoolExecutor workers;
+  private final Selector selector;
+  /** Watches the domain socket peers, null for a TCP server */
+  private final DomainSocketWatcher watcher;
+  /** The parked xceivers */
+  private final Set<Idle> idle =
+      Collections.newSetFromMap(new ConcurrentHashMap<Idle, Boolean>());
+  /** The TCP xceivers to register with the selector */
+  private final ConcurrentLinkedQueue<Idle> pending =
+      new ConcurrentLinkedQueue<Idle>();
+  private volatile boolean closed = false;
+
+  /** A parked xceiver, waiting for its connection to be readable. */
+  private class Idle implements DomainSocketWatcher.Handler {
+    private final DataXceiver xceiver;
+    private final long deadline;
+    /** Set by the first of the selector, the sweep or close */
+    private final AtomicBoolean claimed = new AtomicBoolean(false);
+
+    Idle(DataXceiver xceiver, long timeout) {
+      this.xceiver = xceiver;
+      this.deadline = Time.monotonicNow() + timeout;
+    }
+
+    boolean claim() {
+      return claimed.compareAndSet(false, true);
+    }
+
+    /**
+     * Called by the watcher when the domain socket is readable, closed by
+     * the remote end, or shut down by the sweep once expired: in all cases
+     * the xceiver reads what comes next on a worker thread.
+     */
+    @Override
+    public boolean handle(DomainSocket sock) {
+      if (closed) {
+        // the watcher closes the socket, close() cleans up the xceiver
+        return true;
+      }
+      claimed.set(true);
+      watcher.detach(sock);
+      dispatch(this);
+      return false;
+    }
+  }
+
+  DataXceiverSelector(final DataNode datanode, int numWorkers,
+      boolean domain) throws IOException {
+    this.name = "DataXceiverSelector for " + datanode.getDisplayName()
+        + (domain ? " (domain)" : "");
+    this.workers = new ThreadPoolExecutor(numWorkers, numWorkers,
+        60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+        new ThreadFactory() {
+          @Override
+          public Thread newThread(Runnable r) {
+            Thread t = new Daemon(r);
+            t.setName("DataXceiver worker for " + datanode.getDisplayName());
+            return t;
+          }
+        });
+    this.workers.allowCoreThreadTimeOut(true);
+    this.selector = Selector.open();
+    if (domain && DomainSocketWatcher.getLoadingFailureReason() == null) {
+      this.watcher = new DomainSocketWatcher(
+          (int) SWEEP_INTERVAL_MS, "DataXceiverSelector");
+    } else {
+      this.watcher = null;
+    }
+  }
+
+  /** @return the number of workers running an xceiver */
+  int getNumActiveWorkers() {
+    return workers.getActiveCount();
+  }
+
+  /** @return whether the connection of a peer can be parked */
+  boolean canPark(Peer peer) {
+    if (peer.getDomainSocket() != null) {
+      return watcher != null;
+    }
+    ReadableByteChannel channel = peer.getInputStreamChannel();
+    if (channel instanceof SocketInputStream) {
+      channel = ((SocketInputStream) channel).getChannel();
+    }
+    return channel instanceof SelectableChannel;
+  }
+
+  /**
+   * Park an xceiver until its connection is readable.  The connection is
+   * closed if it is not readable within the timeout.
+   * @param xceiver an xceiver whose peer {@link #canPark(Peer)}
+   * @param timeout the maximum idle time, in milliseconds
+   */
+  void park(DataXceiver xceiver, long timeout) {
+    final Idle entry = new Idle(xceiver, timeout);
+    idle.add(entry);
+    if (closed) {
+      if (entry.claim()) {
+        closeIdle(entry);
+      }
+      return;
+    }
+    DomainSocket sock = xceiver.getPeer().getDomainSocket();
+    if (sock != null) {
+      watcher.add(sock, entry);
+    } else {
+      pending.add(entry);
+      selector.wakeup();
+    }
+  }
+
+  /** Resume an xceiver on a worker thread. */
+  private void dispatch(Idle entry) {
+    idle.remove(entry);
+    try {
+      workers.execute(entry.xceiver);
+    } catch (RejectedExecutionException e) {
+      LOG.warn("Failed to resume " + entry.xceiver.getPeer(), e);
+      entry.xceiver.closeIdle();
+    }
+  }
+
+  private void closeIdle(Idle entry) {
+    idle.remove(entry);
+    entry.xceiver.closeIdle();
+  }
+
+  @Override
+  public void run() {
+    long lastSweep = Time.monotonicNow();
+    try {
+      while (!closed) {
+        selector.select(SWEEP_INTERVAL_MS);
+        for (Idle entry; (entry = pending.poll()) != null; ) {
+          register(entry);
+        }
+        for (Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+            it.hasNext(); ) {
+          SelectionKey key = it.next();
+          it.remove();
+          Idle entry = (Idle) key.attachment();
+          if (key.isValid()) {
+            key.interestOps(0);
+          }
+          key.attach(null);
+          if (entry != null && entry.claim()) {
+            dispatch(entry);
+          }
+        }
+        long now = Time.monotonicNow();
+        if (now - lastSweep >= SWEEP_INTERVAL_MS) {
+          sweep(now);
+          lastSweep = now;
+        }
+      }
+    } catch (ClosedSelectorException e) {
+      // closed
+    } catch (Throwable t) {
+      if (!closed) {
+        LOG.error(this + " exiting due to an error", t);
+      }
+    }
+  }
+
+  private void register(Idle entry) {
+    SelectableChannel channel = (SelectableChannel) ((SocketInputStream)
+        entry.xceiver.getPeer().getInputStreamChannel()).getChannel();
+    try {
+      SelectionKey key = channel.keyFor(selector);
+      if (key != null && key.isValid()) {
+        key.attach(entry);
+        key.interestOps(SelectionKey.OP_READ);
+      } else {
+        channel.register(selector, SelectionKey.OP_READ, entry);
+      }
+    } catch (ClosedChannelException e) {
+      if (entry.claim()) {
+        closeIdle(entry);
+      }
+    }
+  }
+
+  /** Close the parked connections which are idle past their timeouts. */
+  private void sweep(long now) {
+    for (Idle entry : idle) {
+      if (now < entry.deadline || !entry.claim()) {
+        continue;
+      }
+      DomainSocket sock = entry.xceiver.getPeer().getDomainSocket();
+      if (sock == null) {
+        closeIdle(entry);
+        continue;
+      }
+      // the socket is owned by the watcher: shut it down, so that the
+      // handler hands it back to the xceiver, which reads the end of stream
+      try {
+        sock.shutdown();
+      } catch (IOException e) {
+        LOG.warn("Failed to shut down " + sock, e);
+      }
+    }
+  }
+
+  /** Stop the selector and the workers, and close the parked connections. */
+  void close() {
+    closed = true;
+    // closes the watched domain sockets
+    IOUtils.cleanup(LOG, watcher);
+    for (Idle entry : idle) {
+      if (entry.claim() || entry.xceiver.getPeer().getDomainSocket() != null) {
+        closeIdle(entry);
+      }
+    }
+    workers.shutdownNow();
+    IOUtils.cleanup(LOG, selector);
+  }
+
+  @Override
+  public String toString() {
+    return name;
+  }
+}
@@ -25,6 +25,7 @@
 import org.apache.commons.logging.Log;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.hdfs.DFSConfigKeys;
+import org.apache.hadoop.hdfs.net.DomainPeerServer;
 import org.apache.hadoop.hdfs.net.Peer;
 import org.apache.hadoop.hdfs.net.PeerServer;
 import org.apache.hadoop.hdfs.util.DataTransferThrottler;
@@ -56,6 +57,18 @@ class DataXceiverServer implements Runnable {
   int maxXceiverCount =
     DFSConfigKeys.DFS_DATANODE_MAX_RECEIVER_THREADS_DEFAULT;
 
+  /**
+   * Maximal number of connections per server, when the xceivers run on
+   * worker threads.
+   */
+  final int maxConnections;
+
+  /**
+   * Runs the xceivers on a pool of worker threads, and parks them while
+   * their connections are idle.  Null when every xceiver has its own thread.
+   */
+  private final DataXceiverSelector selector;
+
   /** A manager to make sure that cluster balancing does not
    * take too much resources.
    * 
@@ -107,7 +120,7 @@ synchronized void release() {
   
   
   DataXceiverServer(PeerServer peerServer, Configuration conf,
-      DataNode datanode) {
+      DataNode datanode) throws IOException {
     
     this.peerServer = peerServer;
     this.datanode = datanode;
@@ -115,6 +128,20 @@ synchronized void release() {
     this.maxXceiverCount = 
       conf.getInt(DFSConfigKeys.DFS_DATANODE_MAX_RECEIVER_THREADS_KEY,
                   DFSConfigKeys.DFS_DATANODE_MAX_RECEIVER_THREADS_DEFAULT);
+    this.maxConnections = conf.getInt(
+        DFSConfigKeys.DFS_DATANODE_TRANSFER_MAX_CONNECTIONS_KEY,
+        DFSConfigKeys.DFS_DATANODE_TRANSFER_MAX_CONNECTIONS_DEFAULT);
+    int workerThreads = conf.getInt(
+        DFSConfigKeys.DFS_DATANODE_TRANSFER_WORKER_THREADS_KEY,
+        DFSConfigKeys.DFS_DATANODE_TRANSFER_WORKER_THREADS_DEFAULT);
+    if (workerThreads > 0) {
+      this.selector = new DataXceiverSelector(datanode, workerThreads,
+          peerServer instanceof DomainPeerServer);
+      LOG.info("Serving " + peerServer + " with " + workerThreads
+          + " worker threads, up to " + maxConnections + " connections");
+    } else {
+      this.selector = null;
+    }
     
     this.estimateBlockSize = conf.getLongBytes(DFSConfigKeys.DFS_BLOCK_SIZE_KEY,
         DFSConfigKeys.DFS_BLOCK_SIZE_DEFAULT);
@@ -129,11 +156,28 @@ synchronized void release() {
 
   @Override
   public void run() {
+    if (selector != null) {
+      new Daemon(selector).start();
+    }
     Peer peer = null;
     while (datanode.shouldRun && !datanode.shutdownForUpgrade) {
       try {
         peer = peerServer.accept();
 
+        if (selector != null && selector.canPark(peer)) {
+          // the connection waits for its first operation without a thread
+          int numPeers = getNumPeers();
+          if (numPeers >= maxConnections) {
+            throw new IOException("Connection count " + numPeers
+                + " exceeds the limit of concurrent connections: "
+                + maxConnections);
+          }
+          DataXceiver xceiver = DataXceiver.create(peer, datanode, this);
+          addPeer(peer, null, xceiver);
+          selector.park(xceiver, datanode.getDnConf().socketTimeout);
+          continue;
+        }
+
         // Make sure the xceiver count is not exceeded
         int curXceiverCount = datanode.getXceiverCount();
         if (curXceiverCount > maxXceiverCount) {
@@ -200,6 +244,9 @@ public void run() {
       }
     }
     // Close all peers.
+    if (selector != null) {
+      selector.close();
+    }
     closeAllPeers();
   }
 
@@ -224,6 +271,32 @@ synchronized void addPeer(Peer peer, Thread t, DataXceiver xceiver)
     peersXceiver.put(peer, xceiver);
   }
 
+  /**
+   * Park an xceiver whose connection is waiting for its next operation, so
+   * that it does not hold its thread meanwhile.
+   * @return false if the connection cannot be parked, in which case the
+   *         xceiver keeps waiting on its thread
+   */
+  boolean park(DataXceiver xceiver) {
+    Peer peer = xceiver.getPeer();
+    if (selector == null || !selector.canPark(peer)) {
+      return false;
+    }
+    synchronized (this) {
+      if (closed || !peers.containsKey(peer)) {
+        return false;
+      }
+      peers.put(peer, null);
+    }
+    selector.park(xceiver, datanode.getDnConf().socketKeepaliveTimeout);
+    return true;
+  }
+
+  /** @return the number of worker threads running an xceiver */
+  int getNumActiveWorkers() {
+    return selector == null ? 0 : selector.getNumActiveWorkers();
+  }
+
   synchronized void closePeer(Peer peer) {
     peers.remove(peer);
     peersXceiver.remove(peer);
@@ -253,8 +326,11 @@ public synchronized void sendOOBToPeers() {
   synchronized void restartNotifyPeers() {
     assert (datanode.shouldRun == true && datanode.shutdownForUpgrade);
     for (Thread t : peers.values()) {
-      // interrupt each and every DataXceiver thread.
-      t.interrupt();
+      // interrupt each and every DataXceiver thread, the parked xceivers
+      // have none.
+      if (t != null) {
+        t.interrupt();
+      }
     }
   }
 
@@ -19,7 +19,9 @@
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
@@ -52,6 +54,12 @@
 /**
  * Periodically scans the data directories for block and block metadata files.
  * Reconciles the differences with block information maintained in the dataset.
+ * <p>
+ * With {@link DFSConfigKeys#DFS_DATANODE_DIRECTORYSCAN_INCREMENTAL_KEY}, the
+ * finalized directory of each volume is compared with the replica index of
+ * the volume rather than with the replica map, one subtree at a time: the
+ * dataset lock is held for the comparison of a subtree only, and the scan
+ * of each volume is throttled.
  */
 @InterfaceAudience.Private
 public class DirectoryScanner implements Runnable {
@@ -61,6 +69,8 @@ public class DirectoryScanner implements Runnable {
   private final ExecutorService reportCompileThreadPool;
   private final ScheduledExecutorService masterThread;
   private final long scanPeriodMsecs;
+  private final boolean incremental;
+  private final int throttleMsPerSec;
   private volatile boolean shouldRun = false;
   private boolean retainDiffs = false;
   private final DataNode datanode;
@@ -98,6 +108,15 @@ public String toString() {
       + ", missing blocks in memory:" + missingMemoryBlocks
       + ", mismatched blocks:" + mismatchBlocks;
     }
+
+    void add(Stats that) {
+      totalBlocks += that.totalBlocks;
+      missingMetaFile += that.missingMetaFile;
+      missingBlockFile += that.missingBlockFile;
+      missingMemoryBlocks += that.missingMemoryBlocks;
+      mismatchBlocks += that.mismatchBlocks;
+      duplicateBlocks += that.duplicateBlocks;
+    }
   }
   
   static class ScanInfoPerBlockPool extends 
@@ -323,6 +342,13 @@ public long getGenStamp() {
         new Daemon.DaemonFactory());
     masterThread = new ScheduledThreadPoolExecutor(1,
         new Daemon.DaemonFactory());
+    incremental = conf.getBoolean(
+        DFSConfigKeys.DFS_DATANODE_DIRECTORYSCAN_INCREMENTAL_KEY,
+        DFSConfigKeys.DFS_DATANODE_DIRECTORYSCAN_INCREMENTAL_DEFAULT);
+    int throttle = conf.getInt(
+        DFSConfigKeys.DFS_DATANODE_DIRECTORYSCAN_THROTTLE_MS_PER_SEC_KEY,
+        DFSConfigKeys.DFS_DATANODE_DIRECTORYSCAN_THROTTLE_MS_PER_SEC_DEFAULT);
+    throttleMsPerSec = Math.min(Math.max(throttle, 1), 1000);
   }
 
   void start() {
@@ -403,6 +429,15 @@ void shutdown() {
    * Reconcile differences between disk and in-memory blocks
    */
   void reconcile() throws IOException {
+    if (incremental) {
+      clear();
+      if (reconcileIncrementally()) {
+        if (!retainDiffs) clear();
+        return;
+      }
+      LOG.info("Some volumes do not index their replicas,"
+          + " scanning the whole dataset");
+    }
     scan();
     for (Entry<String, LinkedList<ScanInfo>> entry : diffs.entrySet()) {
       String bpid = entry.getKey();
@@ -527,6 +562,176 @@ private void addDifference(LinkedList<ScanInfo> diffRecord,
     diffRecord.add(new ScanInfo(blockId, null, null, vol));
   }
 
+  /**
+   * Compare the finalized directories of the volumes with their replica
+   * indexes, and reconcile the differences.
+   * @return false if some volume does not index its replicas
+   */
+  private boolean reconcileIncrementally() {
+    List<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+    for (FsVolumeSpi vol : dataset.getVolumes()) {
+      results.add(reportCompileThreadPool.submit(new IncrementalScan(vol)));
+    }
+    boolean indexed = true;
+    for (Future<Boolean> result : results) {
+      try {
+        indexed &= result.get();
+      } catch (Exception ex) {
+        LOG.error("Error scanning volume", ex);
+        // Propagate ex to DataBlockScanner to deal with
+        throw new RuntimeException(ex);
+      }
+    }
+    return indexed;
+  }
+
+  /**
+   * Scans the finalized directory of a volume, per block pool, one subtree
+   * of the {@link DatanodeUtil#idToBlockDir} layout at a time.
+   */
+  private class IncrementalScan implements Callable<Boolean> {
+    /** The number of subdirectories of a directory of the layout */
+    private static final int NUM_SUBDIRS = 256;
+
+    private final FsVolumeSpi volume;
+    private final ReportCompiler compiler;
+
+    IncrementalScan(FsVolumeSpi volume) {
+      this.volume = volume;
+      this.compiler = new ReportCompiler(datanode, volume);
+    }
+
+    @Override
+    public Boolean call() throws Exception {
+      for (String bpid : volume.getBlockPoolList()) {
+        final long start = Time.monotonicNow();
+        final File bpFinalizedDir = volume.getFinalizedDir(bpid);
+        final Stats statsRecord = new Stats(bpid);
+        for (int d1 = 0; d1 < NUM_SUBDIRS && shouldRun; d1++) {
+          final long subtreeStart = Time.monotonicNow();
+          if (!scanSubtree(bpid, bpFinalizedDir, d1, statsRecord)) {
+            return false;
+          }
+          throttle(Time.monotonicNow() - subtreeStart);
+        }
+        LOG.info("Scanned " + volume + " in "
+            + (Time.monotonicNow() - start) + "ms: " + statsRecord);
+        synchronized (stats) {
+          Stats total = stats.get(bpid);
+          if (total == null) {
+            total = new Stats(bpid);
+            stats.put(bpid, total);
+          }
+          total.add(statsRecord);
+        }
+      }
+      return true;
+    }
+
+    /** Sleep long enough to spend at most throttleMsPerSec scanning. */
+    private void throttle(long elapsed) throws InterruptedException {
+      if (throttleMsPerSec < 1000 && elapsed > 0) {
+        Thread.sleep(elapsed * (1000 - throttleMsPerSec) / throttleMsPerSec);
+      }
+    }
+
+    /**
+     * Compare the subtree subdir{d1} of the finalized directory of a block
+     * pool with the index, and reconcile the differences.
+     * @return false if the volume does not index the replicas
+     */
+    private boolean scanSubtree(String bpid, File bpFinalizedDir, int d1,
+        Stats statsRecord) throws IOException {
+      final File dir =
+          new File(bpFinalizedDir, DataStorage.BLOCK_SUBDIR_PREFIX + d1);
+      LinkedList<ScanInfo> report = new LinkedList<ScanInfo>();
+      if (dir.isDirectory()) {
+        compiler.compileReport(volume, bpFinalizedDir, dir, report);
+      }
+      // the misplaced files are reported by compileReport, and left alone
+      List<ScanInfo> diskList = new ArrayList<ScanInfo>(report.size());
+      for (ScanInfo info : report) {
+        if (((info.getBlockId() >> 16) & 0xff) == d1) {
+          diskList.add(info);
+        }
+      }
+      final ScanInfo[] diskReport =
+          diskList.toArray(new ScanInfo[diskList.size()]);
+      Arrays.sort(diskReport);
+      statsRecord.totalBlocks += diskReport.length;
+
+      final LinkedList<ScanInfo> diffRecord = new LinkedList<ScanInfo>();
+      // Hold FSDataset lock to prevent changes to the index of the subtree
+      synchronized (dataset) {
+        List<Block> indexed = volume.getIndexedReplicas(bpid,
+            d1 * NUM_SUBDIRS, d1 * NUM_SUBDIRS + NUM_SUBDIRS - 1);
+        if (indexed == null) {
+          return false;
+        }
+        Collections.sort(indexed); // Sort based on blockId
+        int d = 0; // index for diskReport
+        int m = 0; // index for indexed
+        while (m < indexed.size() && d < diskReport.length) {
+          Block memBlock = indexed.get(m);
+          ScanInfo info = diskReport[d];
+          if (info.getBlockId() < memBlock.getBlockId()) {
+            if (!dataset.isDeletingBlock(bpid, info.getBlockId())) {
+              // Block is missing in the index
+              statsRecord.missingMemoryBlocks++;
+              addDifference(diffRecord, statsRecord, info);
+            }
+            d++;
+            continue;
+          }
+          if (info.getBlockId() > memBlock.getBlockId()) {
+            // Block is missing on the disk
+            addDifference(diffRecord, statsRecord,
+                memBlock.getBlockId(), volume);
+            m++;
+            continue;
+          }
+          if (info.getBlockFile() == null) {
+            // Block metadata file exits and block file is missing
+            addDifference(diffRecord, statsRecord, info);
+          } else if (info.getGenStamp() != memBlock.getGenerationStamp()
+              || info.getBlockFileLength() != memBlock.getNumBytes()) {
+            statsRecord.mismatchBlocks++;
+            addDifference(diffRecord, statsRecord, info);
+          }
+          d++;
+          // There may be multiple on-disk records for the same block
+          if (d == diskReport.length
+              || diskReport[d].getBlockId() != info.getBlockId()) {
+            m++;
+          }
+        }
+        while (m < indexed.size()) {
+          addDifference(diffRecord, statsRecord,
+              indexed.get(m++).getBlockId(), volume);
+        }
+        while (d < diskReport.length) {
+          if (!dataset.isDeletingBlock(bpid, diskReport[d].getBlockId())) {
+            statsRecord.missingMemoryBlocks++;
+            addDifference(diffRecord, statsRecord, diskReport[d]);
+          }
+          d++;
+        }
+      }
+
+      // the index is reset to the replica map along with the differences
+      for (ScanInfo info : diffRecord) {
+        dataset.checkAndUpdate(bpid, info.getBlockId(), info.getBlockFile(),
+            info.getMetaFile(), info.getVolume());
+      }
+      synchronized (diffs) {
+        ScanInfoPerBlockPool record = new ScanInfoPerBlockPool(1);
+        record.put(bpid, diffRecord);
+        diffs.addAll(record);
+      }
+      return true;
+    }
+  }
+
   /** Is the given volume still valid in the dataset? */
   private static boolean isValid(final FsDatasetSpi<?> dataset,
       final FsVolumeSpi volume) {
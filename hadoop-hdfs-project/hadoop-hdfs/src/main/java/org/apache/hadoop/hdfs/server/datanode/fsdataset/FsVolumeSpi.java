@@ -21,8 +21,10 @@
 import java.io.File;
 import java.io.IOException;
 import java.nio.channels.ClosedChannelException;
+import java.util.List;
 
 import org.apache.hadoop.fs.StorageType;
+import org.apache.hadoop.hdfs.protocol.Block;
 import org.apache.hadoop.hdfs.protocol.ExtendedBlock;
 
 /**
@@ -55,6 +57,23 @@ public interface FsVolumeSpi {
 
   /** @return the directory for the finalized blocks in the block pool. */
   public File getFinalizedDir(String bpid) throws IOException;
+
+  /**
+   * Get the finalized replicas of a block pool recorded by the replica index
+   * of the volume, whose files are in a range of the subdirectories of the
+   * finalized directory.  The subdirectory of a block is numbered
+   * <code>(d1 &lt;&lt; 8) | d2</code> where <code>subdir{d1}/subdir{d2}</code>
+   * is the path returned by
+   * {@link org.apache.hadoop.hdfs.server.datanode.DatanodeUtil#idToBlockDir}.
+   *
+   * @param bpid the block pool
+   * @param first the first subdirectory
+   * @param last the last subdirectory, inclusive
+   * @return the replicas, ordered by subdirectory, or null if the volume
+   *         does not index the replicas of the block pool
+   */
+  public List<Block> getIndexedReplicas(String bpid, int first, int last)
+      throws IOException;
   
   public StorageType getStorageType();
 
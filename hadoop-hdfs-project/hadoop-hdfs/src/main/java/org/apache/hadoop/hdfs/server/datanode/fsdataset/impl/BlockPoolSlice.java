@@ -18,7 +18,10 @@
 package org.apache.hadoop.hdfs.server.datanode.fsdataset.impl;
 
 import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
 import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
@@ -28,8 +31,15 @@
 import java.io.OutputStreamWriter;
 import java.io.RandomAccessFile;
 import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Scanner;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
 
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.logging.Log;
@@ -57,6 +67,7 @@
 import org.apache.hadoop.util.ShutdownHookManager;
 import org.apache.hadoop.util.Time;
 
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.io.Files;
 /**
  * A block pool slice represents a portion of a block pool stored on a volume.  
@@ -81,10 +92,25 @@ class BlockPoolSlice {
   private static final int SHUTDOWN_HOOK_PRIORITY = 30;
   private final boolean deleteDuplicateReplicas;
   private static final String REPLICA_CACHE_FILE = "replicas";
-  private final long replicaCacheExpiry = 5*60*1000;
+  private static final int REPLICA_CACHE_VERSION = 1;
+  private final long replicaCacheExpiry;
+  /**
+   * The block directories modified up to this long before a periodic
+   * snapshot are scanned too, for the coarse timestamps of some file
+   * systems and the replica files changed just before their replicas.
+   */
+  private static final long REPLICA_CACHE_MTIME_SLACK_MS = 60 * 1000L;
+  // set once the replicas are saved at shutdown
+  private boolean replicaCacheClosed = false;
+  private static final String REPLICA_INDEX_DIR = "replicaindex";
 
   // TODO:FEDERATION scalability issue - a thread per DU is needed
+  // null unless du is enabled, replicaUsage accounts the space used then
   private final DU dfsUsage;
+  private final ReplicaSpaceUsage replicaUsage;
+  private final boolean duEnabled;
+  // null unless the directory scan is incremental
+  private final ReplicaIndex replicaIndex;
 
   /**
    * Create a blook pool slice 
@@ -108,6 +134,9 @@ class BlockPoolSlice {
       }
     }
 
+    this.replicaCacheExpiry = conf.getLong(
+        DFSConfigKeys.DFS_DATANODE_REPLICA_CACHE_EXPIRY_MS_KEY,
+        DFSConfigKeys.DFS_DATANODE_REPLICA_CACHE_EXPIRY_MS_DEFAULT);
     this.deleteDuplicateReplicas = conf.getBoolean(
         DFSConfigKeys.DFS_DATANODE_DUPLICATE_REPLICA_DELETION,
         DFSConfigKeys.DFS_DATANODE_DUPLICATE_REPLICA_DELETION_DEFAULT);
@@ -132,10 +161,33 @@ class BlockPoolSlice {
         throw new IOException("Mkdirs failed to create " + tmpDir.toString());
       }
     }
-    // Use cached value initially if available. Or the following call will
-    // block until the initial du command completes.
-    this.dfsUsage = new DU(bpDir, conf, loadDfsUsed());
-    this.dfsUsage.start();
+    this.duEnabled = conf.getBoolean(DFSConfigKeys.DFS_DATANODE_DU_ENABLED_KEY,
+        DFSConfigKeys.DFS_DATANODE_DU_ENABLED_DEFAULT);
+    if (duEnabled) {
+      // Use cached value initially if available. Or the following call will
+      // block until the initial du command completes.
+      this.dfsUsage = new DU(bpDir, conf, loadDfsUsed());
+      this.dfsUsage.start();
+      this.replicaUsage = null;
+    } else {
+      // Use cached value initially if available. Or the following call will
+      // block until the replica directories are walked.
+      this.dfsUsage = null;
+      this.replicaUsage = new ReplicaSpaceUsage(
+          new File[] { finalizedDir, lazypersistDir },
+          conf.getLong(DFSConfigKeys.DFS_DATANODE_DU_RECONCILE_INTERVAL_MS_KEY,
+              DFSConfigKeys.DFS_DATANODE_DU_RECONCILE_INTERVAL_MS_DEFAULT),
+          loadDfsUsed());
+      this.replicaUsage.start();
+    }
+    if (conf.getBoolean(
+        DFSConfigKeys.DFS_DATANODE_DIRECTORYSCAN_INCREMENTAL_KEY,
+        DFSConfigKeys.DFS_DATANODE_DIRECTORYSCAN_INCREMENTAL_DEFAULT)) {
+      this.replicaIndex =
+          new ReplicaIndex(new File(currentDir, REPLICA_INDEX_DIR));
+    } else {
+      this.replicaIndex = null;
+    }
 
     // Make the dfs usage to be saved during shutdown.
     ShutdownHookManager.get().addShutdownHook(
@@ -171,15 +223,58 @@ File getTmpDir() {
 
   /** Run DU on local drives.  It must be synchronized from caller. */
   void decDfsUsed(long value) {
-    dfsUsage.decDfsUsed(value);
+    if (duEnabled) {
+      dfsUsage.decDfsUsed(value);
+    } else {
+      replicaUsage.decDfsUsed(value);
+    }
   }
   
   long getDfsUsed() throws IOException {
-    return dfsUsage.getUsed();
+    return duEnabled ? dfsUsage.getUsed() : replicaUsage.getUsed();
   }
 
   void incDfsUsed(long value) {
-    dfsUsage.incDfsUsed(value);
+    if (duEnabled) {
+      dfsUsage.incDfsUsed(value);
+    } else {
+      replicaUsage.incDfsUsed(value);
+    }
+  }
+
+  /**
+   * @return whether the space used accounts for the replicas being written,
+   *         i.e. whether du runs; otherwise only the finalized replicas are
+   *         accounted
+   */
+  boolean isDuEnabled() {
+    return duEnabled;
+  }
+
+  @VisibleForTesting
+  ReplicaSpaceUsage getReplicaSpaceUsage() {
+    return replicaUsage;
+  }
+
+  /** Index a replica, or remove it from the index if not finalized. */
+  void updateReplicaIndex(ReplicaInfo replica) {
+    if (replicaIndex != null) {
+      replicaIndex.update(replica);
+    }
+  }
+
+  void removeFromReplicaIndex(long blockId) {
+    if (replicaIndex != null) {
+      replicaIndex.remove(blockId);
+    }
+  }
+
+  /**
+   * @return the indexed replicas in a range of subdirectories, or null if
+   *         the replicas are not indexed
+   */
+  List<Block> getIndexedReplicas(int first, int last) {
+    return replicaIndex != null ? replicaIndex.get(first, last) : null;
   }
   
    /**
@@ -187,6 +282,9 @@ void incDfsUsed(long value) {
    * old (DU update interval). Slight imprecision of dfsUsed is not critical
    * and skipping DU can significantly shorten the startup time.
    * If the cached value is not available or too old, -1 is returned.
+   * When du is not enabled, the value saved at the last shutdown is exact
+   * whatever its age: it is returned, and the file is deleted so that it is
+   * not read again after an unclean shutdown.
    */
   long loadDfsUsed() {
     long cachedDfsUsed;
@@ -213,6 +311,17 @@ long loadDfsUsed() {
         return -1;
       }
 
+      if (!duEnabled && mtime > 0) {
+        FsDatasetImpl.LOG.info("Saved dfsUsed found for " + currentDir + ": " +
+            cachedDfsUsed);
+        sc.close();
+        if (!new File(currentDir, DU_CACHE_FILE).delete()) {
+          FsDatasetImpl.LOG.warn("Failed to delete dfsUsed file in " +
+              currentDir);
+          return -1;
+        }
+        return cachedDfsUsed;
+      }
       // Return the cached value if mtime is okay.
       if (mtime > 0 && (Time.now() - mtime < 600000L)) {
         FsDatasetImpl.LOG.info("Cached dfsUsed found for " + currentDir + ": " +
@@ -277,7 +386,7 @@ File addFinalizedBlock(Block b, File f) throws IOException {
     }
     File blockFile = FsDatasetImpl.moveBlockFiles(b, f, blockDir);
     File metaFile = FsDatasetUtil.getMetaFile(blockFile, b.getGenerationStamp());
-    dfsUsage.incDfsUsed(b.getNumBytes()+metaFile.length());
+    incDfsUsed(b.getNumBytes()+metaFile.length());
     return blockFile;
   }
 
@@ -323,6 +432,22 @@ void getVolumeMap(ReplicaMap volumeMap,
       // add rbw replicas
       addToReplicasMap(volumeMap, rbwDir, lazyWriteReplicaMap, false);
     }
+
+    if (replicaIndex != null) {
+      // the index is updated with the replica map from now on
+      List<ReplicaInfo> replicas = new ArrayList<ReplicaInfo>();
+      synchronized (volumeMap.getMutext()) {
+        Collection<ReplicaInfo> all = volumeMap.replicas(bpid);
+        if (all != null) {
+          for (ReplicaInfo r : all) {
+            if (r.getVolume() == volume) {
+              replicas.add(r);
+            }
+          }
+        }
+        replicaIndex.load(replicas);
+      }
+    }
   }
 
   /**
@@ -670,12 +795,33 @@ public String toString() {
   }
   
   void shutdown(BlockListAsLongs blocksListToPersist) {
-    saveReplicas(blocksListToPersist);
+    saveReplicas(blocksListToPersist, System.currentTimeMillis(), true);
     saveDfsUsed();
     dfsUsedSaved = true;
-    dfsUsage.shutdown();
+    if (duEnabled) {
+      dfsUsage.shutdown();
+    } else {
+      replicaUsage.shutdown();
+    }
+    if (replicaIndex != null) {
+      replicaIndex.close();
+    }
   }
 
+  /**
+   * Load the replicas of the slice from the replica cache file, see
+   * {@link #saveReplicas(BlockListAsLongs, long, boolean)}.  The cache file
+   * is deleted once read.
+   * <p>
+   * A periodic snapshot may miss the changes made to the volume between the
+   * snapshot and the crash, so it is checked against the disk before any
+   * block report: the rbw directory is scanned, and so are the block
+   * directories of the finalized directory modified since the snapshot,
+   * which take the place of the replicas of the snapshot in them.  The
+   * replicas of the other block directories are taken from the snapshot.
+   * @return false if the cache file is missing, corrupt or stale, in which
+   *         case the volume must be scanned
+   */
   private boolean readReplicasFromCache(ReplicaMap volumeMap,
       final RamDiskReplicaTracker lazyWriteReplicaMap) {
     ReplicaMap tmpReplicaMap = new ReplicaMap(this);
@@ -686,46 +832,93 @@ private boolean readReplicasFromCache(ReplicaMap volumeMap,
           " doesn't exist ");
       return false;
     }
-    long fileLastModifiedTime = replicaFile.lastModified();
-    if (System.currentTimeMillis() > fileLastModifiedTime + replicaCacheExpiry) {
-      LOG.info("Replica Cache file: " + replicaFile.getPath() + 
-          " has gone stale");
-      // Just to make findbugs happy
-      if (!replicaFile.delete()) {
+    try {
+      final long start = Time.monotonicNow();
+      byte[] data = Files.toByteArray(replicaFile);
+      int length = data.length - 8;
+      if (length < 0) {
+        throw new IOException("Truncated replica cache file");
+      }
+      CRC32 checksum = new CRC32();
+      checksum.update(data, 0, length);
+      if (checksum.getValue() != ByteBuffer.wrap(data, length, 8).getLong()) {
+        throw new IOException("Checksum mismatch in the replica cache file");
+      }
+      DataInputStream in = new DataInputStream(
+          new ByteArrayInputStream(data, 0, length));
+      int version = in.readInt();
+      if (version != REPLICA_CACHE_VERSION) {
+        throw new IOException("Unexpected replica cache file version "
+            + version);
+      }
+      long savedTime = in.readLong();
+      boolean clean = in.readBoolean();
+      if (System.currentTimeMillis() > savedTime + replicaCacheExpiry) {
         LOG.info("Replica Cache file: " + replicaFile.getPath() + 
-            " cannot be deleted");
+            " has gone stale");
+        return false;
       }
-      return false;
-    }
-    FileInputStream inputStream = null;
-    try {
-      inputStream = new FileInputStream(replicaFile);
-      BlockListAsLongs blocksList =  BlockListAsLongs.readFrom(inputStream);
+      BitSet unmodifiedDirs = null;
+      List<File> modifiedDirs = null;
+      if (!clean) {
+        modifiedDirs = new ArrayList<File>();
+        unmodifiedDirs = getBlockDirsModifiedSince(
+            savedTime - REPLICA_CACHE_MTIME_SLACK_MS, modifiedDirs);
+        if (unmodifiedDirs == null) {
+          LOG.info("Replica Cache file: " + replicaFile.getPath()
+              + " is a periodic snapshot of a volume with replicas outside"
+              + " of the block directories");
+          return false;
+        }
+      }
+      BlockListAsLongs blocksList = BlockListAsLongs.readFrom(in);
       Iterator<BlockReportReplica> iterator = blocksList.iterator();
       while (iterator.hasNext()) {
         BlockReportReplica replica = iterator.next();
         switch (replica.getState()) {
         case FINALIZED:
-          addReplicaToReplicasMap(replica, tmpReplicaMap, lazyWriteReplicaMap, true);
+          if (clean
+              || unmodifiedDirs.get(getBlockDirIndex(replica.getBlockId()))) {
+            addReplicaToReplicasMap(replica, tmpReplicaMap,
+                lazyWriteReplicaMap, true);
+          }
           break;
         case RUR:
         case RBW:
         case RWR:
-          addReplicaToReplicasMap(replica, tmpReplicaMap, lazyWriteReplicaMap, false);
+          if (clean) {
+            addReplicaToReplicasMap(replica, tmpReplicaMap,
+                lazyWriteReplicaMap, false);
+          }
           break;
         default:
           break;
         }
       }
-      inputStream.close();
+      if (!clean) {
+        for (File dir : modifiedDirs) {
+          addToReplicasMap(tmpReplicaMap, dir, lazyWriteReplicaMap, true);
+        }
+        // the replicas being written have changed since a periodic snapshot
+        addToReplicasMap(tmpReplicaMap, rbwDir, lazyWriteReplicaMap, false);
+      }
       // Now it is safe to add the replica into volumeMap
       // In case of any exception during parsing this cache file, fall back
       // to scan all the files on disk.
-      for (ReplicaInfo info: tmpReplicaMap.replicas(bpid)) {
-        volumeMap.add(bpid, info);
+      int numReplicas = 0;
+      Collection<ReplicaInfo> replicas = tmpReplicaMap.replicas(bpid);
+      if (replicas != null) {
+        for (ReplicaInfo info : replicas) {
+          volumeMap.add(bpid, info);
+        }
+        numReplicas = replicas.size();
       }
-      LOG.info("Successfully read replica from cache file : " 
-          + replicaFile.getPath());
+      LOG.info("Successfully read " + numReplicas + " replicas from "
+          + (clean ? "" : "the periodic ") + "cache file : "
+          + replicaFile.getPath() + " in "
+          + (Time.monotonicNow() - start) + "ms"
+          + (clean ? "" : ", scanning " + modifiedDirs.size()
+              + " modified block directories"));
       return true;
     } catch (Exception e) {
       // Any exception we need to revert back to read from disk
@@ -739,12 +932,84 @@ private boolean readReplicasFromCache(ReplicaMap volumeMap,
         LOG.info("Failed to delete replica cache file: " +
             replicaFile.getPath());
       }
-      // close the inputStream
-      IOUtils.closeStream(inputStream);
     }
   } 
-  
-  private void saveReplicas(BlockListAsLongs blocksListToPersist) {
+
+  /**
+   * Find the block directories of the finalized directory, i.e. its
+   * subdir{d1}/subdir{d2} directories, by their modification times, which
+   * change as replica files are added, renamed or deleted in them.  This
+   * only lists the directories above the block directories.
+   * @param time the time of the oldest modification to look for
+   * @param modifiedDirs filled with the directories modified since then
+   * @return the directories not modified since then, by
+   *         {@link #getBlockDirIndex(long)}, or null if the finalized
+   *         directory holds anything else than the block directories
+   */
+  private BitSet getBlockDirsModifiedSince(long time, List<File> modifiedDirs)
+      throws IOException {
+    final BitSet unmodifiedDirs = new BitSet(1 << 16);
+    for (File d1Dir : FileUtil.listFiles(finalizedDir)) {
+      final int d1 = getBlockSubdirNumber(d1Dir);
+      if (d1 < 0 || !d1Dir.isDirectory()) {
+        return null;
+      }
+      for (File d2Dir : FileUtil.listFiles(d1Dir)) {
+        final int d2 = getBlockSubdirNumber(d2Dir);
+        if (d2 < 0) {
+          return null;
+        }
+        if (d2Dir.lastModified() < time) {
+          unmodifiedDirs.set((d1 << 8) | d2);
+        } else {
+          modifiedDirs.add(d2Dir);
+        }
+      }
+    }
+    return unmodifiedDirs;
+  }
+
+  /**
+   * @return the number n of a subdir{n} directory of the layout of
+   *         {@link DatanodeUtil#idToBlockDir(File, long)}, or -1
+   */
+  private static int getBlockSubdirNumber(File dir) {
+    final String name = dir.getName();
+    if (!name.startsWith(DataStorage.BLOCK_SUBDIR_PREFIX)) {
+      return -1;
+    }
+    try {
+      final int n = Integer.parseInt(
+          name.substring(DataStorage.BLOCK_SUBDIR_PREFIX.length()));
+      return n >= 0 && n <= 0xff ? n : -1;
+    } catch (NumberFormatException e) {
+      return -1;
+    }
+  }
+
+  /**
+   * @return the index (d1 << 8) | d2 of the block directory
+   *         subdir{d1}/subdir{d2} of a replica
+   */
+  private static int getBlockDirIndex(long blockId) {
+    return (int) ((blockId >> 8) & 0xffff);
+  }
+
+  /**
+   * Save the replicas of the slice to the replica cache file, either at
+   * shutdown or periodically.  The file holds its version, the time and
+   * kind of the save, the replicas and a CRC32 of all the above.  Once the
+   * slice is shut down, the periodic saves are ignored.
+   * @param blocksListToPersist the replicas of the slice
+   * @param time the time at which the replicas were listed
+   * @param clean whether the slice is being shut down
+   */
+  synchronized void saveReplicas(BlockListAsLongs blocksListToPersist,
+      long time, boolean clean) {
+    if (replicaCacheClosed) {
+      return;
+    }
+    replicaCacheClosed = clean;
     if (blocksListToPersist == null || 
         blocksListToPersist.getNumberOfBlocks()== 0) {
       return;
@@ -756,18 +1021,25 @@ private void saveReplicas(BlockListAsLongs blocksListToPersist) {
       return;
     }
     File replicaCacheFile = new File(currentDir, REPLICA_CACHE_FILE);
-    if (replicaCacheFile.exists() && !replicaCacheFile.delete()) {
-      LOG.warn("Failed to delete replicas file in " +
-          replicaCacheFile.getPath());
-      return;
-    }
-    
+
     FileOutputStream out = null;
     try {
       out = new FileOutputStream(tmpFile);
-      blocksListToPersist.writeTo(out);
+      CheckedOutputStream checked = new CheckedOutputStream(
+          new BufferedOutputStream(out), new CRC32());
+      DataOutputStream dos = new DataOutputStream(checked);
+      dos.writeInt(REPLICA_CACHE_VERSION);
+      dos.writeLong(time);
+      dos.writeBoolean(clean);
+      blocksListToPersist.writeTo(dos);
+      dos.flush();
+      // the checksum does not cover itself
+      new DataOutputStream(checked.getOutputStream()).writeLong(
+          checked.getChecksum().getValue());
+      dos.flush();
+      out.getChannel().force(true);
       out.close();
-      // Renaming the tmp file to replicas
+      // Renaming the tmp file to replicas, in place of the previous one
       Files.move(tmpFile, replicaCacheFile);
     } catch (Exception e) {
       // If write failed, the volume might be bad. Since the cache file is
@@ -211,13 +211,14 @@ public void run() {
   /**
    * Delete the block file and meta file from the disk asynchronously, adjust
    * dfsUsed statistics accordingly.
+   * @param finalized whether the replica is finalized
    */
   void deleteAsync(FsVolumeReference volumeRef, File blockFile, File metaFile,
-      ExtendedBlock block, String trashDirectory) {
+      ExtendedBlock block, String trashDirectory, boolean finalized) {
     LOG.info("Scheduling " + block.getLocalBlock()
         + " file " + blockFile + " for deletion");
     ReplicaFileDeleteTask deletionTask = new ReplicaFileDeleteTask(
-        volumeRef, blockFile, metaFile, block, trashDirectory);
+        volumeRef, blockFile, metaFile, block, trashDirectory, finalized);
     execute(((FsVolumeImpl) volumeRef.getVolume()).getCurrentDir(), deletionTask);
   }
   
@@ -234,15 +235,18 @@ class ReplicaFileDeleteTask implements Runnable {
     final File metaFile;
     final ExtendedBlock block;
     final String trashDirectory;
+    final boolean finalized;
     
     ReplicaFileDeleteTask(FsVolumeReference volumeRef, File blockFile,
-        File metaFile, ExtendedBlock block, String trashDirectory) {
+        File metaFile, ExtendedBlock block, String trashDirectory,
+        boolean finalized) {
       this.volumeRef = volumeRef;
       this.volume = (FsVolumeImpl) volumeRef.getVolume();
       this.blockFile = blockFile;
       this.metaFile = metaFile;
       this.block = block;
       this.trashDirectory = trashDirectory;
+      this.finalized = finalized;
     }
 
     @Override
@@ -291,7 +295,7 @@ public void run() {
         if(block.getLocalBlock().getNumBytes() != BlockCommand.NO_ACK){
           datanode.notifyNamenodeDeletedBlock(block, volume.getStorageID());
         }
-        volume.decDfsUsed(block.getBlockPoolId(), dfsBytes);
+        volume.decDfsUsed(block.getBlockPoolId(), dfsBytes, finalized);
         LOG.info("Deleted " + block.getBlockPoolId() + " "
             + block.getLocalBlock() + " file " + blockFile);
       }
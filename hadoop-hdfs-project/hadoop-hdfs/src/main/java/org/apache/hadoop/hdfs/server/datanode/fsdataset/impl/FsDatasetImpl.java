@@ -27,6 +27,7 @@
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
 import java.nio.channels.ClosedChannelException;
@@ -94,6 +95,7 @@
 import org.apache.hadoop.hdfs.server.datanode.fsdataset.RoundRobinVolumeChoosingPolicy;
 import org.apache.hadoop.hdfs.server.datanode.fsdataset.VolumeChoosingPolicy;
 import org.apache.hadoop.hdfs.server.datanode.fsdataset.impl.RamDiskReplicaTracker.RamDiskReplica;
+import org.apache.hadoop.hdfs.server.datanode.metrics.DataNodeMetrics;
 import org.apache.hadoop.hdfs.server.datanode.metrics.FSDatasetMBean;
 import org.apache.hadoop.hdfs.server.protocol.BlockRecoveryCommand.RecoveringBlock;
 import org.apache.hadoop.hdfs.server.protocol.DatanodeStorage;
@@ -231,6 +233,8 @@ public LengthInputStream getMetaDataInputStream(ExtendedBlock b)
   final Map<String, DatanodeStorage> storageMap;
   final FsDatasetAsyncDiskService asyncDiskService;
   final Daemon lazyWriter;
+  // null unless the replicas are saved periodically
+  final Daemon replicaCacheSaver;
   final FsDatasetCache cacheManager;
   private final Configuration conf;
   private final int validVolsRequired;
@@ -247,6 +251,15 @@ public LengthInputStream getMetaDataInputStream(ExtendedBlock b)
   // Used for synchronizing access to usage stats
   private final Object statsLock = new Object();
 
+  /**
+   * The replicas whose files are being created or moved by a thread not
+   * holding the dataset lock, so that a slow volume does not hold back the
+   * writes to the others.  The other operations on these replicas wait for
+   * them, see {@link #waitForReplica(String, long)}.
+   */
+  private final Set<ExtendedBlockId> busyReplicas =
+      new HashSet<ExtendedBlockId>();
+
   final LocalFileSystem localFS;
 
   private boolean blockPinningEnabled;
@@ -290,7 +303,7 @@ public LengthInputStream getMetaDataInputStream(ExtendedBlock b)
     }
 
     storageMap = new ConcurrentHashMap<String, DatanodeStorage>();
-    volumeMap = new ReplicaMap(this);
+    volumeMap = new ReplicaMap(this, true);
     ramDiskReplicaTracker = RamDiskReplicaTracker.getInstance(conf, this);
 
     @SuppressWarnings("unchecked")
@@ -315,6 +328,16 @@ public LengthInputStream getMetaDataInputStream(ExtendedBlock b)
     // Start the lazy writer once we have built the replica maps.
     lazyWriter = new Daemon(new LazyWriter(conf));
     lazyWriter.start();
+    final long replicaCacheSaveInterval = conf.getLong(
+        DFSConfigKeys.DFS_DATANODE_REPLICA_CACHE_SAVE_INTERVAL_MS_KEY,
+        DFSConfigKeys.DFS_DATANODE_REPLICA_CACHE_SAVE_INTERVAL_MS_DEFAULT);
+    if (replicaCacheSaveInterval > 0) {
+      replicaCacheSaver = new Daemon(
+          new ReplicaCacheSaver(replicaCacheSaveInterval));
+      replicaCacheSaver.start();
+    } else {
+      replicaCacheSaver = null;
+    }
     registerMBean(datanode.getDatanodeUuid());
     localFS = FileSystem.getLocal(conf);
     blockPinningEnabled = conf.getBoolean(
@@ -1028,6 +1051,7 @@ public synchronized ReplicaHandler append(ExtendedBlock b,
       throw new IOException("The new generation stamp " + newGS + 
           " should be greater than the replica " + b + "'s generation stamp");
     }
+    waitForReplica(b.getBlockPoolId(), b.getBlockId());
     ReplicaInfo replicaInfo = getReplicaInfo(b);
     LOG.info("Appending to " + replicaInfo);
     if (replicaInfo.getState() != ReplicaState.FINALIZED) {
@@ -1117,6 +1141,9 @@ private synchronized ReplicaBeingWritten append(String bpid,
                               " to rbw dir " + newBlkFile, e);
     }
     
+    // The replica is accounted again once finalized
+    v.decDfsUsed(bpid, replicaInfo.getNumBytes() + newmeta.length());
+
     // Replace finalized replica by a RBW replica in replicas map
     volumeMap.add(bpid, newReplicaInfo);
     v.reserveSpaceForRbw(estimateBlockLen - replicaInfo.getNumBytes());
@@ -1176,6 +1203,7 @@ public synchronized ReplicaHandler recoverAppend(
       ExtendedBlock b, long newGS, long expectedBlockLen) throws IOException {
     LOG.info("Recover failed append to " + b);
 
+    waitForReplica(b.getBlockPoolId(), b.getBlockId());
     ReplicaInfo replicaInfo = recoverCheck(b, newGS, expectedBlockLen);
 
     FsVolumeReference ref = replicaInfo.getVolume().obtainReference();
@@ -1200,6 +1228,7 @@ public synchronized ReplicaHandler recoverAppend(
   public synchronized String recoverClose(ExtendedBlock b, long newGS,
       long expectedBlockLen) throws IOException {
     LOG.info("Recover failed close " + b);
+    waitForReplica(b.getBlockPoolId(), b.getBlockId());
     // check replica's state
     ReplicaInfo replicaInfo = recoverCheck(b, newGS, expectedBlockLen);
     // bump the replica's GS
@@ -1241,50 +1270,61 @@ private void bumpReplicaGS(ReplicaInfo replicaInfo,
   }
 
   @Override // FsDatasetSpi
-  public synchronized ReplicaHandler createRbw(
+  public ReplicaHandler createRbw(
       StorageType storageType, ExtendedBlock b, boolean allowLazyPersist)
       throws IOException {
-    ReplicaInfo replicaInfo = volumeMap.get(b.getBlockPoolId(),
-        b.getBlockId());
-    if (replicaInfo != null) {
-      throw new ReplicaAlreadyExistsException("Block " + b +
-      " already exists in state " + replicaInfo.getState() +
-      " and thus cannot be created.");
-    }
-    // create a new block
-    FsVolumeReference ref;
-    while (true) {
-      try {
-        if (allowLazyPersist) {
-          // First try to place the block on a transient volume.
-          ref = volumes.getNextTransientVolume(b.getNumBytes());
-          datanode.getMetrics().incrRamDiskBlocksWrite();
-        } else {
-          ref = volumes.getNextVolume(storageType, b.getNumBytes());
+    final long startTime = Time.monotonicNow();
+    synchronized (this) {
+      addDatasetLockWait(startTime);
+      waitForReplica(b.getBlockPoolId(), b.getBlockId());
+      ReplicaInfo replicaInfo = volumeMap.get(b.getBlockPoolId(),
+          b.getBlockId());
+      if (replicaInfo != null) {
+        throw new ReplicaAlreadyExistsException("Block " + b +
+        " already exists in state " + replicaInfo.getState() +
+        " and thus cannot be created.");
+      }
+      setReplicaBusy(b.getBlockPoolId(), b.getBlockId(), true);
+    }
+    // create a new block, not holding the dataset lock
+    FsVolumeReference ref = null;
+    ReplicaBeingWritten newReplicaInfo = null;
+    try {
+      while (true) {
+        try {
+          if (allowLazyPersist) {
+            // First try to place the block on a transient volume.
+            ref = volumes.getNextTransientVolume(b.getNumBytes());
+            datanode.getMetrics().incrRamDiskBlocksWrite();
+          } else {
+            ref = volumes.getNextVolume(storageType, b.getNumBytes());
+          }
+        } catch (DiskOutOfSpaceException de) {
+          if (allowLazyPersist) {
+            datanode.getMetrics().incrRamDiskBlocksWriteFallback();
+            allowLazyPersist = false;
+            continue;
+          }
+          throw de;
         }
-      } catch (DiskOutOfSpaceException de) {
-        if (allowLazyPersist) {
-          datanode.getMetrics().incrRamDiskBlocksWriteFallback();
-          allowLazyPersist = false;
-          continue;
+        break;
+      }
+      FsVolumeImpl v = (FsVolumeImpl) ref.getVolume();
+      // create an rbw file to hold block in the designated volume
+      File f = v.createRbwFile(b.getBlockPoolId(), b.getLocalBlock());
+      newReplicaInfo = new ReplicaBeingWritten(b.getBlockId(),
+          b.getGenerationStamp(), v, f.getParentFile(), b.getNumBytes());
+    } finally {
+      synchronized (this) {
+        if (newReplicaInfo != null) {
+          volumeMap.add(b.getBlockPoolId(), newReplicaInfo);
         }
-        throw de;
+        setReplicaBusy(b.getBlockPoolId(), b.getBlockId(), false);
+      }
+      if (newReplicaInfo == null) {
+        IOUtils.cleanup(null, ref);
       }
-      break;
-    }
-    FsVolumeImpl v = (FsVolumeImpl) ref.getVolume();
-    // create an rbw file to hold block in the designated volume
-    File f;
-    try {
-      f = v.createRbwFile(b.getBlockPoolId(), b.getLocalBlock());
-    } catch (IOException e) {
-      IOUtils.cleanup(null, ref);
-      throw e;
     }
-
-    ReplicaBeingWritten newReplicaInfo = new ReplicaBeingWritten(b.getBlockId(), 
-        b.getGenerationStamp(), v, f.getParentFile(), b.getNumBytes());
-    volumeMap.add(b.getBlockPoolId(), newReplicaInfo);
     return new ReplicaHandler(newReplicaInfo, ref);
   }
 
@@ -1294,6 +1334,7 @@ public synchronized ReplicaHandler recoverRbw(
       throws IOException {
     LOG.info("Recover RBW replica " + b);
 
+    waitForReplica(b.getBlockPoolId(), b.getBlockId());
     ReplicaInfo replicaInfo = getReplicaInfo(b.getBlockPoolId(), b.getBlockId());
     
     // check the replica's state
@@ -1358,6 +1399,7 @@ public synchronized ReplicaInPipeline convertTemporaryToRbw(
     final long visible = b.getNumBytes();
     LOG.info("Convert " + b + " from Temporary to RBW, visible length="
         + visible);
+    waitForReplica(b.getBlockPoolId(), blockId);
 
     final ReplicaInPipeline temp;
     {
@@ -1418,29 +1460,18 @@ public ReplicaHandler createTemporary(
     long writerStopTimeoutMs = datanode.getDnConf().getXceiverStopTimeout();
     ReplicaInfo lastFoundReplicaInfo = null;
     do {
+      final long startTime = Time.monotonicNow();
       synchronized (this) {
+        addDatasetLockWait(startTime);
+        waitForReplica(b.getBlockPoolId(), b.getBlockId());
         ReplicaInfo currentReplicaInfo =
             volumeMap.get(b.getBlockPoolId(), b.getBlockId());
         if (currentReplicaInfo == lastFoundReplicaInfo) {
           if (lastFoundReplicaInfo != null) {
             invalidate(b.getBlockPoolId(), new Block[] { lastFoundReplicaInfo });
           }
-          FsVolumeReference ref =
-              volumes.getNextVolume(storageType, b.getNumBytes());
-          FsVolumeImpl v = (FsVolumeImpl) ref.getVolume();
-          // create a temporary file to hold block in the designated volume
-          File f;
-          try {
-            f = v.createTmpFile(b.getBlockPoolId(), b.getLocalBlock());
-          } catch (IOException e) {
-            IOUtils.cleanup(null, ref);
-            throw e;
-          }
-          ReplicaInPipeline newReplicaInfo =
-              new ReplicaInPipeline(b.getBlockId(), b.getGenerationStamp(), v,
-                  f.getParentFile(), 0);
-          volumeMap.add(b.getBlockPoolId(), newReplicaInfo);
-          return new ReplicaHandler(newReplicaInfo, ref);
+          setReplicaBusy(b.getBlockPoolId(), b.getBlockId(), true);
+          break;
         } else {
           if (!(currentReplicaInfo.getGenerationStamp() < b
               .getGenerationStamp() && currentReplicaInfo instanceof ReplicaInPipeline)) {
@@ -1465,6 +1496,29 @@ public ReplicaHandler createTemporary(
       ((ReplicaInPipeline) lastFoundReplicaInfo)
           .stopWriter(writerStopTimeoutMs);
     } while (true);
+
+    // create a temporary file to hold block in the designated volume, not
+    // holding the dataset lock
+    FsVolumeReference ref = null;
+    ReplicaInPipeline newReplicaInfo = null;
+    try {
+      ref = volumes.getNextVolume(storageType, b.getNumBytes());
+      FsVolumeImpl v = (FsVolumeImpl) ref.getVolume();
+      File f = v.createTmpFile(b.getBlockPoolId(), b.getLocalBlock());
+      newReplicaInfo = new ReplicaInPipeline(b.getBlockId(),
+          b.getGenerationStamp(), v, f.getParentFile(), 0);
+    } finally {
+      synchronized (this) {
+        if (newReplicaInfo != null) {
+          volumeMap.add(b.getBlockPoolId(), newReplicaInfo);
+        }
+        setReplicaBusy(b.getBlockPoolId(), b.getBlockId(), false);
+      }
+      if (newReplicaInfo == null) {
+        IOUtils.cleanup(null, ref);
+      }
+    }
+    return new ReplicaHandler(newReplicaInfo, ref);
   }
 
   /**
@@ -1497,18 +1551,43 @@ public void adjustCrcChannelPosition(ExtendedBlock b, ReplicaOutputStreams strea
    * Complete the block write!
    */
   @Override // FsDatasetSpi
-  public synchronized void finalizeBlock(ExtendedBlock b) throws IOException {
+  public void finalizeBlock(ExtendedBlock b) throws IOException {
     if (Thread.interrupted()) {
       // Don't allow data modifications from interrupted threads
       throw new IOException("Cannot finalize block from Interrupted Thread");
     }
-    ReplicaInfo replicaInfo = getReplicaInfo(b);
-    if (replicaInfo.getState() == ReplicaState.FINALIZED) {
-      // this is legal, when recovery happens on a file that has
-      // been opened for append but never modified
-      return;
+    final String bpid = b.getBlockPoolId();
+    final ReplicaInfo replicaInfo;
+    final long startTime = Time.monotonicNow();
+    synchronized (this) {
+      addDatasetLockWait(startTime);
+      waitForReplica(bpid, b.getBlockId());
+      replicaInfo = getReplicaInfo(b);
+      if (replicaInfo.getState() == ReplicaState.FINALIZED) {
+        // this is legal, when recovery happens on a file that has
+        // been opened for append but never modified
+        return;
+      }
+      if (replicaInfo.getState() == ReplicaState.RUR) {
+        finalizeReplica(bpid, replicaInfo);
+        return;
+      }
+      setReplicaBusy(bpid, b.getBlockId(), true);
+    }
+    // move the replica files, not holding the dataset lock
+    FinalizedReplica newReplicaInfo = null;
+    try {
+      newReplicaInfo = moveToFinalized(bpid, replicaInfo);
+    } finally {
+      synchronized (this) {
+        // the volume of the replica may have been removed meanwhile
+        if (newReplicaInfo != null
+            && volumeMap.get(bpid, b.getBlockId()) == replicaInfo) {
+          volumeMap.add(bpid, newReplicaInfo);
+        }
+        setReplicaBusy(bpid, b.getBlockId(), false);
+      }
     }
-    finalizeReplica(b.getBlockPoolId(), replicaInfo);
   }
   
   private synchronized FinalizedReplica finalizeReplica(String bpid,
@@ -1520,32 +1599,91 @@ private synchronized FinalizedReplica finalizeReplica(String bpid,
       newReplicaInfo = (FinalizedReplica)
              ((ReplicaUnderRecovery)replicaInfo).getOriginalReplica();
     } else {
-      FsVolumeImpl v = (FsVolumeImpl)replicaInfo.getVolume();
-      File f = replicaInfo.getBlockFile();
-      if (v == null) {
-        throw new IOException("No volume for temporary file " + f + 
-            " for block " + replicaInfo);
-      }
+      newReplicaInfo = moveToFinalized(bpid, replicaInfo);
+    }
+    volumeMap.add(bpid, newReplicaInfo);
 
-      File dest = v.addFinalizedBlock(
-          bpid, replicaInfo, f, replicaInfo.getBytesReserved());
-      newReplicaInfo = new FinalizedReplica(replicaInfo, v, dest.getParentFile());
+    return newReplicaInfo;
+  }
 
-      if (v.isTransientStorage()) {
-        ramDiskReplicaTracker.addReplica(bpid, replicaInfo.getBlockId(), v);
-        datanode.getMetrics().addRamDiskBytesWrite(replicaInfo.getNumBytes());
-      }
+  /**
+   * Move the files of a replica to the finalized directory of its volume.
+   * The replica map is left unchanged.
+   */
+  private FinalizedReplica moveToFinalized(String bpid,
+      ReplicaInfo replicaInfo) throws IOException {
+    FsVolumeImpl v = (FsVolumeImpl)replicaInfo.getVolume();
+    File f = replicaInfo.getBlockFile();
+    if (v == null) {
+      throw new IOException("No volume for temporary file " + f + 
+          " for block " + replicaInfo);
     }
-    volumeMap.add(bpid, newReplicaInfo);
 
+    File dest = v.addFinalizedBlock(
+        bpid, replicaInfo, f, replicaInfo.getBytesReserved());
+    FinalizedReplica newReplicaInfo =
+        new FinalizedReplica(replicaInfo, v, dest.getParentFile());
+
+    if (v.isTransientStorage()) {
+      ramDiskReplicaTracker.addReplica(bpid, replicaInfo.getBlockId(), v);
+      datanode.getMetrics().addRamDiskBytesWrite(replicaInfo.getNumBytes());
+    }
     return newReplicaInfo;
   }
 
+  /**
+   * Wait for the files of a replica to be created or moved by another
+   * thread.  The caller holds the dataset lock, which is released while
+   * waiting, so it must not have modified the dataset yet.
+   */
+  private void waitForReplica(String bpid, long blockId)
+      throws IOException {
+    final ExtendedBlockId key = new ExtendedBlockId(blockId, bpid);
+    if (!busyReplicas.contains(key)) {
+      return;
+    }
+    final long startTime = Time.monotonicNow();
+    try {
+      do {
+        wait();
+      } while (busyReplicas.contains(key));
+    } catch (InterruptedException e) {
+      throw new InterruptedIOException("Interrupted while waiting for"
+          + " replica " + blockId + " of " + bpid);
+    }
+    final DataNodeMetrics metrics = datanode.getMetrics();
+    if (metrics != null) {
+      metrics.addReplicaWait(Time.monotonicNow() - startTime);
+    }
+  }
+
+  /**
+   * Mark a replica as having its files created or moved by the current
+   * thread, or clear the mark.  The caller holds the dataset lock.
+   */
+  @VisibleForTesting
+  void setReplicaBusy(String bpid, long blockId, boolean busy) {
+    final ExtendedBlockId key = new ExtendedBlockId(blockId, bpid);
+    if (busy) {
+      busyReplicas.add(key);
+    } else if (busyReplicas.remove(key)) {
+      notifyAll();
+    }
+  }
+
+  private void addDatasetLockWait(long startTime) {
+    final DataNodeMetrics metrics = datanode.getMetrics();
+    if (metrics != null) {
+      metrics.addDatasetLockWait(Time.monotonicNow() - startTime);
+    }
+  }
+
   /**
    * Remove the temporary block file (if any)
    */
   @Override // FsDatasetSpi
   public synchronized void unfinalizeBlock(ExtendedBlock b) throws IOException {
+    waitForReplica(b.getBlockPoolId(), b.getBlockId());
     ReplicaInfo replicaInfo = volumeMap.get(b.getBlockPoolId(), 
         b.getLocalBlock());
     if (replicaInfo != null && replicaInfo.getState() == ReplicaState.TEMPORARY) {
@@ -1789,7 +1927,9 @@ public void invalidate(String bpid, Block invalidBlks[]) throws IOException {
     for (int i = 0; i < invalidBlks.length; i++) {
       final File f;
       final FsVolumeImpl v;
+      final boolean finalized;
       synchronized (this) {
+        waitForReplica(bpid, invalidBlks[i].getBlockId());
         final ReplicaInfo info = volumeMap.get(bpid, invalidBlks[i]);
         if (info == null) {
           // It is okay if the block is not found -- it may be deleted earlier.
@@ -1804,6 +1944,7 @@ public void invalidate(String bpid, Block invalidBlks[]) throws IOException {
         }
         f = info.getBlockFile();
         v = (FsVolumeImpl)info.getVolume();
+        finalized = info.getState() == ReplicaState.FINALIZED;
         if (v == null) {
           errors.add("Failed to delete replica " + invalidBlks[i]
               +  ". No volume for this replica, file=" + f);
@@ -1850,7 +1991,7 @@ public void invalidate(String bpid, Block invalidBlks[]) throws IOException {
         asyncDiskService.deleteAsync(v.obtainReference(), f,
             FsDatasetUtil.getMetaFile(f, invalidBlks[i].getGenerationStamp()),
             new ExtendedBlock(bpid, invalidBlks[i]),
-            dataStorage.getTrashDirectoryForBlockFile(bpid, f));
+            dataStorage.getTrashDirectoryForBlockFile(bpid, f), finalized);
       } catch (ClosedChannelException e) {
         LOG.warn("Volume " + v + " is closed, ignore the deletion task for " +
             "block " + invalidBlks[i]);
@@ -2034,6 +2175,9 @@ public void shutdown() {
 
     ((LazyWriter) lazyWriter.getRunnable()).stop();
     lazyWriter.interrupt();
+    if (replicaCacheSaver != null) {
+      replicaCacheSaver.interrupt();
+    }
 
     if (mbeanName != null) {
       MBeans.unregister(mbeanName);
@@ -2090,9 +2234,36 @@ public String getStorageInfo() {
   @Override
   public void checkAndUpdate(String bpid, long blockId, File diskFile,
       File diskMetaFile, FsVolumeSpi vol) throws IOException {
+    try {
+      checkAndUpdateReplica(bpid, blockId, diskFile, diskMetaFile, vol);
+    } finally {
+      reindexReplica(bpid, blockId, vol);
+    }
+  }
+
+  /**
+   * Reset the entries of the replica indexes for a block to the replica in
+   * memory, since a difference reported by an incremental scan may come
+   * from the index rather than the replica map.
+   */
+  private synchronized void reindexReplica(String bpid, long blockId,
+      FsVolumeSpi vol) {
+    ReplicaInfo replica = volumeMap.get(bpid, blockId);
+    if (replica != null && replica.getVolume() instanceof FsVolumeImpl) {
+      ((FsVolumeImpl) replica.getVolume()).updateReplicaIndex(bpid, replica);
+    }
+    if (vol instanceof FsVolumeImpl
+        && (replica == null || replica.getVolume() != vol)) {
+      ((FsVolumeImpl) vol).removeFromReplicaIndex(bpid, blockId);
+    }
+  }
+
+  private void checkAndUpdateReplica(String bpid, long blockId, File diskFile,
+      File diskMetaFile, FsVolumeSpi vol) throws IOException {
     Block corruptBlock = null;
     ReplicaInfo memBlockInfo;
     synchronized (this) {
+      waitForReplica(bpid, blockId);
       memBlockInfo = volumeMap.get(bpid, blockId);
       if (memBlockInfo != null && memBlockInfo.getState() != ReplicaState.FINALIZED) {
         // Block is not finalized - ignore the difference
@@ -2251,6 +2422,8 @@ public synchronized String getReplicaString(String bpid, long blockId) {
   @Override // FsDatasetSpi
   public synchronized ReplicaRecoveryInfo initReplicaRecovery(
       RecoveringBlock rBlock) throws IOException {
+    waitForReplica(rBlock.getBlock().getBlockPoolId(),
+        rBlock.getBlock().getBlockId());
     return initReplicaRecovery(rBlock.getBlock().getBlockPoolId(), volumeMap,
         rBlock.getBlock().getLocalBlock(), rBlock.getNewGenerationStamp(),
         datanode.getDnConf().getXceiverStopTimeout());
@@ -2329,6 +2502,7 @@ public synchronized String updateReplicaUnderRecovery(
                                     final long newlength) throws IOException {
     //get replica
     final String bpid = oldBlock.getBlockPoolId();
+    waitForReplica(bpid, oldBlock.getBlockId());
     final ReplicaInfo replica = volumeMap.get(bpid, oldBlock.getBlockId());
     LOG.info("updateReplica: " + oldBlock
                  + ", recoveryId=" + recoveryId
@@ -2420,10 +2594,16 @@ private FinalizedReplica updateReplicaUnderRecovery(
     }
     if (rur.getNumBytes() > newlength) {
       rur.unlinkBlock(1);
+      final long oldBytes = blockFile.length() + metaFile.length();
       truncateBlock(blockFile, metaFile, rur.getNumBytes(), newlength);
       if(!copyOnTruncate) {
         // update RUR with the new length
         rur.setNumBytes(newlength);
+        if (rur.getOriginalReplica().getState() == ReplicaState.FINALIZED) {
+          // the finalized replica is kept, and already accounted
+          ((FsVolumeImpl) rur.getVolume()).decDfsUsed(bpid,
+              oldBytes - blockFile.length() - metaFile.length());
+        }
       } else {
         // Copying block to a new block with new blockId.
         // Not truncating original block.
@@ -2967,6 +3147,58 @@ public void stop() {
       shouldRun = false;
     }
   }
+
+  /**
+   * Periodically saves the replicas of each block pool slice to its replica
+   * cache file, so that a restart after a crash does not have to scan the
+   * volumes.
+   */
+  class ReplicaCacheSaver implements Runnable {
+    private final long interval;
+
+    ReplicaCacheSaver(long interval) {
+      this.interval = interval;
+    }
+
+    @Override
+    public void run() {
+      while (fsRunning) {
+        try {
+          Thread.sleep(interval);
+          saveReplicaCaches();
+        } catch (InterruptedException e) {
+          LOG.info("ReplicaCacheSaver was interrupted, exiting");
+          break;
+        } catch (Exception e) {
+          LOG.warn("Ignoring exception in ReplicaCacheSaver:", e);
+        }
+      }
+    }
+
+    private void saveReplicaCaches() {
+      final long start = Time.monotonicNow();
+      for (String bpid : volumeMap.getBlockPoolList()) {
+        Map<DatanodeStorage, BlockListAsLongs> blocksPerVolume;
+        final long time;
+        synchronized (FsDatasetImpl.this) {
+          if (!fsRunning || volumeMap.replicas(bpid) == null) {
+            // the block pool was shut down, and its replicas saved
+            continue;
+          }
+          time = System.currentTimeMillis();
+          blocksPerVolume = getBlockReports(bpid);
+        }
+        for (FsVolumeImpl v : getVolumes()) {
+          v.saveReplicas(bpid, blocksPerVolume.get(v.toDatanodeStorage()),
+              time);
+        }
+      }
+      if (LOG.isDebugEnabled()) {
+        LOG.debug("Saved the replica caches in "
+            + (Time.monotonicNow() - start) + "ms");
+      }
+    }
+  }
   
   @Override
   public void setPinning(ExtendedBlock block) throws IOException {
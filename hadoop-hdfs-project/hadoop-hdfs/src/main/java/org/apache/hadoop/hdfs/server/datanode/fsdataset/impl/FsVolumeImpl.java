@@ -54,6 +54,7 @@
 import org.apache.hadoop.hdfs.protocol.ExtendedBlock;
 import org.apache.hadoop.hdfs.server.datanode.DataStorage;
 import org.apache.hadoop.hdfs.server.datanode.DatanodeUtil;
+import org.apache.hadoop.hdfs.server.datanode.ReplicaInfo;
 import org.apache.hadoop.hdfs.server.datanode.fsdataset.FsVolumeReference;
 import org.apache.hadoop.hdfs.server.datanode.fsdataset.FsDatasetSpi;
 import org.apache.hadoop.hdfs.server.datanode.fsdataset.FsVolumeSpi;
@@ -280,6 +281,19 @@ void decDfsUsed(String bpid, long value) {
     }
   }
 
+  /**
+   * Decrease the space used by a deleted replica.  Unless du runs, the
+   * replicas being written are not accounted.
+   */
+  void decDfsUsed(String bpid, long value, boolean finalized) {
+    synchronized(dataset) {
+      BlockPoolSlice bp = bpSlices.get(bpid);
+      if (bp != null && (finalized || bp.isDuEnabled())) {
+        bp.decDfsUsed(value);
+      }
+    }
+  }
+
   void incDfsUsed(String bpid, long value) {
     synchronized(dataset) {
       BlockPoolSlice bp = bpSlices.get(bpid);
@@ -788,6 +802,30 @@ void checkDirs() throws DiskErrorException {
     }
   }
     
+  /**
+   * Index a replica in its block pool slice, or remove it from the index if
+   * it is not finalized.
+   */
+  void updateReplicaIndex(String bpid, ReplicaInfo replica) {
+    BlockPoolSlice bp = bpSlices.get(bpid);
+    if (bp != null) {
+      bp.updateReplicaIndex(replica);
+    }
+  }
+
+  void removeFromReplicaIndex(String bpid, long blockId) {
+    BlockPoolSlice bp = bpSlices.get(bpid);
+    if (bp != null) {
+      bp.removeFromReplicaIndex(blockId);
+    }
+  }
+
+  @Override
+  public List<Block> getIndexedReplicas(String bpid, int first, int last)
+      throws IOException {
+    return getBlockPoolSlice(bpid).getIndexedReplicas(first, last);
+  }
+
   void getVolumeMap(ReplicaMap volumeMap,
                     final RamDiskReplicaTracker ramDiskReplicaMap)
       throws IOException {
@@ -823,6 +861,18 @@ void addBlockPool(String bpid, Configuration conf) throws IOException {
     bpSlices.put(bpid, bp);
   }
   
+  /**
+   * Save the replicas of a block pool slice, listed at the given time, while
+   * running.
+   */
+  void saveReplicas(String bpid, BlockListAsLongs blocksListsAsLongs,
+      long time) {
+    BlockPoolSlice bp = bpSlices.get(bpid);
+    if (bp != null) {
+      bp.saveReplicas(blocksListsAsLongs, time, false);
+    }
+  }
+
   void shutdownBlockPool(String bpid, BlockListAsLongs blocksListsAsLongs) {
     BlockPoolSlice bp = bpSlices.get(bpid);
     if (bp != null) {
@@ -0,0 +1,237 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.datanode.fsdataset.impl;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.hdfs.protocol.Block;
+import org.apache.hadoop.hdfs.server.common.HdfsServerConstants.ReplicaState;
+import org.apache.hadoop.hdfs.server.datanode.ReplicaInfo;
+import org.apache.hadoop.io.IOUtils;
+import org.fusesource.leveldbjni.JniDBFactory;
+import org.iq80.leveldb.DB;
+import org.iq80.leveldb.DBException;
+import org.iq80.leveldb.DBIterator;
+import org.iq80.leveldb.Options;
+import org.iq80.leveldb.WriteBatch;
+import org.iq80.leveldb.WriteOptions;
+
+/**
+ * A LevelDB index of the finalized replicas of a block pool slice, keyed by
+ * the subdirectory of the finalized directory holding their files, see
+ * {@link org.apache.hadoop.hdfs.server.datanode.DatanodeUtil#idToBlockDir}.
+ * The directory scanner uses it to verify the finalized directory one
+ * subtree at a time, without going through the whole replica map.
+ * <p>
+ * The index is updated with the replica map, under the dataset lock, once
+ * the replicas of the slice are loaded.  The writes are not synced: the
+ * index is marked clean at shutdown only, and it is rebuilt from the
+ * replica map when it is opened after an unclean shutdown.  An index which
+ * fails to be written is disabled until the next restart.
+ */
+class ReplicaIndex implements Closeable {
+  static final Log LOG = LogFactory.getLog(ReplicaIndex.class);
+
+  private static final byte REPLICA_PREFIX = 'r';
+  private static final byte[] CLEAN_KEY = { 'c' };
+  private static final int KEY_LENGTH = 11;
+
+  private final File dir;
+  private final DB db;
+  private final boolean clean;
+  /** Whether the index is loaded, and has not failed since */
+  private volatile boolean active = false;
+  private boolean closed = false;
+
+  ReplicaIndex(File dir) throws IOException {
+    this.dir = dir;
+    if (!dir.isDirectory() && !dir.mkdirs()) {
+      throw new IOException("Failed to mkdirs " + dir);
+    }
+    Options options = new Options();
+    options.createIfMissing(true);
+    try {
+      db = JniDBFactory.factory.open(dir, options);
+      clean = db.get(CLEAN_KEY) != null;
+      // a crash leaves the index unclean
+      db.delete(CLEAN_KEY, new WriteOptions().sync(true));
+    } catch (DBException e) {
+      throw new IOException("Failed to open the replica index " + dir, e);
+    }
+  }
+
+  /** @return the key of a replica, sorted by subdirectory then block id */
+  private static byte[] getKey(long blockId) {
+    return ByteBuffer.allocate(KEY_LENGTH).put(REPLICA_PREFIX)
+        .put((byte) (blockId >> 16)).put((byte) (blockId >> 8))
+        .putLong(blockId).array();
+  }
+
+  private static byte[] getKey(int subdir) {
+    return ByteBuffer.allocate(3).put(REPLICA_PREFIX)
+        .putShort((short) subdir).array();
+  }
+
+  private static byte[] getValue(Block b) {
+    return ByteBuffer.allocate(16).putLong(b.getGenerationStamp())
+        .putLong(b.getNumBytes()).array();
+  }
+
+  /**
+   * Start indexing the replicas of the slice, once loaded.  The index is
+   * rebuilt if it was not closed cleanly.
+   * @param replicas the replicas of the slice
+   */
+  void load(Collection<ReplicaInfo> replicas) {
+    if (clean) {
+      LOG.info("Loaded the replica index " + dir);
+      active = true;
+      return;
+    }
+    try {
+      WriteBatch batch = db.createWriteBatch();
+      try {
+        DBIterator it = db.iterator();
+        try {
+          for (it.seek(new byte[] { REPLICA_PREFIX }); it.hasNext(); ) {
+            byte[] key = it.next().getKey();
+            if (key[0] != REPLICA_PREFIX) {
+              break;
+            }
+            batch.delete(key);
+          }
+        } finally {
+          it.close();
+        }
+        int n = 0;
+        for (ReplicaInfo r : replicas) {
+          if (r.getState() == ReplicaState.FINALIZED) {
+            batch.put(getKey(r.getBlockId()), getValue(r));
+            n++;
+          }
+        }
+        db.write(batch);
+        LOG.info("Rebuilt the replica index " + dir + " with " + n
+            + " finalized replicas");
+      } finally {
+        batch.close();
+      }
+      active = true;
+    } catch (DBException | IOException e) {
+      LOG.warn("Failed to rebuild the replica index " + dir, e);
+    }
+  }
+
+  /** Index a replica, or remove it if it is not finalized. */
+  void update(ReplicaInfo r) {
+    if (!active) {
+      return;
+    }
+    try {
+      if (r.getState() == ReplicaState.FINALIZED) {
+        db.put(getKey(r.getBlockId()), getValue(r));
+      } else {
+        db.delete(getKey(r.getBlockId()));
+      }
+    } catch (DBException e) {
+      fail(e);
+    }
+  }
+
+  void remove(long blockId) {
+    if (!active) {
+      return;
+    }
+    try {
+      db.delete(getKey(blockId));
+    } catch (DBException e) {
+      fail(e);
+    }
+  }
+
+  private void fail(Exception e) {
+    LOG.warn("Disabling the replica index " + dir, e);
+    active = false;
+  }
+
+  /**
+   * Get the replicas indexed in a range of subdirectories.
+   * @param first the first subdirectory
+   * @param last the last subdirectory, inclusive
+   * @return the replicas, or null if the index is not active
+   */
+  List<Block> get(int first, int last) {
+    if (!active) {
+      return null;
+    }
+    final List<Block> replicas = new ArrayList<Block>();
+    try {
+      DBIterator it = db.iterator();
+      try {
+        for (it.seek(getKey(first)); it.hasNext(); ) {
+          ByteBuffer key = ByteBuffer.wrap(it.peekNext().getKey());
+          if (key.remaining() != KEY_LENGTH || key.get() != REPLICA_PREFIX
+              || (key.getShort() & 0xffff) > last) {
+            break;
+          }
+          ByteBuffer value = ByteBuffer.wrap(it.next().getValue());
+          long genStamp = value.getLong();
+          replicas.add(new Block(key.getLong(), value.getLong(), genStamp));
+        }
+      } finally {
+        it.close();
+      }
+    } catch (DBException | IOException e) {
+      fail(e);
+      return null;
+    }
+    return replicas;
+  }
+
+  /** Mark the index clean, if active, and close it. */
+  @Override
+  public synchronized void close() {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    try {
+      if (active) {
+        db.put(CLEAN_KEY, new byte[0], new WriteOptions().sync(true));
+      }
+    } catch (DBException e) {
+      LOG.warn("Failed to mark the replica index " + dir + " clean", e);
+    } finally {
+      active = false;
+      IOUtils.cleanup(LOG, db);
+    }
+  }
+
+  @Override
+  public String toString() {
+    return dir.toString();
+  }
+}
@@ -27,21 +27,31 @@
 
 /**
  * Maintains the replica map. 
+ * <p>
+ * The replica map of a dataset keeps the replica indexes of its volumes up
+ * to date, see {@link ReplicaIndex}.
  */
 class ReplicaMap {
   // Object using which this class is synchronized
   private final Object mutex;
+  // Whether the replicas are indexed by their volumes
+  private final boolean indexed;
   
   // Map of block pool Id to another map of block Id to ReplicaInfo.
   private final Map<String, Map<Long, ReplicaInfo>> map =
     new HashMap<String, Map<Long, ReplicaInfo>>();
   
   ReplicaMap(Object mutex) {
+    this(mutex, false);
+  }
+
+  ReplicaMap(Object mutex, boolean indexed) {
     if (mutex == null) {
       throw new HadoopIllegalArgumentException(
           "Object to synchronize on cannot be null");
     }
     this.mutex = mutex;
+    this.indexed = indexed;
   }
   
   String[] getBlockPoolList() {
@@ -114,7 +124,25 @@ ReplicaInfo add(String bpid, ReplicaInfo replicaInfo) {
         m = new HashMap<Long, ReplicaInfo>();
         map.put(bpid, m);
       }
-      return  m.put(replicaInfo.getBlockId(), replicaInfo);
+      ReplicaInfo old = m.put(replicaInfo.getBlockId(), replicaInfo);
+      if (indexed) {
+        if (old != null && old.getVolume() != replicaInfo.getVolume()) {
+          unindex(bpid, old);
+        }
+        if (replicaInfo.getVolume() instanceof FsVolumeImpl) {
+          ((FsVolumeImpl) replicaInfo.getVolume()).updateReplicaIndex(
+              bpid, replicaInfo);
+        }
+      }
+      return old;
+    }
+  }
+
+  private void unindex(String bpid, ReplicaInfo replicaInfo) {
+    if (indexed && replicaInfo != null
+        && replicaInfo.getVolume() instanceof FsVolumeImpl) {
+      ((FsVolumeImpl) replicaInfo.getVolume()).removeFromReplicaIndex(
+          bpid, replicaInfo.getBlockId());
     }
   }
 
@@ -143,6 +171,7 @@ ReplicaInfo remove(String bpid, Block block) {
         ReplicaInfo replicaInfo = m.get(key);
         if (replicaInfo != null &&
             block.getGenerationStamp() == replicaInfo.getGenerationStamp()) {
+          unindex(bpid, replicaInfo);
           return m.remove(key);
         } 
       }
@@ -162,7 +191,9 @@ ReplicaInfo remove(String bpid, long blockId) {
     synchronized(mutex) {
       Map<Long, ReplicaInfo> m = map.get(bpid);
       if (m != null) {
-        return m.remove(blockId);
+        ReplicaInfo replicaInfo = m.remove(blockId);
+        unindex(bpid, replicaInfo);
+        return replicaInfo;
       }
     }
     return null;
@@ -0,0 +1,152 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.datanode.fsdataset.impl;
+
+import java.io.File;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.util.Time;
+
+import com.google.common.annotations.VisibleForTesting;
+
+/**
+ * Accounts the space used by the finalized replicas of a block pool slice,
+ * in place of running du over the block pool directory.
+ * <p>
+ * The space used is computed once, by walking the directories of the
+ * finalized and lazy persisted replicas, unless it was saved at the last
+ * shutdown.  It is then updated as replicas are finalized and deleted.  The
+ * replicas being written are not accounted until they are finalized.
+ * <p>
+ * Optionally, the space used is reconciled with the directories in the
+ * background, at a low frequency, to correct the drift caused by the
+ * replicas changed behind the back of the datanode.
+ */
+class ReplicaSpaceUsage {
+  static final Log LOG = LogFactory.getLog(ReplicaSpaceUsage.class);
+
+  private final File[] dirs;
+  private final AtomicLong used = new AtomicLong();
+  private final long reconcileInterval;
+  private volatile boolean shouldRun = true;
+  private Thread reconciler;
+
+  /**
+   * @param dirs the directories of the accounted replicas
+   * @param reconcileInterval the interval between the reconciliations with
+   *                          the directories, in ms, 0 to never reconcile
+   * @param initialUsed the saved space used, or -1 to compute it
+   */
+  ReplicaSpaceUsage(File[] dirs, long reconcileInterval, long initialUsed) {
+    this.dirs = dirs;
+    this.reconcileInterval = reconcileInterval;
+    if (initialUsed < 0) {
+      final long start = Time.monotonicNow();
+      used.set(computeUsed());
+      LOG.info("Computed the space used by " + this + " in "
+          + (Time.monotonicNow() - start) + "ms: " + used);
+    } else {
+      used.set(initialUsed);
+    }
+  }
+
+  void decDfsUsed(long value) {
+    used.addAndGet(-value);
+  }
+
+  void incDfsUsed(long value) {
+    used.addAndGet(value);
+  }
+
+  long getUsed() {
+    return Math.max(used.get(), 0L);
+  }
+
+  /** Start reconciling in the background, if enabled. */
+  void start() {
+    if (reconcileInterval <= 0) {
+      return;
+    }
+    reconciler = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        while (shouldRun) {
+          try {
+            Thread.sleep(reconcileInterval);
+            reconcile();
+          } catch (InterruptedException e) {
+            // shutdown
+          }
+        }
+      }
+    }, "reconcileUsed-" + dirs[0].getParent());
+    reconciler.setDaemon(true);
+    reconciler.setPriority(Thread.MIN_PRIORITY);
+    reconciler.start();
+  }
+
+  void shutdown() {
+    shouldRun = false;
+    if (reconciler != null) {
+      reconciler.interrupt();
+    }
+  }
+
+  /**
+   * Reset the space used to the size of the directories.  The changes
+   * accounted during the walk are kept.
+   */
+  @VisibleForTesting
+  void reconcile() {
+    final long before = used.get();
+    final long actual = computeUsed();
+    final long drift = before - actual;
+    used.addAndGet(-drift);
+    if (drift != 0) {
+      LOG.info("Reconciled the space used by " + this + ": it was off by "
+          + drift + " bytes");
+    }
+  }
+
+  private long computeUsed() {
+    long sum = 0;
+    for (File dir : dirs) {
+      sum += computeUsed(dir);
+    }
+    return sum;
+  }
+
+  private static long computeUsed(File dir) {
+    final File[] files = dir.listFiles();
+    if (files == null) {
+      return 0;
+    }
+    long sum = 0;
+    for (File f : files) {
+      sum += f.isDirectory() ? computeUsed(f) : f.length();
+    }
+    return sum;
+  }
+
+  @Override
+  public String toString() {
+    return dirs[0].getParent();
+  }
+}
@@ -19,6 +19,8 @@
 
 import static org.apache.hadoop.metrics2.impl.MsInfo.SessionId;
 
+import java.util.concurrent.atomic.AtomicBoolean;
+
 import org.apache.hadoop.classification.InterfaceAudience;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.hdfs.DFSConfigKeys;
@@ -29,9 +31,11 @@
 import org.apache.hadoop.metrics2.lib.DefaultMetricsSystem;
 import org.apache.hadoop.metrics2.lib.MetricsRegistry;
 import org.apache.hadoop.metrics2.lib.MutableCounterLong;
+import org.apache.hadoop.metrics2.lib.MutableGaugeLong;
 import org.apache.hadoop.metrics2.lib.MutableQuantiles;
 import org.apache.hadoop.metrics2.lib.MutableRate;
 import org.apache.hadoop.metrics2.source.JvmMetrics;
+import org.apache.hadoop.util.Time;
 
 /**
  *
@@ -123,6 +127,19 @@ public class DataNodeMetrics {
   @Metric MutableRate sendDataPacketTransferNanos;
   final MutableQuantiles[] sendDataPacketTransferNanosQuantiles;
 
+  @Metric("Milliseconds waiting for the dataset lock to create or finalize"
+      + " a replica")
+  MutableRate datasetLockWait;
+  @Metric("Milliseconds waiting for a replica being created or finalized"
+      + " by another thread")
+  MutableRate replicaWait;
+
+  @Metric("Milliseconds from the start of the datanode to its first"
+      + " successful block report")
+  MutableGaugeLong startupToFirstBlockReportMs;
+  private final long startTime = Time.monotonicNow();
+  private final AtomicBoolean firstBlockReportSent = new AtomicBoolean(false);
+
   final MetricsRegistry registry = new MetricsRegistry("datanode");
   final String name;
   JvmMetrics jvmMetrics = null;
@@ -202,6 +219,20 @@ public void addBlockReport(long latency) {
     blockReports.add(latency);
   }
 
+  /**
+   * Record the time from the start of the datanode to its first successful
+   * block report, once.
+   * @return the time, or -1 if it was already recorded
+   */
+  public long firstBlockReportSent() {
+    if (!firstBlockReportSent.compareAndSet(false, true)) {
+      return -1;
+    }
+    final long elapsed = Time.monotonicNow() - startTime;
+    startupToFirstBlockReportMs.set(elapsed);
+    return elapsed;
+  }
+
   public void addIncrementalBlockReport(long latency) {
     incrementalBlockReports.add(latency);
   }
@@ -210,6 +241,14 @@ public void addCacheReport(long latency) {
     cacheReports.add(latency);
   }
 
+  public void addDatasetLockWait(long latency) {
+    datasetLockWait.add(latency);
+  }
+
+  public void addReplicaWait(long latency) {
+    replicaWait.add(latency);
+  }
+
   public void incrBlocksReplicated() {
     blocksReplicated.incr();
   }
@@ -381,12 +381,13 @@ public static ReferenceCountMap<AclFeature> getUniqueAclFeatures() {
   }
 
   /**
-   * Add reference for the said AclFeature
+   * Add reference for the said AclFeature.  Synchronized, as fsimage
+   * sub-sections may be loaded by several threads at once.
    * 
    * @param aclFeature
    * @return Referenced AclFeature
    */
-  public static AclFeature addAclFeature(AclFeature aclFeature) {
+  public static synchronized AclFeature addAclFeature(AclFeature aclFeature) {
     return UNIQUE_ACL_FEATURES.put(aclFeature);
   }
 
@@ -395,7 +396,7 @@ public static AclFeature addAclFeature(AclFeature aclFeature) {
    * 
    * @param aclFeature
    */
-  public static void removeAclFeature(AclFeature aclFeature) {
+  public static synchronized void removeAclFeature(AclFeature aclFeature) {
     UNIQUE_ACL_FEATURES.remove(aclFeature);
   }
 }
@@ -0,0 +1,193 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.namenode;
+
+import static org.apache.hadoop.util.ExitUtil.terminate;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.ipc.Server;
+import org.apache.hadoop.util.Daemon;
+
+import com.google.common.annotations.VisibleForTesting;
+
+/**
+ * Group commits edit log syncs on behalf of RPC handlers.
+ * <p>
+ * When asynchronous edit logging is enabled, an RPC handler that calls
+ * {@link FSEditLog#logSync()} does not wait for its edits to become durable.
+ * Instead the response of its call is postponed and the call is queued here
+ * together with the transaction id that must be synced.  A single daemon
+ * thread drains the queue, syncs the edit log once up to the highest queued
+ * transaction id, and then releases the responses of every call in the
+ * batch.  The handler thread is free to serve other calls as soon as it has
+ * written its edits to the in-memory buffer.
+ * <p>
+ * Calls that are not made through RPC, and calls made after the syncer has
+ * been stopped, keep syncing synchronously.
+ */
+@InterfaceAudience.Private
+class AsyncEditLogSyncer implements Runnable {
+  static final Log LOG = LogFactory.getLog(AsyncEditLogSyncer.class);
+
+  /** A call waiting for its edits to be synced. */
+  private static class PendingSync {
+    private final long txid;
+    private final Server.Call call;
+
+    PendingSync(long txid, Server.Call call) {
+      this.txid = txid;
+      this.call = call;
+    }
+  }
+
+  private final FSEditLog editLog;
+  /** Calls waiting for the next sync, guarded by this. */
+  private List<PendingSync> pending = new ArrayList<PendingSync>();
+  private boolean running = false;
+  private Daemon syncThread;
+
+  /** Number of calls whose response was deferred. */
+  private long numDeferred = 0;
+  /** Number of group syncs performed. */
+  private long numSyncs = 0;
+
+  AsyncEditLogSyncer(FSEditLog editLog) {
+    this.editLog = editLog;
+  }
+
+  synchronized void start() {
+    if (running) {
+      return;
+    }
+    running = true;
+    syncThread = new Daemon(this);
+    syncThread.setName("Edit log async syncer");
+    syncThread.start();
+  }
+
+  /**
+   * Stop the sync thread after syncing every queued call.  Must not be
+   * called while holding the {@link FSEditLog} monitor.
+   */
+  void stop() {
+    Daemon t;
+    synchronized (this) {
+      if (!running) {
+        return;
+      }
+      running = false;
+      notifyAll();
+      t = syncThread;
+      syncThread = null;
+    }
+    try {
+      t.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      LOG.warn("Interrupted while stopping the edit log async syncer");
+    }
+  }
+
+  /**
+   * Defer the sync of the current RPC call up to the given transaction id.
+   *
+   * @return true if the response of the current call was postponed and the
+   *         sync will happen asynchronously; false if the caller must sync
+   *         itself.
+   */
+  boolean deferSync(long txid) {
+    Server.Call call = Server.getCurCall().get();
+    if (call == null) {
+      return false;
+    }
+    synchronized (this) {
+      if (!running) {
+        return false;
+      }
+      call.postponeResponse();
+      pending.add(new PendingSync(txid, call));
+      numDeferred++;
+      notifyAll();
+    }
+    return true;
+  }
+
+  @Override
+  public void run() {
+    while (true) {
+      List<PendingSync> batch;
+      synchronized (this) {
+        while (running && pending.isEmpty()) {
+          try {
+            wait();
+          } catch (InterruptedException ignored) {
+          }
+        }
+        if (pending.isEmpty()) {
+          return;
+        }
+        batch = pending;
+        pending = new ArrayList<PendingSync>();
+      }
+      try {
+        syncAndRespond(batch);
+      } catch (Throwable t) {
+        // the queued calls could never be answered, so do what a failed
+        // synchronous sync does
+        LOG.fatal("Edit log async syncer failed", t);
+        terminate(1, t);
+      }
+    }
+  }
+
+  private void syncAndRespond(List<PendingSync> batch) {
+    long maxTxid = 0;
+    for (PendingSync p : batch) {
+      maxTxid = Math.max(maxTxid, p.txid);
+    }
+    // a failure to sync terminates the NameNode, so once this returns every
+    // edit in the batch is durable
+    editLog.logSync(maxTxid);
+    synchronized (this) {
+      numSyncs++;
+    }
+    for (PendingSync p : batch) {
+      try {
+        p.call.sendResponse();
+      } catch (IOException e) {
+        LOG.warn("Failed to send the deferred response of " + p.call, e);
+      }
+    }
+  }
+
+  @VisibleForTesting
+  synchronized long getNumDeferred() {
+    return numDeferred;
+  }
+
+  @VisibleForTesting
+  synchronized long getNumSyncs() {
+    return numSyncs;
+  }
+}
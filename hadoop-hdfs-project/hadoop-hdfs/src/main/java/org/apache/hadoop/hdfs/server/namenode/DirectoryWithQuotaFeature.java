@@ -28,6 +28,9 @@
 
 /**
  * Quota feature for {@link INodeDirectory}. 
+ * <p>
+ * The usage updates are synchronized, as the usage of the root directory is
+ * updated by operations on different namespace partitions concurrently.
  */
 public final class DirectoryWithQuotaFeature implements INode.Feature {
   public static final long DEFAULT_NAMESPACE_QUOTA = Long.MAX_VALUE;
@@ -119,7 +122,7 @@ void setQuota(EnumCounters<StorageType> tsQuotas) {
    * @param counts counts to be added with current quota usage
    * @return counts that have been added with the current qutoa usage
    */
-  QuotaCounts AddCurrentSpaceUsage(QuotaCounts counts) {
+  synchronized QuotaCounts AddCurrentSpaceUsage(QuotaCounts counts) {
     counts.add(this.usage);
     return counts;
   }
@@ -167,7 +170,7 @@ void addSpaceConsumed(final INodeDirectory dir, final QuotaCounts counts,
    * 
    * @param delta the change of the namespace/space/type usage
    */
-  public void addSpaceConsumed2Cache(QuotaCounts delta) {
+  public synchronized void addSpaceConsumed2Cache(QuotaCounts delta) {
     usage.add(delta);
   }
 
@@ -180,21 +183,21 @@ public void addSpaceConsumed2Cache(QuotaCounts delta) {
    * @param storagespace storage space take by all the nodes under this directory
    * @param typespaces counters of storage type usage
    */
-  void setSpaceConsumed(long namespace, long storagespace,
+  synchronized void setSpaceConsumed(long namespace, long storagespace,
       EnumCounters<StorageType> typespaces) {
     usage.setNameSpace(namespace);
     usage.setStorageSpace(storagespace);
     usage.setTypeSpaces(typespaces);
   }
 
-  void setSpaceConsumed(QuotaCounts c) {
+  synchronized void setSpaceConsumed(QuotaCounts c) {
     usage.setNameSpace(c.getNameSpace());
     usage.setStorageSpace(c.getStorageSpace());
     usage.setTypeSpaces(c.getTypeSpaces());
   }
 
   /** @return the namespace and storagespace and typespace consumed. */
-  public QuotaCounts getSpaceConsumed() {
+  public synchronized QuotaCounts getSpaceConsumed() {
     return new QuotaCounts.Builder().quotaCount(usage).build();
   }
 
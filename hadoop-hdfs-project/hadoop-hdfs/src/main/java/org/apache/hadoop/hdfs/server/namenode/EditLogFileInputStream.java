@@ -48,6 +48,7 @@
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Throwables;
+import com.google.protobuf.ByteString;
 
 /**
  * An implementation of the abstract class {@link EditLogInputStream}, which
@@ -120,6 +121,23 @@ public static EditLogInputStream fromUrl(
     return new EditLogFileInputStream(new URLLog(connectionFactory, url),
         startTxId, endTxId, inProgress);
   }
+
+  /**
+   * Open an EditLogInputStream over edits already held in memory, such as
+   * those fetched from the edits cache of a JournalNode.
+   *
+   * @param data the edits, starting with the edit log header
+   * @param name a name for the edits, used in log and error messages
+   * @param startTxId the expected starting txid
+   * @param endTxId the expected ending txid
+   * @param inProgress whether the edits are part of an in-progress segment
+   * @return a stream from which edits may be read
+   */
+  public static EditLogInputStream fromByteString(ByteString data,
+      String name, long startTxId, long endTxId, boolean inProgress) {
+    return new EditLogFileInputStream(new ByteStringLog(data, name),
+        startTxId, endTxId, inProgress);
+  }
   
   private EditLogFileInputStream(LogSource log,
       long firstTxId, long lastTxId,
@@ -435,6 +453,31 @@ public String getName() {
     }
   }
 
+  private static class ByteStringLog implements LogSource {
+    private final ByteString data;
+    private final String name;
+
+    public ByteStringLog(ByteString data, String name) {
+      this.data = data;
+      this.name = name;
+    }
+
+    @Override
+    public InputStream getInputStream() {
+      return data.newInput();
+    }
+
+    @Override
+    public long length() {
+      return data.size();
+    }
+
+    @Override
+    public String getName() {
+      return name;
+    }
+  }
+
   private static class URLLog implements LogSource {
     private final URL url;
     private long advertisedSize = -1;
@@ -144,6 +144,11 @@ void unprotectedAddEncryptionZone(Long inodeId,
     encryptionZones.put(inodeId, ez);
   }
 
+  /** @return the number of encryption zones. */
+  int getNumEncryptionZones() {
+    return encryptionZones.size();
+  }
+
   /**
    * Remove an encryption zone.
    * <p/>
@@ -137,7 +137,7 @@ private static INodeDirectory createRoot(FSNamesystem namesystem) {
   private final int lsLimit;  // max list limit
   private final int contentCountLimit; // max content summary counts per run
   private final long contentSleepMicroSec;
-  private final INodeMap inodeMap; // Synchronized by dirLock
+  private final INodeMap inodeMap; // Synchronized by dirLock and itself
   private long yieldCount = 0; // keep track of lock yield count.
 
   private final int inodeXAttrsLimit; //inode xattrs max limit
@@ -183,16 +183,32 @@ void readUnlock() {
     this.dirLock.readLock().unlock();
   }
 
+  /**
+   * Acquire the write lock.  Within the namespace partitions held by the
+   * current thread, the partition locks already exclude the other writers,
+   * and the read lock is taken instead so that operations on other
+   * partitions can run concurrently.
+   */
   void writeLock() {
-    this.dirLock.writeLock().lock();
+    if (namesystem.hasPartitionWriteLock()) {
+      this.dirLock.readLock().lock();
+    } else {
+      this.dirLock.writeLock().lock();
+    }
   }
 
   void writeUnlock() {
-    this.dirLock.writeLock().unlock();
+    if (namesystem.hasPartitionWriteLock()) {
+      this.dirLock.readLock().unlock();
+    } else {
+      this.dirLock.writeLock().unlock();
+    }
   }
 
   boolean hasWriteLock() {
-    return this.dirLock.isWriteLockedByCurrentThread();
+    return this.dirLock.isWriteLockedByCurrentThread()
+        || (this.dirLock.getReadHoldCount() > 0
+            && namesystem.hasPartitionWriteLock());
   }
 
   boolean hasReadLock() {
@@ -301,6 +317,10 @@ public int getWriteHoldCount() {
     namesystem = ns;
     this.editLog = ns.getEditLog();
     ezManager = new EncryptionZoneManager(this, conf);
+    if (conf.getBoolean(DFSConfigKeys.DFS_NAMENODE_INODE_PAGER_ENABLED_KEY,
+        DFSConfigKeys.DFS_NAMENODE_INODE_PAGER_ENABLED_DEFAULT)) {
+      inodeMap.setPager(new INodePager(this, conf));
+    }
   }
     
   FSNamesystem getFSNamesystem() {
@@ -365,7 +385,16 @@ FSEditLog getEditLog() {
    * Shutdown the filestore
    */
   @Override
-  public void close() throws IOException {}
+  public void close() throws IOException {
+    if (inodeMap.getPager() != null) {
+      inodeMap.getPager().close();
+    }
+  }
+
+  /** @return the pager of the namespace, or null if it is not paged */
+  INodePager getINodePager() {
+    return inodeMap.getPager();
+  }
 
   void markNameCacheInitialized() {
     writeLock();
@@ -1577,7 +1606,7 @@ INode getINode4DotSnapshot(String src) throws UnresolvedLinkException {
 
   INodesInPath getExistingPathINodes(byte[][] components)
       throws UnresolvedLinkException {
-    return INodesInPath.resolve(rootDir, components, false);
+    return touch(INodesInPath.resolve(rootDir, components, false));
   }
 
   /**
@@ -1601,7 +1630,7 @@ public INode getINode4Write(String src) throws UnresolvedLinkException,
   public INodesInPath getINodesInPath(String path, boolean resolveLink)
       throws UnresolvedLinkException {
     final byte[][] components = INode.getPathComponents(path);
-    return INodesInPath.resolve(rootDir, components, resolveLink);
+    return touch(INodesInPath.resolve(rootDir, components, resolveLink));
   }
 
   /** @return the last inode in the path. */
@@ -1625,8 +1654,8 @@ public INode getINode(String src) throws UnresolvedLinkException {
   INodesInPath getINodesInPath4Write(String src, boolean resolveLink)
           throws UnresolvedLinkException, SnapshotAccessControlException {
     final byte[][] components = INode.getPathComponents(src);
-    INodesInPath inodesInPath = INodesInPath.resolve(rootDir, components,
-        resolveLink);
+    INodesInPath inodesInPath = touch(INodesInPath.resolve(rootDir,
+        components, resolveLink));
     if (inodesInPath.isSnapshot()) {
       throw new SnapshotAccessControlException(
               "Modification on a read-only snapshot is disallowed");
@@ -1634,6 +1663,15 @@ INodesInPath getINodesInPath4Write(String src, boolean resolveLink)
     return inodesInPath;
   }
 
+  /** Record the access to the path for the pager, if any. */
+  private INodesInPath touch(INodesInPath iip) {
+    final INodePager pager = inodeMap.getPager();
+    if (pager != null) {
+      pager.touch(iip);
+    }
+    return iip;
+  }
+
   FSPermissionChecker getPermissionChecker()
     throws AccessControlException {
     try {
@@ -181,6 +181,12 @@ private enum State {
   
   private final List<URI> editsDirs;
 
+  /**
+   * Syncs edits on behalf of RPC handlers when asynchronous edit logging is
+   * enabled, null otherwise.
+   */
+  private final AsyncEditLogSyncer asyncSyncer;
+
   private final ThreadLocal<OpInstanceCache> cache =
       new ThreadLocal<OpInstanceCache>() {
     @Override
@@ -237,6 +243,15 @@ protected synchronized TransactionId initialValue() {
     this.editsDirs = Lists.newArrayList(editsDirs);
 
     this.sharedEditsDirs = FSNamesystem.getSharedEditsDirs(conf);
+
+    if (conf.getBoolean(DFSConfigKeys.DFS_NAMENODE_EDITS_ASYNC_LOGGING,
+        DFSConfigKeys.DFS_NAMENODE_EDITS_ASYNC_LOGGING_DEFAULT)) {
+      LOG.info("Edit logging is async: RPC responses are sent after a"
+          + " group sync by a dedicated thread");
+      this.asyncSyncer = new AsyncEditLogSyncer(this);
+    } else {
+      this.asyncSyncer = null;
+    }
   }
   
   public synchronized void initJournalsForWrite() {
@@ -320,6 +335,9 @@ synchronized void openForWrite() throws IOException {
     
     startLogSegmentAndWriteHeaderTxn(segmentTxId);
     assert state == State.IN_SEGMENT : "Bad state: " + state;
+    if (asyncSyncer != null) {
+      asyncSyncer.start();
+    }
   }
   
   /**
@@ -349,29 +367,36 @@ public synchronized boolean isOpenForRead() {
   /**
    * Shutdown the file store.
    */
-  synchronized void close() {
-    if (state == State.CLOSED) {
-      LOG.debug("Closing log when already closed");
-      return;
+  void close() {
+    // The async syncer needs this object's monitor to drain its queue, so it
+    // has to be stopped before taking it.
+    if (asyncSyncer != null) {
+      asyncSyncer.stop();
     }
-
-    try {
-      if (state == State.IN_SEGMENT) {
-        assert editLogStream != null;
-        waitForSyncToFinish();
-        endCurrentLogSegment(true);
+    synchronized (this) {
+      if (state == State.CLOSED) {
+        LOG.debug("Closing log when already closed");
+        return;
       }
-    } finally {
-      if (journalSet != null && !journalSet.isEmpty()) {
-        try {
-          synchronized(journalSetLock) {
-            journalSet.close();
+
+      try {
+        if (state == State.IN_SEGMENT) {
+          assert editLogStream != null;
+          waitForSyncToFinish();
+          endCurrentLogSegment(true);
+        }
+      } finally {
+        if (journalSet != null && !journalSet.isEmpty()) {
+          try {
+            synchronized(journalSetLock) {
+              journalSet.close();
+            }
+          } catch (IOException ioe) {
+            LOG.warn("Error closing journalSet", ioe);
           }
-        } catch (IOException ioe) {
-          LOG.warn("Error closing journalSet", ioe);
         }
+        state = State.CLOSED;
       }
-      state = State.CLOSED;
     }
   }
 
@@ -441,7 +466,7 @@ assert isOpenForWrite() :
     }
     
     // sync buffered edit log entries to persistent store
-    logSync();
+    logSyncImmediately();
   }
 
   /**
@@ -544,7 +569,7 @@ void logSyncAll() {
       id.txid = txid;
     }
     // Then make sure we're synced up to this point
-    logSync();
+    logSyncImmediately();
   }
   
   /**
@@ -574,13 +599,35 @@ void logSyncAll() {
    * Because this step is unsynchronized, actions that need to avoid
    * concurrency with sync() should be synchronized and also call
    * waitForSyncToFinish() before assuming they are running alone.
+   *
+   * If asynchronous edit logging is enabled and this is called by an RPC
+   * handler, the sync is handed to the {@link AsyncEditLogSyncer} and this
+   * returns at once; the response of the RPC call is only sent once its
+   * edits are durable.
    */
   public void logSync() {
-    long syncStart = 0;
-
     // Fetch the transactionId of this thread. 
     long mytxid = myTransactionId.get().txid;
-    
+    if (asyncSyncer != null && asyncSyncer.deferSync(mytxid)) {
+      return;
+    }
+    logSync(mytxid);
+  }
+
+  /**
+   * Sync all modifications done by this thread, even if asynchronous edit
+   * logging is enabled.
+   */
+  private void logSyncImmediately() {
+    logSync(myTransactionId.get().txid);
+  }
+
+  /**
+   * Sync all modifications up to the given transaction id.
+   */
+  void logSync(long mytxid) {
+    long syncStart = 0;
+
     boolean sync = false;
     try {
       EditLogOutputStream logStream = null;
@@ -1276,7 +1323,7 @@ synchronized void startLogSegmentAndWriteHeaderTxn(final long segmentTxId
 
     logEdit(LogSegmentOp.getInstance(cache.get(),
         FSEditLogOpCodes.OP_START_LOG_SEGMENT));
-    logSync();
+    logSyncImmediately();
   }
 
   /**
@@ -1291,7 +1338,7 @@ public synchronized void endCurrentLogSegment(boolean writeEndTxn) {
     if (writeEndTxn) {
       logEdit(LogSegmentOp.getInstance(cache.get(), 
           FSEditLogOpCodes.OP_END_LOG_SEGMENT));
-      logSync();
+      logSyncImmediately();
     }
 
     printStatistics(true);
@@ -1376,6 +1423,11 @@ public synchronized long getSyncTxId() {
     return synctxid;
   }
 
+  @VisibleForTesting
+  AsyncEditLogSyncer getAsyncSyncer() {
+    return asyncSyncer;
+  }
+
 
   // sets the initial capacity of the flush buffer.
   synchronized void setOutputBufferCapacity(int size) {
@@ -1449,7 +1501,7 @@ public synchronized void journal(long firstTxId, int numTxns, byte[] data) {
         firstTxId, expectedTxId);
     setNextTxId(firstTxId + numTxns - 1);
     logEdit(data.length, data);
-    logSync();
+    logSyncImmediately();
   }
 
   /**
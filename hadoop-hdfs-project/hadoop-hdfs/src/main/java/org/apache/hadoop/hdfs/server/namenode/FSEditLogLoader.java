@@ -983,7 +983,9 @@ private void updateBlocks(FSDirectory fsDir, BlockListUpdatingOp op,
     Block[] newBlocks = op.getBlocks();
     String path = op.getPath();
     
-    // Are we only updating the last block's gen stamp.
+    // Are we only updating the last block's gen stamp.  The penultimate
+    // block may get one as well, when its pipeline is recovered after it is
+    // committed, while the last block is written on another pipeline.
     boolean isGenStampUpdate = oldBlocks.length == newBlocks.length;
     
     // First, update blocks in common
@@ -992,9 +994,10 @@ private void updateBlocks(FSDirectory fsDir, BlockListUpdatingOp op,
       Block newBlock = newBlocks[i];
       
       boolean isLastBlock = i == newBlocks.length - 1;
+      boolean isPenultimateBlock = i == newBlocks.length - 2;
       if (oldBlock.getBlockId() != newBlock.getBlockId() ||
           (oldBlock.getGenerationStamp() != newBlock.getGenerationStamp() && 
-              !(isGenStampUpdate && isLastBlock))) {
+              !(isGenStampUpdate && (isLastBlock || isPenultimateBlock)))) {
         throw new IOException("Mismatched block IDs or generation stamps, " +
             "attempting to replace block " + oldBlock + " with " + newBlock +
             " as block # " + i + "/" + newBlocks.length + " of " +
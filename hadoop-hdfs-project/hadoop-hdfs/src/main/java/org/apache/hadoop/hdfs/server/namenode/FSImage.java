@@ -70,6 +70,7 @@
 import org.apache.hadoop.hdfs.util.Canceler;
 import org.apache.hadoop.hdfs.util.EnumCounters;
 import org.apache.hadoop.hdfs.util.MD5FileUtils;
+import org.apache.hadoop.hdfs.util.ReadOnlyList;
 import org.apache.hadoop.io.MD5Hash;
 import org.apache.hadoop.util.Time;
 
@@ -875,7 +876,11 @@ private static void updateCountForQuotaRecursively(BlockStoragePolicySuite bsps,
 
     dir.computeQuotaUsage4CurrentDirectory(bsps, blockStoragePolicyId, counts);
     
-    for (INode child : dir.getChildrenList(Snapshot.CURRENT_STATE_ID)) {
+    // the usage of paged out children is known without paging them in
+    final boolean pagedOut = dir.addPagedOutQuotaUsage(blockStoragePolicyId,
+        counts);
+    for (INode child : pagedOut ? ReadOnlyList.Util.<INode>emptyList()
+        : dir.getChildrenList(Snapshot.CURRENT_STATE_ID)) {
       final byte childPolicyId = child.getStoragePolicyIDForQuota(blockStoragePolicyId);
       if (child.isDirectory()) {
         updateCountForQuotaRecursively(bsps, childPolicyId,
@@ -981,7 +986,8 @@ void saveFSImage(SaveNamespaceContext context, StorageDirectory sd,
     File newFile = NNStorage.getStorageFile(sd, NameNodeFile.IMAGE_NEW, txid);
     File dstFile = NNStorage.getStorageFile(sd, dstType, txid);
     
-    FSImageFormatProtobuf.Saver saver = new FSImageFormatProtobuf.Saver(context);
+    FSImageFormatProtobuf.Saver saver = new FSImageFormatProtobuf.Saver(context,
+        conf);
     FSImageCompression compression = FSImageCompression.createCompression(conf);
     saver.save(newFile, compression);
     
@@ -18,13 +18,25 @@
 
 package org.apache.hadoop.hdfs.server.namenode;
 
+import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
 import java.util.Iterator;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -57,11 +69,19 @@
 import org.apache.hadoop.hdfs.server.namenode.FsImageProto.INodeSection.QuotaByStorageTypeEntryProto;
 import org.apache.hadoop.hdfs.server.namenode.FsImageProto.INodeSection.QuotaByStorageTypeFeatureProto;
 import org.apache.hadoop.hdfs.server.namenode.snapshot.Snapshot;
+import org.apache.hadoop.hdfs.server.namenode.startupprogress.Phase;
+import org.apache.hadoop.hdfs.server.namenode.startupprogress.StartupProgress;
+import org.apache.hadoop.hdfs.server.namenode.startupprogress.StartupProgress.Counter;
+import org.apache.hadoop.hdfs.server.namenode.startupprogress.Step;
+import org.apache.hadoop.hdfs.server.namenode.startupprogress.StepType;
 import org.apache.hadoop.hdfs.util.EnumCounters;
 import org.apache.hadoop.hdfs.util.ReadOnlyList;
 
 import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterators;
+import com.google.common.collect.Lists;
 import com.google.protobuf.ByteString;
 
 @InterfaceAudience.Private
@@ -98,7 +118,28 @@ public final class FSImageFormatPBINode {
 
   private static final Log LOG = LogFactory.getLog(FSImageFormatPBINode.class);
 
+  /**
+   * Wait for the result of a task run on behalf of an image loader or
+   * saver, rethrowing its failure as thrown by the task.
+   */
+  private static <T> T getResult(Future<T> future) throws IOException {
+    try {
+      return future.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException(
+          "Interrupted while waiting for an fsimage task");
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      Throwables.propagateIfPossible(cause, IOException.class);
+      throw new IOException(cause);
+    }
+  }
+
   public final static class Loader {
+    /** Number of inodes a loader thread adds to the namespace at a time */
+    private static final int LOAD_BATCH_SIZE = 1000;
+
     public static PermissionStatus loadPermission(long id,
         final String[] stringTable) {
       short perm = (short) (id & ((1 << GROUP_STRID_OFFSET) - 1));
@@ -231,6 +272,7 @@ public static void updateBlocksMap(INodeFile file, BlockManager bm) {
     void loadINodeDirectorySection(InputStream in) throws IOException {
       final List<INodeReference> refList = parent.getLoaderContext()
           .getRefList();
+      final INodePager pager = dir.getINodePager();
       while (true) {
         INodeDirectorySection.DirEntry e = INodeDirectorySection.DirEntry
             .parseDelimitedFrom(in);
@@ -238,33 +280,295 @@ void loadINodeDirectorySection(InputStream in) throws IOException {
         if (e == null) {
           break;
         }
+        if (pager != null) {
+          pager.stageDirEntry(e);
+        } else {
+          loadDirEntry(e, refList);
+        }
+      }
+      if (pager != null) {
+        loadStagedDirEntries(pager, refList);
+      }
+    }
+
+    private void loadDirEntry(INodeDirectorySection.DirEntry e,
+        List<INodeReference> refList) {
+      INodeDirectory p = dir.getInode(e.getParent()).asDirectory();
+      for (long id : e.getChildrenList()) {
+        INode child = dir.getInode(id);
+        addToParent(p, child);
+      }
+      for (int refId : e.getRefChildrenList()) {
+        INodeReference ref = refList.get(refId);
+        addToParent(p, ref);
+      }
+    }
+
+    /**
+     * Link the directory entries staged by the pager in the order of the
+     * tree rather than of the image: the directories above the page depth
+     * first, then the subtree of each directory at the page depth, which
+     * the pager may page out before the next one is loaded.  The entries of
+     * the directories only in snapshots are linked last.
+     */
+    private void loadStagedDirEntries(INodePager pager,
+        List<INodeReference> refList) throws IOException {
+      List<INodeDirectory> level = Collections.singletonList(dir.rootDir);
+      for (int depth = 0; depth < pager.getPageDepth(); depth++) {
+        final List<INodeDirectory> next = Lists.newArrayList();
+        for (INodeDirectory d : level) {
+          for (INode child : loadStagedDirEntry(pager, d, refList)) {
+            if (child.isReference()) {
+              loadStagedSubtree(pager, child, refList);
+            } else if (child.isDirectory()) {
+              next.add(child.asDirectory());
+            }
+          }
+        }
+        level = next;
+      }
+      for (INodeDirectory root : level) {
+        loadStagedSubtree(pager, root, refList);
+        pager.pageOutLoaded(root);
+      }
+      INodeDirectorySection.DirEntry e;
+      while ((e = pager.pollStagedDirEntry()) != null) {
+        loadDirEntry(e, refList);
+      }
+    }
+
+    /** Link the subtree below the given inode from the staged entries. */
+    private void loadStagedSubtree(INodePager pager, INode top,
+        List<INodeReference> refList) throws IOException {
+      final Deque<INode> stack = new ArrayDeque<INode>();
+      stack.push(top);
+      while (!stack.isEmpty()) {
+        final INode n = stack.pop();
+        if (n.isReference()) {
+          stack.push(n.asReference().getReferredINode());
+        } else if (n.isDirectory()) {
+          for (INode child : loadStagedDirEntry(pager, n.asDirectory(),
+              refList)) {
+            stack.push(child);
+          }
+        }
+      }
+    }
+
+    /**
+     * Link the children of the directory from its staged entry, if it has
+     * one left.
+     * @return the children of the directory
+     */
+    private ReadOnlyList<INode> loadStagedDirEntry(INodePager pager,
+        INodeDirectory d, List<INodeReference> refList) throws IOException {
+      final INodeDirectorySection.DirEntry e = pager.takeStagedDirEntry(
+          d.getId());
+      if (e != null) {
+        loadDirEntry(e, refList);
+      }
+      return d.getChildrenList(Snapshot.CURRENT_STATE_ID);
+    }
+
+    /**
+     * Load the INODE_DIR section from its sub-sections, one task per
+     * sub-section.  Every directory has a single DirEntry, so each task adds
+     * children to its own set of directories; only the name cache and the
+     * blocks map are shared and updated under the loader lock.
+     */
+    void loadINodeDirectorySectionInParallel(ExecutorService service,
+        final File file, List<FileSummary.Section> subSections)
+        throws IOException {
+      LOG.info("Loading the INode directory section in "
+          + subSections.size() + " sub-sections.");
+      List<Callable<Long>> tasks = Lists.newArrayListWithCapacity(
+          subSections.size());
+      for (final FileSummary.Section sub : subSections) {
+        tasks.add(new Callable<Long>() {
+          @Override
+          public Long call() throws IOException {
+            InputStream in = FSImageFormatProtobuf.Loader.openSubSection(
+                file, sub);
+            try {
+              return loadINodeDirectorySubSection(in);
+            } finally {
+              in.close();
+            }
+          }
+        });
+      }
+      long numEntries = runInParallel(service, tasks);
+      LOG.info("Loaded " + numEntries + " INode directory entries.");
+    }
+
+    private long loadINodeDirectorySubSection(InputStream in)
+        throws IOException {
+      final List<INodeReference> refList = parent.getLoaderContext()
+          .getRefList();
+      List<INode> added = Lists.newArrayListWithCapacity(LOAD_BATCH_SIZE);
+      long numEntries = 0;
+      while (true) {
+        INodeDirectorySection.DirEntry e = INodeDirectorySection.DirEntry
+            .parseDelimitedFrom(in);
+        if (e == null) {
+          break;
+        }
+        ++numEntries;
         INodeDirectory p = dir.getInode(e.getParent()).asDirectory();
         for (long id : e.getChildrenList()) {
           INode child = dir.getInode(id);
-          addToParent(p, child);
+          if (addChild(p, child)) {
+            added.add(child);
+          }
         }
         for (int refId : e.getRefChildrenList()) {
           INodeReference ref = refList.get(refId);
-          addToParent(p, ref);
+          if (addChild(p, ref)) {
+            added.add(ref);
+          }
+        }
+        if (added.size() >= LOAD_BATCH_SIZE) {
+          updateNameCacheAndBlocksMap(added);
+          added.clear();
         }
       }
+      updateNameCacheAndBlocksMap(added);
+      return numEntries;
     }
 
-    void loadINodeSection(InputStream in) throws IOException {
+    private synchronized void updateNameCacheAndBlocksMap(
+        List<INode> children) {
+      for (INode child : children) {
+        updateNameCacheAndBlocksMap(child);
+      }
+    }
+
+    void loadINodeSection(InputStream in, Step step) throws IOException {
       INodeSection s = INodeSection.parseDelimitedFrom(in);
       fsn.dir.resetLastInodeId(s.getLastInodeId());
       LOG.info("Loading " + s.getNumInodes() + " INodes.");
+      StartupProgress prog = NameNode.getStartupProgress();
+      prog.setTotal(Phase.LOADING_FSIMAGE, step, s.getNumInodes());
+      Counter counter = prog.getCounter(Phase.LOADING_FSIMAGE, step);
+      final INodePager pager = dir.getINodePager();
       for (int i = 0; i < s.getNumInodes(); ++i) {
         INodeSection.INode p = INodeSection.INode.parseDelimitedFrom(in);
         if (p.getId() == INodeId.ROOT_INODE_ID) {
           loadRootINode(p);
+        } else if (pager != null) {
+          // loaded as the directory section links the tree
+          pager.stageINode(p);
         } else {
           INode n = loadINode(p);
           dir.addToInodeMap(n);
         }
+        counter.increment();
       }
     }
 
+    /**
+     * Load the INODE section from its sub-sections, one task per
+     * sub-section.  The inodes are parsed in parallel and added to the inode
+     * map in batches under the loader lock.  The given step carries the
+     * total number of inodes, while each sub-section is tracked by a step of
+     * its own, so that startup progress shows how far each task got.
+     *
+     * @param in the stream of the whole section, of which only the header
+     *        is read
+     */
+    void loadINodeSectionInParallel(ExecutorService service, InputStream in,
+        final File file, List<FileSummary.Section> subSections, Step step)
+        throws IOException {
+      INodeSection s = INodeSection.parseDelimitedFrom(in);
+      fsn.dir.resetLastInodeId(s.getLastInodeId());
+      LOG.info("Loading " + s.getNumInodes() + " INodes in "
+          + subSections.size() + " sub-sections.");
+      final StartupProgress prog = NameNode.getStartupProgress();
+      prog.setTotal(Phase.LOADING_FSIMAGE, step, s.getNumInodes());
+
+      List<Callable<Long>> tasks = Lists.newArrayListWithCapacity(
+          subSections.size());
+      for (int i = 0; i < subSections.size(); i++) {
+        final FileSummary.Section sub = subSections.get(i);
+        final Step subStep = new Step(StepType.INODES, sub.getName() + " "
+            + (i + 1) + "/" + subSections.size(), sub.getLength());
+        tasks.add(new Callable<Long>() {
+          @Override
+          public Long call() throws IOException {
+            prog.beginStep(Phase.LOADING_FSIMAGE, subStep);
+            InputStream in = FSImageFormatProtobuf.Loader.openSubSection(
+                file, sub);
+            try {
+              return loadINodeSubSection(in,
+                  prog.getCounter(Phase.LOADING_FSIMAGE, subStep));
+            } finally {
+              in.close();
+              prog.endStep(Phase.LOADING_FSIMAGE, subStep);
+            }
+          }
+        });
+      }
+      long numLoaded = runInParallel(service, tasks);
+      if (numLoaded != s.getNumInodes()) {
+        throw new IOException("Expected to load " + s.getNumInodes()
+            + " INodes from the sub-sections but loaded " + numLoaded);
+      }
+    }
+
+    private long loadINodeSubSection(InputStream in, Counter counter)
+        throws IOException {
+      List<INode> batch = Lists.newArrayListWithCapacity(LOAD_BATCH_SIZE);
+      long numLoaded = 0;
+      while (true) {
+        INodeSection.INode p = INodeSection.INode.parseDelimitedFrom(in);
+        if (p == null) {
+          break;
+        }
+        if (p.getId() == INodeId.ROOT_INODE_ID) {
+          synchronized (this) {
+            loadRootINode(p);
+          }
+        } else {
+          batch.add(loadINode(p));
+          if (batch.size() >= LOAD_BATCH_SIZE) {
+            addToInodeMap(batch);
+            batch.clear();
+          }
+        }
+        ++numLoaded;
+        counter.increment();
+      }
+      addToInodeMap(batch);
+      return numLoaded;
+    }
+
+    private synchronized void addToInodeMap(List<INode> inodes) {
+      for (INode n : inodes) {
+        dir.addToInodeMap(n);
+      }
+    }
+
+    /**
+     * Run the given tasks and wait for all of them.
+     * @return the sum of the results of the tasks
+     */
+    private static long runInParallel(ExecutorService service,
+        List<Callable<Long>> tasks) throws IOException {
+      List<Future<Long>> futures;
+      try {
+        futures = service.invokeAll(tasks);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException(
+            "Interrupted while loading the fsimage");
+      }
+      long total = 0;
+      for (Future<Long> f : futures) {
+        total += getResult(f);
+      }
+      return total;
+    }
+
     /**
      * Load the under-construction files section, and update the lease map
      */
@@ -284,6 +588,13 @@ void loadFilesUnderConstructionSection(InputStream in) throws IOException {
     }
 
     private void addToParent(INodeDirectory parent, INode child) {
+      if (addChild(parent, child)) {
+        updateNameCacheAndBlocksMap(child);
+      }
+    }
+
+    /** Add the child to its parent only, without touching shared state. */
+    private boolean addChild(INodeDirectory parent, INode child) {
       if (parent == dir.rootDir && FSDirectory.isReservedName(child)) {
         throw new HadoopIllegalArgumentException("File name \""
             + child.getLocalName() + "\" is reserved. Please "
@@ -291,9 +602,10 @@ private void addToParent(INodeDirectory parent, INode child) {
             + "name before upgrading to this release.");
       }
       // NOTE: This does not update space counts for parents
-      if (!parent.addChild(child)) {
-        return;
-      }
+      return parent.addChild(child);
+    }
+
+    private void updateNameCacheAndBlocksMap(INode child) {
       dir.cacheName(child);
 
       if (child.isFile()) {
@@ -302,32 +614,36 @@ private void addToParent(INodeDirectory parent, INode child) {
     }
 
     private INode loadINode(INodeSection.INode n) {
+      return loadINode(n, parent.getLoaderContext());
+    }
+
+    static INode loadINode(INodeSection.INode n, LoaderContext state) {
       switch (n.getType()) {
       case FILE:
-        return loadINodeFile(n);
+        return loadINodeFile(n, state);
       case DIRECTORY:
-        return loadINodeDirectory(n, parent.getLoaderContext());
+        return loadINodeDirectory(n, state);
       case SYMLINK:
-        return loadINodeSymlink(n);
+        return loadINodeSymlink(n, state);
       default:
         break;
       }
       return null;
     }
 
-    private INodeFile loadINodeFile(INodeSection.INode n) {
+    private static INodeFile loadINodeFile(INodeSection.INode n,
+        LoaderContext state) {
       assert n.getType() == INodeSection.INode.Type.FILE;
       INodeSection.INodeFile f = n.getFile();
       List<BlockProto> bp = f.getBlocksList();
       short replication = (short) f.getReplication();
-      LoaderContext state = parent.getLoaderContext();
 
       BlockInfoContiguous[] blocks = new BlockInfoContiguous[bp.size()];
       for (int i = 0, e = bp.size(); i < e; ++i) {
         blocks[i] = new BlockInfoContiguous(PBHelper.convert(bp.get(i)), replication);
       }
       final PermissionStatus permissions = loadPermission(f.getPermission(),
-          parent.getLoaderContext().getStringTable());
+          state.getStringTable());
 
       final INodeFile file = new INodeFile(n.getId(),
           n.getName().toByteArray(), permissions, f.getModificationTime(),
@@ -360,11 +676,12 @@ private INodeFile loadINodeFile(INodeSection.INode n) {
     }
 
 
-    private INodeSymlink loadINodeSymlink(INodeSection.INode n) {
+    private static INodeSymlink loadINodeSymlink(INodeSection.INode n,
+        LoaderContext state) {
       assert n.getType() == INodeSection.INode.Type.SYMLINK;
       INodeSection.INodeSymlink s = n.getSymlink();
       final PermissionStatus permissions = loadPermission(s.getPermission(),
-          parent.getLoaderContext().getStringTable());
+          state.getStringTable());
 
       INodeSymlink sym = new INodeSymlink(n.getId(), n.getName().toByteArray(),
           permissions, s.getModificationTime(), s.getAccessTime(),
@@ -508,25 +825,74 @@ public static INodeSection.INodeDirectory.Builder buildINodeDirectory(
     private final FileSummary.Builder summary;
     private final SaveNamespaceContext context;
     private final FSImageFormatProtobuf.Saver parent;
+    /** The inodes held by the pager of the namespace, if any */
+    private final INodePager.SaveView pagerView;
 
     Saver(FSImageFormatProtobuf.Saver parent, FileSummary.Builder summary) {
       this.parent = parent;
       this.summary = summary;
       this.context = parent.getContext();
       this.fsn = context.getSourceNamesystem();
+      final INodePager pager = fsn.getFSDirectory().getINodePager();
+      this.pagerView = pager == null ? null : pager.createSaveView();
+    }
+
+    /** Release the view of the pager. */
+    void close() throws IOException {
+      if (pagerView != null) {
+        pagerView.close();
+      }
+    }
+
+    /**
+     * @return the resident inodes, i.e. the inodes of the map and, with a
+     *         pager, the inodes it paged in as of its view
+     */
+    private Iterator<INodeWithAdditionalFields> getResidentINodes() {
+      final INodeMap inodesMap = fsn.getFSDirectory().getINodeMap();
+      return pagerView == null ? inodesMap.getMapIterator()
+          : Iterators.concat(inodesMap.getOwnMapIterator(),
+              pagerView.getPagedInINodes().iterator());
+    }
+
+    /** @return the number of inodes to save */
+    private long getNumINodes() {
+      final INodeMap inodesMap = fsn.getFSDirectory().getINodeMap();
+      return pagerView == null ? inodesMap.size()
+          : inodesMap.getOwnMapSize() + pagerView.getNumINodes();
     }
 
     void serializeINodeDirectorySection(OutputStream out) throws IOException {
-      Iterator<INodeWithAdditionalFields> iter = fsn.getFSDirectory()
-          .getINodeMap().getMapIterator();
+      Iterator<INodeWithAdditionalFields> iter = getResidentINodes();
       final ArrayList<INodeReference> refList = parent.getSaverContext()
           .getRefList();
+      // sub-sections end after about the same number of children, as their
+      // load time is driven by the children rather than the directories
+      final int subSectionSize = parent.getSubSectionSize(getNumINodes());
+      if (subSectionSize > 0) {
+        parent.beginSubSections();
+      }
+      long childrenInSubSection = 0;
       int i = 0;
       while (iter.hasNext()) {
         INodeWithAdditionalFields n = iter.next();
         if (!n.isDirectory()) {
           continue;
         }
+        if (pagerView != null && pagerView.isPagedOut(n.asDirectory())) {
+          // the entries of the page, which is not paged in to be saved
+          for (INodeDirectorySection.DirEntry e :
+              pagerView.getDirEntries(n.asDirectory())) {
+            e.writeDelimitedTo(out);
+            childrenInSubSection += e.getChildrenCount();
+          }
+          if (subSectionSize > 0 && childrenInSubSection >= subSectionSize) {
+            parent.commitSubSection(summary,
+                FSImageFormatProtobuf.SectionName.INODE_DIR_SUB);
+            childrenInSubSection = 0;
+          }
+          continue;
+        }
 
         ReadOnlyList<INode> children = n.asDirectory().getChildrenList(
             Snapshot.CURRENT_STATE_ID);
@@ -543,6 +909,13 @@ void serializeINodeDirectorySection(OutputStream out) throws IOException {
           }
           INodeDirectorySection.DirEntry e = b.build();
           e.writeDelimitedTo(out);
+
+          childrenInSubSection += children.size();
+          if (subSectionSize > 0 && childrenInSubSection >= subSectionSize) {
+            parent.commitSubSection(summary,
+                FSImageFormatProtobuf.SectionName.INODE_DIR_SUB);
+            childrenInSubSection = 0;
+          }
         }
 
         ++i;
@@ -550,31 +923,96 @@ void serializeINodeDirectorySection(OutputStream out) throws IOException {
           context.checkCancelled();
         }
       }
+      if (subSectionSize > 0) {
+        parent.commitSubSection(summary,
+            FSImageFormatProtobuf.SectionName.INODE_DIR_SUB);
+      }
       parent.commitSection(summary,
           FSImageFormatProtobuf.SectionName.INODE_DIR);
     }
 
     void serializeINodeSection(OutputStream out) throws IOException {
-      INodeMap inodesMap = fsn.dir.getINodeMap();
-
+      final long numINodes = getNumINodes();
       INodeSection.Builder b = INodeSection.newBuilder()
-          .setLastInodeId(fsn.dir.getLastInodeId()).setNumInodes(inodesMap.size());
+          .setLastInodeId(fsn.dir.getLastInodeId()).setNumInodes(numINodes);
       INodeSection s = b.build();
       s.writeDelimitedTo(out);
 
-      int i = 0;
-      Iterator<INodeWithAdditionalFields> iter = inodesMap.getMapIterator();
-      while (iter.hasNext()) {
-        INodeWithAdditionalFields n = iter.next();
-        save(out, n);
-        ++i;
-        if (i % FSImageFormatProtobuf.Saver.CHECK_CANCEL_INTERVAL == 0) {
-          context.checkCancelled();
+      Iterator<INodeWithAdditionalFields> iter = pagerView == null ?
+          getResidentINodes() : Iterators.concat(getResidentINodes(),
+              pagerView.getPagedOutINodes());
+      int subSectionSize = parent.getSubSectionSize(numINodes);
+      if (subSectionSize > 0) {
+        serializeINodeSubSections(out, iter, subSectionSize);
+      } else {
+        int i = 0;
+        while (iter.hasNext()) {
+          INodeWithAdditionalFields n = iter.next();
+          save(out, n);
+          ++i;
+          if (i % FSImageFormatProtobuf.Saver.CHECK_CANCEL_INTERVAL == 0) {
+            context.checkCancelled();
+          }
         }
       }
       parent.commitSection(summary, FSImageFormatProtobuf.SectionName.INODE);
     }
 
+    /**
+     * Write the inodes as sub-sections of about subSectionSize inodes each.
+     * The inodes are serialized in batches on the saver threads, while
+     * this thread writes the batches in order, keeping a bounded number of
+     * them in memory.  The namespace is read-locked by the thread
+     * coordinating the save, so the saver threads can read it unlocked.
+     */
+    private void serializeINodeSubSections(OutputStream out,
+        Iterator<INodeWithAdditionalFields> iter, int subSectionSize)
+        throws IOException {
+      final int batchSize = Math.min(subSectionSize,
+          FSImageFormatProtobuf.Saver.CHECK_CANCEL_INTERVAL);
+      final int batchesPerSubSection = Math.max(1, subSectionSize / batchSize);
+      final int maxPendingBatches = 4 * parent.getNumSaverThreads();
+      Queue<Future<ByteArrayOutputStream>> pending =
+          new LinkedList<Future<ByteArrayOutputStream>>();
+      int numWritten = 0;
+
+      parent.beginSubSections();
+      ExecutorService service = parent.createSaverExecutor();
+      try {
+        while (iter.hasNext() || !pending.isEmpty()) {
+          if (iter.hasNext() && pending.size() < maxPendingBatches) {
+            final List<INode> batch = Lists.newArrayListWithCapacity(
+                batchSize);
+            while (iter.hasNext() && batch.size() < batchSize) {
+              batch.add(iter.next());
+            }
+            pending.add(service.submit(
+                new Callable<ByteArrayOutputStream>() {
+              @Override
+              public ByteArrayOutputStream call() throws IOException {
+                ByteArrayOutputStream buf = new ByteArrayOutputStream();
+                for (INode n : batch) {
+                  save(buf, n);
+                }
+                return buf;
+              }
+            }));
+            continue;
+          }
+          getResult(pending.remove()).writeTo(out);
+          context.checkCancelled();
+          if (++numWritten % batchesPerSubSection == 0) {
+            parent.commitSubSection(summary,
+                FSImageFormatProtobuf.SectionName.INODE_SUB);
+          }
+        }
+        parent.commitSubSection(summary,
+            FSImageFormatProtobuf.SectionName.INODE_SUB);
+      } finally {
+        service.shutdownNow();
+      }
+    }
+
     void serializeFilesUCSection(OutputStream out) throws IOException {
       Map<String, INodeFile> ucMap = fsn.getFilesUnderConstruction();
       for (Map.Entry<String, INodeFile> entry : ucMap.entrySet()) {
@@ -590,26 +1028,38 @@ void serializeFilesUCSection(OutputStream out) throws IOException {
     }
 
     private void save(OutputStream out, INode n) throws IOException {
+      INodeSection.INode r = buildINode(n, parent.getSaverContext());
+      if (r != null) {
+        r.writeDelimitedTo(out);
+      }
+    }
+
+    /**
+     * Build the protobuf message of an inode, with the ids of its strings
+     * taken from the given context.
+     * @return null if the inode is neither a file, a directory nor a symlink
+     */
+    static INodeSection.INode buildINode(INode n, SaverContext state) {
       if (n.isDirectory()) {
-        save(out, n.asDirectory());
+        return buildINode(n.asDirectory(), state);
       } else if (n.isFile()) {
-        save(out, n.asFile());
+        return buildINode(n.asFile(), state);
       } else if (n.isSymlink()) {
-        save(out, n.asSymlink());
+        return buildINode(n.asSymlink(), state);
       }
+      return null;
     }
 
-    private void save(OutputStream out, INodeDirectory n) throws IOException {
-      INodeSection.INodeDirectory.Builder b = buildINodeDirectory(n,
-          parent.getSaverContext());
-      INodeSection.INode r = buildINodeCommon(n)
+    private static INodeSection.INode buildINode(INodeDirectory n,
+        SaverContext state) {
+      INodeSection.INodeDirectory.Builder b = buildINodeDirectory(n, state);
+      return buildINodeCommon(n)
           .setType(INodeSection.INode.Type.DIRECTORY).setDirectory(b).build();
-      r.writeDelimitedTo(out);
     }
 
-    private void save(OutputStream out, INodeFile n) throws IOException {
-      INodeSection.INodeFile.Builder b = buildINodeFile(n,
-          parent.getSaverContext());
+    private static INodeSection.INode buildINode(INodeFile n,
+        SaverContext state) {
+      INodeSection.INodeFile.Builder b = buildINodeFile(n, state);
 
       if (n.getBlocks() != null) {
         for (Block block : n.getBlocks()) {
@@ -626,13 +1076,12 @@ private void save(OutputStream out, INodeFile n) throws IOException {
         b.setFileUC(f);
       }
 
-      INodeSection.INode r = buildINodeCommon(n)
+      return buildINodeCommon(n)
           .setType(INodeSection.INode.Type.FILE).setFile(b).build();
-      r.writeDelimitedTo(out);
     }
 
-    private void save(OutputStream out, INodeSymlink n) throws IOException {
-      SaverContext state = parent.getSaverContext();
+    private static INodeSection.INode buildINode(INodeSymlink n,
+        SaverContext state) {
       INodeSection.INodeSymlink.Builder b = INodeSection.INodeSymlink
           .newBuilder()
           .setPermission(buildPermissionStatus(n, state.getStringMap()))
@@ -640,12 +1089,11 @@ private void save(OutputStream out, INodeSymlink n) throws IOException {
           .setModificationTime(n.getModificationTime())
           .setAccessTime(n.getAccessTime());
 
-      INodeSection.INode r = buildINodeCommon(n)
+      return buildINodeCommon(n)
           .setType(INodeSection.INode.Type.SYMLINK).setSymlink(b).build();
-      r.writeDelimitedTo(out);
     }
 
-    private final INodeSection.INode.Builder buildINodeCommon(INode n) {
+    private static INodeSection.INode.Builder buildINodeCommon(INode n) {
       return INodeSection.INode.newBuilder()
           .setId(n.getId())
           .setName(ByteString.copyFrom(n.getLocalNameBytes()));
@@ -36,12 +36,16 @@
 import java.util.Comparator;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.classification.InterfaceAudience;
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hdfs.DFSConfigKeys;
 import org.apache.hadoop.hdfs.protocol.HdfsConstants;
 import org.apache.hadoop.hdfs.protocol.proto.ClientNamenodeProtocolProtos.CacheDirectiveInfoProto;
 import org.apache.hadoop.hdfs.protocol.proto.ClientNamenodeProtocolProtos.CachePoolInfoProto;
@@ -66,6 +70,7 @@
 
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.protobuf.CodedOutputStream;
 
 /**
@@ -79,6 +84,14 @@ public static final class LoaderContext {
     private String[] stringTable;
     private final ArrayList<INodeReference> refList = Lists.newArrayList();
 
+    public LoaderContext() {
+    }
+
+    /** Create a context reading the strings from the given table. */
+    LoaderContext(String[] stringTable) {
+      this.stringTable = stringTable;
+    }
+
     public String[] getStringTable() {
       return stringTable;
     }
@@ -97,7 +110,7 @@ static <T> DeduplicationMap<T> newMap() {
         return new DeduplicationMap<T>();
       }
 
-      int getId(E value) {
+      synchronized int getId(E value) {
         if (value == null) {
           return 0;
         }
@@ -176,7 +189,7 @@ void load(File file) throws IOException {
       RandomAccessFile raFile = new RandomAccessFile(file, "r");
       FileInputStream fin = new FileInputStream(file);
       try {
-        loadInternal(raFile, fin);
+        loadInternal(file, raFile, fin);
         long end = Time.monotonicNow();
         LOG.info("Loaded FSImage in " + (end - start) / 1000 + " seconds.");
       } finally {
@@ -185,8 +198,8 @@ void load(File file) throws IOException {
       }
     }
 
-    private void loadInternal(RandomAccessFile raFile, FileInputStream fin)
-        throws IOException {
+    private void loadInternal(File file, RandomAccessFile raFile,
+        FileInputStream fin) throws IOException {
       if (!FSImageUtil.checkFileFormat(raFile)) {
         throw new IOException("Unrecognized file format");
       }
@@ -222,6 +235,18 @@ public int compare(FileSummary.Section s1, FileSummary.Section s2) {
         }
       });
 
+      List<FileSummary.Section> inodeSubSections = Lists.newArrayList();
+      List<FileSummary.Section> inodeDirSubSections = Lists.newArrayList();
+      for (FileSummary.Section s : sections) {
+        if (SectionName.INODE_SUB.name.equals(s.getName())) {
+          inodeSubSections.add(s);
+        } else if (SectionName.INODE_DIR_SUB.name.equals(s.getName())) {
+          inodeDirSubSections.add(s);
+        }
+      }
+      ExecutorService executor = createLoaderExecutor(summary,
+          inodeSubSections);
+
       StartupProgress prog = NameNode.getStartupProgress();
       /**
        * beginStep() and the endStep() calls do not match the boundary of the
@@ -230,66 +255,139 @@ public int compare(FileSummary.Section s1, FileSummary.Section s2) {
        */
       Step currentStep = null;
 
-      for (FileSummary.Section s : sections) {
-        channel.position(s.getOffset());
-        InputStream in = new BufferedInputStream(new LimitInputStream(fin,
-            s.getLength()));
-
-        in = FSImageUtil.wrapInputStreamForCompression(conf,
-            summary.getCodec(), in);
-
-        String n = s.getName();
-
-        switch (SectionName.fromString(n)) {
-        case NS_INFO:
-          loadNameSystemSection(in);
-          break;
-        case STRING_TABLE:
-          loadStringTableSection(in);
-          break;
-        case INODE: {
-          currentStep = new Step(StepType.INODES);
-          prog.beginStep(Phase.LOADING_FSIMAGE, currentStep);
-          inodeLoader.loadINodeSection(in);
-        }
-          break;
-        case INODE_REFERENCE:
-          snapshotLoader.loadINodeReferenceSection(in);
-          break;
-        case INODE_DIR:
-          inodeLoader.loadINodeDirectorySection(in);
-          break;
-        case FILES_UNDERCONSTRUCTION:
-          inodeLoader.loadFilesUnderConstructionSection(in);
-          break;
-        case SNAPSHOT:
-          snapshotLoader.loadSnapshotSection(in);
-          break;
-        case SNAPSHOT_DIFF:
-          snapshotLoader.loadSnapshotDiffSection(in);
-          break;
-        case SECRET_MANAGER: {
-          prog.endStep(Phase.LOADING_FSIMAGE, currentStep);
-          Step step = new Step(StepType.DELEGATION_TOKENS);
-          prog.beginStep(Phase.LOADING_FSIMAGE, step);
-          loadSecretManagerSection(in);
-          prog.endStep(Phase.LOADING_FSIMAGE, step);
+      final INodePager pager = fsn.getFSDirectory().getINodePager();
+      if (pager != null) {
+        pager.beginImageLoad(ctx);
+      }
+      try {
+        for (FileSummary.Section s : sections) {
+          channel.position(s.getOffset());
+          InputStream in = new BufferedInputStream(new LimitInputStream(fin,
+              s.getLength()));
+
+          in = FSImageUtil.wrapInputStreamForCompression(conf,
+              summary.getCodec(), in);
+
+          String n = s.getName();
+          SectionName name = SectionName.fromString(n);
+          if (name == null) {
+            LOG.warn("Unrecognized section " + n);
+            continue;
+          }
+
+          switch (name) {
+          case NS_INFO:
+            loadNameSystemSection(in);
+            break;
+          case STRING_TABLE:
+            loadStringTableSection(in);
+            break;
+          case INODE: {
+            currentStep = new Step(StepType.INODES);
+            prog.beginStep(Phase.LOADING_FSIMAGE, currentStep);
+            if (executor != null) {
+              inodeLoader.loadINodeSectionInParallel(executor, in, file,
+                  inodeSubSections, currentStep);
+            } else {
+              inodeLoader.loadINodeSection(in, currentStep);
+            }
+          }
+            break;
+          case INODE_REFERENCE:
+            snapshotLoader.loadINodeReferenceSection(in);
+            break;
+          case INODE_DIR:
+            if (executor != null && inodeDirSubSections.size() > 1) {
+              inodeLoader.loadINodeDirectorySectionInParallel(executor, file,
+                  inodeDirSubSections);
+            } else {
+              inodeLoader.loadINodeDirectorySection(in);
+            }
+            break;
+          case INODE_SUB:
+          case INODE_DIR_SUB:
+            // these index parts of the INODE and INODE_DIR sections, which
+            // are loaded as a whole above
+            break;
+          case FILES_UNDERCONSTRUCTION:
+            inodeLoader.loadFilesUnderConstructionSection(in);
+            break;
+          case SNAPSHOT:
+            snapshotLoader.loadSnapshotSection(in);
+            break;
+          case SNAPSHOT_DIFF:
+            snapshotLoader.loadSnapshotDiffSection(in);
+            break;
+          case SECRET_MANAGER: {
+            prog.endStep(Phase.LOADING_FSIMAGE, currentStep);
+            Step step = new Step(StepType.DELEGATION_TOKENS);
+            prog.beginStep(Phase.LOADING_FSIMAGE, step);
+            loadSecretManagerSection(in);
+            prog.endStep(Phase.LOADING_FSIMAGE, step);
+          }
+            break;
+          case CACHE_MANAGER: {
+            Step step = new Step(StepType.CACHE_POOLS);
+            prog.beginStep(Phase.LOADING_FSIMAGE, step);
+            loadCacheManagerSection(in);
+            prog.endStep(Phase.LOADING_FSIMAGE, step);
+          }
+            break;
+          default:
+            LOG.warn("Unrecognized section " + n);
+            break;
+          }
         }
-          break;
-        case CACHE_MANAGER: {
-          Step step = new Step(StepType.CACHE_POOLS);
-          prog.beginStep(Phase.LOADING_FSIMAGE, step);
-          loadCacheManagerSection(in);
-          prog.endStep(Phase.LOADING_FSIMAGE, step);
+        if (pager != null) {
+          pager.endImageLoad();
         }
-          break;
-        default:
-          LOG.warn("Unrecognized section " + n);
-          break;
+      } finally {
+        if (executor != null) {
+          executor.shutdownNow();
         }
       }
     }
 
+    /**
+     * Create the executor loading the sub-sections of the image, or return
+     * null if the image is to be loaded on the current thread.  Sub-sections
+     * index the uncompressed bytes of the image, so a compressed image is
+     * always loaded sequentially.  So is an image staged by an inode pager,
+     * which links the tree in its own order.
+     */
+    private ExecutorService createLoaderExecutor(FileSummary summary,
+        List<FileSummary.Section> inodeSubSections) {
+      if (!conf.getBoolean(DFSConfigKeys.DFS_IMAGE_PARALLEL_LOAD_KEY,
+          DFSConfigKeys.DFS_IMAGE_PARALLEL_LOAD_DEFAULT)
+          || summary.hasCodec() || inodeSubSections.size() <= 1
+          || fsn.getFSDirectory().getINodePager() != null) {
+        return null;
+      }
+      int threads = conf.getInt(DFSConfigKeys.DFS_IMAGE_PARALLEL_THREADS_KEY,
+          DFSConfigKeys.DFS_IMAGE_PARALLEL_THREADS_DEFAULT);
+      LOG.info("Loading " + inodeSubSections.size()
+          + " inode sub-sections with " + threads + " threads");
+      return Executors.newFixedThreadPool(threads, new ThreadFactoryBuilder()
+          .setDaemon(true).setNameFormat("FSImageLoader-%d").build());
+    }
+
+    /**
+     * Open a stream over the given part of an uncompressed image file.  Each
+     * caller gets its own file descriptor, so that sub-sections can be read
+     * by several threads at once.
+     */
+    static InputStream openSubSection(File file, FileSummary.Section s)
+        throws IOException {
+      FileInputStream fin = new FileInputStream(file);
+      try {
+        fin.getChannel().position(s.getOffset());
+      } catch (IOException e) {
+        fin.close();
+        throw e;
+      }
+      return new BufferedInputStream(new LimitInputStream(fin, s.getLength()));
+    }
+
     private void loadNameSystemSection(InputStream in) throws IOException {
       NameSystemSection s = NameSystemSection.parseDelimitedFrom(in);
       BlockIdManager blockIdManager = fsn.getBlockIdManager();
@@ -363,9 +461,32 @@ public static final class Saver {
     private CompressionCodec codec;
     private OutputStream underlyingOutputStream;
 
+    private final boolean writeSubSections;
+    private final int targetSections;
+    private final int inodeThreshold;
+    private final int numThreads;
+    /** The offset of the sub-section being written */
+    private long subSectionOffset;
+
     Saver(SaveNamespaceContext context) {
+      this(context, new Configuration());
+    }
+
+    Saver(SaveNamespaceContext context, Configuration conf) {
       this.context = context;
       this.saverContext = new SaverContext();
+      this.writeSubSections = conf.getBoolean(
+          DFSConfigKeys.DFS_IMAGE_PARALLEL_LOAD_KEY,
+          DFSConfigKeys.DFS_IMAGE_PARALLEL_LOAD_DEFAULT);
+      this.targetSections = Math.max(1, conf.getInt(
+          DFSConfigKeys.DFS_IMAGE_PARALLEL_TARGET_SECTIONS_KEY,
+          DFSConfigKeys.DFS_IMAGE_PARALLEL_TARGET_SECTIONS_DEFAULT));
+      this.inodeThreshold = conf.getInt(
+          DFSConfigKeys.DFS_IMAGE_PARALLEL_INODE_THRESHOLD_KEY,
+          DFSConfigKeys.DFS_IMAGE_PARALLEL_INODE_THRESHOLD_DEFAULT);
+      this.numThreads = Math.max(1, conf.getInt(
+          DFSConfigKeys.DFS_IMAGE_PARALLEL_THREADS_KEY,
+          DFSConfigKeys.DFS_IMAGE_PARALLEL_THREADS_DEFAULT));
     }
 
     public MD5Hash getSavedDigest() {
@@ -396,6 +517,52 @@ public void commitSection(FileSummary.Builder summary, SectionName name)
       currentOffset += length;
     }
 
+    /**
+     * Get the number of entries per sub-section of a section holding the
+     * given number of inodes, or 0 if the section is to be written without
+     * sub-sections.  Sub-sections are offsets into the file, so they are
+     * only written for uncompressed images.
+     */
+    int getSubSectionSize(long numInodes) {
+      if (!writeSubSections || codec != null || numInodes < inodeThreshold) {
+        return 0;
+      }
+      return (int) Math.max(1, numInodes / targetSections);
+    }
+
+    /** Start the first sub-section at the current position of the file. */
+    void beginSubSections() throws IOException {
+      sectionOutputStream.flush();
+      subSectionOffset = fileChannel.position();
+    }
+
+    /**
+     * Record everything written since the previous sub-section as a
+     * sub-section of the given name.  The data itself belongs to the
+     * enclosing section, which is committed as usual.
+     */
+    void commitSubSection(FileSummary.Builder summary, SectionName name)
+        throws IOException {
+      sectionOutputStream.flush();
+      long position = fileChannel.position();
+      if (position > subSectionOffset) {
+        summary.addSections(FileSummary.Section.newBuilder()
+            .setName(name.name).setLength(position - subSectionOffset)
+            .setOffset(subSectionOffset));
+      }
+      subSectionOffset = position;
+    }
+
+    int getNumSaverThreads() {
+      return numThreads;
+    }
+
+    /** Create the executor serializing inodes for a sub-sectioned image. */
+    ExecutorService createSaverExecutor() {
+      return Executors.newFixedThreadPool(numThreads, new ThreadFactoryBuilder()
+          .setDaemon(true).setNameFormat("FSImageSaver-%d").build());
+    }
+
     private void flushSectionOutputStream() throws IOException {
       if (codec != null) {
         ((CompressorStream) sectionOutputStream).finish();
@@ -426,9 +593,13 @@ private void saveInodes(FileSummary.Builder summary) throws IOException {
       FSImageFormatPBINode.Saver saver = new FSImageFormatPBINode.Saver(this,
           summary);
 
-      saver.serializeINodeSection(sectionOutputStream);
-      saver.serializeINodeDirectorySection(sectionOutputStream);
-      saver.serializeFilesUCSection(sectionOutputStream);
+      try {
+        saver.serializeINodeSection(sectionOutputStream);
+        saver.serializeINodeDirectorySection(sectionOutputStream);
+        saver.serializeFilesUCSection(sectionOutputStream);
+      } finally {
+        saver.close();
+      }
     }
 
     private void saveSnapshots(FileSummary.Builder summary) throws IOException {
@@ -584,7 +755,9 @@ public enum SectionName {
     FILES_UNDERCONSTRUCTION("FILES_UNDERCONSTRUCTION"),
     SNAPSHOT_DIFF("SNAPSHOT_DIFF"),
     SECRET_MANAGER("SECRET_MANAGER"),
-    CACHE_MANAGER("CACHE_MANAGER");
+    CACHE_MANAGER("CACHE_MANAGER"),
+    INODE_SUB("INODE_SUB"),
+    INODE_DIR_SUB("INODE_DIR_SUB");
 
     private static final SectionName[] values = SectionName.values();
 
@@ -54,6 +54,8 @@
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_DELEGATION_TOKEN_RENEW_INTERVAL_KEY;
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_EDITS_DIR_KEY;
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_EDITS_DIR_REQUIRED_KEY;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_FINE_GRAINED_LOCKING_ENABLED_DEFAULT;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_FINE_GRAINED_LOCKING_ENABLED_KEY;
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_EDIT_LOG_AUTOROLL_CHECK_INTERVAL_MS;
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_EDIT_LOG_AUTOROLL_CHECK_INTERVAL_MS_DEFAULT;
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_EDIT_LOG_AUTOROLL_MULTIPLIER_THRESHOLD;
@@ -66,6 +68,10 @@
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_MAX_OBJECTS_DEFAULT;
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_MAX_OBJECTS_KEY;
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_NAME_DIR_KEY;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_NAMESPACE_PARTITION_DEPTH_DEFAULT;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_NAMESPACE_PARTITION_DEPTH_KEY;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_NAMESPACE_PARTITION_LOCKS_DEFAULT;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_NAMESPACE_PARTITION_LOCKS_KEY;
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_REPLICATION_MIN_DEFAULT;
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_REPLICATION_MIN_KEY;
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_REPL_QUEUE_THRESHOLD_PCT_KEY;
@@ -491,6 +497,17 @@ private void logAuditEvent(boolean succeeded,
   /** Lock to protect FSNamesystem. */
   private final FSNamesystemLock fsLock;
 
+  /**
+   * Depth of the root directories of the namespace partitions, see
+   * {@link FSNamesystemLock}.
+   */
+  private final int partitionDepth;
+
+  /** For {@link #partitionWriteLock}: the path may or may not exist. */
+  static final long ANY_INODE_ID = -1;
+  /** For {@link #partitionWriteLock}: the path must not exist yet. */
+  static final long NEW_INODE_ID = -2;
+
   /** 
    * Checkpoint lock to protect FSNamesystem modification on standby NNs.
    * Unlike fsLock, it does not affect block updates. On active NNs, this lock
@@ -505,6 +522,12 @@ private void logAuditEvent(boolean succeeded,
    */
   private EditLogTailer editLogTailer = null;
 
+  /**
+   * The alignment context of the client RPC server, null unless
+   * dfs.namenode.state.context.enabled is set.
+   */
+  private volatile GlobalStateIdContext stateIdContext = null;
+
   /**
    * Used when this NN is in standby state to perform checkpoints.
    */
@@ -551,13 +574,13 @@ void imageLoadComplete() {
 
   void setImageLoaded() {
     if(imageLoaded) return;
-    writeLock();
+    namespaceWriteLock();
     try {
       setImageLoaded(true);
       dir.markNameCacheInitialized();
       cond.signalAll();
     } finally {
-      writeUnlock();
+      namespaceWriteUnlock();
     }
   }
 
@@ -577,7 +600,9 @@ protected void setImageLoaded(boolean flag) {
    */
   void waitForLoadingFSImage() {
     if (!imageLoaded) {
-      writeLock();
+      // cond belongs to the namespace lock, so the block lock must not be
+      // held while waiting on it.
+      namespaceWriteLock();
       try {
         while (!imageLoaded) {
           try {
@@ -586,7 +611,7 @@ void waitForLoadingFSImage() {
           }
         }
       } finally {
-        writeUnlock();
+        namespaceWriteUnlock();
       }
     }
   }
@@ -735,7 +760,20 @@ static FSNamesystem loadFromDisk(Configuration conf) throws IOException {
     }
     boolean fair = conf.getBoolean("dfs.namenode.fslock.fair", true);
     LOG.info("fsLock is fair:" + fair);
-    fsLock = new FSNamesystemLock(fair);
+    boolean fineGrained = conf.getBoolean(
+        DFS_NAMENODE_FINE_GRAINED_LOCKING_ENABLED_KEY,
+        DFS_NAMENODE_FINE_GRAINED_LOCKING_ENABLED_DEFAULT);
+    LOG.info("fsLock is fine grained:" + fineGrained);
+    final int partitionLocks = conf.getInt(
+        DFS_NAMENODE_NAMESPACE_PARTITION_LOCKS_KEY,
+        DFS_NAMENODE_NAMESPACE_PARTITION_LOCKS_DEFAULT);
+    partitionDepth = conf.getInt(DFS_NAMENODE_NAMESPACE_PARTITION_DEPTH_KEY,
+        DFS_NAMENODE_NAMESPACE_PARTITION_DEPTH_DEFAULT);
+    Preconditions.checkArgument(partitionDepth > 0, "Invalid "
+        + DFS_NAMENODE_NAMESPACE_PARTITION_DEPTH_KEY + ": " + partitionDepth);
+    LOG.info("fsLock namespace partition locks:" + partitionLocks
+        + ", depth:" + partitionDepth);
+    fsLock = new FSNamesystemLock(fair, fineGrained, partitionLocks);
     cond = fsLock.writeLock().newCondition();
     cpLock = new ReentrantLock();
 
@@ -837,6 +875,9 @@ static FSNamesystem loadFromDisk(Configuration conf) throws IOException {
       
       this.dtSecretManager = createDelegationTokenSecretManager(conf);
       this.dir = new FSDirectory(this, conf);
+      Preconditions.checkArgument(
+          !fsLock.isPartitioned() || dir.getINodePager() == null,
+          "Namespace partitions cannot be used with the inode pager");
       this.snapshotManager = new SnapshotManager(dir);
       this.cacheManager = new CacheManager(this, conf, blockManager);
       this.safeMode = new SafeModeInfo(conf);
@@ -1083,12 +1124,18 @@ void startCommonServices(Configuration conf, HAContext haContext) throws IOExcep
       dir.setINodeAttributeProvider(inodeAttributeProvider);
     }
     snapshotManager.registerMXBean();
+    if (dir.getINodePager() != null) {
+      dir.getINodePager().start();
+    }
   }
   
   /** 
    * Stop services common to both active and standby states
    */
   void stopCommonServices() {
+    if (dir != null && dir.getINodePager() != null) {
+      dir.getINodePager().stop();
+    }
     writeLock();
     if (inodeAttributeProvider != null) {
       dir.setINodeAttributeProvider(null);
@@ -1485,32 +1532,237 @@ public static List<URI> getSharedEditsDirs(Configuration conf) {
   @Override
   public void readLock() {
     this.fsLock.readLock().lock();
+    this.fsLock.readLockPartitions();
+    if (fsLock.isFineGrained()) {
+      this.fsLock.blockReadLock().lock();
+    }
   }
   @Override
   public void readUnlock() {
+    if (fsLock.isFineGrained()) {
+      this.fsLock.blockReadLock().unlock();
+    }
+    this.fsLock.readUnlockPartitions();
     this.fsLock.readLock().unlock();
   }
   @Override
   public void writeLock() {
+    checkNoPartitionWriteLock();
     this.fsLock.writeLock().lock();
+    if (fsLock.isFineGrained()) {
+      this.fsLock.blockWriteLock().lock();
+    }
+    linkPagedInBlocks();
   }
   @Override
   public void writeLockInterruptibly() throws InterruptedException {
+    checkNoPartitionWriteLock();
     this.fsLock.writeLock().lockInterruptibly();
+    if (fsLock.isFineGrained()) {
+      try {
+        this.fsLock.blockWriteLock().lockInterruptibly();
+      } catch (InterruptedException e) {
+        this.fsLock.writeLock().unlock();
+        throw e;
+      }
+    }
+    linkPagedInBlocks();
+  }
+
+  /**
+   * Link the blocks of the files paged in under the read lock, if any, to
+   * their inodes, as the pager only changes the blocks map under the write
+   * lock.
+   */
+  private void linkPagedInBlocks() {
+    final INodePager pager = dir == null ? null : dir.getINodePager();
+    if (pager != null) {
+      pager.linkPagedInBlocks();
+    }
   }
   @Override
   public void writeUnlock() {
+    if (partitionWriteUnlock()) {
+      return;
+    }
+    if (fsLock.isFineGrained()) {
+      this.fsLock.blockWriteLock().unlock();
+    }
     this.fsLock.writeLock().unlock();
   }
   @Override
   public boolean hasWriteLock() {
-    return this.fsLock.isWriteLockedByCurrentThread();
+    return this.fsLock.isWriteLockedByCurrentThread()
+        || this.fsLock.hasPartitionWriteLock();
   }
   @Override
   public boolean hasReadLock() {
     return this.fsLock.getReadHoldCount() > 0 || hasWriteLock();
   }
 
+  /**
+   * Acquire the namespace write lock only.  The caller must not modify block
+   * manager state while holding it.  With fine grained locking disabled this
+   * is the same as {@link #writeLock()}.
+   */
+  void namespaceWriteLock() {
+    checkNoPartitionWriteLock();
+    this.fsLock.writeLock().lock();
+  }
+
+  /** Release the namespace write lock. */
+  void namespaceWriteUnlock() {
+    if (partitionWriteUnlock()) {
+      return;
+    }
+    this.fsLock.writeLock().unlock();
+  }
+
+  /**
+   * The global write lock cannot be taken with partition locks held, as
+   * the partition holds the namespace read lock.
+   */
+  private void checkNoPartitionWriteLock() {
+    Preconditions.checkState(!fsLock.hasPartitionWriteLock(),
+        "Global write lock requested with namespace partition locks held");
+  }
+
+  /** @return true if the current thread holds namespace partition locks. */
+  boolean hasPartitionWriteLock() {
+    return this.fsLock.hasPartitionWriteLock();
+  }
+
+  /**
+   * Acquire the write locks of the namespace partitions of the given paths,
+   * see {@link FSNamesystemLock}, instead of the global write lock.  This is
+   * only possible if the namespace is partitioned and every path is inside
+   * a partition, see {@link #getPartitionRoot(String)}.  The locks are
+   * released by {@link #writeUnlock()} or {@link #namespaceWriteUnlock()}.
+   *
+   * @param blocks whether the operation changes block manager state
+   * @param inodeId the id of the inode that srcs[0] must resolve to, or
+   *        {@link #NEW_INODE_ID} if srcs[0] must not exist, or
+   *        {@link #ANY_INODE_ID}
+   * @return true if the partition locks are held; if false no lock is held
+   *         and the caller must take the global write lock instead
+   */
+  @VisibleForTesting
+  boolean partitionWriteLock(boolean blocks, long inodeId,
+      String... srcs) {
+    if (!fsLock.isPartitioned() || fsLock.isWriteLockedByCurrentThread()) {
+      return false;
+    }
+    this.fsLock.readLock().lock();
+    boolean locked = false;
+    try {
+      final long[] rootIds = new long[srcs.length];
+      for (int i = 0; i < srcs.length; i++) {
+        final INodeDirectory root = getPartitionRoot(srcs[i]);
+        if (root == null) {
+          return false;
+        }
+        rootIds[i] = root.getId();
+      }
+      // The directories up to the partition roots are only changed under
+      // the global write lock, so the roots stay the same once resolved.
+      this.fsLock.writeLockPartitions(rootIds, blocks);
+      locked = inodeId == ANY_INODE_ID || isPartitionTarget(srcs[0], inodeId);
+      if (!locked) {
+        this.fsLock.writeUnlockPartitions();
+      }
+      return locked;
+    } finally {
+      if (!locked) {
+        this.fsLock.readLock().unlock();
+      }
+    }
+  }
+
+  /**
+   * Release the namespace partition locks of the current thread.
+   * @return false if the thread held none
+   */
+  private boolean partitionWriteUnlock() {
+    if (!fsLock.writeUnlockPartitions()) {
+      return false;
+    }
+    this.fsLock.readLock().unlock();
+    return true;
+  }
+
+  /**
+   * @return the root directory of the namespace partition that src is in,
+   *         or null if it is not in one.  It is if src is below the
+   *         directory at the partition depth on its path, the directories
+   *         above that one have no quota and the namespace has neither
+   *         snapshottable directories nor encryption zones, whose state is
+   *         shared by all the partitions.
+   */
+  private INodeDirectory getPartitionRoot(String src) {
+    if (FSDirectory.isReservedName(src)
+        || snapshotManager.getNumSnapshottableDirs() > 0
+        || snapshotManager.getNumSnapshots() > 0
+        || dir.ezManager.getNumEncryptionZones() > 0) {
+      return null;
+    }
+    final byte[][] components = INode.getPathComponents(src);
+    if (components.length < partitionDepth + 2) {
+      return null;
+    }
+    INodeDirectory current = dir.getRoot();
+    for (int i = 1; i <= partitionDepth; i++) {
+      final QuotaCounts quota = current.getQuotaCounts();
+      final boolean quotaSet = current.isRoot()
+          ? quota.getNameSpace() != DirectoryWithQuotaFeature
+              .DEFAULT_NAMESPACE_QUOTA
+              || quota.getStorageSpace() >= 0
+              || quota.anyTypeSpaceCountGreaterOrEqual(0)
+          : current.isQuotaSet();
+      if (quotaSet) {
+        return null;
+      }
+      final INode child = current.getChild(components[i],
+          Snapshot.CURRENT_STATE_ID);
+      if (child == null || !child.isDirectory()) {
+        return null;
+      }
+      current = child.asDirectory();
+    }
+    return current;
+  }
+
+  /**
+   * @return true if src resolves to the inode with the given id, or does
+   *         not exist if the id is {@link #NEW_INODE_ID}
+   */
+  private boolean isPartitionTarget(String src, long inodeId) {
+    final INode inode;
+    try {
+      inode = dir.getINode(src, false);
+    } catch (UnresolvedLinkException e) {
+      return false;
+    }
+    return inodeId == NEW_INODE_ID ? inode == null
+        : inode != null && inode.getId() == inodeId;
+  }
+
+  @Override
+  public void blockReadLock() {
+    this.fsLock.blockReadLock().lock();
+  }
+  @Override
+  public void blockReadUnlock() {
+    this.fsLock.blockReadLock().unlock();
+  }
+  @Override
+  public boolean hasBlockReadLock() {
+    return this.fsLock.getBlockReadHoldCount() > 0 || hasBlockWriteLock();
+  }
+  @Override
+  public boolean hasBlockWriteLock() {
+    return this.fsLock.isBlockWriteLockedByCurrentThread();
+  }
+
   public int getReadHoldCount() {
     return this.fsLock.getReadHoldCount();
   }
@@ -1657,7 +1909,7 @@ private boolean isAccessTimeSupported() {
   void setPermission(String src, FsPermission permission) throws IOException {
     HdfsFileStatus auditStat;
     checkOperation(OperationCategory.WRITE);
-    writeLock();
+    namespaceWriteLock();
     try {
       checkOperation(OperationCategory.WRITE);
       checkNameNodeSafeMode("Cannot set permission for " + src);
@@ -1666,7 +1918,7 @@ void setPermission(String src, FsPermission permission) throws IOException {
       logAuditEvent(false, "setPermission", src);
       throw e;
     } finally {
-      writeUnlock();
+      namespaceWriteUnlock();
     }
     getEditLog().logSync();
     logAuditEvent(true, "setPermission", src, null, auditStat);
@@ -1680,7 +1932,7 @@ void setOwner(String src, String username, String group)
       throws IOException {
     HdfsFileStatus auditStat;
     checkOperation(OperationCategory.WRITE);
-    writeLock();
+    namespaceWriteLock();
     try {
       checkOperation(OperationCategory.WRITE);
       checkNameNodeSafeMode("Cannot set owner for " + src);
@@ -1689,7 +1941,7 @@ void setOwner(String src, String username, String group)
       logAuditEvent(false, "setOwner", src);
       throw e;
     } finally {
-      writeUnlock();
+      namespaceWriteUnlock();
     }
     getEditLog().logSync();
     logAuditEvent(true, "setOwner", src, null, auditStat);
@@ -1728,7 +1980,8 @@ LocatedBlocks getBlockLocations(String clientMachine, String src,
 
     logAuditEvent(true, "open", src);
 
-    if (res.updateAccessTime()) {
+    // a standby serving the read cannot log the access time
+    if (res.updateAccessTime() && !isInStandbyState()) {
       writeLock();
       final long now = now();
       try {
@@ -1887,7 +2140,7 @@ void concat(String target, String [] srcs, boolean logRetryCache)
   void setTimes(String src, long mtime, long atime) throws IOException {
     HdfsFileStatus auditStat;
     checkOperation(OperationCategory.WRITE);
-    writeLock();
+    namespaceWriteLock();
     try {
       checkOperation(OperationCategory.WRITE);
       checkNameNodeSafeMode("Cannot set times " + src);
@@ -1896,7 +2149,7 @@ void setTimes(String src, long mtime, long atime) throws IOException {
       logAuditEvent(false, "setTimes", src);
       throw e;
     } finally {
-      writeUnlock();
+      namespaceWriteUnlock();
     }
     getEditLog().logSync();
     logAuditEvent(true, "setTimes", src, null, auditStat);
@@ -2426,7 +2679,11 @@ private HdfsFileStatus startFileInt(final String srcArg,
     // Proceed with the create, using the computed cipher suite and 
     // generated EDEK
     BlocksMapUpdateInfo toRemoveBlocks = null;
-    writeLock();
+    // Overwriting an existing file or recovering its lease changes block
+    // state, so only the creation of a new file runs in its partition.
+    if (!partitionWriteLock(false, NEW_INODE_ID, src)) {
+      writeLock();
+    }
     try {
       checkOperation(OperationCategory.WRITE);
       checkNameNodeSafeMode("Cannot create file" + src);
@@ -3108,7 +3365,9 @@ LocatedBlock storeAllocatedBlock(String src, long fileId, String clientName,
     long offset;
     checkOperation(OperationCategory.WRITE);
     waitForLoadingFSImage();
-    writeLock();
+    if (!partitionWriteLock(true, getPartitionTargetId(fileId), src)) {
+      writeLock();
+    }
     try {
       checkOperation(OperationCategory.WRITE);
       // Run the full analysis again, since things could have changed
@@ -3472,7 +3731,9 @@ boolean completeFile(final String srcArg, String holder,
     byte[][] pathComponents = FSDirectory.getPathComponentsForReservedPath(src);
     FSPermissionChecker pc = getPermissionChecker();
     waitForLoadingFSImage();
-    writeLock();
+    if (!partitionWriteLock(true, getPartitionTargetId(fileId), src)) {
+      writeLock();
+    }
     try {
       checkOperation(OperationCategory.WRITE);
       checkNameNodeSafeMode("Cannot complete file " + src);
@@ -3490,6 +3751,15 @@ boolean completeFile(final String srcArg, String holder,
     return success;
   }
 
+  /**
+   * @return the inode id for {@link #partitionWriteLock} of an operation on
+   *         the file with the given id, which older clients do not pass
+   */
+  private static long getPartitionTargetId(long fileId) {
+    return fileId == HdfsConstantsClient.GRANDFATHER_INODE_ID
+        ? ANY_INODE_ID : fileId;
+  }
+
   private boolean completeFileInternal(String src, String holder, Block last,
       long fileId) throws IOException {
     assert hasWriteLock();
@@ -3609,7 +3879,9 @@ boolean renameTo(String src, String dst, boolean logRetryCache)
     waitForLoadingFSImage();
     checkOperation(OperationCategory.WRITE);
     FSDirRenameOp.RenameOldResult ret = null;
-    writeLock();
+    if (!partitionWriteLock(false, ANY_INODE_ID, src, dst)) {
+      writeLock();
+    }
     try {
       checkOperation(OperationCategory.WRITE);
       checkNameNodeSafeMode("Cannot rename " + src);
@@ -3635,7 +3907,12 @@ void renameTo(final String src, final String dst,
     waitForLoadingFSImage();
     checkOperation(OperationCategory.WRITE);
     Map.Entry<BlocksMapUpdateInfo, HdfsFileStatus> res = null;
-    writeLock();
+    // Overwriting the destination deletes it, so it takes the global lock.
+    final boolean overwrite = options != null
+        && Arrays.asList(options).contains(Options.Rename.OVERWRITE);
+    if (overwrite || !partitionWriteLock(false, ANY_INODE_ID, src, dst)) {
+      writeLock();
+    }
     try {
       checkOperation(OperationCategory.WRITE);
       checkNameNodeSafeMode("Cannot rename " + src);
@@ -3672,7 +3949,10 @@ boolean delete(String src, boolean recursive, boolean logRetryCache)
     waitForLoadingFSImage();
     checkOperation(OperationCategory.WRITE);
     BlocksMapUpdateInfo toRemovedBlocks = null;
-    writeLock();
+    // The block lock is needed as the deleted files release their blocks.
+    if (!partitionWriteLock(true, ANY_INODE_ID, src)) {
+      writeLock();
+    }
     boolean ret = false;
     try {
       checkOperation(OperationCategory.WRITE);
@@ -3854,7 +4134,9 @@ boolean mkdirs(String src, PermissionStatus permissions,
       boolean createParent) throws IOException {
     HdfsFileStatus auditStat = null;
     checkOperation(OperationCategory.WRITE);
-    writeLock();
+    if (!partitionWriteLock(false, ANY_INODE_ID, src)) {
+      namespaceWriteLock();
+    }
     try {
       checkOperation(OperationCategory.WRITE);
       checkNameNodeSafeMode("Cannot create directory " + src);
@@ -3863,7 +4145,7 @@ boolean mkdirs(String src, PermissionStatus permissions,
       logAuditEvent(false, "mkdirs", src);
       throw e;
     } finally {
-      writeUnlock();
+      namespaceWriteUnlock();
     }
     getEditLog().logSync();
     logAuditEvent(true, "mkdirs", src, null, auditStat);
@@ -4265,7 +4547,8 @@ void commitBlockSynchronization(ExtendedBlock oldBlock,
             + " is null, likely because the file owning this block was"
             + " deleted and the block removal is delayed");
       }
-      INodeFile iFile = ((INode)storedBlock.getBlockCollection()).asFile();
+      INodeFile iFile = getBlockCollectionFile(
+          storedBlock.getBlockCollection());
       if (isFileDeleted(iFile)) {
         throw new FileNotFoundException("File not found: "
             + iFile.getFullPathName() + ", likely due to delayed block"
@@ -4714,7 +4997,7 @@ private void clearCorruptLazyPersistFiles()
           BlocksMapUpdateInfo toRemoveBlocks =
           FSDirDeleteOp.deleteInternal(
               FSNamesystem.this, bc.getName(),
-              INodesInPath.fromINode((INodeFile) bc), false);
+              INodesInPath.fromINode(getBlockCollectionFile(bc)), false);
           if (toRemoveBlocks != null) {
             removeBlocks(toRemoveBlocks); // Incremental deletion of blocks
           }
@@ -4903,7 +5186,7 @@ DatanodeInfo[] datanodeReport(final DatanodeReportType type
       ) throws AccessControlException, StandbyException {
     checkSuperuserPrivilege();
     checkOperation(OperationCategory.UNCHECKED);
-    readLock();
+    blockReadLock();
     try {
       checkOperation(OperationCategory.UNCHECKED);
       final DatanodeManager dm = getBlockManager().getDatanodeManager();      
@@ -4915,7 +5198,7 @@ DatanodeInfo[] datanodeReport(final DatanodeReportType type
       }
       return arr;
     } finally {
-      readUnlock();
+      blockReadUnlock();
     }
   }
 
@@ -4923,7 +5206,7 @@ DatanodeStorageReport[] getDatanodeStorageReport(final DatanodeReportType type
       ) throws AccessControlException, StandbyException {
     checkSuperuserPrivilege();
     checkOperation(OperationCategory.UNCHECKED);
-    readLock();
+    blockReadLock();
     try {
       checkOperation(OperationCategory.UNCHECKED);
       final DatanodeManager dm = getBlockManager().getDatanodeManager();      
@@ -4937,7 +5220,7 @@ DatanodeStorageReport[] getDatanodeStorageReport(final DatanodeReportType type
       }
       return reports;
     } finally {
-      readUnlock();
+      blockReadUnlock();
     }
   }
 
@@ -5975,6 +6258,30 @@ public int getBlockCapacity() {
     return blockManager.getCapacity();
   }
 
+  @Metric({"BlocksOffHeapBytes",
+      "Direct memory holding the replica locations of blocks"})
+  public long getBlocksOffHeapBytes() {
+    return blockManager.getOffHeapBytes();
+  }
+
+  @Metric({"PagedOutINodes", "Number of inodes paged out of the heap"})
+  public long getPagedOutINodes() {
+    final INodePager pager = dir.getINodePager();
+    return pager == null ? 0 : pager.getNumPagedOutINodes();
+  }
+
+  @Metric({"INodePageIns", "Number of subtrees paged back into the heap"})
+  public long getINodePageIns() {
+    final INodePager pager = dir.getINodePager();
+    return pager == null ? 0 : pager.getNumPageIns();
+  }
+
+  @Metric({"INodePageOuts", "Number of subtrees paged out of the heap"})
+  public long getINodePageOuts() {
+    final INodePager pager = dir.getINodePager();
+    return pager == null ? 0 : pager.getNumPageOuts();
+  }
+
   @Override // FSNamesystemMBean
   public String getFSState() {
     return isInSafeMode() ? "safeMode" : "Operational";
@@ -6154,6 +6461,18 @@ private long nextBlockId() throws IOException {
     return blockId;
   }
 
+  /**
+   * @return the inode of the file owning a block, paging it in if the block
+   *         collection stands for a paged out file
+   */
+  private INodeFile getBlockCollectionFile(BlockCollection bc) {
+    if (bc instanceof INodeFile) {
+      return (INodeFile) bc;
+    }
+    final INode inode = dir.getInode(bc.getId());
+    return inode == null ? null : inode.asFile();
+  }
+
   private boolean isFileDeleted(INodeFile file) {
     // Not in the inodeMap or in the snapshot but marked deleted.
     if (dir.getInode(file.getId()) == null) {
@@ -6201,13 +6520,15 @@ private INodeFile checkUCBlock(ExtendedBlock block,
     // check stored block state
     BlockInfoContiguous storedBlock = getStoredBlock(ExtendedBlock.getLocalBlock(block));
     if (storedBlock == null || 
-        storedBlock.getBlockUCState() != BlockUCState.UNDER_CONSTRUCTION) {
+        (storedBlock.getBlockUCState() != BlockUCState.UNDER_CONSTRUCTION &&
+         storedBlock.getBlockUCState() != BlockUCState.COMMITTED)) {
         throw new IOException(block + 
             " does not exist or is not under Construction" + storedBlock);
     }
     
     // check file inode
-    final INodeFile file = ((INode)storedBlock.getBlockCollection()).asFile();
+    final INodeFile file = getBlockCollectionFile(
+        storedBlock.getBlockCollection());
     if (file == null || !file.isUnderConstruction() || isFileDeleted(file)) {
       throw new IOException("The file " + storedBlock + 
           " belonged to does not exist or it is not under construction.");
@@ -6221,6 +6542,14 @@ private INodeFile checkUCBlock(ExtendedBlock block,
           " is accessed by a non lease holder " + clientName); 
     }
 
+    // A committed block can still be written to when it is the penultimate
+    // block, with the client writing the last block on another pipeline.
+    if (storedBlock.getBlockUCState() == BlockUCState.COMMITTED &&
+        storedBlock != file.getPenultimateBlock()) {
+      throw new IOException(block + " is committed and is not the "
+          + "penultimate block of " + file.getFullPathName());
+    }
+
     return file;
   }
   
@@ -6328,12 +6657,18 @@ private void updatePipelineInternal(String clientName, ExtendedBlock oldBlock,
     assert hasWriteLock();
     // check the vadility of the block and lease holder name
     final INodeFile pendingFile = checkUCBlock(oldBlock, clientName);
+    // the last block, or the committed penultimate block
     final BlockInfoContiguousUnderConstruction blockinfo
-        = (BlockInfoContiguousUnderConstruction)pendingFile.getLastBlock();
+        = (BlockInfoContiguousUnderConstruction) getStoredBlock(
+            ExtendedBlock.getLocalBlock(oldBlock));
+    // a committed block keeps its committed length, which is not acked yet
+    final boolean committed =
+        blockinfo.getBlockUCState() == BlockUCState.COMMITTED;
 
     // check new GS & length: this is not expected
     if (newBlock.getGenerationStamp() <= blockinfo.getGenerationStamp() ||
-        newBlock.getNumBytes() < blockinfo.getNumBytes()) {
+        (committed ? newBlock.getNumBytes() > blockinfo.getNumBytes()
+            : newBlock.getNumBytes() < blockinfo.getNumBytes())) {
       String msg = "Update " + oldBlock + " (len = " + 
         blockinfo.getNumBytes() + ") to an older state: " + newBlock + 
         " (len = " + newBlock.getNumBytes() +")";
@@ -6342,7 +6677,9 @@ private void updatePipelineInternal(String clientName, ExtendedBlock oldBlock,
     }
 
     // Update old block with the new generation stamp and new length
-    blockinfo.setNumBytes(newBlock.getNumBytes());
+    if (!committed) {
+      blockinfo.setNumBytes(newBlock.getNumBytes());
+    }
     blockinfo.setGenerationStampAndVerifyReplicas(newBlock.getGenerationStamp());
 
     // find the DatanodeDescriptor objects
@@ -6520,10 +6857,10 @@ Collection<CorruptFileBlockInfo> listCorruptFileBlocks(String path,
 
       while (blkIterator.hasNext()) {
         Block blk = blkIterator.next();
-        final INode inode = (INode)blockManager.getBlockCollection(blk);
+        final BlockCollection bc = blockManager.getBlockCollection(blk);
         skip++;
-        if (inode != null && blockManager.countNodes(blk).liveReplicas() == 0) {
-          String src = FSDirectory.getFullPathName(inode);
+        if (bc != null && blockManager.countNodes(blk).liveReplicas() == 0) {
+          String src = bc.getName();
           if (src.startsWith(path)){
             corruptFiles.add(new CorruptFileBlockInfo(src, blk));
             count++;
@@ -7221,6 +7558,21 @@ public boolean isGenStampInFuture(Block block) {
     return blockIdManager.isGenStampInFuture(block);
   }
 
+  void setStateIdContext(GlobalStateIdContext stateIdContext) {
+    this.stateIdContext = stateIdContext;
+  }
+
+  /**
+   * Let the client calls held back for a transaction id check it again.
+   * Must not be called while holding the namesystem lock.
+   */
+  public void notifyStateIdAdvanced() {
+    GlobalStateIdContext context = stateIdContext;
+    if (context != null) {
+      context.stateAdvanced();
+    }
+  }
+
   @VisibleForTesting
   public EditLogTailer getEditLogTailer() {
     return editLogTailer;
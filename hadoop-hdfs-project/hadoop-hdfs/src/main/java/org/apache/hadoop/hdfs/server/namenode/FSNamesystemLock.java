@@ -19,23 +19,95 @@
 
 package org.apache.hadoop.hdfs.server.namenode;
 
+import java.util.Arrays;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReadWriteLock;
-import java.util.concurrent.locks.ReentrantLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
 
 /**
  * Mimics a ReentrantReadWriteLock so more sophisticated locking capabilities
  * are possible.
+ *
+ * The lock is made of two parts: the namespace lock, which is exposed through
+ * {@link #readLock()} and {@link #writeLock()}, and an optional block lock
+ * that protects the block manager state.  When fine grained locking is
+ * disabled both parts are backed by the same coarse lock, so the behavior is
+ * identical to a single global lock.  When it is enabled, operations that only
+ * touch the namespace (e.g. mkdirs, setPermission) can run concurrently with
+ * operations that only read block manager state (e.g. getBlocks from the
+ * Balancer or datanode reports).  Operations that touch both must acquire the
+ * namespace lock first and the block lock second.
+ *
+ * With fine grained locking, the namespace can further be split into
+ * partitions, each being the subtree of a directory at a fixed depth.  The
+ * partitions are guarded by a fixed number of partition locks, the lock of a
+ * partition being picked by the inode id of its root directory.  An operation
+ * confined to partitions holds the namespace read lock and the write locks of
+ * its partitions, so operations on unrelated partitions run in parallel.  A
+ * reader of the namespace holds the namespace read lock and the read locks of
+ * all the partitions, and a global writer holds the namespace write lock,
+ * which excludes both.  The lock order is: namespace lock, partition locks in
+ * index order, block lock.
  */
 class FSNamesystemLock implements ReadWriteLock {
   @VisibleForTesting
   protected ReentrantReadWriteLock coarseLock;
+
+  /** Lock for block manager state, null if fine grained locking is off. */
+  private final ReentrantReadWriteLock blockLock;
+
+  /** Locks of the namespace partitions, null if partitioning is off. */
+  private final ReentrantReadWriteLock[] partitionLocks;
+
+  /** The partition write locks held by each thread. */
+  private final ThreadLocal<PartitionHold> partitionHolds =
+      new ThreadLocal<PartitionHold>();
+
+  /** Partition write locks held by a thread. */
+  private static class PartitionHold {
+    /** Indexes of the locks, in ascending order. */
+    private final int[] indexes;
+    /** Whether the block write lock is held with them. */
+    private final boolean blocks;
+
+    PartitionHold(int[] indexes, boolean blocks) {
+      this.indexes = indexes;
+      this.blocks = blocks;
+    }
+  }
   
   FSNamesystemLock(boolean fair) {
+    this(fair, false);
+  }
+
+  FSNamesystemLock(boolean fair, boolean fineGrained) {
+    this(fair, fineGrained, 0);
+  }
+
+  /**
+   * @param numPartitionLocks number of namespace partition locks, 0 to not
+   *        partition the namespace.  Requires fine grained locking, as a
+   *        partitioned operation needs the block lock without the namespace
+   *        write lock.
+   */
+  FSNamesystemLock(boolean fair, boolean fineGrained, int numPartitionLocks) {
+    Preconditions.checkArgument(numPartitionLocks >= 0,
+        "Negative number of partition locks: " + numPartitionLocks);
+    Preconditions.checkArgument(fineGrained || numPartitionLocks == 0,
+        "Namespace partitions require fine grained locking");
     this.coarseLock = new ReentrantReadWriteLock(fair);
+    this.blockLock = fineGrained ? new ReentrantReadWriteLock(fair) : null;
+    if (numPartitionLocks > 0) {
+      partitionLocks = new ReentrantReadWriteLock[numPartitionLocks];
+      for (int i = 0; i < numPartitionLocks; i++) {
+        partitionLocks[i] = new ReentrantReadWriteLock(fair);
+      }
+    } else {
+      partitionLocks = null;
+    }
   }
   
   @Override
@@ -48,6 +120,27 @@ public Lock writeLock() {
     return coarseLock.writeLock();
   }
 
+  /** @return true if block state has a lock separate from the namespace. */
+  public boolean isFineGrained() {
+    return blockLock != null;
+  }
+
+  /**
+   * @return the read lock for block manager state.  This is the namespace
+   *         read lock when fine grained locking is disabled.
+   */
+  public Lock blockReadLock() {
+    return blockLock != null ? blockLock.readLock() : coarseLock.readLock();
+  }
+
+  /**
+   * @return the write lock for block manager state.  This is the namespace
+   *         write lock when fine grained locking is disabled.
+   */
+  public Lock blockWriteLock() {
+    return blockLock != null ? blockLock.writeLock() : coarseLock.writeLock();
+  }
+
   public int getReadHoldCount() {
     return coarseLock.getReadHoldCount();
   }
@@ -59,4 +152,96 @@ public int getWriteHoldCount() {
   public boolean isWriteLockedByCurrentThread() {
     return coarseLock.isWriteLockedByCurrentThread();
   }
+
+  public int getBlockReadHoldCount() {
+    return blockLock != null ?
+        blockLock.getReadHoldCount() : coarseLock.getReadHoldCount();
+  }
+
+  public boolean isBlockWriteLockedByCurrentThread() {
+    return blockLock != null ? blockLock.isWriteLockedByCurrentThread() :
+        coarseLock.isWriteLockedByCurrentThread();
+  }
+
+  /** @return true if the namespace is split into partitions. */
+  public boolean isPartitioned() {
+    return partitionLocks != null;
+  }
+
+  /**
+   * Acquire the write locks of the partitions with the given root directory
+   * ids and, if blocks is true, the block write lock.  The caller must hold
+   * the namespace read lock, and no partition lock.
+   */
+  void writeLockPartitions(long[] rootIds, boolean blocks) {
+    Preconditions.checkState(partitionHolds.get() == null,
+        "Partition locks are already held");
+    final int[] indexes = new int[rootIds.length];
+    for (int i = 0; i < rootIds.length; i++) {
+      indexes[i] = (int) (rootIds[i] % partitionLocks.length);
+    }
+    Arrays.sort(indexes);
+    int n = 0;
+    for (int i = 0; i < indexes.length; i++) {
+      if (i == 0 || indexes[i] != indexes[n - 1]) {
+        indexes[n++] = indexes[i];
+      }
+    }
+    final int[] unique = Arrays.copyOf(indexes, n);
+    for (int index : unique) {
+      partitionLocks[index].writeLock().lock();
+    }
+    if (blocks) {
+      blockLock.writeLock().lock();
+    }
+    partitionHolds.set(new PartitionHold(unique, blocks));
+  }
+
+  /**
+   * Release the partition write locks, and the block write lock if taken
+   * with them, held by the current thread.
+   * @return false if the thread held no partition lock
+   */
+  boolean writeUnlockPartitions() {
+    final PartitionHold hold = partitionHolds.get();
+    if (hold == null) {
+      return false;
+    }
+    partitionHolds.remove();
+    if (hold.blocks) {
+      blockLock.writeLock().unlock();
+    }
+    for (int i = hold.indexes.length - 1; i >= 0; i--) {
+      partitionLocks[hold.indexes[i]].writeLock().unlock();
+    }
+    return true;
+  }
+
+  /** @return true if the current thread holds partition write locks. */
+  boolean hasPartitionWriteLock() {
+    return partitionLocks != null && partitionHolds.get() != null;
+  }
+
+  /**
+   * Acquire the read locks of all the partitions, so that the whole
+   * namespace can be read.  Does nothing if the namespace is not partitioned
+   * or the current thread holds partition write locks, in which case it must
+   * only read its own partitions.
+   */
+  void readLockPartitions() {
+    if (partitionLocks != null && partitionHolds.get() == null) {
+      for (ReentrantReadWriteLock lock : partitionLocks) {
+        lock.readLock().lock();
+      }
+    }
+  }
+
+  /** Release the locks taken by {@link #readLockPartitions()}. */
+  void readUnlockPartitions() {
+    if (partitionLocks != null && partitionHolds.get() == null) {
+      for (int i = partitionLocks.length - 1; i >= 0; i--) {
+        partitionLocks[i].readLock().unlock();
+      }
+    }
+  }
 }
@@ -0,0 +1,79 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.namenode;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.ipc.AlignmentContext;
+import org.apache.hadoop.ipc.RPC;
+import org.apache.hadoop.ipc.protobuf.RpcHeaderProtos.RpcRequestHeaderProto;
+import org.apache.hadoop.ipc.protobuf.RpcHeaderProtos.RpcResponseHeaderProto;
+
+/**
+ * The NameNode side {@link AlignmentContext}.  The state id is the last
+ * transaction id the NameNode has written, when active, or applied, when
+ * standby.
+ */
+@InterfaceAudience.Private
+class GlobalStateIdContext implements AlignmentContext {
+  private final FSNamesystem namesystem;
+  private final RPC.Server server;
+
+  GlobalStateIdContext(FSNamesystem namesystem, RPC.Server server) {
+    this.namesystem = namesystem;
+    this.server = server;
+  }
+
+  @Override
+  public long getLastSeenStateId() {
+    return namesystem.getFSImage().getLastAppliedOrWrittenTxId();
+  }
+
+  @Override
+  public void updateResponseState(RpcResponseHeaderProto.Builder header) {
+    header.setStateId(getLastSeenStateId());
+  }
+
+  /**
+   * The NameNode ignores the state ids of responses.
+   */
+  @Override
+  public void receiveResponseState(RpcResponseHeaderProto header) {
+  }
+
+  /**
+   * The NameNode does not send requests.
+   */
+  @Override
+  public void updateRequestState(RpcRequestHeaderProto.Builder header) {
+    throw new UnsupportedOperationException(
+        "The NameNode does not send requests");
+  }
+
+  /**
+   * Let the calls waiting for a transaction check the state id again.  Must
+   * be called without holding the namesystem lock whenever the NameNode has
+   * applied edits or has become active.
+   */
+  void stateAdvanced() {
+    try {
+      server.alignmentStateAdvanced();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
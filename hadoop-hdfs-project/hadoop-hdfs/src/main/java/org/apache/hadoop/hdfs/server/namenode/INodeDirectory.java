@@ -69,7 +69,12 @@ public static INodeDirectory valueOf(INode inode, Object path
   protected static final int DEFAULT_FILES_PER_DIRECTORY = 5;
   final static byte[] ROOT_NAME = DFSUtil.string2Bytes("");
 
-  private List<INode> children = null;
+  /**
+   * The children, sorted by name, or the marker of an {@link INodePager}
+   * while they are paged out.  Children may be paged in under the read lock,
+   * so the list is published through a volatile field.
+   */
+  private volatile List<INode> children = null;
   
   /** constructor */
   public INodeDirectory(long id, byte[] name, PermissionStatus permissions,
@@ -88,7 +93,7 @@ public INodeDirectory(long id, byte[] name, PermissionStatus permissions,
   public INodeDirectory(INodeDirectory other, boolean adopt,
       Feature... featuresToCopy) {
     super(other);
-    this.children = other.children;
+    this.children = other.getChildren();
     if (adopt && this.children != null) {
       for (INode child : children) {
         child.setParent(this);
@@ -201,7 +206,42 @@ DirectoryWithQuotaFeature addDirectoryWithQuotaFeature(
   }
 
   int searchChildren(byte[] name) {
-    return children == null? -1: Collections.binarySearch(children, name);
+    final List<INode> c = getChildren();
+    return c == null? -1: Collections.binarySearch(c, name);
+  }
+
+  /** @return the children, paging them in if they are paged out. */
+  List<INode> getChildren() {
+    final List<INode> c = children;
+    return c instanceof INodePager.PagedOutChildren ?
+        ((INodePager.PagedOutChildren) c).pageIn(this) : c;
+  }
+
+  /** @return true if the children of this directory are paged out. */
+  boolean isPagedOut() {
+    return children instanceof INodePager.PagedOutChildren;
+  }
+
+  /**
+   * Set the children list as it is paged in or out: the list of the children
+   * as they are paged in, or the marker of the pager as they are paged out.
+   */
+  void setPagedChildren(List<INode> children) {
+    this.children = children;
+  }
+
+  /**
+   * Add the quota usage of the subtree of this directory, excluding the
+   * directory itself, if its children are paged out and their usage was
+   * computed with the given storage policy.
+   * @return true if the usage was added
+   */
+  boolean addPagedOutQuotaUsage(byte blockStoragePolicyId,
+      QuotaCounts counts) {
+    final List<INode> c = children;
+    return c instanceof INodePager.PagedOutChildren
+        && ((INodePager.PagedOutChildren) c).addQuotaUsage(this,
+            blockStoragePolicyId, counts);
   }
   
   public DirectoryWithSnapshotFeature addSnapshotFeature(
@@ -311,13 +351,14 @@ public void removeSnapshottableFeature() {
    */
   public void replaceChild(INode oldChild, final INode newChild,
       final INodeMap inodeMap) {
-    Preconditions.checkNotNull(children);
+    final List<INode> list = getChildren();
+    Preconditions.checkNotNull(list);
     final int i = searchChildren(newChild.getLocalNameBytes());
     Preconditions.checkState(i >= 0);
-    Preconditions.checkState(oldChild == children.get(i)
-        || oldChild == children.get(i).asReference().getReferredINode()
+    Preconditions.checkState(oldChild == list.get(i)
+        || oldChild == list.get(i).asReference().getReferredINode()
             .asReference().getReferredINode());
-    oldChild = children.get(i);
+    oldChild = list.get(i);
     
     if (oldChild.isReference() && newChild.isReference()) {
       // both are reference nodes, e.g., DstReference -> WithName
@@ -325,7 +366,7 @@ public void replaceChild(INode oldChild, final INode newChild,
           (WithCount) oldChild.asReference().getReferredINode();
       withCount.removeReference(oldChild.asReference());
     }
-    children.set(i, newChild);
+    list.set(i, newChild);
     
     // replace the instance in the created list of the diff list
     DirectoryWithSnapshotFeature sf = this.getDirectoryWithSnapshotFeature();
@@ -455,8 +496,9 @@ public ReadOnlyList<INode> getChildrenList(final int snapshotId) {
   }
   
   private ReadOnlyList<INode> getCurrentChildrenList() {
-    return children == null ? ReadOnlyList.Util.<INode> emptyList()
-        : ReadOnlyList.Util.asReadOnlyList(children);
+    final List<INode> c = getChildren();
+    return c == null ? ReadOnlyList.Util.<INode> emptyList()
+        : ReadOnlyList.Util.asReadOnlyList(c);
   }
 
   /**
@@ -505,7 +547,7 @@ public boolean removeChild(final INode child) {
       return false;
     }
 
-    final INode removed = children.remove(i);
+    final INode removed = getChildren().remove(i);
     Preconditions.checkState(removed == child);
     return true;
   }
@@ -603,8 +645,11 @@ public QuotaCounts computeQuotaUsage(BlockStoragePolicySuite bsps,
   private QuotaCounts computeDirectoryQuotaUsage(BlockStoragePolicySuite bsps,
       byte blockStoragePolicyId, QuotaCounts counts, boolean useCache,
       int lastSnapshotId) {
-    if (children != null) {
-      for (INode child : children) {
+    final List<INode> c = lastSnapshotId == Snapshot.CURRENT_STATE_ID
+        && addPagedOutQuotaUsage(blockStoragePolicyId, counts) ?
+        null : getChildren();
+    if (c != null) {
+      for (INode child : c) {
         final byte childPolicyId = child.getStoragePolicyIDForQuota(blockStoragePolicyId);
         child.computeQuotaUsage(bsps, childPolicyId, counts, useCache,
             lastSnapshotId);
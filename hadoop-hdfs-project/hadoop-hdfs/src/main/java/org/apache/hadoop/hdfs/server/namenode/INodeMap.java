@@ -28,10 +28,15 @@
 import org.apache.hadoop.util.LightWeightGSet;
 
 import com.google.common.base.Preconditions;
+import com.google.common.collect.Iterators;
 
 /**
  * Storing all the {@link INode}s and maintaining the mapping between INode ID
  * and INode.  
+ * <p>
+ * With an {@link INodePager}, the map also covers the inodes of the pager:
+ * the inodes it paged out, which {@link #get(long)} pages in, and the inodes
+ * it paged in under the read lock, until it moves them to the map itself.
  */
 public class INodeMap {
   
@@ -44,13 +49,42 @@ static INodeMap newInstance(INodeDirectory rootDir) {
     return new INodeMap(map);
   }
   
-  /** Synchronized by external lock. */
+  /**
+   * Synchronized by external lock.  Updates and lookups also synchronize on
+   * the map, as operations on different namespace partitions (see
+   * {@link FSNamesystemLock}) share it.
+   */
   private final GSet<INode, INodeWithAdditionalFields> map;
+  private INodePager pager = null;
   
+  /**
+   * @return the resident inodes, i.e. excluding the paged out ones
+   */
   public Iterator<INodeWithAdditionalFields> getMapIterator() {
+    return pager == null ? map.iterator()
+        : Iterators.concat(map.iterator(), pager.getPagedInINodes());
+  }
+
+  /** @return the inodes of the map itself, excluding those of the pager */
+  Iterator<INodeWithAdditionalFields> getOwnMapIterator() {
     return map.iterator();
   }
 
+  /** @return the number of inodes in the map itself */
+  int getOwnMapSize() {
+    synchronized (map) {
+      return map.size();
+    }
+  }
+
+  void setPager(INodePager pager) {
+    this.pager = pager;
+  }
+
+  INodePager getPager() {
+    return pager;
+  }
+
   private INodeMap(GSet<INode, INodeWithAdditionalFields> map) {
     Preconditions.checkArgument(map != null);
     this.map = map;
@@ -63,7 +97,9 @@ private INodeMap(GSet<INode, INodeWithAdditionalFields> map) {
    */
   public final void put(INode inode) {
     if (inode instanceof INodeWithAdditionalFields) {
-      map.put((INodeWithAdditionalFields)inode);
+      synchronized (map) {
+        map.put((INodeWithAdditionalFields)inode);
+      }
     }
   }
   
@@ -72,14 +108,23 @@ public final void put(INode inode) {
    * @param inode The {@link INode} to be removed.
    */
   public final void remove(INode inode) {
-    map.remove(inode);
+    synchronized (map) {
+      map.remove(inode);
+    }
+    if (pager != null) {
+      pager.remove(inode);
+    }
   }
   
   /**
-   * @return The size of the map.
+   * @return The size of the map, including the paged out inodes.
    */
   public int size() {
-    return map.size();
+    final int size;
+    synchronized (map) {
+      size = map.size();
+    }
+    return pager == null ? size : (int) (size + pager.getNumINodes());
   }
   
   /**
@@ -133,13 +178,22 @@ public byte getLocalStoragePolicyID() {
       }
     };
       
-    return map.get(inode);
+    final INode found;
+    synchronized (map) {
+      found = map.get(inode);
+    }
+    return found != null || pager == null ? found : pager.get(id);
   }
   
   /**
    * Clear the {@link #map}
    */
   public void clear() {
-    map.clear();
+    synchronized (map) {
+      map.clear();
+    }
+    if (pager != null) {
+      pager.clear();
+    }
   }
 }
@@ -0,0 +1,1137 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.namenode;
+
+import static org.apache.hadoop.hdfs.protocol.HdfsConstantsClient.BLOCK_STORAGE_POLICY_ID_UNSPECIFIED;
+import static org.apache.hadoop.hdfs.server.common.HdfsServerConstants.CRYPTO_XATTR_ENCRYPTION_ZONE;
+import static org.apache.hadoop.util.Time.monotonicNow;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.UndeclaredThrowableException;
+import java.nio.ByteBuffer;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.XAttr;
+import org.apache.hadoop.hdfs.DFSConfigKeys;
+import org.apache.hadoop.hdfs.XAttrHelper;
+import org.apache.hadoop.hdfs.server.blockmanagement.BlockInfoContiguous;
+import org.apache.hadoop.hdfs.server.blockmanagement.BlockManager;
+import org.apache.hadoop.hdfs.server.blockmanagement.BlockStoragePolicySuite;
+import org.apache.hadoop.hdfs.server.namenode.FSImageFormatProtobuf.LoaderContext;
+import org.apache.hadoop.hdfs.server.namenode.FSImageFormatProtobuf.SaverContext;
+import org.apache.hadoop.hdfs.server.namenode.FsImageProto.INodeDirectorySection;
+import org.apache.hadoop.hdfs.server.namenode.FsImageProto.INodeSection;
+import org.apache.hadoop.hdfs.server.namenode.snapshot.Snapshot;
+import org.apache.hadoop.io.IOUtils;
+import org.apache.hadoop.util.Daemon;
+import org.fusesource.leveldbjni.JniDBFactory;
+import org.iq80.leveldb.DB;
+import org.iq80.leveldb.DBIterator;
+import org.iq80.leveldb.DBException;
+import org.iq80.leveldb.Options;
+import org.iq80.leveldb.ReadOptions;
+import org.iq80.leveldb.WriteBatch;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Charsets;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+
+/**
+ * Pages the subtrees of cold directories out of the heap into a local
+ * LevelDB store, so that the heap holds the working set of the namespace
+ * rather than all of it.
+ * <p>
+ * <b>Pages.</b> The unit of paging is the subtree below a directory at a
+ * configured depth, e.g. below /user/foo for a depth of 2.  The directory
+ * is the root of the page and stays resident, as do its ancestors; while
+ * the page is out, the children list of the root is the
+ * {@link PagedOutChildren} marker of the pager, and the first access to the
+ * children pages them back in, under either lock of the namesystem.  A page
+ * is stored like the inode and inode directory sections of an fsimage, with
+ * the strings of the pager, and every inode of the page is indexed by its
+ * id so that {@link INodeMap#get(long)} can page it in.
+ * <p>
+ * A subtree is only paged out if it holds at most a configured number of
+ * inodes, none of which is under construction, a reference, with a quota,
+ * in a snapshot or the root of an encryption zone.  The blocks of a paged
+ * out file stay in the blocks map with a {@link PagedOutFile} as their
+ * collection, so that block management never pages a file in.  The blocks
+ * map only changes under the write lock of the namesystem: the blocks of a
+ * file paged in under the read lock keep their {@link PagedOutFile}, which
+ * describes the file as it was paged in, until the namesystem next takes
+ * the write lock, i.e. before anything can change the file.  The quota
+ * usage of a page is kept on the heap, so that the quota usage of the
+ * namespace can be computed without paging anything in.
+ * <p>
+ * <b>Eviction.</b> A daemon periodically compares the number of resident
+ * inodes with its limit.  Above it, the daemon takes the write lock and
+ * the checkpoint lock of the namesystem, walks the directories at the page
+ * depth, and pages out those that were not accessed since its previous
+ * walk, like the hand of a clock, until the limit is met.  Inodes paged in
+ * under the read lock are kept in a concurrent map of the pager until the
+ * next eviction moves them to the {@link INodeMap}, as the map itself may
+ * be read concurrently under the read lock.
+ * <p>
+ * <b>Loading.</b> While an fsimage is loaded, its inodes and directory
+ * entries are staged in the store rather than on the heap.  The loader
+ * then links the tree from the root down, and the pager pages out the
+ * subtree of each directory at the page depth as soon as it is linked, as
+ * long as there are too many resident inodes, so that the heap never holds
+ * the whole namespace.  A staged inode goes to the heap as the loader asks
+ * for it, e.g. as the target of a reference or the root of a snapshot.
+ * <p>
+ * <b>Edit log and checkpoints.</b> The store is a cache, never the source
+ * of truth: it is wiped on startup, and the namespace is loaded from the
+ * fsimage and the edit log, as above.  A page is written from the current
+ * state of the namespace and never modified: any change to its subtree
+ * resolves a path through its root, which pages it in and deletes it from
+ * the store first.  A page is thus never dirty with respect to the edit
+ * log.  A checkpoint saves the pages as they were in a {@link SaveView},
+ * taken along with the inodes paged in under the read lock, so that the
+ * inodes paged in while the checkpoint is saved are saved exactly once.
+ */
+@InterfaceAudience.Private
+class INodePager implements Closeable {
+  static final Log LOG = LogFactory.getLog(INodePager.class);
+
+  private static final byte PAGE_PREFIX = 'p';
+  private static final byte INDEX_PREFIX = 'i';
+  private static final byte STAGED_INODE_PREFIX = 's';
+  private static final byte STAGED_DIR_PREFIX = 'd';
+  /** Maximum number of pages out per hold of the write lock */
+  private static final int MAX_PAGE_OUTS_PER_LOCK = 16;
+
+  /**
+   * The children list of the root of a page while the page is out.  It is
+   * empty, and only gives its directory the way back to the pager.
+   */
+  final class PagedOutChildren extends AbstractList<INode> {
+    @Override
+    public INode get(int index) {
+      throw new IndexOutOfBoundsException("The children are paged out");
+    }
+
+    @Override
+    public int size() {
+      return 0;
+    }
+
+    List<INode> pageIn(INodeDirectory dir) {
+      return INodePager.this.pageIn(dir);
+    }
+
+    boolean addQuotaUsage(INodeDirectory dir, byte blockStoragePolicyId,
+        QuotaCounts counts) {
+      return INodePager.this.addQuotaUsage(dir, blockStoragePolicyId, counts);
+    }
+  }
+
+  /** What the heap keeps of a page that is out. */
+  private static class Page {
+    private final int numINodes;
+    /** The quota usage of the subtree, excluding its root */
+    private final QuotaCounts usage;
+    /** The storage policy of the root when the usage was computed */
+    private final byte storagePolicyId;
+
+    Page(int numINodes, QuotaCounts usage, byte storagePolicyId) {
+      this.numINodes = numINodes;
+      this.usage = usage;
+      this.storagePolicyId = storagePolicyId;
+    }
+  }
+
+  /**
+   * The inodes held by the pager at a point in time, to save a checkpoint:
+   * the inodes then paged in under the read lock, and the pages then out,
+   * read from a snapshot of the store.  The pager does not page anything
+   * out while a checkpoint is saved, as it holds the checkpoint lock.
+   */
+  final class SaveView implements Closeable {
+    private final org.iq80.leveldb.Snapshot snapshot;
+    private final ReadOptions readOptions;
+    private final List<INodeWithAdditionalFields> pagedInINodes;
+    private final Set<Long> pageIds;
+    private final long numPagedOutINodes;
+    private final String[] table;
+
+    private SaveView() {
+      snapshot = db.getSnapshot();
+      readOptions = new ReadOptions().snapshot(snapshot);
+      pagedInINodes = ImmutableList.copyOf(pagedIn.values());
+      pageIds = ImmutableSet.copyOf(pages.keySet());
+      numPagedOutINodes = INodePager.this.numPagedOutINodes;
+      table = stringTable;
+    }
+
+    /** @return the number of inodes in the view */
+    long getNumINodes() {
+      return pagedInINodes.size() + numPagedOutINodes;
+    }
+
+    /** @return the inodes paged in under the read lock */
+    List<INodeWithAdditionalFields> getPagedInINodes() {
+      return pagedInINodes;
+    }
+
+    /** @return true if the children of the directory are in the view */
+    boolean isPagedOut(INodeDirectory dir) {
+      return pageIds.contains(dir.getId());
+    }
+
+    /**
+     * @return the inodes of the pages, read a page at a time.  They are
+     * copies that are not linked to the namespace.
+     */
+    Iterator<INodeWithAdditionalFields> getPagedOutINodes() {
+      final Iterator<Long> ids = pageIds.iterator();
+      return new Iterator<INodeWithAdditionalFields>() {
+        private Iterator<INode> page = Collections.<INode>emptyList()
+            .iterator();
+
+        @Override
+        public boolean hasNext() {
+          while (!page.hasNext() && ids.hasNext()) {
+            long id = ids.next();
+            try {
+              page = readINodes(getPage(id, readOptions), table).iterator();
+            } catch (IOException e) {
+              throw new IllegalStateException(
+                  "Failed to read the page of directory " + id, e);
+            }
+          }
+          return page.hasNext();
+        }
+
+        @Override
+        public INodeWithAdditionalFields next() {
+          if (!hasNext()) {
+            throw new NoSuchElementException();
+          }
+          return (INodeWithAdditionalFields) page.next();
+        }
+
+        @Override
+        public void remove() {
+          throw new UnsupportedOperationException();
+        }
+      };
+    }
+
+    /** @return the directory entries of the page of the given directory */
+    List<INodeDirectorySection.DirEntry> getDirEntries(INodeDirectory dir)
+        throws IOException {
+      return readDirEntries(getPage(dir.getId(), readOptions));
+    }
+
+    @Override
+    public void close() throws IOException {
+      snapshot.close();
+    }
+  }
+
+  private final FSDirectory fsd;
+  private final DB db;
+  private final long maxResidentINodes;
+  private final int pageDepth;
+  private final int maxPageINodes;
+  private final long intervalMs;
+  private final PagedOutChildren marker = new PagedOutChildren();
+
+  /** The strings of the pages, which are never released */
+  private final SaverContext strings = new SaverContext();
+  private String[] stringTable = new String[1];
+
+  /** The pages out, by the id of their root.  Guarded by the pager. */
+  private final Map<Long, Page> pages = new HashMap<Long, Page>();
+  private long numPagedOutINodes = 0;
+  /** The inodes paged in under the read lock, by id */
+  private final ConcurrentMap<Long, INodeWithAdditionalFields> pagedIn =
+      new ConcurrentHashMap<Long, INodeWithAdditionalFields>();
+  /** The files paged in whose blocks still point to their PagedOutFile */
+  private final Queue<INodeFile> unlinkedFiles =
+      new ConcurrentLinkedQueue<INodeFile>();
+  /** The page roots accessed since the last eviction */
+  private final ConcurrentMap<Long, Boolean> referenced =
+      new ConcurrentHashMap<Long, Boolean>();
+
+  /** The context of the fsimage being loaded, null once it is loaded */
+  private LoaderContext imageContext = null;
+  /** The staged directory entries left once the tree is linked */
+  private DBIterator stagedDirs = null;
+
+  private final AtomicLong numPageIns = new AtomicLong();
+  private final AtomicLong numPageOuts = new AtomicLong();
+  private Daemon evictor = null;
+  private volatile boolean running = false;
+  private boolean closed = false;
+
+  INodePager(FSDirectory fsd, Configuration conf) throws IOException {
+    this.fsd = fsd;
+    final String dir = conf.getTrimmed(
+        DFSConfigKeys.DFS_NAMENODE_INODE_PAGER_DIR_KEY);
+    Preconditions.checkArgument(dir != null && !dir.isEmpty(),
+        DFSConfigKeys.DFS_NAMENODE_INODE_PAGER_DIR_KEY + " is not set");
+    this.maxResidentINodes = conf.getLong(
+        DFSConfigKeys.DFS_NAMENODE_INODE_PAGER_MAX_RESIDENT_KEY,
+        DFSConfigKeys.DFS_NAMENODE_INODE_PAGER_MAX_RESIDENT_DEFAULT);
+    this.pageDepth = conf.getInt(
+        DFSConfigKeys.DFS_NAMENODE_INODE_PAGER_PAGE_DEPTH_KEY,
+        DFSConfigKeys.DFS_NAMENODE_INODE_PAGER_PAGE_DEPTH_DEFAULT);
+    Preconditions.checkArgument(pageDepth > 0,
+        DFSConfigKeys.DFS_NAMENODE_INODE_PAGER_PAGE_DEPTH_KEY
+        + " must be positive");
+    this.maxPageINodes = conf.getInt(
+        DFSConfigKeys.DFS_NAMENODE_INODE_PAGER_PAGE_MAX_INODES_KEY,
+        DFSConfigKeys.DFS_NAMENODE_INODE_PAGER_PAGE_MAX_INODES_DEFAULT);
+    this.intervalMs = conf.getLong(
+        DFSConfigKeys.DFS_NAMENODE_INODE_PAGER_INTERVAL_MS_KEY,
+        DFSConfigKeys.DFS_NAMENODE_INODE_PAGER_INTERVAL_MS_DEFAULT);
+
+    // the store only caches the namespace loaded from the image and edits
+    final File dbDir = new File(dir);
+    if (dbDir.exists()) {
+      FileUtils.deleteDirectory(dbDir);
+    }
+    if (!dbDir.mkdirs()) {
+      throw new IOException("Failed to mkdir on " + dbDir);
+    }
+    Options options = new Options();
+    options.createIfMissing(true);
+    options.errorIfExists(true);
+    db = JniDBFactory.factory.open(dbDir, options);
+    LOG.info("Paging out the subtrees of cold directories at depth "
+        + pageDepth + " to " + dbDir + " above " + maxResidentINodes
+        + " resident inodes");
+  }
+
+  /** Start the eviction daemon. */
+  void start() {
+    running = true;
+    evictor = new Daemon(new Evictor());
+    evictor.setName("INodePager");
+    evictor.start();
+  }
+
+  /** Stop the eviction daemon. */
+  void stop() {
+    running = false;
+    if (evictor != null) {
+      evictor.interrupt();
+      try {
+        evictor.join(3000);
+      } catch (InterruptedException ie) {
+        Thread.currentThread().interrupt();
+      }
+      evictor = null;
+    }
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+    stop();
+    closed = true;
+    IOUtils.cleanup(LOG, db);
+  }
+
+  /**
+   * Get an inode that is not in the {@link INodeMap} itself: an inode paged
+   * in under the read lock, or a paged out inode, whose page is paged in.
+   * @return null if the pager does not hold the inode
+   */
+  INodeWithAdditionalFields get(long id) {
+    INodeWithAdditionalFields inode = pagedIn.get(id);
+    if (inode != null) {
+      return inode;
+    }
+    final INode root;
+    synchronized (this) {
+      if (imageContext != null) {
+        inode = loadStagedINode(id);
+        if (inode != null) {
+          return inode;
+        }
+      }
+      if (pages.isEmpty()) {
+        return null;
+      }
+      byte[] value = db.get(getKey(INDEX_PREFIX, id));
+      if (value == null) {
+        return null;
+      }
+      root = fsd.getINodeMap().get(ByteBuffer.wrap(value).getLong());
+    }
+    if (root == null || !root.isDirectory()) {
+      return null;
+    }
+    pageIn(root.asDirectory());
+    // the index entry of the inode went with the page
+    return (INodeWithAdditionalFields) fsd.getINodeMap().get(id);
+  }
+
+  /** Forget the inode, which leaves the namespace. */
+  void remove(INode inode) {
+    pagedIn.remove(inode.getId());
+  }
+
+  /** @return the inodes paged in under the read lock */
+  Iterator<INodeWithAdditionalFields> getPagedInINodes() {
+    return pagedIn.values().iterator();
+  }
+
+  /** @return the number of inodes held by the pager, in or out */
+  synchronized long getNumINodes() {
+    return pagedIn.size() + numPagedOutINodes;
+  }
+
+  synchronized long getNumPagedOutINodes() {
+    return numPagedOutINodes;
+  }
+
+  long getNumPageIns() {
+    return numPageIns.get();
+  }
+
+  long getNumPageOuts() {
+    return numPageOuts.get();
+  }
+
+  /** @return a view of the inodes held by the pager, to save a checkpoint */
+  synchronized SaveView createSaveView() {
+    return new SaveView();
+  }
+
+  int getPageDepth() {
+    return pageDepth;
+  }
+
+  /**
+   * Start loading an fsimage: its inodes and directory entries are staged
+   * in the store until the loader links the tree.
+   */
+  synchronized void beginImageLoad(LoaderContext context) {
+    imageContext = context;
+  }
+
+  /** Stage an inode read from the fsimage. */
+  synchronized void stageINode(INodeSection.INode n) throws IOException {
+    put(getKey(STAGED_INODE_PREFIX, n.getId()), n.toByteArray());
+  }
+
+  /** Stage a directory entry read from the fsimage. */
+  synchronized void stageDirEntry(INodeDirectorySection.DirEntry e)
+      throws IOException {
+    put(getKey(STAGED_DIR_PREFIX, e.getParent()), e.toByteArray());
+  }
+
+  /**
+   * Take the staged directory entry of the given directory out of the
+   * store.
+   * @return null if the directory has no staged entry
+   */
+  synchronized INodeDirectorySection.DirEntry takeStagedDirEntry(long id)
+      throws IOException {
+    final byte[] key = getKey(STAGED_DIR_PREFIX, id);
+    try {
+      final byte[] value = db.get(key);
+      if (value == null) {
+        return null;
+      }
+      db.delete(key);
+      return INodeDirectorySection.DirEntry.parseFrom(value);
+    } catch (DBException e) {
+      throw new IOException("Failed to read the staged entry of directory "
+          + id, e);
+    }
+  }
+
+  /**
+   * Take the next staged directory entry out of the store, once the loader
+   * linked the tree, i.e. the entry of a directory only in a snapshot.
+   * @return null if no staged entry is left
+   */
+  synchronized INodeDirectorySection.DirEntry pollStagedDirEntry()
+      throws IOException {
+    try {
+      if (stagedDirs == null) {
+        stagedDirs = db.iterator();
+        stagedDirs.seek(new byte[] {STAGED_DIR_PREFIX});
+      }
+      if (stagedDirs.hasNext()) {
+        final Map.Entry<byte[], byte[]> e = stagedDirs.next();
+        if (e.getKey()[0] == STAGED_DIR_PREFIX) {
+          db.delete(e.getKey());
+          return INodeDirectorySection.DirEntry.parseFrom(e.getValue());
+        }
+      }
+    } catch (DBException e) {
+      throw new IOException("Failed to read the staged directory entries", e);
+    }
+    IOUtils.cleanup(LOG, stagedDirs);
+    stagedDirs = null;
+    return null;
+  }
+
+  /**
+   * Page out the subtree below the given directory, which the loader has
+   * just linked, if there are too many resident inodes.
+   * @return the number of inodes paged out
+   */
+  synchronized int pageOutLoaded(INodeDirectory root) throws IOException {
+    return getNumResidentINodes() > maxResidentINodes ? pageOut(root) : 0;
+  }
+
+  /**
+   * Finish loading an fsimage: the staged inodes that the loader did not
+   * ask for, if any, go to the inode map, as they would without the pager.
+   */
+  synchronized void endImageLoad() throws IOException {
+    IOUtils.cleanup(LOG, stagedDirs);
+    stagedDirs = null;
+    final DBIterator it = db.iterator();
+    try {
+      for (it.seek(new byte[] {STAGED_INODE_PREFIX}); it.hasNext();) {
+        final Map.Entry<byte[], byte[]> e = it.next();
+        if (e.getKey()[0] != STAGED_INODE_PREFIX) {
+          break;
+        }
+        fsd.addToInodeMap(FSImageFormatPBINode.Loader.loadINode(
+            INodeSection.INode.parseFrom(e.getValue()), imageContext));
+        db.delete(e.getKey());
+      }
+    } catch (DBException e) {
+      throw new IOException("Failed to read the staged inodes", e);
+    } finally {
+      IOUtils.cleanup(LOG, it);
+    }
+    imageContext = null;
+    LOG.info("Loaded the fsimage with " + numPagedOutINodes
+        + " inodes paged out");
+  }
+
+  /**
+   * Move the staged inode of the given id to the inode map, as the loader
+   * asks for it.  The caller holds the pager.
+   * @return null if the inode is not staged
+   */
+  private INodeWithAdditionalFields loadStagedINode(long id) {
+    final byte[] key = getKey(STAGED_INODE_PREFIX, id);
+    final INode inode;
+    try {
+      final byte[] value = db.get(key);
+      if (value == null) {
+        return null;
+      }
+      inode = FSImageFormatPBINode.Loader.loadINode(
+          INodeSection.INode.parseFrom(value), imageContext);
+      db.delete(key);
+    } catch (IOException | DBException e) {
+      throw new IllegalStateException("Failed to load the staged inode " + id,
+          e);
+    }
+    fsd.addToInodeMap(inode);
+    return (INodeWithAdditionalFields) inode;
+  }
+
+  private void put(byte[] key, byte[] value) throws IOException {
+    try {
+      db.put(key, value);
+    } catch (DBException e) {
+      throw new IOException("Failed to stage the fsimage in the store", e);
+    }
+  }
+
+  /** Record an access to the page root on the given path, if any. */
+  void touch(INodesInPath iip) {
+    if (iip.length() > pageDepth) {
+      final INode inode = iip.getINode(pageDepth);
+      if (inode != null && inode.isDirectory()
+          && !referenced.containsKey(inode.getId())) {
+        referenced.put(inode.getId(), Boolean.TRUE);
+      }
+    }
+  }
+
+  /** Drop every page, when the namespace is reset. */
+  synchronized void clear() {
+    IOUtils.cleanup(LOG, stagedDirs);
+    stagedDirs = null;
+    if (!closed && (!pages.isEmpty() || imageContext != null)) {
+      final DBIterator it = db.iterator();
+      final WriteBatch batch = db.createWriteBatch();
+      try {
+        for (it.seekToFirst(); it.hasNext();) {
+          batch.delete(it.next().getKey());
+        }
+        db.write(batch);
+      } finally {
+        IOUtils.cleanup(LOG, batch, it);
+      }
+    }
+    pages.clear();
+    pagedIn.clear();
+    unlinkedFiles.clear();
+    referenced.clear();
+    numPagedOutINodes = 0;
+    imageContext = null;
+  }
+
+  /**
+   * Page the children of the given directory in, unless another thread did
+   * first.  If the page cannot be read, the directory stays paged out and
+   * the IOException is thrown as an {@link UndeclaredThrowableException},
+   * as the users of the children of a directory do not throw IOException;
+   * the RPC server unwraps it for the client.  The operations resolve and
+   * check their paths, which pages them in, before they change the
+   * namespace, so a failed page in does not leave a change half done.
+   * @return the children list of the directory
+   */
+  synchronized List<INode> pageIn(INodeDirectory dir) {
+    if (!dir.isPagedOut()) {
+      return dir.getChildren();
+    }
+    final long startTime = monotonicNow();
+    final Page page = pages.get(dir.getId());
+    Preconditions.checkState(page != null, "No page for " + dir);
+    final List<INode> inodes;
+    final List<INode> children;
+    try {
+      byte[] data = getPage(dir.getId(), null);
+      inodes = readINodes(data, stringTable);
+      children = link(dir, inodes, readDirEntries(data));
+      WriteBatch batch = db.createWriteBatch();
+      try {
+        batch.delete(getKey(PAGE_PREFIX, dir.getId()));
+        for (INode inode : inodes) {
+          batch.delete(getKey(INDEX_PREFIX, inode.getId()));
+        }
+        db.write(batch);
+      } finally {
+        IOUtils.cleanup(LOG, batch);
+      }
+    } catch (IOException | DBException e) {
+      final String msg = "Failed to page in the children of "
+          + dir.getFullPathName();
+      LOG.error(msg, e);
+      throw new UndeclaredThrowableException(new IOException(msg, e));
+    }
+
+    // the maps themselves may only change under the write lock
+    final boolean exclusive = fsd.getFSNamesystem().hasWriteLock();
+    for (INode inode : inodes) {
+      fsd.cacheName(inode);
+      if (exclusive) {
+        fsd.getINodeMap().put(inode);
+        if (inode.isFile()) {
+          linkBlocks(inode.asFile());
+        }
+      } else {
+        pagedIn.put(inode.getId(), (INodeWithAdditionalFields) inode);
+        if (inode.isFile()) {
+          unlinkedFiles.add(inode.asFile());
+        }
+      }
+    }
+    pages.remove(dir.getId());
+    numPagedOutINodes -= page.numINodes;
+    numPageIns.incrementAndGet();
+    referenced.put(dir.getId(), Boolean.TRUE);
+    dir.setPagedChildren(children);
+    if (LOG.isDebugEnabled()) {
+      LOG.debug("Paged in " + inodes.size() + " inodes below "
+          + dir.getFullPathName() + " in "
+          + (monotonicNow() - startTime) + " ms");
+    }
+    return children;
+  }
+
+  /**
+   * Link the inodes read from a page to each other, to the root of the page
+   * and to the blocks of their files, which are still in the blocks map.
+   * The blocks map itself is not changed: the blocks are linked back to
+   * their files by {@link #linkBlocks(INodeFile)}.
+   * @return the children list of the root
+   */
+  private List<INode> link(INodeDirectory root, List<INode> inodes,
+      List<INodeDirectorySection.DirEntry> entries) {
+    final Map<Long, INode> byId = new HashMap<Long, INode>(inodes.size());
+    for (INode inode : inodes) {
+      byId.put(inode.getId(), inode);
+    }
+    List<INode> children = null;
+    for (INodeDirectorySection.DirEntry e : entries) {
+      if (e.getParent() == root.getId()) {
+        children = new ArrayList<INode>(e.getChildrenCount());
+        for (long id : e.getChildrenList()) {
+          INode child = byId.get(id);
+          child.setParent(root);
+          children.add(child);
+        }
+      } else {
+        INodeDirectory parent = byId.get(e.getParent()).asDirectory();
+        for (long id : e.getChildrenList()) {
+          parent.addChild(byId.get(id));
+        }
+      }
+    }
+
+    final BlockManager bm = fsd.getFSNamesystem().getBlockManager();
+    for (INode inode : inodes) {
+      if (!inode.isFile()) {
+        continue;
+      }
+      final INodeFile file = inode.asFile();
+      final BlockInfoContiguous[] blocks = file.getBlocks();
+      for (int i = 0; i < blocks.length; i++) {
+        final BlockInfoContiguous stored = bm.getStoredBlock(blocks[i]);
+        if (stored != null) {
+          file.setBlock(i, stored);
+        }
+      }
+    }
+    return children;
+  }
+
+  /**
+   * Make the file paged in the collection of its blocks in the blocks map.
+   * The caller holds the write lock of the namesystem.
+   */
+  private void linkBlocks(INodeFile file) {
+    final BlockManager bm = fsd.getFSNamesystem().getBlockManager();
+    final BlockInfoContiguous[] blocks = file.getBlocks();
+    for (int i = 0; i < blocks.length; i++) {
+      BlockInfoContiguous stored = bm.getStoredBlock(blocks[i]);
+      if (stored == null) {
+        stored = bm.addBlockCollection(blocks[i], file);
+        file.setBlock(i, stored);
+      } else if (stored.getBlockCollection() != file) {
+        stored.setBlockCollection(file);
+      }
+    }
+  }
+
+  /**
+   * Link the blocks of the files paged in under the read lock to their
+   * files.  The namesystem calls it as it takes the write lock, so that
+   * the blocks map never changes under the read lock and the operations
+   * changing a file find its blocks linked to it.
+   */
+  void linkPagedInBlocks() {
+    INodeFile file;
+    while ((file = unlinkedFiles.poll()) != null) {
+      linkBlocks(file);
+    }
+  }
+
+  /**
+   * Page out the subtree below the given directory, if it may be paged out.
+   * The caller holds the write lock of the namesystem.
+   * @return the number of inodes paged out
+   */
+  @VisibleForTesting
+  synchronized int pageOut(INodeDirectory root) throws IOException {
+    if (root.isPagedOut() || !canBePageRoot(root)) {
+      return 0;
+    }
+    final List<INode> subtree = new ArrayList<INode>();
+    if (!collectSubtree(root, subtree) || subtree.isEmpty()) {
+      return 0;
+    }
+
+    // the usage is computed while the subtree is still linked
+    final BlockStoragePolicySuite bsps = fsd.getBlockStoragePolicySuite();
+    final byte policyId = root.getStoragePolicyID();
+    final QuotaCounts usage = new QuotaCounts.Builder().build();
+    for (INode child : root.getChildrenList(Snapshot.CURRENT_STATE_ID)) {
+      child.computeQuotaUsage(bsps, child.getStoragePolicyIDForQuota(policyId),
+          usage, false, Snapshot.CURRENT_STATE_ID);
+    }
+
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    INodeSection.newBuilder().setNumInodes(subtree.size()).build()
+        .writeDelimitedTo(out);
+    for (INode inode : subtree) {
+      FSImageFormatPBINode.Saver.buildINode(inode, strings)
+          .writeDelimitedTo(out);
+    }
+    writeDirEntry(root, out);
+    for (INode inode : subtree) {
+      if (inode.isDirectory()) {
+        writeDirEntry(inode.asDirectory(), out);
+      }
+    }
+    updateStringTable();
+
+    WriteBatch batch = db.createWriteBatch();
+    try {
+      final byte[] rootId = getKey((byte) 0, root.getId());
+      batch.put(getKey(PAGE_PREFIX, root.getId()), out.toByteArray());
+      for (INode inode : subtree) {
+        byte[] path = getRelativePath(root, inode).getBytes(Charsets.UTF_8);
+        byte[] value = new byte[8 + path.length];
+        System.arraycopy(rootId, 1, value, 0, 8);
+        System.arraycopy(path, 0, value, 8, path.length);
+        batch.put(getKey(INDEX_PREFIX, inode.getId()), value);
+      }
+      db.write(batch);
+    } catch (DBException e) {
+      throw new IOException("Failed to page out the children of "
+          + root.getFullPathName(), e);
+    } finally {
+      IOUtils.cleanup(LOG, batch);
+    }
+
+    for (INode inode : subtree) {
+      if (inode.isFile()) {
+        final PagedOutFile stub = new PagedOutFile(this, root, inode.asFile(),
+            getStoragePolicyInPage(root, inode));
+        for (BlockInfoContiguous b : inode.asFile().getBlocks()) {
+          b.setBlockCollection(stub);
+        }
+      }
+      fsd.getINodeMap().remove(inode);
+    }
+    root.setPagedChildren(marker);
+    pages.put(root.getId(), new Page(subtree.size(), usage, policyId));
+    numPagedOutINodes += subtree.size();
+    numPageOuts.incrementAndGet();
+    referenced.remove(root.getId());
+    if (LOG.isDebugEnabled()) {
+      LOG.debug("Paged out " + subtree.size() + " inodes below "
+          + root.getFullPathName());
+    }
+    return subtree.size();
+  }
+
+  /**
+   * Page out the subtrees not accessed since the previous call, until the
+   * resident inodes are within their limit or some pages went out.  The
+   * caller holds the write lock of the namesystem.
+   * @return the number of inodes paged out
+   */
+  @VisibleForTesting
+  int evict() throws IOException {
+    // the map may change now, so it takes over the inodes paged in under
+    // the read lock
+    linkPagedInBlocks();
+    for (INodeWithAdditionalFields inode : pagedIn.values()) {
+      fsd.getINodeMap().put(inode);
+    }
+    pagedIn.clear();
+
+    int numPagedOut = 0;
+    int numPages = 0;
+    for (INodeDirectory root : getPageRoots()) {
+      if (getNumResidentINodes() <= maxResidentINodes
+          || numPages >= MAX_PAGE_OUTS_PER_LOCK) {
+        break;
+      }
+      if (referenced.remove(root.getId()) != null) {
+        // second chance
+        continue;
+      }
+      int n = pageOut(root);
+      if (n > 0) {
+        numPagedOut += n;
+        numPages++;
+      }
+    }
+    return numPagedOut;
+  }
+
+  /** Lose the page of the given directory from the store. */
+  @VisibleForTesting
+  synchronized void deleteStoredPage(INodeDirectory root) {
+    db.delete(getKey(PAGE_PREFIX, root.getId()));
+  }
+
+  /** @return the number of inodes on the heap */
+  long getNumResidentINodes() {
+    return fsd.getINodeMap().size() - getNumPagedOutINodes();
+  }
+
+  /**
+   * Add the usage of a page to counts, unless it was computed with another
+   * storage policy, which happens when the policy of an ancestor changed.
+   */
+  private synchronized boolean addQuotaUsage(INodeDirectory dir,
+      byte blockStoragePolicyId, QuotaCounts counts) {
+    final Page page = pages.get(dir.getId());
+    if (page == null || page.storagePolicyId != blockStoragePolicyId) {
+      return false;
+    }
+    counts.add(page.usage);
+    return true;
+  }
+
+  /** @return the full path of the paged out inode of the given id */
+  String getFullPathName(INodeDirectory root, long id) {
+    byte[] value = null;
+    try {
+      value = db.get(getKey(INDEX_PREFIX, id));
+    } catch (DBException e) {
+      LOG.warn("Failed to read the path of inode " + id, e);
+    }
+    if (value == null) {
+      // paged in meanwhile, or unreadable
+      return FSDirectory.DOT_RESERVED_PATH_PREFIX + "/"
+          + FSDirectory.DOT_INODES_STRING + "/" + id;
+    }
+    return root.getFullPathName()
+        + new String(value, 8, value.length - 8, Charsets.UTF_8);
+  }
+
+  /** @return the directories at the page depth, in the order of the tree */
+  private List<INodeDirectory> getPageRoots() {
+    List<INodeDirectory> level = Collections.singletonList(fsd.getRoot());
+    for (int depth = 0; depth < pageDepth; depth++) {
+      List<INodeDirectory> next = new ArrayList<INodeDirectory>();
+      for (INodeDirectory dir : level) {
+        if (dir.isPagedOut()) {
+          // a page root renamed above the page depth
+          continue;
+        }
+        for (INode child : dir.getChildrenList(Snapshot.CURRENT_STATE_ID)) {
+          if (child.isDirectory() && !child.isReference()) {
+            next.add(child.asDirectory());
+          }
+        }
+      }
+      level = next;
+    }
+    return level;
+  }
+
+  /** @return false if the directory or an ancestor is in a snapshot */
+  private static boolean canBePageRoot(INodeDirectory root) {
+    for (INodeDirectory dir = root; dir != null; dir = dir.getParent()) {
+      if (dir.isSnapshottable() || dir.isWithSnapshot()) {
+        return false;
+      }
+    }
+    return !root.isReference();
+  }
+
+  /**
+   * Collect the subtree below the given root, in preorder.
+   * @return false if the subtree cannot be paged out
+   */
+  private boolean collectSubtree(INodeDirectory root, List<INode> subtree) {
+    final List<INodeDirectory> dirs = new ArrayList<INodeDirectory>();
+    dirs.add(root);
+    while (!dirs.isEmpty()) {
+      final INodeDirectory dir = dirs.remove(dirs.size() - 1);
+      for (INode child : dir.getChildrenList(Snapshot.CURRENT_STATE_ID)) {
+        if (child.isReference() || isEncryptionZoneRoot(child)
+            || subtree.size() >= maxPageINodes) {
+          return false;
+        }
+        if (child.isFile()) {
+          final INodeFile file = child.asFile();
+          if (file.isUnderConstruction() || file.isWithSnapshot()) {
+            return false;
+          }
+        } else if (child.isDirectory()) {
+          final INodeDirectory d = child.asDirectory();
+          if (d.isPagedOut() || d.isWithQuota() || d.isSnapshottable()
+              || d.isWithSnapshot()) {
+            return false;
+          }
+          dirs.add(d);
+        }
+        subtree.add(child);
+      }
+    }
+    return true;
+  }
+
+  private static boolean isEncryptionZoneRoot(INode inode) {
+    if (inode.isSymlink()) {
+      return false;
+    }
+    final XAttrFeature f = inode.getXAttrFeature();
+    if (f != null) {
+      for (XAttr xattr : f.getXAttrs()) {
+        if (CRYPTO_XATTR_ENCRYPTION_ZONE.equals(
+            XAttrHelper.getPrefixName(xattr))) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  /**
+   * @return the storage policy of the inode within its page, i.e. the
+   * first one set from the inode up to, but excluding, the root
+   */
+  private static byte getStoragePolicyInPage(INodeDirectory root,
+      INode inode) {
+    byte id = inode.getLocalStoragePolicyID();
+    for (INodeDirectory dir = inode.getParent();
+        id == BLOCK_STORAGE_POLICY_ID_UNSPECIFIED && dir != root;
+        dir = dir.getParent()) {
+      id = dir.getLocalStoragePolicyID();
+    }
+    return id;
+  }
+
+  /** @return the path of the inode below the root, starting with / */
+  private static String getRelativePath(INodeDirectory root, INode inode) {
+    final List<String> names = new ArrayList<String>();
+    for (INode n = inode; n != root; n = n.getParent()) {
+      names.add(n.getLocalName());
+    }
+    final StringBuilder b = new StringBuilder();
+    for (int i = names.size() - 1; i >= 0; i--) {
+      b.append('/').append(names.get(i));
+    }
+    return b.toString();
+  }
+
+  private static void writeDirEntry(INodeDirectory dir,
+      ByteArrayOutputStream out) throws IOException {
+    final List<INode> children = dir.getChildrenList(
+        Snapshot.CURRENT_STATE_ID);
+    if (children.isEmpty()) {
+      return;
+    }
+    INodeDirectorySection.DirEntry.Builder b = INodeDirectorySection.DirEntry
+        .newBuilder().setParent(dir.getId());
+    for (INode child : children) {
+      b.addChildren(child.getId());
+    }
+    b.build().writeDelimitedTo(out);
+  }
+
+  /** Make the strings added to the string map readable. */
+  private void updateStringTable() {
+    final SaverContext.DeduplicationMap<String> map = strings.getStringMap();
+    if (map.size() + 1 == stringTable.length) {
+      return;
+    }
+    // a new table, as views of the pager share the previous one
+    final String[] table = new String[map.size() + 1];
+    for (Map.Entry<String, Integer> e : map.entrySet()) {
+      table[e.getValue()] = e.getKey();
+    }
+    stringTable = table;
+  }
+
+  private byte[] getPage(long id, ReadOptions options) throws IOException {
+    final byte[] key = getKey(PAGE_PREFIX, id);
+    final byte[] data = options == null ? db.get(key) : db.get(key, options);
+    if (data == null) {
+      throw new IOException("The page of directory " + id + " is missing");
+    }
+    return data;
+  }
+
+  private static List<INode> readINodes(byte[] data, String[] table)
+      throws IOException {
+    final InputStream in = new ByteArrayInputStream(data);
+    final long numINodes = INodeSection.parseDelimitedFrom(in).getNumInodes();
+    final LoaderContext state = new LoaderContext(table);
+    final List<INode> inodes = new ArrayList<INode>((int) numINodes);
+    for (long i = 0; i < numINodes; i++) {
+      inodes.add(FSImageFormatPBINode.Loader.loadINode(
+          INodeSection.INode.parseDelimitedFrom(in), state));
+    }
+    return inodes;
+  }
+
+  private static List<INodeDirectorySection.DirEntry> readDirEntries(
+      byte[] data) throws IOException {
+    final InputStream in = new ByteArrayInputStream(data);
+    final long numINodes = INodeSection.parseDelimitedFrom(in).getNumInodes();
+    for (long i = 0; i < numINodes; i++) {
+      INodeSection.INode.parseDelimitedFrom(in);
+    }
+    final List<INodeDirectorySection.DirEntry> entries =
+        new ArrayList<INodeDirectorySection.DirEntry>();
+    INodeDirectorySection.DirEntry e;
+    while ((e = INodeDirectorySection.DirEntry.parseDelimitedFrom(in))
+        != null) {
+      entries.add(e);
+    }
+    return entries;
+  }
+
+  private static byte[] getKey(byte prefix, long id) {
+    return ByteBuffer.allocate(9).put(prefix).putLong(id).array();
+  }
+
+  /** Pages out cold subtrees while there are too many resident inodes. */
+  private class Evictor implements Runnable {
+    @Override
+    public void run() {
+      final FSNamesystem fsn = fsd.getFSNamesystem();
+      while (running) {
+        try {
+          Thread.sleep(intervalMs);
+          boolean more = true;
+          while (running && more && fsn.isImageLoaded()
+              && getNumResidentINodes() > maxResidentINodes) {
+            fsn.cpLockInterruptibly();
+            try {
+              fsn.writeLock();
+              fsd.writeLock();
+              try {
+                more = evict() > 0;
+              } finally {
+                fsd.writeUnlock();
+                fsn.writeUnlock();
+              }
+            } finally {
+              fsn.cpUnlock();
+            }
+          }
+        } catch (InterruptedException ie) {
+          break;
+        } catch (IOException e) {
+          LOG.warn("Failed to page out inodes", e);
+        }
+      }
+    }
+  }
+}
@@ -94,7 +94,7 @@ public class LeaseManager {
 
   LeaseManager(FSNamesystem fsnamesystem) {this.fsnamesystem = fsnamesystem;}
 
-  Lease getLease(String holder) {
+  synchronized Lease getLease(String holder) {
     return leases.get(holder);
   }
 
@@ -134,7 +134,9 @@ synchronized long getNumUnderConstructionBlocks() {
   }
 
   /** @return the lease containing src */
-  public Lease getLeaseByPath(String src) {return sortedLeasesByPath.get(src);}
+  public synchronized Lease getLeaseByPath(String src) {
+    return sortedLeasesByPath.get(src);
+  }
 
   /** @return the number of leases currently in the system */
   public synchronized int countLease() {return sortedLeases.size();}
@@ -312,6 +312,7 @@ public long getProtocolVersion(String protocol,
   private final boolean haEnabled;
   private final HAContext haContext;
   protected final boolean allowStaleStandbyReads;
+  private final boolean stateContextEnabled;
   private AtomicBoolean started = new AtomicBoolean(false); 
 
   
@@ -805,6 +806,9 @@ protected NameNode(Configuration conf, NamenodeRole role)
     this.haEnabled = HAUtil.isHAEnabled(conf, nsId);
     state = createHAState(getStartupOption(conf));
     this.allowStaleStandbyReads = HAUtil.shouldAllowStandbyReads(conf);
+    this.stateContextEnabled = conf.getBoolean(
+        DFSConfigKeys.DFS_NAMENODE_STATE_CONTEXT_ENABLED_KEY,
+        DFSConfigKeys.DFS_NAMENODE_STATE_CONTEXT_ENABLED_DEFAULT);
     this.haContext = createHAContext();
     try {
       initializeGenericKeys(conf, nsId, namenodeId);
@@ -1587,6 +1591,8 @@ synchronized void transitionToActive()
       throw new ServiceFailedException("HA for namenode is not enabled");
     }
     state.setState(haContext, ACTIVE_STATE);
+    // calls held back for a transaction can all be served now
+    namesystem.notifyStateIdAdvanced();
   }
   
   synchronized void transitionToStandby() 
@@ -1785,6 +1791,16 @@ public boolean allowStaleReads() {
       return allowStaleStandbyReads;
     }
 
+    @Override
+    public boolean allowObserverReads() {
+      if (!stateContextEnabled) {
+        return false;
+      }
+      Server.Call call = Server.getCurCall().get();
+      return call != null
+          && call.getClientStateId() != Server.Call.NO_STATE_ID;
+    }
+
   }
   
   public boolean isStandbyState() {
@@ -32,7 +32,9 @@
 import java.util.Collection;
 import java.util.EnumSet;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import com.google.common.collect.Lists;
@@ -121,7 +123,9 @@
 import org.apache.hadoop.hdfs.server.namenode.NameNode.OperationCategory;
 import org.apache.hadoop.hdfs.server.namenode.metrics.NameNodeMetrics;
 import org.apache.hadoop.hdfs.server.namenode.web.resources.NamenodeWebHdfsMethods;
+import org.apache.hadoop.hdfs.server.protocol.BlockReportBucketsCommand;
 import org.apache.hadoop.hdfs.server.protocol.BlockReportContext;
+import org.apache.hadoop.hdfs.server.protocol.BlockReportSummary;
 import org.apache.hadoop.hdfs.server.protocol.BlocksWithLocations;
 import org.apache.hadoop.hdfs.server.protocol.DatanodeCommand;
 import org.apache.hadoop.hdfs.server.protocol.DatanodeProtocol;
@@ -352,6 +356,13 @@ public NameNodeRpcServer(Configuration conf, NameNode nn)
         .setVerbose(false)
         .setSecretManager(namesystem.getDelegationTokenSecretManager())
         .build();
+    if (conf.getBoolean(DFSConfigKeys.DFS_NAMENODE_STATE_CONTEXT_ENABLED_KEY,
+        DFSConfigKeys.DFS_NAMENODE_STATE_CONTEXT_ENABLED_DEFAULT)) {
+      GlobalStateIdContext stateIdContext =
+          new GlobalStateIdContext(namesystem, clientRpcServer);
+      clientRpcServer.setAlignmentContext(stateIdContext);
+      namesystem.setStateIdContext(stateIdContext);
+    }
 
     // Add all the RPC protocols that the namenode implements
     DFSUtil.addPBProtocol(conf, HAServiceProtocolPB.class, haPbService,
@@ -1311,18 +1322,35 @@ public DatanodeCommand blockReport(DatanodeRegistration nodeReg,
     }
     final BlockManager bm = namesystem.getBlockManager(); 
     boolean noStaleStorages = false;
+    final Map<String, int[]> mismatchedBuckets =
+        new LinkedHashMap<String, int[]>();
+    int numBuckets = 0;
     for (int r = 0; r < reports.length; r++) {
       final BlockListAsLongs blocks = reports[r].getBlocks();
+      final BlockReportSummary summary = reports[r].getSummary();
       //
       // BlockManager.processReport accumulates information of prior calls
       // for the same node and storage, so the value returned by the last
       // call of this loop is the final updated value for noStaleStorage.
       //
-      noStaleStorages = bm.processReport(nodeReg, reports[r].getStorage(),
-          blocks, context, (r == reports.length - 1));
+      if (summary != null) {
+        numBuckets = summary.getNumBuckets();
+        noStaleStorages = bm.processSummaryReport(nodeReg,
+            reports[r].getStorage(), summary, context,
+            (r == reports.length - 1), mismatchedBuckets);
+      } else {
+        noStaleStorages = bm.processReport(nodeReg, reports[r].getStorage(),
+            blocks, context, (r == reports.length - 1),
+            reports[r].getNumBuckets(), reports[r].getBuckets());
+      }
       metrics.incrStorageBlockReportOps();
     }
 
+    if (!mismatchedBuckets.isEmpty()) {
+      return new BlockReportBucketsCommand(poolId, numBuckets,
+          mismatchedBuckets);
+    }
+
     if (nn.getFSImage().isUpgradeFinalized() &&
         !namesystem.isRollingUpgrade() &&
         !nn.isStandbyState() &&
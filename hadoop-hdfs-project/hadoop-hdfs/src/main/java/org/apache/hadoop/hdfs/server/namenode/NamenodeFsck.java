@@ -253,10 +253,9 @@ public void blockIdCK(String blockId) {
         return;
       }
       BlockCollection bc = bm.getBlockCollection(blockInfo);
-      INode iNode = (INode) bc;
       NumberReplicas numberReplicas= bm.countNodes(block);
       out.println("Block Id: " + blockId);
-      out.println("Block belongs to: "+iNode.getFullPathName());
+      out.println("Block belongs to: "+bc.getName());
       out.println("No. of Expected Replica: " + bc.getBlockReplication());
       out.println("No. of live Replica: " + numberReplicas.liveReplicas());
       out.println("No. of excess Replica: " + numberReplicas.excessReplicas());
@@ -46,4 +46,19 @@ public interface Namesystem extends RwLock, SafeMode {
   public void checkOperation(OperationCategory read) throws StandbyException;
 
   public boolean isInSnapshot(BlockInfoContiguousUnderConstruction blockUC);
+
+  /**
+   * Acquire the read lock for block manager state only.  The namespace must
+   * not be accessed while holding just this lock.
+   */
+  public void blockReadLock();
+
+  /** Release the block manager read lock. */
+  public void blockReadUnlock();
+
+  /** Check if the current thread holds the block manager read lock. */
+  public boolean hasBlockReadLock();
+
+  /** Check if the current thread holds the block manager write lock. */
+  public boolean hasBlockWriteLock();
 }
\ No newline at end of file
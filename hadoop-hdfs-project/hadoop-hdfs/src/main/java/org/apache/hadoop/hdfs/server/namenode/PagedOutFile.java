@@ -0,0 +1,144 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.namenode;
+
+import static org.apache.hadoop.hdfs.protocol.HdfsConstantsClient.BLOCK_STORAGE_POLICY_ID_UNSPECIFIED;
+
+import java.io.IOException;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.fs.ContentSummary;
+import org.apache.hadoop.hdfs.server.blockmanagement.BlockCollection;
+import org.apache.hadoop.hdfs.server.blockmanagement.BlockInfoContiguous;
+import org.apache.hadoop.hdfs.server.blockmanagement.BlockInfoContiguousUnderConstruction;
+import org.apache.hadoop.hdfs.server.blockmanagement.BlockStoragePolicySuite;
+import org.apache.hadoop.hdfs.server.blockmanagement.DatanodeStorageInfo;
+import org.apache.hadoop.hdfs.server.namenode.INodeFile.HeaderFormat;
+
+/**
+ * The {@link BlockCollection} of the blocks of a file whose inode is paged
+ * out by an {@link INodePager}.
+ * <p>
+ * It keeps what the block manager needs to know about the file, i.e. its
+ * blocks, its replication, preferred block size and storage policy, so that
+ * replication and block reports do not page the file in.  The storage policy
+ * kept is the one the file has within its page; when there is none, the
+ * policy is inherited from the resident root of the page.
+ * <p>
+ * The inode of a paged out file is complete and not under construction, so
+ * the operations modifying the blocks of a file under construction are not
+ * supported.
+ */
+@InterfaceAudience.Private
+final class PagedOutFile implements BlockCollection {
+  private final INodePager pager;
+  private final INodeDirectory pageRoot;
+  private final long id;
+  /** The header of the file, holding its storage policy within the page */
+  private final long header;
+  private final BlockInfoContiguous[] blocks;
+
+  PagedOutFile(INodePager pager, INodeDirectory pageRoot, INodeFile file,
+      byte storagePolicyId) {
+    this.pager = pager;
+    this.pageRoot = pageRoot;
+    this.id = file.getId();
+    this.header = HeaderFormat.toLong(file.getPreferredBlockSize(),
+        file.getFileReplication(), storagePolicyId);
+    this.blocks = file.getBlocks();
+  }
+
+  @Override
+  public long getId() {
+    return id;
+  }
+
+  @Override
+  public BlockInfoContiguous getLastBlock() {
+    return blocks == null || blocks.length == 0 ?
+        null : blocks[blocks.length - 1];
+  }
+
+  @Override
+  public ContentSummary computeContentSummary(BlockStoragePolicySuite bsps) {
+    long length = 0;
+    for (BlockInfoContiguous b : getBlocks()) {
+      length += b.getNumBytes();
+    }
+    return new ContentSummary.Builder().length(length).fileCount(1)
+        .directoryCount(0).quota(-1).spaceQuota(-1)
+        .spaceConsumed(length * getBlockReplication()).build();
+  }
+
+  @Override
+  public int numBlocks() {
+    return blocks == null ? 0 : blocks.length;
+  }
+
+  @Override
+  public BlockInfoContiguous[] getBlocks() {
+    return blocks == null ? BlockInfoContiguous.EMPTY_ARRAY : blocks;
+  }
+
+  @Override
+  public long getPreferredBlockSize() {
+    return HeaderFormat.getPreferredBlockSize(header);
+  }
+
+  @Override
+  public short getBlockReplication() {
+    return HeaderFormat.getReplication(header);
+  }
+
+  @Override
+  public byte getStoragePolicyID() {
+    byte policyId = HeaderFormat.getStoragePolicyID(header);
+    return policyId == BLOCK_STORAGE_POLICY_ID_UNSPECIFIED ?
+        pageRoot.getStoragePolicyID() : policyId;
+  }
+
+  /** @return the full path of the file, read from the pager */
+  @Override
+  public String getName() {
+    return pager.getFullPathName(pageRoot, id);
+  }
+
+  @Override
+  public void setBlock(int index, BlockInfoContiguous blk) {
+    blocks[index] = blk;
+  }
+
+  @Override
+  public BlockInfoContiguousUnderConstruction setLastBlock(
+      BlockInfoContiguous lastBlock, DatanodeStorageInfo[] targets)
+      throws IOException {
+    throw new IOException("Failed to convert the last block of "
+        + getName() + " to an under construction block: the file is paged"
+        + " out, hence complete");
+  }
+
+  @Override
+  public boolean isUnderConstruction() {
+    return false;
+  }
+
+  @Override
+  public String toString() {
+    return getClass().getSimpleName() + "(" + id + ")";
+  }
+}
@@ -35,6 +35,7 @@
 import org.apache.hadoop.hdfs.NameNodeProxies;
 import org.apache.hadoop.hdfs.client.HdfsClientConfigKeys;
 import org.apache.hadoop.hdfs.server.protocol.NamenodeProtocols;
+import org.apache.hadoop.ipc.AlignmentContext;
 import org.apache.hadoop.ipc.RPC;
 import org.apache.hadoop.security.UserGroupInformation;
 
@@ -56,15 +57,26 @@
       new ArrayList<AddressRpcProxyPair<T>>();
   private final UserGroupInformation ugi;
   private final Class<T> xface;
+  private final AlignmentContext alignmentContext;
   
   private int currentProxyIndex = 0;
 
   public ConfiguredFailoverProxyProvider(Configuration conf, URI uri,
       Class<T> xface) {
+    this(conf, uri, xface, null);
+  }
+
+  /**
+   * @param alignmentContext state id carried by the calls of every proxy
+   *   created by this provider, may be null
+   */
+  public ConfiguredFailoverProxyProvider(Configuration conf, URI uri,
+      Class<T> xface, AlignmentContext alignmentContext) {
     Preconditions.checkArgument(
         xface.isAssignableFrom(NamenodeProtocols.class),
         "Interface class %s is not a valid NameNode protocol!");
     this.xface = xface;
+    this.alignmentContext = alignmentContext;
     
     this.conf = new Configuration(conf);
     int maxRetries = this.conf.getInt(
@@ -117,11 +129,20 @@ public Class<T> getInterface() {
    */
   @Override
   public synchronized ProxyInfo<T> getProxy() {
-    AddressRpcProxyPair<T> current = proxies.get(currentProxyIndex);
+    return getProxy(currentProxyIndex);
+  }
+
+  /**
+   * Lazily initialize the RPC proxy object of the NameNode at the given
+   * index.
+   */
+  synchronized ProxyInfo<T> getProxy(int index) {
+    AddressRpcProxyPair<T> current = proxies.get(index);
     if (current.namenode == null) {
       try {
         current.namenode = NameNodeProxies.createNonHAProxy(conf,
-            current.address, xface, ugi, false, fallbackToSimpleAuth).getProxy();
+            current.address, xface, ugi, false, fallbackToSimpleAuth,
+            alignmentContext).getProxy();
       } catch (IOException e) {
         LOG.error("Failed to create RPC proxy to NameNode", e);
         throw new RuntimeException(e);
@@ -135,6 +156,16 @@ public synchronized void performFailover(T currentProxy) {
     currentProxyIndex = (currentProxyIndex + 1) % proxies.size();
   }
 
+  /** @return the number of configured NameNodes */
+  int getNumProxies() {
+    return proxies.size();
+  }
+
+  /** @return the index of the NameNode that calls currently go to */
+  synchronized int getCurrentProxyIndex() {
+    return currentProxyIndex;
+  }
+
   /**
    * A little pair object to store the address and connected RPC proxy object to
    * an NN. Note that {@link AddressRpcProxyPair#namenode} may be null.
@@ -23,6 +23,7 @@
 import java.security.PrivilegedAction;
 import java.security.PrivilegedExceptionAction;
 import java.util.Collection;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -100,6 +101,12 @@ public class EditLogTailer {
    * available to be read from.
    */
   private final long sleepTimeMs;
+
+  /**
+   * Whether the Standby should also read the edits of the in-progress
+   * segment, rather than wait for it to be finalized.
+   */
+  private final boolean inProgressOk;
   
   public EditLogTailer(FSNamesystem namesystem, Configuration conf) {
     this.tailerThread = new EditLogTailerThread();
@@ -123,11 +130,29 @@ public EditLogTailer(FSNamesystem namesystem, Configuration conf) {
           DFSConfigKeys.DFS_HA_LOGROLL_PERIOD_KEY + " is negative.");
     }
     
-    sleepTimeMs = conf.getInt(DFSConfigKeys.DFS_HA_TAILEDITS_PERIOD_KEY,
-        DFSConfigKeys.DFS_HA_TAILEDITS_PERIOD_DEFAULT) * 1000;
+    sleepTimeMs = getTailPeriodMs(conf);
+    inProgressOk = conf.getBoolean(
+        DFSConfigKeys.DFS_HA_TAILEDITS_INPROGRESS_KEY,
+        DFSConfigKeys.DFS_HA_TAILEDITS_INPROGRESS_DEFAULT);
     
     LOG.debug("logRollPeriodMs=" + logRollPeriodMs +
-        " sleepTime=" + sleepTimeMs);
+        " sleepTime=" + sleepTimeMs + " inProgressOk=" + inProgressOk);
+  }
+
+  /**
+   * The tail period is in seconds unless it has a time unit suffix, so that
+   * existing settings keep their meaning while sub-second periods, such as
+   * 500ms, can be used when tailing in-progress edits.
+   */
+  private static long getTailPeriodMs(Configuration conf) {
+    String period = conf.getTrimmed(DFSConfigKeys.DFS_HA_TAILEDITS_PERIOD_KEY);
+    if (period == null || period.matches("-?\\d+")) {
+      return conf.getInt(DFSConfigKeys.DFS_HA_TAILEDITS_PERIOD_KEY,
+          DFSConfigKeys.DFS_HA_TAILEDITS_PERIOD_DEFAULT) * 1000L;
+    }
+    return conf.getTimeDuration(DFSConfigKeys.DFS_HA_TAILEDITS_PERIOD_KEY,
+        DFSConfigKeys.DFS_HA_TAILEDITS_PERIOD_DEFAULT * 1000L,
+        TimeUnit.MILLISECONDS);
   }
   
   private InetSocketAddress getActiveNodeAddress() {
@@ -213,7 +238,8 @@ void doTailEdits() throws IOException, InterruptedException {
       }
       Collection<EditLogInputStream> streams;
       try {
-        streams = editLog.selectInputStreams(lastTxnId + 1, 0, null, false);
+        streams = editLog.selectInputStreams(lastTxnId + 1, 0, null,
+            inProgressOk);
       } catch (IOException ioe) {
         // This is acceptable. If we try to tail edits in the middle of an edits
         // log roll, i.e. the last one has been finalized but the new inprogress
@@ -249,6 +275,7 @@ void doTailEdits() throws IOException, InterruptedException {
     } finally {
       namesystem.writeUnlock();
     }
+    namesystem.notifyStateIdAdvanced();
   }
 
   /**
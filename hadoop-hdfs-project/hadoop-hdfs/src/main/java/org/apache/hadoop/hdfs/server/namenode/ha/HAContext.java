@@ -83,4 +83,11 @@ public interface HAContext {
    * while the namespace is not up to date)
    */
   boolean allowStaleReads();
+
+  /**
+   * @return true if the node may serve the current read in the standby
+   * state, because it was held back until the node had applied every
+   * transaction the client has seen.
+   */
+  boolean allowObserverReads();
 }
@@ -0,0 +1,143 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.namenode.ha;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.URI;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hdfs.ClientGSIContext;
+import org.apache.hadoop.ipc.Client;
+import org.apache.hadoop.ipc.Client.ConnectionId;
+import org.apache.hadoop.ipc.RPC;
+import org.apache.hadoop.ipc.RemoteException;
+import org.apache.hadoop.ipc.RetriableException;
+import org.apache.hadoop.ipc.RpcInvocationHandler;
+import org.apache.hadoop.ipc.StandbyException;
+
+import com.google.common.annotations.VisibleForTesting;
+
+/**
+ * A {@link ConfiguredFailoverProxyProvider} that sends the methods annotated
+ * with {@link ReadOnly} to the standby NameNodes first, and every other
+ * method to the active NameNode.
+ * <p>
+ * Every call carries the highest transaction id the client has seen from
+ * any NameNode, and a standby NameNode serving reads holds a call back
+ * until it has applied that transaction, so a read never misses a change
+ * the client has already seen.  A read goes to the next NameNode when a
+ * standby rejects it or cannot be reached, and to the active NameNode when
+ * every standby failed.  Calls made in asynchronous mode always go to the
+ * active NameNode.
+ * <p>
+ * The NameNodes must run with dfs.namenode.state.context.enabled.
+ */
+public class ObserverReadProxyProvider<T>
+    extends ConfiguredFailoverProxyProvider<T> {
+  private static final Log LOG =
+      LogFactory.getLog(ObserverReadProxyProvider.class);
+
+  private final T observerReadProxy;
+  /** Number of reads served by a standby NameNode. */
+  private final AtomicLong numObserverReads = new AtomicLong(0);
+
+  public ObserverReadProxyProvider(Configuration conf, URI uri,
+      Class<T> xface) {
+    super(conf, uri, xface, new ClientGSIContext());
+    observerReadProxy = xface.cast(Proxy.newProxyInstance(
+        xface.getClassLoader(), new Class<?>[] { xface },
+        new ObserverReadInvocationHandler()));
+  }
+
+  @Override
+  public synchronized ProxyInfo<T> getProxy() {
+    return new ProxyInfo<T>(observerReadProxy, super.getProxy().proxyInfo);
+  }
+
+  @VisibleForTesting
+  long getNumObserverReads() {
+    return numObserverReads.get();
+  }
+
+  /**
+   * @return true if a read that failed with the given exception should be
+   *         tried on the next NameNode.
+   */
+  private static boolean shouldTryNext(Throwable t) {
+    if (t instanceof RemoteException) {
+      String className = ((RemoteException) t).getClassName();
+      return StandbyException.class.getName().equals(className)
+          || RetriableException.class.getName().equals(className);
+    }
+    // the NameNode could not be reached
+    return t instanceof IOException;
+  }
+
+  private class ObserverReadInvocationHandler implements RpcInvocationHandler {
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args)
+        throws Throwable {
+      if (method.isAnnotationPresent(ReadOnly.class)
+          && !Client.isAsynchronousMode()) {
+        int active = getCurrentProxyIndex();
+        for (int i = 1; i < getNumProxies(); i++) {
+          int index = (active + i) % getNumProxies();
+          ProxyInfo<T> standby = getProxy(index);
+          try {
+            Object result = method.invoke(standby.proxy, args);
+            numObserverReads.incrementAndGet();
+            return result;
+          } catch (InvocationTargetException e) {
+            Throwable cause = e.getCause();
+            if (!shouldTryNext(cause)) {
+              throw cause;
+            }
+            if (LOG.isDebugEnabled()) {
+              LOG.debug("Read " + method.getName() + " could not be served by "
+                  + standby.proxyInfo + ": " + cause);
+            }
+          }
+        }
+      }
+      try {
+        return method.invoke(ObserverReadProxyProvider.super.getProxy().proxy,
+            args);
+      } catch (InvocationTargetException e) {
+        throw e.getCause();
+      }
+    }
+
+    @Override
+    public ConnectionId getConnectionId() {
+      return RPC.getConnectionIdForProxy(
+          ObserverReadProxyProvider.super.getProxy().proxy);
+    }
+
+    /** The proxies are closed by the provider. */
+    @Override
+    public void close() throws IOException {
+    }
+  }
+}
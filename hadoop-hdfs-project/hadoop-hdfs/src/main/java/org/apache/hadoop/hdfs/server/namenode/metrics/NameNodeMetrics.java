@@ -30,6 +30,7 @@
 import org.apache.hadoop.metrics2.lib.MetricsRegistry;
 import org.apache.hadoop.metrics2.lib.MutableCounterLong;
 import org.apache.hadoop.metrics2.lib.MutableGaugeInt;
+import org.apache.hadoop.metrics2.lib.MutableGaugeLong;
 import org.apache.hadoop.metrics2.lib.MutableQuantiles;
 import org.apache.hadoop.metrics2.lib.MutableRate;
 import org.apache.hadoop.metrics2.source.JvmMetrics;
@@ -76,6 +77,15 @@ public class NameNodeMetrics {
   MutableCounterLong blockReceivedAndDeletedOps;
   @Metric("Number of blockReports from individual storages")
   MutableCounterLong storageBlockReportOps;
+  @Metric("Number of buckets of block report summaries that matched")
+  MutableCounterLong blockReportBucketsMatched;
+  @Metric("Number of buckets of block report summaries that did not match")
+  MutableCounterLong blockReportBucketsMismatched;
+  @Metric("Number of blocks scheduled for replication")
+  MutableCounterLong replicationScheduledBlocks;
+  @Metric("Blocks scheduled for replication per second, over the last"
+      + " replication monitor iteration")
+  MutableGaugeLong replicationScheduledBlocksPerSec;
 
   @Metric("Number of file system operations")
   public long totalFileOps(){
@@ -109,6 +119,8 @@ public long totalFileOps(){
   MutableCounterLong transactionsBatchedInSync;
   @Metric("Block report") MutableRate blockReport;
   final MutableQuantiles[] blockReportQuantiles;
+  @Metric("Time the write lock is held to process a block report")
+  MutableRate blockReportLockHold;
   @Metric("Cache report") MutableRate cacheReport;
   final MutableQuantiles[] cacheReportQuantiles;
 
@@ -267,6 +279,22 @@ public void incrStorageBlockReportOps() {
     storageBlockReportOps.incr();
   }
 
+  public void incrBlockReportBuckets(long matched, long mismatched) {
+    blockReportBucketsMatched.incr(matched);
+    blockReportBucketsMismatched.incr(mismatched);
+  }
+
+  /**
+   * @param blocks the number of blocks scheduled for replication
+   * @param interval the time since the replication work was last computed
+   */
+  public void addReplicationWork(long blocks, long interval) {
+    replicationScheduledBlocks.incr(blocks);
+    if (interval > 0) {
+      replicationScheduledBlocksPerSec.set(blocks * 1000 / interval);
+    }
+  }
+
   public void addTransaction(long latency) {
     transactions.add(latency);
   }
@@ -293,6 +321,10 @@ public void addBlockReport(long latency) {
     }
   }
 
+  public void addBlockReportLockHold(long latency) {
+    blockReportLockHold.add(latency);
+  }
+
   public void addCacheBlockReport(long latency) {
     cacheReport.add(latency);
     for (MutableQuantiles q : cacheReportQuantiles) {
@@ -0,0 +1,71 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.protocol;
+
+import java.util.Map;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.classification.InterfaceStability;
+
+/**
+ * A BlockReportBucketsCommand is the answer of the namenode to a block report
+ * made of {@link BlockReportSummary}s: it instructs the datanode to report
+ * the replicas of the buckets whose summaries did not match, per storage.
+ */
+@InterfaceAudience.Private
+@InterfaceStability.Evolving
+public class BlockReportBucketsCommand extends DatanodeCommand {
+  private final String poolId;
+  private final int numBuckets;
+  private final Map<String, int[]> storageBuckets;
+
+  /**
+   * @param poolId the block pool of the report
+   * @param numBuckets the number of buckets of the summaries
+   * @param storageBuckets the mismatched buckets, by storage id
+   */
+  public BlockReportBucketsCommand(String poolId, int numBuckets,
+      Map<String, int[]> storageBuckets) {
+    super(DatanodeProtocol.DNA_BLOCKREPORT_BUCKETS);
+    this.poolId = poolId;
+    this.numBuckets = numBuckets;
+    this.storageBuckets = storageBuckets;
+  }
+
+  public String getBlockPoolId() {
+    return poolId;
+  }
+
+  public int getNumBuckets() {
+    return numBuckets;
+  }
+
+  public Map<String, int[]> getStorageBuckets() {
+    return storageBuckets;
+  }
+
+  @Override
+  public String toString() {
+    int n = 0;
+    for (int[] buckets : storageBuckets.values()) {
+      n += buckets.length;
+    }
+    return getClass().getSimpleName() + "(" + n + " of " + numBuckets
+        + " buckets in " + storageBuckets.size() + " storages)";
+  }
+}
@@ -0,0 +1,163 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.protocol;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.classification.InterfaceStability;
+import org.apache.hadoop.hdfs.protocol.BlockListAsLongs;
+import org.apache.hadoop.hdfs.protocol.BlockListAsLongs.BlockReportReplica;
+import org.apache.hadoop.hdfs.server.common.HdfsServerConstants.ReplicaState;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * A summary of the replicas of a storage, sent in place of a block report.
+ * <p>
+ * The block id space is split in buckets, and the summary holds a digest
+ * of the replicas of each bucket: the sum of a hash of the id, genstamp,
+ * length and state of every replica.  The sum does not depend on the order
+ * of the replicas, so that the namenode can compute the digests of its own
+ * view of the storage while iterating over its blocks.  The buckets whose
+ * digests differ are then the only ones whose replicas are reported.
+ * <p>
+ * The namenode does not know the state of the replicas of the blocks under
+ * construction, so it marks their buckets as mismatched whatever the
+ * digests.
+ */
+@InterfaceAudience.Private
+@InterfaceStability.Evolving
+public class BlockReportSummary {
+  private final long[] digests;
+  /** Buckets that match no summary, only set on the namenode side */
+  private final BitSet mismatched = new BitSet();
+
+  public BlockReportSummary(int numBuckets) {
+    this(new long[numBuckets]);
+  }
+
+  public BlockReportSummary(long[] digests) {
+    Preconditions.checkArgument(digests.length > 0,
+        "A summary needs at least one bucket");
+    this.digests = digests;
+  }
+
+  /**
+   * Summarize a block report.
+   * @param report the replicas of a storage
+   * @param numBuckets the number of buckets of the summary
+   * @return the summary of the report
+   */
+  public static BlockReportSummary summarize(BlockListAsLongs report,
+      int numBuckets) {
+    BlockReportSummary summary = new BlockReportSummary(numBuckets);
+    for (BlockReportReplica replica : report) {
+      summary.add(replica.getBlockId(), replica.getGenerationStamp(),
+          replica.getNumBytes(), replica.getState());
+    }
+    return summary;
+  }
+
+  /**
+   * Keep the replicas of the given buckets of a block report.
+   * @param report the replicas of a storage
+   * @param numBuckets the number of buckets of the summary
+   * @param buckets the buckets to keep
+   * @return a sorted report of the replicas of the buckets
+   */
+  public static BlockListAsLongs select(BlockListAsLongs report,
+      int numBuckets, int[] buckets) {
+    final BitSet selected = new BitSet(numBuckets);
+    for (int bucket : buckets) {
+      selected.set(bucket);
+    }
+    final BlockListAsLongs.Builder builder = BlockListAsLongs.sortedBuilder();
+    for (BlockReportReplica replica : report) {
+      if (selected.get(getBucket(replica.getBlockId(), numBuckets))) {
+        builder.add(replica);
+      }
+    }
+    return builder.build();
+  }
+
+  /** @return the bucket of a block */
+  public static int getBucket(long blockId, int numBuckets) {
+    // block ids are mostly sequential, so the buckets are evenly filled
+    return (int) ((blockId & Long.MAX_VALUE) % numBuckets);
+  }
+
+  public int getNumBuckets() {
+    return digests.length;
+  }
+
+  public long[] getDigests() {
+    return digests;
+  }
+
+  /** Add a replica to the digest of its bucket. */
+  public void add(long blockId, long genStamp, long numBytes,
+      ReplicaState state) {
+    digests[getBucket(blockId, digests.length)] +=
+        hash(blockId, genStamp, numBytes, state.getValue());
+  }
+
+  /** Mark the bucket of the given block as matching no summary. */
+  public void mismatch(long blockId) {
+    mismatched.set(getBucket(blockId, digests.length));
+  }
+
+  /**
+   * Compare this summary with a reported one.
+   * @param reported the summary reported by a datanode
+   * @return the buckets whose digests differ, in ascending order
+   */
+  public int[] getMismatchedBuckets(BlockReportSummary reported) {
+    Preconditions.checkArgument(
+        reported.getNumBuckets() == getNumBuckets(),
+        "Summaries of " + reported.getNumBuckets() + " and "
+        + getNumBuckets() + " buckets");
+    int[] buckets = new int[digests.length];
+    int n = 0;
+    for (int i = 0; i < digests.length; i++) {
+      if (mismatched.get(i) || digests[i] != reported.digests[i]) {
+        buckets[n++] = i;
+      }
+    }
+    return Arrays.copyOf(buckets, n);
+  }
+
+  private static long hash(long blockId, long genStamp, long numBytes,
+      int state) {
+    long h = mix(blockId);
+    h = mix(h ^ genStamp);
+    h = mix(h ^ numBytes);
+    return mix(h ^ state);
+  }
+
+  /** The 64-bit finalizer of MurmurHash3 */
+  private static long mix(long h) {
+    h ^= h >>> 33;
+    h *= 0xff51afd7ed558ccdL;
+    h ^= h >>> 33;
+    h *= 0xc4ceb9fe1a85ec53L;
+    h ^= h >>> 33;
+    return h;
+  }
+}
@@ -76,6 +76,7 @@ public interface DatanodeProtocol {
   final static int DNA_BALANCERBANDWIDTHUPDATE = 8; // update balancer bandwidth
   final static int DNA_CACHE = 9;      // cache blocks
   final static int DNA_UNCACHE = 10;   // uncache blocks
+  final static int DNA_BLOCKREPORT_BUCKETS = 11; // report mismatched buckets
 
   /** 
    * Register Datanode.
@@ -128,9 +129,12 @@ public HeartbeatResponse sendHeartbeat(DatanodeRegistration registration,
    *     construction replica is represented as 4 longs.
    *     This is done instead of Block[] to reduce memory used by block reports.
    * @param reports report of blocks per storage
+   *     A report may instead hold the {@link BlockReportSummary} of the
+   *     storage, or only the replicas of some buckets of its summary.
    * @param context Context information for this block report.
    *
-   * @return - the next command for DN to process.
+   * @return - the next command for DN to process.  If some summaries did
+   *     not match, a {@link BlockReportBucketsCommand}.
    * @throws IOException
    */
   @Idempotent
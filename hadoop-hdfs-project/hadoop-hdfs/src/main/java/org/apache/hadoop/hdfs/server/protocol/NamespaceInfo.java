@@ -51,7 +51,9 @@ public class NamespaceInfo extends StorageInfo {
 
   public enum Capability {
     UNKNOWN(false),
-    STORAGE_BLOCK_REPORT_BUFFERS(true); // use optimized ByteString buffers
+    STORAGE_BLOCK_REPORT_BUFFERS(true), // use optimized ByteString buffers
+    STORAGE_BLOCK_REPORT_SORTED_BUFFERS(true), // sort and delta encode them
+    STORAGE_BLOCK_REPORT_SUMMARY(true); // match summaries of the replicas
     private final long mask;
     Capability(boolean isSupported) {
       int bits = ordinal() - 1;
@@ -21,15 +21,40 @@
 import org.apache.hadoop.hdfs.protocol.BlockListAsLongs;
 
 /**
- * Block report for a Datanode storage
+ * Block report for a Datanode storage.  It holds either all the replicas of
+ * the storage, their {@link BlockReportSummary}, or the replicas of some
+ * buckets of the summary only.
  */
 public class StorageBlockReport {
   private final DatanodeStorage storage;
   private final BlockListAsLongs blocks;
+  private final BlockReportSummary summary;
+  private final int numBuckets;
+  private final int[] buckets;
   
   public StorageBlockReport(DatanodeStorage storage, BlockListAsLongs blocks) {
+    this(storage, blocks, null, 0, null);
+  }
+
+  /** A report of the summary of the replicas of the storage */
+  public StorageBlockReport(DatanodeStorage storage,
+      BlockReportSummary summary) {
+    this(storage, BlockListAsLongs.EMPTY, summary, 0, null);
+  }
+
+  /** A report of the replicas of the given buckets of the storage */
+  public StorageBlockReport(DatanodeStorage storage, BlockListAsLongs blocks,
+      int numBuckets, int[] buckets) {
+    this(storage, blocks, null, numBuckets, buckets);
+  }
+
+  private StorageBlockReport(DatanodeStorage storage, BlockListAsLongs blocks,
+      BlockReportSummary summary, int numBuckets, int[] buckets) {
     this.storage = storage;
     this.blocks = blocks;
+    this.summary = summary;
+    this.numBuckets = numBuckets;
+    this.buckets = buckets;
   }
 
   public DatanodeStorage getStorage() {
@@ -39,4 +64,19 @@ public DatanodeStorage getStorage() {
   public BlockListAsLongs getBlocks() {
     return blocks;
   }
+
+  /** @return the summary of the replicas, or null if they are reported */
+  public BlockReportSummary getSummary() {
+    return summary;
+  }
+
+  /** @return the number of buckets of a report of some buckets only */
+  public int getNumBuckets() {
+    return numBuckets;
+  }
+
+  /** @return the reported buckets, or null if the report is complete */
+  public int[] getBuckets() {
+    return buckets;
+  }
 }
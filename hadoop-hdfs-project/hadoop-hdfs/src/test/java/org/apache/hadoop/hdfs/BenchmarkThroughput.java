@@ -33,6 +33,7 @@
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.LocalDirAllocator;
 import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hdfs.client.HdfsClientConfigKeys;
 import org.apache.hadoop.util.Time;
 import org.apache.hadoop.util.Tool;
 import org.apache.hadoop.util.ToolRunner;
@@ -55,9 +56,10 @@ private void resetMeasurements() {
     startTime = Time.now();
   }
 
-  private void printMeasurements() {
-    System.out.println(" time: " +
-                       ((Time.now() - startTime)/1000));
+  private void printMeasurements(long bytes) {
+    long millis = Math.max(Time.now() - startTime, 1);
+    System.out.println(" time: " + (millis/1000) +
+                       " MB/s: " + (bytes * 1000 / millis / (1024 * 1024)));
   }
 
   private Path writeLocalFile(String name, Configuration conf,
@@ -71,7 +73,7 @@ private Path writeLocalFile(String name, Configuration conf,
       out.write(data);
     }
     out.close();
-    printMeasurements();
+    printMeasurements(total);
     return path;
   }
 
@@ -83,11 +85,13 @@ private void readLocalFile(Path path,
     InputStream in = new FileInputStream(new File(path.toString()));
     byte[] data = new byte[BUFFER_SIZE];
     long size = 0;
+    long total = 0;
     while (size >= 0) {
       size = in.read(data);
+      total += Math.max(size, 0);
     }
     in.close();
-    printMeasurements();
+    printMeasurements(total);
   }
 
   private void writeAndReadLocalFile(String name,
@@ -119,7 +123,7 @@ private Path writeFile(FileSystem fs,
       out.write(data);
     }
     out.close();
-    printMeasurements();
+    printMeasurements(total);
     return f;
   }
 
@@ -133,11 +137,13 @@ private void readFile(FileSystem fs,
     InputStream in = fs.open(f);
     byte[] data = new byte[BUFFER_SIZE];
     long val = 0;
+    long total = 0;
     while (val >= 0) {
       val = in.read(data);
+      total += Math.max(val, 0);
     }
     in.close();
-    printMeasurements();
+    printMeasurements(total);
   }
 
   private void writeAndReadFile(FileSystem fs,
@@ -165,7 +171,8 @@ private static void printUsage() {
     System.err.println("Usage: dfsthroughput [#reps]");
     System.err.println("Config properties:\n" +
       "  dfsthroughput.file.size:\tsize of each write/read (10GB)\n" +
-      "  dfsthroughput.buffer.size:\tbuffer size for write/read (4k)\n");
+      "  dfsthroughput.buffer.size:\tbuffer size for write/read (4k)\n" +
+      "  dfsthroughput.block.size:\tblock size of the dfs files (128MB)\n");
   }
 
   @Override
@@ -192,6 +199,9 @@ public int run(String[] args) throws IOException {
     long SIZE = conf.getLong("dfsthroughput.file.size",
         10L * 1024 * 1024 * 1024);
     BUFFER_SIZE = conf.getInt("dfsthroughput.buffer.size", 4 * 1024);
+    // the number of block boundaries of each dfs file
+    conf.setLong(DFSConfigKeys.DFS_BLOCK_SIZE_KEY, conf.getLong(
+        "dfsthroughput.block.size", DFSConfigKeys.DFS_BLOCK_SIZE_DEFAULT));
 
     String localDir = conf.get("mapred.temp.dir");
     if (localDir == null) {
@@ -215,8 +225,19 @@ public int run(String[] args) throws IOException {
                                   .racks(new String[]{"/foo"}).build();
       cluster.waitActive();
       FileSystem dfs = cluster.getFileSystem();
-      for(int i=0; i < reps; ++i) {
-        writeAndReadFile(dfs, "dfs", conf, SIZE);
+      // the same files with the next block written on a second pipeline
+      Configuration parallelConf = new Configuration(conf);
+      parallelConf.setBoolean(
+          HdfsClientConfigKeys.BlockWrite.PARALLEL_STREAMS_ENABLED_KEY, true);
+      FileSystem parallelDfs = FileSystem.newInstance(dfs.getUri(),
+          parallelConf);
+      try {
+        for(int i=0; i < reps; ++i) {
+          writeAndReadFile(dfs, "dfs", conf, SIZE);
+          writeAndReadFile(parallelDfs, "dfs-parallel", conf, SIZE);
+        }
+      } finally {
+        parallelDfs.close();
       }
     } finally {
       if (cluster != null) {
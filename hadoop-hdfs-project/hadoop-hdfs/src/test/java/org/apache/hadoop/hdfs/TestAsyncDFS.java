@@ -0,0 +1,133 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.FileNotFoundException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.CommonConfigurationKeys;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.permission.FsPermission;
+import org.apache.hadoop.ipc.Client;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test the asynchronous metadata operations of
+ * {@link AsyncDistributedFileSystem}.
+ */
+public class TestAsyncDFS {
+  private static final int NUM_OPS = 200;
+
+  private MiniDFSCluster cluster;
+  private DistributedFileSystem fs;
+  private AsyncDistributedFileSystem adfs;
+
+  @Before
+  public void setUp() throws Exception {
+    Configuration conf = new HdfsConfiguration();
+    conf.setInt(CommonConfigurationKeys.IPC_CLIENT_ASYNC_CALLS_MAX_KEY,
+        NUM_OPS);
+    cluster = new MiniDFSCluster.Builder(conf).numDataNodes(0).build();
+    cluster.waitActive();
+    fs = cluster.getFileSystem();
+    adfs = fs.getAsyncDistributedFileSystem();
+  }
+
+  @After
+  public void tearDown() {
+    if (cluster != null) {
+      cluster.shutdown();
+    }
+  }
+
+  @Test(timeout = 60000)
+  public void testAsyncOperations() throws Exception {
+    final Path root = new Path("/testAsyncOperations");
+    final FsPermission perm = FsPermission.getDirDefault();
+
+    // a single thread issues every operation before waiting for any of them
+    List<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+    for (int i = 0; i < NUM_OPS; i++) {
+      results.add(adfs.mkdirs(new Path(root, "dir" + i), perm));
+    }
+    for (Future<Boolean> f : results) {
+      assertTrue(f.get());
+    }
+    assertFalse(Client.isAsynchronousMode());
+
+    List<Future<FileStatus>> statuses = new ArrayList<Future<FileStatus>>();
+    for (int i = 0; i < NUM_OPS; i++) {
+      statuses.add(adfs.getFileStatus(new Path(root, "dir" + i)));
+    }
+    for (int i = 0; i < NUM_OPS; i++) {
+      FileStatus status = statuses.get(i).get();
+      assertTrue(status.isDirectory());
+      assertEquals(fs.makeQualified(new Path(root, "dir" + i)),
+          status.getPath());
+    }
+
+    results.clear();
+    for (int i = 0; i < NUM_OPS; i++) {
+      results.add(adfs.rename(new Path(root, "dir" + i),
+          new Path(root, "renamed" + i)));
+    }
+    for (Future<Boolean> f : results) {
+      assertTrue(f.get());
+    }
+    for (int i = 0; i < NUM_OPS; i++) {
+      assertFalse(fs.exists(new Path(root, "dir" + i)));
+      assertTrue(fs.exists(new Path(root, "renamed" + i)));
+    }
+
+    results.clear();
+    for (int i = 0; i < NUM_OPS; i++) {
+      results.add(adfs.delete(new Path(root, "renamed" + i), true));
+    }
+    for (Future<Boolean> f : results) {
+      assertTrue(f.get());
+    }
+    assertEquals(0, fs.listStatus(root).length);
+  }
+
+  @Test(timeout = 60000)
+  public void testAsyncErrors() throws Exception {
+    Path missing = new Path("/testAsyncErrors/missing");
+    try {
+      adfs.getFileStatus(missing).get();
+      fail("Expected getFileStatus of a missing path to fail");
+    } catch (ExecutionException e) {
+      assertTrue(e.getCause() instanceof FileNotFoundException);
+    }
+    // rename and delete of a missing path report false like their
+    // synchronous versions
+    assertFalse(adfs.rename(missing, new Path("/testAsyncErrors/dst")).get());
+    assertFalse(adfs.delete(missing, false).get());
+  }
+}
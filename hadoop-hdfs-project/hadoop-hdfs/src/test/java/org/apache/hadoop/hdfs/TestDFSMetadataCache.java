@@ -0,0 +1,193 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.EnumSet;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.XAttrSetFlag;
+import org.apache.hadoop.fs.permission.FsPermission;
+import org.apache.hadoop.hdfs.client.HdfsClientConfigKeys;
+import org.apache.hadoop.hdfs.protocol.HdfsFileStatus;
+import org.apache.hadoop.hdfs.protocol.LocatedBlocks;
+import org.apache.hadoop.hdfs.qjournal.MiniQJMHACluster;
+import org.apache.hadoop.test.GenericTestUtils;
+import org.junit.Test;
+
+import com.google.common.base.Supplier;
+
+/**
+ * Test the client-side cache of the file statuses and block locations.
+ */
+public class TestDFSMetadataCache {
+  private static final int BLOCK_SIZE = 1024;
+
+  private static Configuration getConf(long inotifyPollMs) {
+    Configuration conf = new HdfsConfiguration();
+    conf.setLong(DFSConfigKeys.DFS_BLOCK_SIZE_KEY, BLOCK_SIZE);
+    conf.setBoolean(HdfsClientConfigKeys.MetadataCache.ENABLED_KEY, true);
+    conf.setLong(HdfsClientConfigKeys.MetadataCache.INOTIFY_POLL_MS_KEY,
+        inotifyPollMs);
+    return conf;
+  }
+
+  @Test(timeout = 60000)
+  public void testHitsAndLocalInvalidation() throws IOException {
+    Configuration conf = getConf(0);
+    MiniDFSCluster cluster = new MiniDFSCluster.Builder(conf)
+        .numDataNodes(1).build();
+    try {
+      DistributedFileSystem fs = cluster.getFileSystem();
+      DFSClient client = fs.getClient();
+      DFSMetadataCache cache = client.getMetadataCache();
+      Path dir = new Path("/dir");
+      DFSTestUtil.createFile(fs, new Path(dir, "file"), 3 * BLOCK_SIZE,
+          (short) 1, 0L);
+
+      HdfsFileStatus status = client.getFileInfo("/dir/file");
+      assertEquals(0, cache.getHits());
+      assertTrue(status == client.getFileInfo("/dir/file"));
+      assertEquals(1, cache.getHits());
+
+      LocatedBlocks blocks = client.getLocatedBlocks("/dir/file", 0);
+      LocatedBlocks cached = client.getLocatedBlocks("/dir/file", 0);
+      assertEquals(2, cache.getHits());
+      assertEquals(3, cached.locatedBlockCount());
+      assertEquals(blocks.get(0).getBlock(), cached.get(0).getBlock());
+      // the streams are given copies of the list of blocks
+      assertTrue(blocks.getLocatedBlocks() != cached.getLocatedBlocks());
+
+      // the changes made through the client invalidate the cache
+      fs.setReplication(new Path("/dir/file"), (short) 2);
+      assertEquals(2, client.getFileInfo("/dir/file").getReplication());
+      fs.delete(dir, true);
+      assertNull(client.getFileInfo("/dir/file"));
+      assertEquals(2, cache.getHits());
+    } finally {
+      cluster.shutdown();
+    }
+  }
+
+  @Test(timeout = 60000)
+  public void testAttributeChangesAndAsyncCalls() throws Exception {
+    Configuration conf = getConf(0);
+    MiniDFSCluster cluster = new MiniDFSCluster.Builder(conf)
+        .numDataNodes(1).build();
+    try {
+      DistributedFileSystem fs = cluster.getFileSystem();
+      DFSClient client = fs.getClient();
+      DFSMetadataCache cache = client.getMetadataCache();
+      Path dir = new Path("/dir");
+      fs.mkdirs(dir);
+      client.getFileInfo("/dir");
+      client.getFileInfo("/dir");
+      assertEquals(1, cache.getHits());
+
+      // changes of xattrs, quotas and snapshot settings invalidate the cache
+      fs.setXAttr(dir, "user.a", new byte[] {1},
+          EnumSet.of(XAttrSetFlag.CREATE));
+      client.getFileInfo("/dir");
+      fs.setQuota(dir, 100, 100 * BLOCK_SIZE);
+      client.getFileInfo("/dir");
+      fs.allowSnapshot(dir);
+      client.getFileInfo("/dir");
+      assertEquals(1, cache.getHits());
+
+      // asynchronous calls neither read nor fill the cache, and the
+      // asynchronous changes invalidate it once they have completed
+      AsyncDistributedFileSystem adfs = fs.getAsyncDistributedFileSystem();
+      assertNull(client.getFileInfo("/dir/sub"));
+      adfs.getFileStatus(dir).get();
+      assertEquals(1, cache.getHits());
+      adfs.mkdirs(new Path(dir, "sub"), FsPermission.getDefault()).get();
+      assertNotNull(client.getFileInfo("/dir/sub"));
+      adfs.delete(new Path(dir, "sub"), true).get();
+      assertNull(client.getFileInfo("/dir/sub"));
+      assertEquals(1, cache.getHits());
+    } finally {
+      cluster.shutdown();
+    }
+  }
+
+  @Test(timeout = 120000)
+  public void testInotifyInvalidation() throws Exception {
+    Configuration conf = getConf(100);
+    MiniQJMHACluster cluster = new MiniQJMHACluster.Builder(conf).build();
+    try {
+      cluster.getDfsCluster().waitActive();
+      cluster.getDfsCluster().transitionToActive(0);
+      final DFSClient client = new DFSClient(cluster.getDfsCluster()
+          .getNameNode(0).getNameNodeAddress(), conf);
+      final DFSMetadataCache cache = client.getMetadataCache();
+      GenericTestUtils.waitFor(new Supplier<Boolean>() {
+        @Override
+        public Boolean get() {
+          return cache.isStarted();
+        }
+      }, 100, 10000);
+
+      // another client, without cache, changes the file
+      Configuration otherConf = new HdfsConfiguration(conf);
+      otherConf.setBoolean(HdfsClientConfigKeys.MetadataCache.ENABLED_KEY,
+          false);
+      DFSClient other = new DFSClient(cluster.getDfsCluster()
+          .getNameNode(0).getNameNodeAddress(), otherConf);
+      FileSystem fs = cluster.getDfsCluster().getFileSystem(0);
+      DFSTestUtil.createFile(fs, new Path("/file"), BLOCK_SIZE, (short) 1, 0L);
+      assertEquals(1, client.getFileInfo("/file").getReplication());
+      client.getFileInfo("/file");
+      assertEquals(1, cache.getHits());
+
+      other.setReplication("/file", (short) 2);
+      GenericTestUtils.waitFor(new Supplier<Boolean>() {
+        @Override
+        public Boolean get() {
+          try {
+            return client.getFileInfo("/file").getReplication() == 2;
+          } catch (IOException e) {
+            throw new RuntimeException(e);
+          }
+        }
+      }, 100, 10000);
+
+      other.delete("/file", false);
+      GenericTestUtils.waitFor(new Supplier<Boolean>() {
+        @Override
+        public Boolean get() {
+          try {
+            return client.getFileInfo("/file") == null;
+          } catch (IOException e) {
+            throw new RuntimeException(e);
+          }
+        }
+      }, 100, 10000);
+      other.close();
+      client.close();
+    } finally {
+      cluster.shutdown();
+    }
+  }
+}
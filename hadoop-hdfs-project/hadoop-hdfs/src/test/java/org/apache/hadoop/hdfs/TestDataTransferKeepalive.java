@@ -23,6 +23,7 @@
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_DATANODE_SOCKET_REUSE_KEEPALIVE_DEFAULT;
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_DATANODE_SOCKET_REUSE_KEEPALIVE_KEY;
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_DATANODE_SOCKET_WRITE_TIMEOUT_KEY;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_DATANODE_TRANSFER_WORKER_THREADS_KEY;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
@@ -118,6 +119,45 @@ public void testDatanodeRespectsKeepAliveTimeout() throws Exception {
     assertEquals(-1, peer.getInputStream().read());
   }
 
+  /**
+   * Check that with worker threads, a cached connection waits for its next
+   * operation without holding a thread on the datanode, and that the
+   * datanode still respects its keepalive timeout.
+   */
+  @Test(timeout=30000)
+  public void testIdleConnectionWithoutThread() throws Exception {
+    cluster.shutdown();
+    conf.setInt(DFS_DATANODE_TRANSFER_WORKER_THREADS_KEY, 2);
+    cluster = new MiniDFSCluster.Builder(conf).numDataNodes(1).build();
+    dn = cluster.getDataNodes().get(0);
+
+    Configuration clientConf = new Configuration(conf);
+    clientConf.setLong(DFS_CLIENT_SOCKET_CACHE_EXPIRY_MSEC_KEY, 60000L);
+    clientConf.set(DFS_CLIENT_CONTEXT, "testIdleConnectionWithoutThread");
+    DistributedFileSystem fs =
+        (DistributedFileSystem)FileSystem.get(cluster.getURI(),
+            clientConf);
+    PeerCache peerCache = ClientContext.getFromConf(clientConf).getPeerCache();
+
+    DFSTestUtil.createFile(fs, TEST_FILE, 1L, (short)1, 0L);
+    DFSTestUtil.readFile(fs, TEST_FILE);
+    assertEquals(1, peerCache.size());
+    // the connection is cached, but its xceiver is parked
+    waitForXceiverCount(0);
+
+    // the parked connection serves the next read
+    DFSTestUtil.readFile(fs, TEST_FILE);
+    assertEquals(1, peerCache.size());
+    waitForXceiverCount(0);
+
+    // Sleep for a bit longer than the keepalive timeout: the datanode
+    // closes the parked connection, and reading from it gives an EOF.
+    Thread.sleep(DFS_DATANODE_SOCKET_REUSE_KEEPALIVE_DEFAULT + 50);
+    Peer peer = peerCache.get(dn.getDatanodeId(), false);
+    assertNotNull(peer);
+    assertEquals(-1, peer.getInputStream().read());
+  }
+
   /**
    * Test that the client respects its keepalive timeout.
    */
@@ -240,6 +280,15 @@ public void testManyClosedSocketsInCache() throws Exception {
     DFSTestUtil.readFile(fs, TEST_FILE);
   }
 
+  private void waitForXceiverCount(final int expected) throws Exception {
+    GenericTestUtils.waitFor(new Supplier<Boolean>() {
+      @Override
+      public Boolean get() {
+        return getXceiverCountWithoutServer() == expected;
+      }
+    }, 50, 5000);
+  }
+
   private void assertXceiverCount(int expected) {
     int count = getXceiverCountWithoutServer();
     if (count != expected) {
@@ -0,0 +1,188 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hdfs.client.HdfsClientConfigKeys;
+import org.apache.hadoop.hdfs.protocol.DatanodeInfo;
+import org.apache.hadoop.hdfs.protocol.LocatedBlock;
+import org.apache.hadoop.hdfs.server.blockmanagement.BlockInfoContiguous;
+import org.apache.hadoop.hdfs.server.common.HdfsServerConstants.BlockUCState;
+import org.apache.hadoop.test.GenericTestUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.base.Supplier;
+
+/**
+ * Test writing the next block of a file while the previous block is still
+ * being acked.
+ */
+public class TestParallelBlockStreams {
+  private static final int BLOCK_SIZE = 64 * 1024;
+
+  private MiniDFSCluster cluster;
+  private DistributedFileSystem fs;
+
+  @Before
+  public void setUp() throws IOException {
+    Configuration conf = new HdfsConfiguration();
+    conf.setBoolean(
+        HdfsClientConfigKeys.BlockWrite.PARALLEL_STREAMS_ENABLED_KEY, true);
+    conf.setInt(DFSConfigKeys.DFS_BYTES_PER_CHECKSUM_KEY, 512);
+    conf.setInt(DFSConfigKeys.DFS_CLIENT_WRITE_PACKET_SIZE_KEY, 4096);
+    conf.setLong(DFSConfigKeys.DFS_NAMENODE_MIN_BLOCK_SIZE_KEY, 0);
+    cluster = new MiniDFSCluster.Builder(conf).numDataNodes(3).build();
+    cluster.waitActive();
+    fs = cluster.getFileSystem();
+  }
+
+  @After
+  public void tearDown() {
+    if (cluster != null) {
+      cluster.shutdown();
+    }
+  }
+
+  private void checkFile(Path p, int len) throws IOException {
+    AppendTestUtil.check(fs, p, len);
+    assertEquals((len + BLOCK_SIZE - 1) / BLOCK_SIZE,
+        fs.getFileBlockLocations(p, 0, len).length);
+  }
+
+  @Test(timeout=60000)
+  public void testWrite() throws Exception {
+    final Path p = new Path("/parallel");
+    final int len = 5 * BLOCK_SIZE + 1000;
+    FSDataOutputStream out = fs.create(p, true, 4096, (short) 3, BLOCK_SIZE);
+    AppendTestUtil.write(out, 0, len);
+    out.close();
+    checkFile(p, len);
+  }
+
+  @Test(timeout=60000)
+  public void testWriteFullBlocks() throws Exception {
+    final Path p = new Path("/full");
+    final int len = 4 * BLOCK_SIZE;
+    FSDataOutputStream out = fs.create(p, true, 4096, (short) 3, BLOCK_SIZE);
+    AppendTestUtil.write(out, 0, len);
+    out.close();
+    checkFile(p, len);
+  }
+
+  @Test(timeout=60000)
+  public void testHFlush() throws Exception {
+    final Path p = new Path("/hflush");
+    final int len = 3 * BLOCK_SIZE + 1000;
+    FSDataOutputStream out = fs.create(p, true, 4096, (short) 3, BLOCK_SIZE);
+    // the data of the previous block is visible once flushed
+    AppendTestUtil.write(out, 0, BLOCK_SIZE + 100);
+    out.hflush();
+    AppendTestUtil.check(fs, p, BLOCK_SIZE + 100);
+    AppendTestUtil.write(out, BLOCK_SIZE + 100, len - BLOCK_SIZE - 100);
+    out.close();
+    checkFile(p, len);
+  }
+
+  /**
+   * Stop a datanode of the pipeline of the previous block before its last
+   * packet is sent.  The next block is allocated, and the previous one
+   * committed, before that, and the pipeline of the committed block is
+   * recovered while the next block is being written.
+   */
+  @Test(timeout=60000)
+  public void testDatanodeFailureInPreviousBlock() throws Exception {
+    final Path p = new Path("/recover");
+    final int len = 3 * BLOCK_SIZE + 1000;
+    final CountDownLatch lastPacket = new CountDownLatch(1);
+    final CountDownLatch datanodeStopped = new CountDownLatch(1);
+    final AtomicBoolean injected = new AtomicBoolean(false);
+    DFSClientFaultInjector oldInjector = DFSClientFaultInjector.instance;
+    DFSClientFaultInjector.instance = new DFSClientFaultInjector() {
+      @Override
+      public void beforeLastPacketInBlock() {
+        if (!injected.compareAndSet(false, true)) {
+          return;
+        }
+        lastPacket.countDown();
+        try {
+          datanodeStopped.await();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+    };
+    try {
+      FSDataOutputStream out = fs.create(p, true, 4096, (short) 3,
+          BLOCK_SIZE);
+      // the first block is full, and the next streamer has packets queued
+      final int written = BLOCK_SIZE + 16 * 1024;
+      AppendTestUtil.write(out, 0, written);
+      assertTrue(lastPacket.await(30, TimeUnit.SECONDS));
+
+      // the next block is allocated before the first one is acked
+      GenericTestUtils.waitFor(new Supplier<Boolean>() {
+        @Override
+        public Boolean get() {
+          try {
+            return fs.getClient().getLocatedBlocks(p.toString(), 0)
+                .locatedBlockCount() == 2;
+          } catch (IOException e) {
+            throw new RuntimeException(e);
+          }
+        }
+      }, 100, 30000);
+      LocatedBlock first = fs.getClient().getLocatedBlocks(
+          p.toString(), 0).get(0);
+      BlockInfoContiguous stored = cluster.getNamesystem().getBlockManager()
+          .getStoredBlock(first.getBlock().getLocalBlock());
+      assertEquals(BlockUCState.COMMITTED, stored.getBlockUCState());
+      DatanodeInfo[] pipeline = first.getLocations();
+      assertEquals(3, pipeline.length);
+      cluster.stopDataNode(pipeline[pipeline.length - 1].getXferAddr());
+      datanodeStopped.countDown();
+
+      AppendTestUtil.write(out, written, len - written);
+      out.close();
+      checkFile(p, len);
+      // the pipeline of the committed block was recovered
+      assertTrue(fs.getClient().getLocatedBlocks(p.toString(), 0).get(0)
+          .getBlock().getGenerationStamp()
+          > first.getBlock().getGenerationStamp());
+
+      // the edit log replays the new generation stamp of the committed block
+      cluster.restartNameNode();
+      fs = cluster.getFileSystem();
+      checkFile(p, len);
+    } finally {
+      datanodeStopped.countDown();
+      DFSClientFaultInjector.instance = oldInjector;
+    }
+  }
+}
@@ -19,9 +19,14 @@
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
+import java.io.EOFException;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Random;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
@@ -34,6 +39,7 @@
 import org.apache.hadoop.fs.ChecksumException;
 import org.apache.hadoop.fs.FSDataInputStream;
 import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileRange;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.hdfs.client.HdfsClientConfigKeys;
@@ -493,6 +499,76 @@ public void testPreadLocalFS() throws IOException {
     }
   }
 
+  private void vectoredReadFile(FileSystem fileSys, Path name)
+      throws Exception {
+    byte[] expected = new byte[fileSize];
+    new Random(seed).nextBytes(expected);
+    // ranges out of order, close to each other, spanning blocks, and past
+    // the end of the file
+    List<FileRange> ranges = Arrays.asList(
+        new FileRange(5 * blockSize + 100, 200),
+        new FileRange(0, 100),
+        new FileRange(150, 1000),
+        new FileRange(blockSize - 10, 30),
+        new FileRange(fileSize - 50, 40),
+        new FileRange(fileSize - 10, 20));
+    FSDataInputStream stm = fileSys.open(name);
+    try {
+      stm.readVectored(ranges);
+      for (FileRange r : ranges.subList(0, ranges.size() - 1)) {
+        ByteBuffer data = r.getData().get();
+        assertEquals(r.getLength(), data.remaining());
+        byte[] actual = new byte[r.getLength()];
+        data.get(actual);
+        checkAndEraseData(actual, (int) r.getOffset(), expected,
+            "Vectored Read " + r);
+      }
+      try {
+        ranges.get(ranges.size() - 1).getData().get();
+        fail("Expected an EOFException");
+      } catch (ExecutionException e) {
+        assertTrue(e.getCause() instanceof EOFException);
+      }
+      // the stream position is unchanged
+      assertEquals(0, stm.getPos());
+    } finally {
+      stm.close();
+    }
+  }
+
+  @Test
+  public void testVectoredReadDFS() throws Exception {
+    Configuration conf = new Configuration();
+    conf.setLong(DFSConfigKeys.DFS_BLOCK_SIZE_KEY, blockSize);
+    conf.setInt(HdfsClientConfigKeys.Read.Vectored.THREADPOOL_SIZE_KEY, 3);
+    MiniDFSCluster cluster =
+        new MiniDFSCluster.Builder(conf).numDataNodes(3).build();
+    FileSystem fileSys = cluster.getFileSystem();
+    try {
+      Path file1 = new Path("/vectoredreadtest.dat");
+      writeFile(fileSys, file1);
+      vectoredReadFile(fileSys, file1);
+      cleanupFile(fileSys, file1);
+    } finally {
+      fileSys.close();
+      cluster.shutdown();
+    }
+  }
+
+  @Test
+  public void testVectoredReadLocalFS() throws Exception {
+    Configuration conf = new HdfsConfiguration();
+    FileSystem fileSys = FileSystem.getLocal(conf).getRaw();
+    try {
+      Path file1 = new Path("build/test/data", "vectoredreadtest.dat");
+      writeFile(fileSys, file1);
+      vectoredReadFile(fileSys, file1);
+      cleanupFile(fileSys, file1);
+    } finally {
+      fileSys.close();
+    }
+  }
+
   public static void main(String[] args) throws Exception {
     new TestPread().testPreadDFS();
   }
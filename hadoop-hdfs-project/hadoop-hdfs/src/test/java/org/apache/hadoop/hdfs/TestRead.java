@@ -28,6 +28,8 @@
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.hdfs.DFSTestUtil.ShortCircuitTestContext;
+import org.apache.hadoop.hdfs.client.HdfsClientConfigKeys;
+import org.apache.hadoop.hdfs.client.HdfsDataInputStream;
 import org.junit.Test;
 
 public class TestRead {
@@ -82,6 +84,107 @@ public void testEOFWithRemoteBlockReader() throws Exception {
     cluster.shutdown();
   }
 
+  @Test(timeout=60000)
+  public void testBlockPrefetch() throws Exception {
+    final int blockSize = 8 * BLOCK_SIZE;
+    final int numBlocks = 5;
+    final Configuration conf = new Configuration();
+    conf.setLong(DFSConfigKeys.DFS_NAMENODE_MIN_BLOCK_SIZE_KEY, 0);
+    conf.setLong(DFSConfigKeys.DFS_BLOCK_SIZE_KEY, blockSize);
+    conf.setInt(
+        HdfsClientConfigKeys.Read.BlockPrefetch.THREADPOOL_SIZE_KEY, 2);
+    conf.setLong(
+        HdfsClientConfigKeys.Read.BlockPrefetch.SEQUENTIAL_BYTES_KEY,
+        2 * BLOCK_SIZE);
+    MiniDFSCluster cluster = new MiniDFSCluster.Builder(conf).numDataNodes(1)
+        .format(true).build();
+    try {
+      FileSystem fs = cluster.getFileSystem();
+      Path path = new Path("testBlockPrefetch");
+      DFSTestUtil.createFile(fs, path, numBlocks * blockSize, (short)1,
+          0xBEEFBEEF);
+      byte[] expected = DFSTestUtil.readFileBuffer(fs, path);
+
+      // a sequential read gets the next blocks from the prefetches
+      HdfsDataInputStream in = (HdfsDataInputStream) fs.open(path);
+      byte[] actual = new byte[expected.length];
+      for (int off = 0; off < actual.length; off += BLOCK_SIZE) {
+        in.readFully(actual, off, BLOCK_SIZE);
+      }
+      Assert.assertArrayEquals(expected, actual);
+      Assert.assertEquals(0,
+          in.getReadStatistics().getBlockPrefetchMisses());
+      Assert.assertTrue(
+          in.getReadStatistics().getBlockPrefetchHits() > 0);
+
+      // a seek elsewhere discards the prefetch
+      in.seek(0);
+      in.readFully(actual, 0, 4 * BLOCK_SIZE);
+      in.seek(3 * blockSize);
+      in.readFully(actual, 3 * blockSize, BLOCK_SIZE);
+      Assert.assertArrayEquals(expected, actual);
+      in.close();
+    } finally {
+      cluster.shutdown();
+    }
+  }
+
+  @Test(timeout=60000)
+  public void testBlockPrefetchWindow() throws Exception {
+    final int blockSize = 8 * BLOCK_SIZE;
+    final Configuration conf = new Configuration();
+    conf.setLong(DFSConfigKeys.DFS_NAMENODE_MIN_BLOCK_SIZE_KEY, 0);
+    conf.setLong(DFSConfigKeys.DFS_BLOCK_SIZE_KEY, blockSize);
+    conf.setInt(
+        HdfsClientConfigKeys.Read.BlockPrefetch.THREADPOOL_SIZE_KEY, 2);
+    conf.setLong(
+        HdfsClientConfigKeys.Read.BlockPrefetch.SEQUENTIAL_BYTES_KEY,
+        BLOCK_SIZE);
+    conf.setLong(
+        HdfsClientConfigKeys.Read.BlockPrefetch.WINDOW_BYTES_KEY,
+        2 * BLOCK_SIZE);
+    MiniDFSCluster cluster = new MiniDFSCluster.Builder(conf).numDataNodes(1)
+        .format(true).build();
+    try {
+      FileSystem fs = cluster.getFileSystem();
+      Path path = new Path("testBlockPrefetchWindow");
+      DFSTestUtil.createFile(fs, path, 3 * blockSize, (short)1, 0xBEEFBEEF);
+      byte[] expected = DFSTestUtil.readFileBuffer(fs, path);
+
+      HdfsDataInputStream in = (HdfsDataInputStream) fs.open(path);
+      DFSInputStream dfsIn = (DFSInputStream) in.getWrappedStream();
+      byte[] actual = new byte[expected.length];
+      // the read is sequential, but too far from the end of the block
+      int off = 0;
+      for (; off + BLOCK_SIZE < blockSize - 2 * BLOCK_SIZE;
+          off += BLOCK_SIZE) {
+        in.readFully(actual, off, BLOCK_SIZE);
+        Assert.assertFalse(dfsIn.isBlockPrefetchStarted());
+      }
+      // the next block is prefetched within the window
+      in.readFully(actual, off, BLOCK_SIZE);
+      off += BLOCK_SIZE;
+      Assert.assertTrue(dfsIn.isBlockPrefetchStarted());
+
+      // the prefetched reader is taken at the block boundary, and the next
+      // prefetch waits for the window of the second block
+      for (; off <= blockSize; off += BLOCK_SIZE) {
+        in.readFully(actual, off, BLOCK_SIZE);
+      }
+      Assert.assertEquals(1,
+          in.getReadStatistics().getBlockPrefetchHits());
+      Assert.assertFalse(dfsIn.isBlockPrefetchStarted());
+
+      in.readFully(actual, off, actual.length - off);
+      Assert.assertArrayEquals(expected, actual);
+      Assert.assertEquals(0,
+          in.getReadStatistics().getBlockPrefetchMisses());
+      in.close();
+    } finally {
+      cluster.shutdown();
+    }
+  }
+
   /**
    * Regression test for HDFS-7045.
    * If deadlock happen, the test will time out.
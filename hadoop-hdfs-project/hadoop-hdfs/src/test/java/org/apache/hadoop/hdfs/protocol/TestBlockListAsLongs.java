@@ -27,6 +27,8 @@
 import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.mock;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
@@ -48,6 +50,7 @@
 import org.apache.hadoop.hdfs.server.datanode.ReplicaBeingWritten;
 import org.apache.hadoop.hdfs.server.datanode.ReplicaWaitingToBeRecovered;
 import org.apache.hadoop.hdfs.server.protocol.BlockReportContext;
+import org.apache.hadoop.hdfs.server.protocol.BlockReportSummary;
 import org.apache.hadoop.hdfs.server.protocol.DatanodeRegistration;
 import org.apache.hadoop.hdfs.server.protocol.DatanodeStorage;
 import org.apache.hadoop.hdfs.server.protocol.NamespaceInfo;
@@ -140,6 +143,104 @@ public void testFuzz() throws InterruptedException {
     checkReport(replicas);
   }
 
+  @Test
+  public void testSorted() throws IOException {
+    List<Replica> replicas = new ArrayList<Replica>();
+    Random rand = new Random(0);
+    for (int i = 0; i < 10000; i++) {
+      // mostly sequential ids, with a few legacy random ones
+      long id = i % 100 == 0 ? rand.nextLong() : (1L << 30) + 2 * i;
+      Block b = new Block(id, rand.nextInt(1 << 20), 1000 + i / 10);
+      replicas.add(i % 10 == 0 ?
+          new ReplicaBeingWritten(b, null, null, null) :
+          new FinalizedReplica(b, null, null));
+    }
+    Collections.shuffle(replicas, rand);
+    Map<Long, Replica> expectedReplicas = new HashMap<>();
+    for (Replica replica : replicas) {
+      expectedReplicas.put(replica.getBlockId(), replica);
+    }
+
+    BlockListAsLongs blocks = BlockListAsLongs.encode(replicas);
+    BlockListAsLongs sorted = blocks.sort();
+    assertFalse(blocks.isSorted());
+    assertTrue(sorted.isSorted());
+    assertTrue(sorted == sorted.sort());
+    assertTrue(sorted.getBlocksBuffer().size()
+        < blocks.getBlocksBuffer().size());
+
+    BlockListAsLongs decoded = BlockListAsLongs.decodeBuffers(
+        replicas.size(), sorted.getBlocksBuffers(), true);
+    checkReplicas(expectedReplicas, decoded);
+    long prevId = Long.MIN_VALUE;
+    for (BlockReportReplica replica : decoded) {
+      assertTrue(replica.getBlockId() > prevId);
+      prevId = replica.getBlockId();
+    }
+    // the old-style list of longs does not depend on the encoding
+    assertArrayEquals(BlockListAsLongs.decodeLongs(toList(
+        blocks.getBlockListAsLongs())).sort().getBlockListAsLongs(),
+        decoded.getBlockListAsLongs());
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    sorted.writeTo(out);
+    BlockListAsLongs read = BlockListAsLongs.readFrom(
+        new ByteArrayInputStream(out.toByteArray()));
+    assertTrue(read.isSorted());
+    checkReplicas(expectedReplicas, read);
+  }
+
+  @Test
+  public void testSummary() {
+    final int numBuckets = 16;
+    List<Replica> replicas = new ArrayList<Replica>();
+    for (int i = 0; i < 100; i++) {
+      replicas.add(new FinalizedReplica(new Block(i, i, 1000), null, null));
+    }
+    BlockListAsLongs blocks = BlockListAsLongs.encode(replicas);
+    BlockReportSummary summary =
+        BlockReportSummary.summarize(blocks, numBuckets);
+    assertArrayEquals(new int[0], BlockReportSummary.summarize(
+        blocks.sort(), numBuckets).getMismatchedBuckets(summary));
+
+    // a replica with another genstamp, one in another state and one
+    // missing only mismatch their buckets
+    replicas.set(1, new FinalizedReplica(new Block(1, 1, 1001), null, null));
+    replicas.set(2, new ReplicaBeingWritten(new Block(2, 2, 1000), null, null,
+        null));
+    replicas.remove(3);
+    BlockReportSummary changed = BlockReportSummary.summarize(
+        BlockListAsLongs.encode(replicas), numBuckets);
+    int[] mismatched = changed.getMismatchedBuckets(summary);
+    assertArrayEquals(new int[] {1, 2, 3}, mismatched);
+
+    // a bucket can be mismatched whatever its digest
+    summary.mismatch(5);
+    assertArrayEquals(new int[] {5}, summary.getMismatchedBuckets(
+        BlockReportSummary.summarize(blocks, numBuckets)));
+
+    BlockListAsLongs selected = BlockReportSummary.select(blocks,
+        numBuckets, mismatched);
+    assertTrue(selected.isSorted());
+    int n = 0;
+    for (BlockReportReplica replica : selected) {
+      int bucket = BlockReportSummary.getBucket(replica.getBlockId(),
+          numBuckets);
+      assertTrue(bucket >= 1 && bucket <= 3);
+      n++;
+    }
+    // seven of the ids 0 to 99 fall in each of the buckets 1, 2 and 3
+    assertEquals(21, n);
+  }
+
+  private static List<Long> toList(long[] longs) {
+    List<Long> list = new ArrayList<Long>();
+    for (long value : longs) {
+      list.add(value);
+    }
+    return list;
+  }
+
   private BlockListAsLongs checkReport(Replica...replicas) {
     Map<Long, Replica> expectedReplicas = new HashMap<>();
     for (Replica replica : replicas) {
@@ -226,6 +327,18 @@ public BlockReportResponseProto answer(InvocationOnMock invocation) {
     assertNotNull(proto);
     assertTrue(proto.getReports(0).getBlocksList().isEmpty());
     assertFalse(proto.getReports(0).getBlocksBuffersList().isEmpty());
+    assertFalse(proto.getReports(0).getSorted());
+
+    // check DN sends sorted BR
+    request.set(null);
+    nsInfo.setCapabilities(Capability.STORAGE_BLOCK_REPORT_BUFFERS.getMask()
+        | Capability.STORAGE_BLOCK_REPORT_SORTED_BUFFERS.getMask());
+    nn.blockReport(reg, "pool", sbr,
+        new BlockReportContext(1, 0, System.nanoTime()));
+    proto = request.get();
+    assertNotNull(proto);
+    assertFalse(proto.getReports(0).getBlocksBuffersList().isEmpty());
+    assertTrue(proto.getReports(0).getSorted());
     
     // back up to prior version and check DN sends old-style BR
     request.set(null);
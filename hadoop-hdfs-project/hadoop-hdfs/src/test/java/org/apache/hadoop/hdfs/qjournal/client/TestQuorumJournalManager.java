@@ -44,6 +44,7 @@
 import org.apache.commons.logging.impl.Log4JLogger;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.CommonConfigurationKeysPublic;
+import org.apache.hadoop.hdfs.DFSConfigKeys;
 import org.apache.hadoop.hdfs.qjournal.MiniJournalCluster;
 import org.apache.hadoop.hdfs.qjournal.QJMTestUtil;
 import org.apache.hadoop.hdfs.qjournal.protocol.QJournalProtocolProtos.SegmentStateProto;
@@ -930,6 +931,59 @@ public void testSelectInputStreamsNotOnBoundary() throws Exception {
     
     verifyEdits(streams, 25, 50);
   }
+
+  @Test
+  public void testSelectInProgressInputStreamsViaRpc() throws Exception {
+    // the JournalNodes only keep an edits cache with in-progress tailing
+    // enabled, so restart them with it
+    cluster.shutdown();
+    conf.setBoolean(DFSConfigKeys.DFS_HA_TAILEDITS_INPROGRESS_KEY, true);
+    cluster = new MiniJournalCluster.Builder(conf).build();
+    qjm = createSpyingQJM();
+    qjm.format(QJMTestUtil.FAKE_NSINFO);
+    qjm.recoverUnfinalizedSegments();
+
+    writeSegment(cluster, qjm, 1, 3, true);
+    EditLogOutputStream stm = writeSegment(cluster, qjm, 4, 3, false);
+    // so that any quorum of responses sees every edit
+    waitForAllPendingCalls(qjm.getLoggerSetForTests());
+
+    QuorumJournalManager readerQjm = createSpyingQJM();
+    List<EditLogInputStream> streams = Lists.newArrayList();
+    try {
+      readerQjm.selectInputStreams(streams, 4, true);
+      verifyEdits(streams, 4, 6);
+      IOUtils.cleanup(LOG, streams.toArray(new Closeable[0]));
+      streams.clear();
+
+      // a request within a batch skips the earlier edits of the batch
+      readerQjm.selectInputStreams(streams, 5, true);
+      verifyEdits(streams, 5, 6);
+      IOUtils.cleanup(LOG, streams.toArray(new Closeable[0]));
+      streams.clear();
+
+      // nothing new yet
+      readerQjm.selectInputStreams(streams, 7, true);
+      assertTrue(streams.isEmpty());
+
+      writeTxns(stm, 7, 2);
+      waitForAllPendingCalls(qjm.getLoggerSetForTests());
+      readerQjm.selectInputStreams(streams, 7, true);
+      verifyEdits(streams, 7, 8);
+      IOUtils.cleanup(LOG, streams.toArray(new Closeable[0]));
+      streams.clear();
+    } finally {
+      IOUtils.cleanup(LOG, streams.toArray(new Closeable[0]));
+      stm.abort();
+    }
+
+    // every read was served from the caches, not from the segment files
+    for (AsyncLogger logger :
+        readerQjm.getLoggerSetForTests().getLoggersForTests()) {
+      Mockito.verify(logger, Mockito.never()).getEditLogManifest(
+          Mockito.anyLong(), Mockito.anyBoolean());
+    }
+  }
   
   
   private QuorumJournalManager createSpyingQJM()
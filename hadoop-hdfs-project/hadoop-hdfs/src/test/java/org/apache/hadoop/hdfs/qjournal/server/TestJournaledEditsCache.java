@@ -0,0 +1,136 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.qjournal.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+
+import org.apache.hadoop.hdfs.qjournal.QJMTestUtil;
+import org.apache.hadoop.hdfs.qjournal.protocol.QJournalProtocolProtos.GetJournaledEditsResponseProto;
+import org.apache.hadoop.hdfs.qjournal.server.JournaledEditsCache.CacheMissException;
+import org.apache.hadoop.hdfs.server.namenode.EditLogFileInputStream;
+import org.apache.hadoop.hdfs.server.namenode.EditLogInputStream;
+import org.apache.hadoop.hdfs.server.namenode.NameNodeLayoutVersion;
+import org.junit.Test;
+
+public class TestJournaledEditsCache {
+  private static final int LAYOUT_VERSION =
+      NameNodeLayoutVersion.CURRENT_LAYOUT_VERSION;
+
+  private static byte[] store(JournaledEditsCache cache, long segmentTxId,
+      int firstTxId, int numTxns) throws Exception {
+    byte[] records = QJMTestUtil.createTxnData(firstTxId, numTxns);
+    cache.storeEdits(segmentTxId, firstTxId, firstTxId + numTxns - 1,
+        LAYOUT_VERSION, records);
+    return records;
+  }
+
+  /** Check that the response holds exactly the given transactions. */
+  private static void assertEdits(GetJournaledEditsResponseProto resp,
+      long firstTxId, long lastTxId) throws IOException {
+    assertEquals(firstTxId, resp.getFirstTxId());
+    assertEquals(lastTxId - firstTxId + 1, resp.getTxnCount());
+    EditLogInputStream elis = EditLogFileInputStream.fromByteString(
+        resp.getEditLog(), "test", firstTxId, lastTxId, true);
+    try {
+      for (long txid = firstTxId; txid <= lastTxId; txid++) {
+        assertEquals(txid, elis.readOp().getTransactionId());
+      }
+      assertNull(elis.readOp());
+    } finally {
+      elis.close();
+    }
+  }
+
+  private static void assertMiss(JournaledEditsCache cache, long sinceTxId)
+      throws IOException {
+    try {
+      cache.retrieveEdits(sinceTxId, 100);
+      fail("Expected a cache miss for txid " + sinceTxId);
+    } catch (CacheMissException e) {
+      // expected
+    }
+  }
+
+  @Test
+  public void testRetrieveWholeBatches() throws Exception {
+    JournaledEditsCache cache = new JournaledEditsCache(1024 * 1024);
+    assertMiss(cache, 1);
+
+    store(cache, 1, 1, 5);
+    store(cache, 1, 6, 5);
+    store(cache, 1, 11, 5);
+    assertEdits(cache.retrieveEdits(1, 100), 1, 15);
+    // a batch is never split
+    assertEdits(cache.retrieveEdits(8, 100), 6, 15);
+    assertEdits(cache.retrieveEdits(1, 7), 1, 10);
+    assertEdits(cache.retrieveEdits(1, 1), 1, 5);
+
+    // nothing written yet at or after the requested txid
+    GetJournaledEditsResponseProto resp = cache.retrieveEdits(16, 100);
+    assertEquals(16, resp.getFirstTxId());
+    assertEquals(0, resp.getTxnCount());
+  }
+
+  @Test
+  public void testSegmentBoundary() throws Exception {
+    JournaledEditsCache cache = new JournaledEditsCache(1024 * 1024);
+    store(cache, 1, 1, 5);
+    store(cache, 1, 6, 5);
+    store(cache, 11, 11, 5);
+    assertEdits(cache.retrieveEdits(3, 100), 1, 10);
+    assertEdits(cache.retrieveEdits(11, 100), 11, 15);
+  }
+
+  @Test
+  public void testEviction() throws Exception {
+    // batches of the same number of transactions with txids of the same
+    // number of digits have the same size
+    int batchSize = QJMTestUtil.createTxnData(11, 5).length;
+    JournaledEditsCache cache = new JournaledEditsCache(batchSize * 2);
+    store(cache, 11, 11, 5);
+    store(cache, 11, 16, 5);
+    assertEdits(cache.retrieveEdits(11, 100), 11, 20);
+    store(cache, 11, 21, 5);
+    assertMiss(cache, 11);
+    assertEdits(cache.retrieveEdits(16, 100), 16, 25);
+
+    // a batch larger than the whole cache empties it
+    byte[] big = QJMTestUtil.createTxnData(26, 20);
+    cache.storeEdits(11, 26, 45, LAYOUT_VERSION, big);
+    assertEquals(0, cache.getSize());
+    assertMiss(cache, 26);
+  }
+
+  @Test
+  public void testGapResetsCache() throws Exception {
+    JournaledEditsCache cache = new JournaledEditsCache(1024 * 1024);
+    store(cache, 1, 1, 5);
+    byte[] records = store(cache, 1, 11, 5);
+    assertMiss(cache, 1);
+    assertEquals(records.length, cache.getSize());
+    assertEdits(cache.retrieveEdits(11, 100), 11, 15);
+
+    cache.clear();
+    assertEquals(0, cache.getSize());
+    assertMiss(cache, 11);
+  }
+}
@@ -171,4 +171,150 @@ public void testBlockListMoveToHead() throws Exception {
           blockInfoList.get(j), dd.getBlockListHeadForTesting());
     }
   }
-}
\ No newline at end of file
+
+  @Test
+  public void testOffHeapTriplets() throws Exception {
+    final int NUM_BLOCKS = 10;
+    BlocksMap map = new BlocksMap(16, 2);
+    BlockCollection bc = Mockito.mock(BlockCollection.class);
+    DatanodeStorageInfo s1 = DFSTestUtil.createDatanodeStorageInfo("s1",
+        "1.1.1.1");
+    DatanodeStorageInfo s2 = DFSTestUtil.createDatanodeStorageInfo("s2",
+        "2.2.2.2");
+    DatanodeStorageInfo s3 = DFSTestUtil.createDatanodeStorageInfo("s3",
+        "3.3.3.3");
+
+    BlockInfoContiguous[] blockInfos = new BlockInfoContiguous[NUM_BLOCKS];
+    for (int i = 0; i < NUM_BLOCKS; i++) {
+      blockInfos[i] = map.addBlockCollection(new BlockInfoContiguous(
+          new Block(i, 0, GenerationStamp.LAST_RESERVED_STAMP), (short) 2), bc);
+      Assert.assertTrue(blockInfos[i].isOffHeap());
+      s1.addBlock(blockInfos[i]);
+      s2.addBlock(blockInfos[i]);
+    }
+    Assert.assertTrue(map.getOffHeapBytes() > 0);
+    assertEquals(NUM_BLOCKS, s1.numBlocks());
+    assertEquals(NUM_BLOCKS, s2.numBlocks());
+    for (BlockInfoContiguous b : blockInfos) {
+      assertEquals(2, b.numNodes());
+      assertEquals(s1, b.getStorageInfo(0));
+      assertEquals(s2, b.getStorageInfo(1));
+    }
+
+    // a third replica does not fit in the record and moves the triplets of
+    // the block back on the heap, while its neighbours keep pointing at it
+    BlockInfoContiguous grown = blockInfos[NUM_BLOCKS / 2];
+    s3.addBlock(grown);
+    Assert.assertFalse(grown.isOffHeap());
+    assertEquals(3, grown.numNodes());
+    assertEquals(s3, grown.getStorageInfo(2));
+    int len = 0;
+    for (Iterator<BlockInfoContiguous> it = s1.getBlockIterator();
+        it.hasNext(); it.next()) {
+      len++;
+    }
+    assertEquals(NUM_BLOCKS, len);
+
+    // blocks leave the store with their triplets back on the heap
+    for (int i = 0; i < NUM_BLOCKS; i += 2) {
+      map.removeBlock(blockInfos[i]);
+      Assert.assertFalse(blockInfos[i].isOffHeap());
+      assertEquals(-1, blockInfos[i].getOffHeapId());
+      assertEquals(0, blockInfos[i].numNodes());
+    }
+    assertEquals(NUM_BLOCKS / 2, s1.numBlocks());
+    Iterator<BlockInfoContiguous> it = s2.getBlockIterator();
+    while (it.hasNext()) {
+      Assert.assertEquals(1, it.next().getBlockId() % 2);
+    }
+
+    map.clear();
+    for (BlockInfoContiguous b : blockInfos) {
+      Assert.assertFalse(b.isOffHeap());
+      assertEquals(-1, b.getOffHeapId());
+    }
+    assertEquals(NUM_BLOCKS / 2, s1.numBlocks());
+    assertEquals(0, map.getOffHeapBytes());
+  }
+
+  @Test
+  public void testOffHeapReplacedBlock() throws Exception {
+    BlocksMap map = new BlocksMap(16, 2);
+    BlockCollection bc = Mockito.mock(BlockCollection.class);
+    DatanodeStorageInfo s1 = DFSTestUtil.createDatanodeStorageInfo("s1",
+        "1.1.1.1");
+    DatanodeStorageInfo s2 = DFSTestUtil.createDatanodeStorageInfo("s2",
+        "2.2.2.2");
+    Block block = new Block(1, 0, GenerationStamp.LAST_RESERVED_STAMP);
+    BlockInfoContiguous old = map.addBlockCollection(
+        new BlockInfoContiguous(block, (short) 2), bc);
+    s1.addBlock(old);
+    s2.addBlock(old);
+
+    // a new block info for the same block takes over the replicas, and the
+    // replaced one leaves the store
+    BlockInfoContiguous info = map.addBlockCollection(
+        new BlockInfoContiguous(block, (short) 2), bc);
+    Assert.assertNotSame(old, info);
+    Assert.assertSame(info, map.getStoredBlock(block));
+    Assert.assertFalse(old.isOffHeap());
+    assertEquals(-1, old.getOffHeapId());
+    assertEquals(0, old.numNodes());
+    Assert.assertTrue(info.isOffHeap());
+    assertEquals(2, info.numNodes());
+    assertEquals(1, s1.numBlocks());
+    Assert.assertSame(info, s1.getBlockIterator().next());
+
+    map.removeBlock(info);
+    assertEquals(0, s1.numBlocks());
+    assertEquals(-1, info.getOffHeapId());
+  }
+
+  @Test
+  public void testOffHeapStorageIndexes() throws Exception {
+    final int NUM_BLOCKS = 4;
+    OffHeapTripletStore store = new OffHeapTripletStore(2);
+    DatanodeStorageInfo s1 = DFSTestUtil.createDatanodeStorageInfo("s1",
+        "1.1.1.1");
+    DatanodeStorageInfo s2 = DFSTestUtil.createDatanodeStorageInfo("s2",
+        "2.2.2.2");
+    DatanodeStorageInfo s3 = DFSTestUtil.createDatanodeStorageInfo("s3",
+        "3.3.3.3");
+
+    BlockInfoContiguous[] blockInfos = new BlockInfoContiguous[NUM_BLOCKS];
+    for (int i = 0; i < NUM_BLOCKS; i++) {
+      blockInfos[i] = new BlockInfoContiguous(
+          new Block(i, 0, GenerationStamp.LAST_RESERVED_STAMP), (short) 2);
+      store.add(blockInfos[i]);
+      Assert.assertTrue(blockInfos[i].isOffHeap());
+      s1.addBlock(blockInfos[i]);
+      s2.addBlock(blockInfos[i]);
+    }
+    assertEquals(2, store.getNumStorages());
+
+    // the index of a storage is released with its last replica, and reused
+    for (int i = 0; i < NUM_BLOCKS; i++) {
+      s1.removeBlock(blockInfos[i]);
+      assertEquals(i == NUM_BLOCKS - 1 ? 1 : 2, store.getNumStorages());
+    }
+    for (BlockInfoContiguous b : blockInfos) {
+      s3.addBlock(b);
+      Assert.assertTrue(b.isOffHeap());
+      assertEquals(2, b.numNodes());
+      Assert.assertTrue(b.findStorageInfo(s3) >= 0);
+    }
+    assertEquals(2, store.getNumStorages());
+    assertEquals(NUM_BLOCKS, s3.numBlocks());
+
+    // and when the triplets leave the store
+    store.remove(blockInfos[0]);
+    assertEquals(2, store.getNumStorages());
+    s1.addBlock(blockInfos[1]);
+    Assert.assertFalse(blockInfos[1].isOffHeap());
+    for (int i = 2; i < NUM_BLOCKS; i++) {
+      store.remove(blockInfos[i]);
+    }
+    assertEquals(0, store.getNumStorages());
+    assertEquals(NUM_BLOCKS, s3.numBlocks());
+  }
+}
@@ -17,6 +17,7 @@
  */
 package org.apache.hadoop.hdfs.server.blockmanagement;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
@@ -30,8 +31,10 @@
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Map.Entry;
 
 import org.apache.hadoop.conf.Configuration;
@@ -44,11 +47,13 @@
 import org.apache.hadoop.hdfs.MiniDFSCluster;
 import org.apache.hadoop.hdfs.protocol.Block;
 import org.apache.hadoop.hdfs.protocol.BlockListAsLongs;
+import org.apache.hadoop.hdfs.protocol.BlockListAsLongs.BlockReportReplica;
 import org.apache.hadoop.hdfs.protocol.HdfsConstants;
 import org.apache.hadoop.hdfs.server.blockmanagement.DatanodeDescriptor.BlockTargetPair;
 import org.apache.hadoop.hdfs.server.datanode.DataNodeTestUtils;
 import org.apache.hadoop.hdfs.server.namenode.FSNamesystem;
 import org.apache.hadoop.hdfs.server.namenode.NameNodeAdapter;
+import org.apache.hadoop.hdfs.server.protocol.BlockReportSummary;
 import org.apache.hadoop.hdfs.server.protocol.DatanodeRegistration;
 import org.apache.hadoop.hdfs.server.protocol.DatanodeStorage;
 import org.apache.hadoop.ipc.RemoteException;
@@ -646,6 +651,155 @@ public void testSafeModeIBRAfterIncremental() throws Exception {
     assertEquals(1, ds.getBlockReportCount());
   }
   
+  /**
+   * Test that the targets of the replication work of several source nodes,
+   * chosen in parallel, get every block scheduled once, away from its
+   * source.
+   */
+  @Test
+  public void testParallelReplicationWork() throws Exception {
+    Configuration conf = new HdfsConfiguration();
+    conf.set(DFSConfigKeys.NET_TOPOLOGY_SCRIPT_FILE_NAME_KEY, "multi-rack");
+    conf.setInt(DFSConfigKeys.DFS_NAMENODE_REPLICATION_WORK_THREADS_KEY, 4);
+    bm = new BlockManager(fsn, conf);
+    bm.maxReplicationStreams = 4;
+    try {
+      addNodes(nodes);
+      // 4 blocks with a single replica on each node of rack A
+      List<Block> blocks = new ArrayList<Block>();
+      for (int i = 0; i < 12; i++) {
+        blocks.add(addBlockOnNodes(i, getNodes(i % 3)));
+      }
+      List<List<Block>> blocksToReplicate = new ArrayList<List<Block>>();
+      blocksToReplicate.add(new ArrayList<Block>());
+      blocksToReplicate.add(blocks);
+
+      assertEquals(12, bm.computeReplicationWorkForBlocks(blocksToReplicate));
+      for (Block b : blocks) {
+        assertEquals(2, bm.pendingReplications.getNumReplicas(b));
+      }
+      for (int i = 0; i < 3; i++) {
+        DatanodeDescriptor node = nodes.get(i);
+        assertEquals(4, node.getNumberOfBlocksToBeReplicated());
+        for (BlockTargetPair pair : node.getReplicationCommand(4)) {
+          for (DatanodeStorageInfo target : pair.targets) {
+            assertTrue(target.getDatanodeDescriptor() != node);
+          }
+        }
+      }
+    } finally {
+      bm.close();
+    }
+  }
+
+  /**
+   * Test that a block report processed in chunks adds, removes and
+   * invalidates replicas like a report processed under a single lock.
+   */
+  @Test
+  public void testProcessReportInChunks() throws Exception {
+    Configuration conf = new HdfsConfiguration();
+    conf.setInt(DFSConfigKeys.DFS_NAMENODE_BLOCK_REPORT_LOCK_MAX_REPLICAS_KEY,
+        2);
+    bm = new BlockManager(fsn, conf);
+    DatanodeDescriptor node = nodes.get(0);
+    DatanodeStorageInfo ds = node.getStorageInfos()[0];
+    node.isAlive = true;
+    bm.getDatanodeManager().registerDatanode(
+        new DatanodeRegistration(node, null, null, ""));
+    bm.getDatanodeManager().addDatanode(node);
+
+    BlockCollection bc = Mockito.mock(BlockCollection.class);
+    Mockito.doReturn((short) 3).when(bc).getBlockReplication();
+    List<BlockReportReplica> replicas = new ArrayList<BlockReportReplica>();
+    for (long id = 1; id <= 5; id++) {
+      Block b = new Block(id, 1024, 1000);
+      if (id <= 4) {
+        bm.blocksMap.addBlockCollection(
+            new BlockInfoContiguous(b, (short) 3), bc);
+      }
+      replicas.add(new BlockReportReplica(b));
+    }
+
+    // the first report is processed under a single lock
+    bm.processReport(node, new DatanodeStorage(ds.getStorageID()),
+        BlockListAsLongs.encode(replicas.subList(0, 3)), null, false);
+    assertEquals(3, ds.numBlocks());
+
+    // 1 is no longer reported, 2 and 3 are up to date, 4 is new and 5
+    // does not belong to any file
+    bm.processReport(node, new DatanodeStorage(ds.getStorageID()),
+        BlockListAsLongs.encode(replicas.subList(1, 5)), null, false);
+    assertEquals(3, ds.numBlocks());
+    assertTrue(bm.getStoredBlock(new Block(1)).findStorageInfo(ds) < 0);
+    for (long id = 2; id <= 4; id++) {
+      assertTrue(bm.getStoredBlock(new Block(id)).findStorageInfo(ds) >= 0);
+    }
+    assertEquals(1, bm.getPendingDeletionBlocksCount());
+    assertEquals(2, ds.getBlockReportCount());
+  }
+
+  /**
+   * Test that only the buckets of a summary that do not match the blocks of
+   * the storage are to be reported, and that a report of some buckets leaves
+   * the blocks of the other buckets alone.
+   */
+  @Test
+  public void testProcessSummaryReport() throws Exception {
+    final int numBuckets = 4;
+    DatanodeDescriptor node = nodes.get(0);
+    DatanodeStorageInfo ds = node.getStorageInfos()[0];
+    DatanodeStorage storage = new DatanodeStorage(ds.getStorageID());
+    node.isAlive = true;
+    bm.getDatanodeManager().registerDatanode(
+        new DatanodeRegistration(node, null, null, ""));
+    bm.getDatanodeManager().addDatanode(node);
+
+    BlockCollection bc = Mockito.mock(BlockCollection.class);
+    Mockito.doReturn((short) 3).when(bc).getBlockReplication();
+    List<BlockReportReplica> replicas = new ArrayList<BlockReportReplica>();
+    for (long id = 0; id < 8; id++) {
+      Block b = new Block(id, 1024, 1000);
+      bm.blocksMap.addBlockCollection(
+          new BlockInfoContiguous(b, (short) 3), bc);
+      replicas.add(new BlockReportReplica(b));
+    }
+    BlockListAsLongs report = BlockListAsLongs.encode(replicas);
+
+    // the storage has no blocks yet, so no bucket matches
+    Map<String, int[]> mismatched = new HashMap<String, int[]>();
+    bm.processSummaryReport(node, storage,
+        BlockReportSummary.summarize(report, numBuckets), null, false,
+        mismatched);
+    assertArrayEquals(new int[] {0, 1, 2, 3}, mismatched.get(
+        ds.getStorageID()));
+    assertEquals(0, ds.getBlockReportCount());
+    bm.processReport(node, storage, report, null, false, numBuckets,
+        mismatched.get(ds.getStorageID()));
+    assertEquals(8, ds.numBlocks());
+
+    mismatched.clear();
+    bm.processSummaryReport(node, storage,
+        BlockReportSummary.summarize(report, numBuckets), null, false,
+        mismatched);
+    assertTrue(mismatched.isEmpty());
+    assertEquals(2, ds.getBlockReportCount());
+
+    // the replica of block 5 is lost
+    replicas.remove(5);
+    report = BlockListAsLongs.encode(replicas);
+    bm.processSummaryReport(node, storage,
+        BlockReportSummary.summarize(report, numBuckets), null, false,
+        mismatched);
+    int[] buckets = mismatched.get(ds.getStorageID());
+    assertArrayEquals(new int[] {1}, buckets);
+    bm.processReport(node, storage,
+        BlockReportSummary.select(report, numBuckets, buckets), null, false,
+        numBuckets, buckets);
+    assertEquals(7, ds.numBlocks());
+    assertTrue(bm.getStoredBlock(new Block(5)).findStorageInfo(ds) < 0);
+  }
+
   /**
    * Tests that a namenode doesn't choose a datanode with full disks to 
    * store blocks.
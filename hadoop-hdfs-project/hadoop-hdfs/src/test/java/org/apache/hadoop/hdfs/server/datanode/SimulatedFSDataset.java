@@ -477,6 +477,12 @@ public File getFinalizedDir(String bpid) throws IOException {
       return null;
     }
 
+    @Override
+    public List<Block> getIndexedReplicas(String bpid, int first, int last)
+        throws IOException {
+      return null;
+    }
+
     @Override
     public StorageType getStorageType() {
       return null;
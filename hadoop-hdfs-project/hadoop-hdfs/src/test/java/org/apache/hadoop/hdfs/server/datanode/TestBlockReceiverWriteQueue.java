@@ -0,0 +1,110 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.datanode;
+
+import static org.apache.hadoop.test.MetricsAsserts.getLongCounter;
+import static org.apache.hadoop.test.MetricsAsserts.getMetrics;
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.util.EnumSet;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.CreateFlag;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.permission.FsPermission;
+import org.apache.hadoop.hdfs.AppendTestUtil;
+import org.apache.hadoop.hdfs.DFSConfigKeys;
+import org.apache.hadoop.hdfs.DFSTestUtil;
+import org.apache.hadoop.hdfs.DistributedFileSystem;
+import org.apache.hadoop.hdfs.HdfsConfiguration;
+import org.apache.hadoop.hdfs.MiniDFSCluster;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test writing blocks with the received packets queued for the disk.
+ */
+public class TestBlockReceiverWriteQueue {
+  private static final int BLOCK_SIZE = 64 * 1024;
+
+  private MiniDFSCluster cluster;
+  private DistributedFileSystem fs;
+
+  @Before
+  public void setUp() throws IOException {
+    Configuration conf = new HdfsConfiguration();
+    conf.setInt(DFSConfigKeys.DFS_DATANODE_WRITE_QUEUE_PACKETS_KEY, 2);
+    conf.setInt(DFSConfigKeys.DFS_BYTES_PER_CHECKSUM_KEY, 512);
+    conf.setInt(DFSConfigKeys.DFS_CLIENT_WRITE_PACKET_SIZE_KEY, 4096);
+    conf.setLong(DFSConfigKeys.DFS_NAMENODE_MIN_BLOCK_SIZE_KEY, 0);
+    cluster = new MiniDFSCluster.Builder(conf).numDataNodes(3).build();
+    cluster.waitActive();
+    fs = cluster.getFileSystem();
+  }
+
+  @After
+  public void tearDown() {
+    if (cluster != null) {
+      cluster.shutdown();
+    }
+  }
+
+  @Test(timeout=60000)
+  public void testWriteThroughPipeline() throws Exception {
+    final Path p = new Path("/pipeline");
+    final int len = 3 * BLOCK_SIZE + 1000;
+    FSDataOutputStream out = fs.create(p, true, 4096, (short) 3, BLOCK_SIZE);
+    // partial chunks, flushed one at a time, then full packets
+    AppendTestUtil.write(out, 0, 100);
+    out.hflush();
+    AppendTestUtil.write(out, 100, 300);
+    out.hflush();
+    AppendTestUtil.write(out, 400, len - 400);
+    out.close();
+    AppendTestUtil.check(fs, p, len);
+
+    // an appended replica is written from its last partial chunk
+    out = fs.append(p);
+    AppendTestUtil.write(out, len, 2000);
+    out.close();
+    AppendTestUtil.check(fs, p, len + 2000);
+    DFSTestUtil.waitReplication(fs, p, (short) 3);
+  }
+
+  @Test(timeout=60000)
+  public void testHSync() throws Exception {
+    final Path p = new Path("/hsync");
+    FSDataOutputStream out = fs.create(p, FsPermission.getDefault(),
+        EnumSet.of(CreateFlag.CREATE, CreateFlag.OVERWRITE),
+        4096, (short) 1, BLOCK_SIZE, null);
+    AppendTestUtil.write(out, 0, 10000);
+    out.hsync();
+    // the sync is done once acked
+    long syncs = 0;
+    for (DataNode dn : cluster.getDataNodes()) {
+      syncs += getLongCounter("FsyncCount",
+          getMetrics(dn.getMetrics().name()));
+    }
+    out.close();
+    AppendTestUtil.check(fs, p, 10000);
+    assertEquals(1, syncs);
+  }
+}
@@ -508,6 +508,86 @@ public void runTest(int parallelism) throws Exception {
     }
   }
 
+  /**
+   * Create a block file and its metafile, where the datanode would, in a
+   * random volume
+   */
+  private long createBlockMetaFileInLayout() throws IOException {
+    List<? extends FsVolumeSpi> volumes = fds.getVolumes();
+    int index = rand.nextInt(volumes.size());
+    long id = getFreeBlockId();
+    File dir = DatanodeUtil.idToBlockDir(
+        volumes.get(index).getFinalizedDir(bpid), id);
+    assertTrue(dir.isDirectory() || dir.mkdirs());
+    assertTrue(new File(dir, getBlockFile(id)).createNewFile());
+    assertTrue(new File(dir, getMetaFile(id)).createNewFile());
+    LOG.info("Created block file and metafile of " + id + " in " + dir);
+    return id;
+  }
+
+  @Test (timeout=300000)
+  public void testIncrementalScan() throws Exception {
+    Configuration conf = new HdfsConfiguration(CONF);
+    conf.setBoolean(
+        DFSConfigKeys.DFS_DATANODE_DIRECTORYSCAN_INCREMENTAL_KEY, true);
+    conf.setInt(
+        DFSConfigKeys.DFS_DATANODE_DIRECTORYSCAN_THROTTLE_MS_PER_SEC_KEY, 1000);
+    cluster = new MiniDFSCluster.Builder(conf).build();
+    try {
+      cluster.waitActive();
+      bpid = cluster.getNamesystem().getBlockPoolId();
+      fds = DataNodeTestUtils.getFSDataset(cluster.getDataNodes().get(0));
+      client = cluster.getFileSystem().getClient();
+      scanner = new DirectoryScanner(cluster.getDataNodes().get(0), fds, conf);
+      scanner.setRetainDiffs(true);
+
+      createFile(GenericTestUtils.getMethodName(), BLOCK_LENGTH * 50, false);
+      long totalBlocks = 50;
+      scan(totalBlocks, 0, 0, 0, 0, 0);
+
+      // block metafile is missing
+      long blockId = deleteMetaFile();
+      scan(totalBlocks, 1, 1, 0, 0, 1);
+      verifyGenStamp(blockId, HdfsConstantsClient.GRANDFATHER_GENERATION_STAMP);
+      scan(totalBlocks, 0, 0, 0, 0, 0);
+
+      // block file is missing
+      blockId = deleteBlockFile();
+      scan(totalBlocks, 1, 0, 1, 0, 0);
+      totalBlocks--;
+      verifyDeletion(blockId);
+      scan(totalBlocks, 0, 0, 0, 0, 0);
+
+      // block file and metafile without a block in memory
+      blockId = createBlockMetaFileInLayout();
+      totalBlocks++;
+      scan(totalBlocks, 1, 0, 0, 1, 0);
+      verifyAddition(blockId, DEFAULT_GEN_STAMP, 0);
+      scan(totalBlocks, 0, 0, 0, 0, 0);
+
+      // block length mismatch
+      truncateBlockFile();
+      scan(totalBlocks, 1, 0, 0, 0, 1);
+      scan(totalBlocks, 0, 0, 0, 0, 0);
+
+      // the index is kept across a restart
+      scanner.shutdown();
+      cluster.restartDataNodes();
+      cluster.waitActive();
+      fds = DataNodeTestUtils.getFSDataset(cluster.getDataNodes().get(0));
+      scanner = new DirectoryScanner(cluster.getDataNodes().get(0), fds, conf);
+      scanner.setRetainDiffs(true);
+      scan(totalBlocks, 0, 0, 0, 0, 0);
+    } finally {
+      if (scanner != null) {
+        scanner.shutdown();
+        scanner = null;
+      }
+      cluster.shutdown();
+      cluster = null;
+    }
+  }
+
   private void verifyAddition(long blockId, long genStamp, long size) {
     final ReplicaInfo replicainfo;
     replicainfo = FsDatasetTestUtil.fetchReplicaInfo(fds, bpid, blockId);
@@ -575,6 +655,12 @@ public File getFinalizedDir(String bpid) throws IOException {
       return new File("/base/current/" + bpid + "/finalized");
     }
 
+    @Override
+    public List<Block> getIndexedReplicas(String bpid, int first, int last)
+        throws IOException {
+      return null;
+    }
+
     @Override
     public StorageType getStorageType() {
       return StorageType.DEFAULT;
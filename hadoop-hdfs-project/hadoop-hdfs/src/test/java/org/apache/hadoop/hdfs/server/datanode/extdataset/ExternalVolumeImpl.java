@@ -21,8 +21,10 @@
 import java.io.File;
 import java.io.IOException;
 import java.nio.channels.ClosedChannelException;
+import java.util.List;
 
 import org.apache.hadoop.fs.StorageType;
+import org.apache.hadoop.hdfs.protocol.Block;
 import org.apache.hadoop.hdfs.server.datanode.fsdataset.FsDatasetSpi;
 import org.apache.hadoop.hdfs.server.datanode.fsdataset.FsVolumeReference;
 import org.apache.hadoop.hdfs.server.datanode.fsdataset.FsVolumeSpi;
@@ -58,6 +60,12 @@ public File getFinalizedDir(String bpid) throws IOException {
     return null;
   }
 
+  @Override
+  public List<Block> getIndexedReplicas(String bpid, int first, int last)
+      throws IOException {
+    return null;
+  }
+
   @Override
   public String getStorageID() {
     return null;
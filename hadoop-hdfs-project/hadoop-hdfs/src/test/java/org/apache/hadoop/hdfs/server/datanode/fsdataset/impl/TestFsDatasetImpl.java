@@ -29,6 +29,7 @@
 import org.apache.hadoop.hdfs.protocol.Block;
 import org.apache.hadoop.hdfs.protocol.ExtendedBlock;
 import org.apache.hadoop.hdfs.server.common.HdfsServerConstants;
+import org.apache.hadoop.hdfs.server.common.HdfsServerConstants.ReplicaState;
 import org.apache.hadoop.hdfs.server.common.Storage;
 import org.apache.hadoop.hdfs.server.common.StorageInfo;
 import org.apache.hadoop.hdfs.server.datanode.BlockScanner;
@@ -53,6 +54,8 @@
 import org.mockito.invocation.InvocationOnMock;
 import org.mockito.stubbing.Answer;
 
+import com.google.common.base.Supplier;
+
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
@@ -61,6 +64,7 @@
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
 
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_DATANODE_SCAN_PERIOD_HOURS_KEY;
 import static org.junit.Assert.assertEquals;
@@ -398,4 +402,52 @@ public void testDeletingBlocks() throws IOException {
       cluster.shutdown();
     }
   }
+
+  /**
+   * Test that a replica whose files are being moved by another thread, not
+   * holding the dataset lock, is only finalized once they are moved.
+   */
+  @Test(timeout = 30000)
+  public void testFinalizeBusyReplica() throws Exception {
+    final ExtendedBlock eb = new ExtendedBlock(BLOCK_POOL_IDS[0], 1, 0, 1000);
+    final ReplicaInfo rbw;
+    try (ReplicaHandler handler =
+             dataset.createRbw(StorageType.DEFAULT, eb, false)) {
+      rbw = (ReplicaInfo) handler.getReplica();
+    }
+    assertTrue(rbw.getMetaFile().createNewFile());
+    synchronized (dataset) {
+      dataset.setReplicaBusy(eb.getBlockPoolId(), eb.getBlockId(), true);
+    }
+
+    final AtomicReference<IOException> error =
+        new AtomicReference<IOException>();
+    final Thread finalizer = new Thread() {
+      @Override
+      public void run() {
+        try {
+          dataset.finalizeBlock(eb);
+        } catch (IOException e) {
+          error.set(e);
+        }
+      }
+    };
+    finalizer.start();
+    GenericTestUtils.waitFor(new Supplier<Boolean>() {
+      @Override
+      public Boolean get() {
+        return finalizer.getState() == Thread.State.WAITING;
+      }
+    }, 10, 10000);
+    assertEquals(ReplicaState.RBW,
+        dataset.getReplica(eb.getBlockPoolId(), eb.getBlockId()).getState());
+
+    synchronized (dataset) {
+      dataset.setReplicaBusy(eb.getBlockPoolId(), eb.getBlockId(), false);
+    }
+    finalizer.join();
+    assertEquals(null, error.get());
+    assertEquals(ReplicaState.FINALIZED,
+        dataset.getReplica(eb.getBlockPoolId(), eb.getBlockId()).getState());
+  }
 }
@@ -0,0 +1,184 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.datanode.fsdataset.impl;
+
+import static org.apache.hadoop.test.MetricsAsserts.getLongGauge;
+import static org.apache.hadoop.test.MetricsAsserts.getMetrics;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hdfs.DFSConfigKeys;
+import org.apache.hadoop.hdfs.DFSTestUtil;
+import org.apache.hadoop.hdfs.HdfsConfiguration;
+import org.apache.hadoop.hdfs.MiniDFSCluster;
+import org.apache.hadoop.hdfs.MiniDFSCluster.DataNodeProperties;
+import org.apache.hadoop.hdfs.protocol.BlockListAsLongs;
+import org.apache.hadoop.hdfs.protocol.ExtendedBlock;
+import org.apache.hadoop.hdfs.server.datanode.DataNode;
+import org.apache.hadoop.hdfs.server.datanode.DataStorage;
+import org.apache.hadoop.test.GenericTestUtils;
+import org.junit.After;
+import org.junit.Test;
+
+import com.google.common.base.Supplier;
+import com.google.common.io.Files;
+
+/**
+ * Test the replica cache files saved by the datanode, and loaded at startup
+ * in place of scanning the volumes.
+ */
+public class TestReplicaCache {
+  private static final int BLOCK_SIZE = 4096;
+  private static final int NUM_BLOCKS = 3;
+
+  private MiniDFSCluster cluster;
+  private String bpid;
+
+  private void startCluster(long saveInterval) throws IOException {
+    Configuration conf = new HdfsConfiguration();
+    conf.setLong(DFSConfigKeys.DFS_NAMENODE_MIN_BLOCK_SIZE_KEY, 0);
+    conf.setLong(DFSConfigKeys.DFS_BLOCK_SIZE_KEY, BLOCK_SIZE);
+    conf.setLong(DFSConfigKeys.DFS_DATANODE_REPLICA_CACHE_SAVE_INTERVAL_MS_KEY,
+        saveInterval);
+    cluster = new MiniDFSCluster.Builder(conf).numDataNodes(1)
+        .storagesPerDatanode(1).build();
+    cluster.waitActive();
+    bpid = cluster.getNamesystem().getBlockPoolId();
+    DFSTestUtil.createFile(cluster.getFileSystem(), new Path("/file"),
+        NUM_BLOCKS * BLOCK_SIZE, (short) 1, 0L);
+  }
+
+  @After
+  public void tearDown() {
+    if (cluster != null) {
+      cluster.shutdown();
+    }
+  }
+
+  private File getCacheFile() throws IOException {
+    DataNode dn = cluster.getDataNodes().get(0);
+    FsVolumeImpl volume =
+        ((FsDatasetImpl) dn.getFSDataset()).getVolumes().get(0);
+    return new File(new File(volume.getBlockPoolSlice(bpid).getDirectory(),
+        DataStorage.STORAGE_DIR_CURRENT), "replicas");
+  }
+
+  private int getNumReplicas() {
+    int n = 0;
+    DataNode dn = cluster.getDataNodes().get(0);
+    for (BlockListAsLongs blocks :
+        dn.getFSDataset().getBlockReports(bpid).values()) {
+      n += blocks.getNumberOfBlocks();
+    }
+    return n;
+  }
+
+  private void waitForFirstBlockReport() throws Exception {
+    final DataNode dn = cluster.getDataNodes().get(0);
+    GenericTestUtils.waitFor(new Supplier<Boolean>() {
+      @Override
+      public Boolean get() {
+        return getLongGauge("StartupToFirstBlockReportMs",
+            getMetrics(dn.getMetrics().name())) > 0;
+      }
+    }, 100, 30000);
+  }
+
+  @Test(timeout=60000)
+  public void testPeriodicSave() throws Exception {
+    startCluster(100);
+    final File cacheFile = getCacheFile();
+    GenericTestUtils.waitFor(new Supplier<Boolean>() {
+      @Override
+      public Boolean get() {
+        return cacheFile.exists();
+      }
+    }, 100, 10000);
+
+    cluster.restartDataNodes();
+    cluster.waitActive();
+    assertEquals(NUM_BLOCKS, getNumReplicas());
+    waitForFirstBlockReport();
+  }
+
+  /**
+   * A replica deleted after a periodic snapshot, before a crash, is not
+   * loaded from the snapshot.
+   */
+  @Test(timeout=60000)
+  public void testReplicaDeletedAfterPeriodicSave() throws Exception {
+    startCluster(100);
+    final File cacheFile = getCacheFile();
+    GenericTestUtils.waitFor(new Supplier<Boolean>() {
+      @Override
+      public Boolean get() {
+        return cacheFile.exists();
+      }
+    }, 100, 10000);
+    // a later snapshot holds all the blocks of the file
+    Thread.sleep(1000);
+    final byte[] snapshot = Files.toByteArray(cacheFile);
+
+    // the shutdown saves a clean cache, which the crash would not
+    final ExtendedBlock block = DFSTestUtil.getFirstBlock(
+        cluster.getFileSystem(), new Path("/file"));
+    final File blockFile = cluster.getBlockFile(0, block);
+    final File metaFile = cluster.getBlockMetadataFile(0, block);
+    DataNodeProperties dnprop = cluster.stopDataNode(0);
+    Files.write(snapshot, cacheFile);
+    assertTrue(blockFile.delete());
+    assertTrue(metaFile.delete());
+
+    cluster.restartDataNode(dnprop);
+    cluster.waitActive();
+    assertEquals(NUM_BLOCKS - 1, getNumReplicas());
+    waitForFirstBlockReport();
+  }
+
+  @Test(timeout=60000)
+  public void testCorruptCache() throws Exception {
+    startCluster(0);
+    final File cacheFile = getCacheFile();
+    assertFalse(cacheFile.exists());
+    DataNodeProperties dnprop = cluster.stopDataNode(0);
+    assertTrue(cacheFile.exists());
+
+    // flip a byte of the replicas, the volume is scanned instead
+    RandomAccessFile raf = new RandomAccessFile(cacheFile, "rw");
+    try {
+      raf.seek(raf.length() / 2);
+      int b = raf.read();
+      raf.seek(raf.length() / 2);
+      raf.write(b ^ 0xff);
+    } finally {
+      raf.close();
+    }
+    cluster.restartDataNode(dnprop);
+    cluster.waitActive();
+    assertFalse(cacheFile.exists());
+    assertEquals(NUM_BLOCKS, getNumReplicas());
+    waitForFirstBlockReport();
+  }
+}
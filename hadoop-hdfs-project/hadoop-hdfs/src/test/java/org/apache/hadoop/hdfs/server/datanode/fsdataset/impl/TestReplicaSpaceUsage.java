@@ -0,0 +1,146 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.datanode.fsdataset.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+import java.io.IOException;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hdfs.DFSConfigKeys;
+import org.apache.hadoop.hdfs.DFSTestUtil;
+import org.apache.hadoop.hdfs.HdfsConfiguration;
+import org.apache.hadoop.hdfs.MiniDFSCluster;
+import org.apache.hadoop.hdfs.protocol.LocatedBlock;
+import org.apache.hadoop.hdfs.server.datanode.DataNode;
+import org.apache.hadoop.test.GenericTestUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.base.Supplier;
+
+/**
+ * Test the accounting of the space used by the replicas of a volume when
+ * du does not run.
+ */
+public class TestReplicaSpaceUsage {
+  private static final int BLOCK_SIZE = 4096;
+
+  private MiniDFSCluster cluster;
+  private FileSystem fs;
+  private String bpid;
+
+  @Before
+  public void setUp() throws IOException {
+    Configuration conf = new HdfsConfiguration();
+    conf.setLong(DFSConfigKeys.DFS_NAMENODE_MIN_BLOCK_SIZE_KEY, 0);
+    conf.setLong(DFSConfigKeys.DFS_BLOCK_SIZE_KEY, BLOCK_SIZE);
+    cluster = new MiniDFSCluster.Builder(conf).numDataNodes(1)
+        .storagesPerDatanode(1).build();
+    cluster.waitActive();
+    fs = cluster.getFileSystem();
+    bpid = cluster.getNamesystem().getBlockPoolId();
+  }
+
+  @After
+  public void tearDown() {
+    if (cluster != null) {
+      cluster.shutdown();
+    }
+  }
+
+  private FsVolumeImpl getVolume() {
+    DataNode dn = cluster.getDataNodes().get(0);
+    return ((FsDatasetImpl) dn.getFSDataset()).getVolumes().get(0);
+  }
+
+  /** @return the size of the replica files of a file */
+  private long getReplicaBytes(Path file) throws IOException {
+    long bytes = 0;
+    DataNode dn = cluster.getDataNodes().get(0);
+    for (LocatedBlock b : DFSTestUtil.getAllBlocks(fs, file)) {
+      bytes += FsDatasetTestUtil.getBlockFile(dn.getFSDataset(), bpid,
+          b.getBlock().getLocalBlock()).length();
+      bytes += FsDatasetTestUtil.getMetaFile(dn.getFSDataset(), bpid,
+          b.getBlock().getLocalBlock()).length();
+    }
+    return bytes;
+  }
+
+  private void waitForBlockPoolUsed(final long expected) throws Exception {
+    GenericTestUtils.waitFor(new Supplier<Boolean>() {
+      @Override
+      public Boolean get() {
+        try {
+          return getVolume().getBlockPoolUsed(bpid) == expected;
+        } catch (IOException e) {
+          return false;
+        }
+      }
+    }, 100, 10000);
+  }
+
+  @Test(timeout=60000)
+  public void testAccounting() throws Exception {
+    final long empty = getVolume().getBlockPoolUsed(bpid);
+    final Path file1 = new Path("/file1");
+    final Path file2 = new Path("/file2");
+    DFSTestUtil.createFile(fs, file1, 3 * BLOCK_SIZE, (short) 1, 0L);
+    DFSTestUtil.createFile(fs, file2, BLOCK_SIZE + 1, (short) 1, 0L);
+    final long bytes1 = getReplicaBytes(file1);
+    waitForBlockPoolUsed(empty + bytes1 + getReplicaBytes(file2));
+
+    // an appended replica is accounted once, when finalized again
+    FSDataOutputStream out = fs.append(file2);
+    out.write(new byte[100]);
+    out.close();
+    final long bytes2 = getReplicaBytes(file2);
+    waitForBlockPoolUsed(empty + bytes1 + bytes2);
+
+    // a deleted replica is no longer accounted
+    fs.delete(file1, false);
+    waitForBlockPoolUsed(empty + bytes2);
+
+    // the space used is saved at shutdown, and loaded at startup
+    cluster.restartDataNodes();
+    cluster.waitActive();
+    assertEquals(empty + bytes2, getVolume().getBlockPoolUsed(bpid));
+  }
+
+  @Test(timeout=60000)
+  public void testReconcile() throws Exception {
+    final Path file = new Path("/file");
+    DFSTestUtil.createFile(fs, file, 2 * BLOCK_SIZE, (short) 1, 0L);
+    final FsVolumeImpl volume = getVolume();
+    final long used = volume.getBlockPoolUsed(bpid);
+
+    // the space used drifts, and is corrected by the reconciliation
+    volume.incDfsUsed(bpid, 12345);
+    assertEquals(used + 12345, volume.getBlockPoolUsed(bpid));
+    ReplicaSpaceUsage usage =
+        volume.getBlockPoolSlice(bpid).getReplicaSpaceUsage();
+    assertNotNull(usage);
+    usage.reconcile();
+    assertEquals(used, volume.getBlockPoolUsed(bpid));
+  }
+}
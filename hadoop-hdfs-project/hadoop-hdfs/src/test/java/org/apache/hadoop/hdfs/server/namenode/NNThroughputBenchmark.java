@@ -20,6 +20,8 @@
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.EnumSet;
@@ -97,6 +99,9 @@
  * By default the refresh is never called.</li>
  * <li>-keepResults do not clean up the name-space after execution.</li>
  * <li>-useExisting do not recreate the name-space, use existing data.</li>
+ * <li>-threadSweep M runs the operation repeatedly with 1, 2, 4, ... up to
+ * M threads and reports the throughput for each thread count, which shows
+ * how the operation scales with the number of concurrent handlers.</li>
  * </ol>
  * 
  * The benchmark first generates inputs for each thread so that the
@@ -112,7 +117,8 @@ public class NNThroughputBenchmark implements Tool {
   private static final Log LOG = LogFactory.getLog(NNThroughputBenchmark.class);
   private static final int BLOCK_SIZE = 16;
   private static final String GENERAL_OPTIONS_USAGE = 
-    "     [-keepResults] | [-logLevel L] | [-UGCacheRefreshCount G]";
+    "     [-keepResults] | [-logLevel L] | [-UGCacheRefreshCount G] |" +
+    " [-threadSweep M]";
 
   static Configuration config;
   static NameNode nameNode;
@@ -174,9 +180,15 @@ abstract class OperationStatsBase {
     protected int  numOpsExecuted = 0;    // number of operations executed
     protected long cumulativeTime = 0;    // sum of times for each op
     protected long elapsedTime = 0;       // time from start to finish
+    protected long gcCount = 0;           // collections during the run
+    protected long gcTime = 0;            // time spent collecting
+    protected long liveHeapBytes = 0;     // heap used after a full GC
     protected boolean keepResults = false;// don't clean base directory on exit
     protected Level logLevel;             // logging level, ERROR by default
     protected int ugcRefreshCount = 0;    // user group cache refresh count
+    protected int maxSweepThreads = 0;    // max threads for a thread sweep
+    // "threads ops/sec" pairs collected by sweepThreads()
+    protected List<String> sweepResults = new ArrayList<String>();
 
     protected List<StatsDaemon> daemons;
 
@@ -239,6 +251,8 @@ abstract class OperationStatsBase {
     void benchmark() throws IOException {
       daemons = new ArrayList<StatsDaemon>();
       long start = 0;
+      long gcCountStart = getTotalGcCount();
+      long gcTimeStart = getTotalGcTime();
       try {
         numOpsExecuted = 0;
         cumulativeTime = 0;
@@ -262,6 +276,8 @@ void benchmark() throws IOException {
           daemons.add(new StatsDaemon(tIdx, opsPerThread[tIdx], this));
         start = Time.now();
         LOG.info("Starting " + numOpsRequired + " " + getOpName() + "(s).");
+        gcCountStart = getTotalGcCount();
+        gcTimeStart = getTotalGcTime();
         for(StatsDaemon d : daemons)
           d.start();
       } finally {
@@ -273,6 +289,45 @@ void benchmark() throws IOException {
           incrementStats(d.localNumOpsExecuted, d.localCumulativeTime);
           // System.out.println(d.toString() + ": ops Exec = " + d.localNumOpsExecuted);
         }
+        gcCount = getTotalGcCount() - gcCountStart;
+        gcTime = getTotalGcTime() - gcTimeStart;
+        // the name-node runs in this JVM, so this is mostly its footprint
+        System.gc();
+        liveHeapBytes = ManagementFactory.getMemoryMXBean()
+            .getHeapMemoryUsage().getUsed();
+      }
+    }
+
+    private long getTotalGcCount() {
+      long count = 0;
+      for(GarbageCollectorMXBean gc :
+          ManagementFactory.getGarbageCollectorMXBeans()) {
+        count += Math.max(0, gc.getCollectionCount());
+      }
+      return count;
+    }
+
+    private long getTotalGcTime() {
+      long time = 0;
+      for(GarbageCollectorMXBean gc :
+          ManagementFactory.getGarbageCollectorMXBeans()) {
+        time += Math.max(0, gc.getCollectionTime());
+      }
+      return time;
+    }
+
+    /**
+     * Run the benchmark with a doubling number of threads from 1 up to
+     * {@link #maxSweepThreads}, cleaning up between the runs.
+     */
+    void sweepThreads() throws IOException {
+      sweepResults.clear();
+      for(int t = 1; t <= maxSweepThreads; t *= 2) {
+        numThreads = t;
+        LOG.info("Thread sweep: " + getOpName() + " with " + t + " threads");
+        benchmark();
+        sweepResults.add(String.format("%8d %14.2f", t, getOpsPerSecond()));
+        cleanUp();
       }
     }
 
@@ -361,6 +416,15 @@ protected boolean verifyOpArgument(List<String> args) {
         args.remove(ugrcIndex);
       }
 
+      int tsIndex = args.indexOf("-threadSweep");
+      if(tsIndex >= 0) {
+        if(args.size() <= tsIndex + 1)
+          printUsage();
+        maxSweepThreads = Integer.parseInt(args.get(tsIndex+1));
+        args.remove(tsIndex+1);
+        args.remove(tsIndex);
+      }
+
       String type = args.get(1);
       if(OP_ALL_NAME.equals(type)) {
         type = getOpName();
@@ -377,6 +441,17 @@ void printStats() {
       LOG.info("Elapsed Time: " + getElapsedTime());
       LOG.info(" Ops per sec: " + getOpsPerSecond());
       LOG.info("Average Time: " + getAverageTime());
+      LOG.info("    GC count: " + gcCount);
+      LOG.info("     GC time: " + gcTime);
+      LOG.info("   Live heap: " + StringUtils.byteDesc(liveHeapBytes));
+      LOG.info("Off-heap blk: " + StringUtils.byteDesc(
+          nameNode.getNamesystem().getBlocksOffHeapBytes()));
+      if(!sweepResults.isEmpty()) {
+        LOG.info("--- " + getOpName() + " thread sweep ---");
+        LOG.info(" threads    ops per sec");
+        for(String r : sweepResults)
+          LOG.info(r);
+      }
     }
   }
 
@@ -1462,8 +1537,12 @@ public int run(String[] aArgs) throws Exception {
       // run each benchmark
       for(OperationStatsBase op : ops) {
         LOG.info("Starting benchmark: " + op.getOpName());
-        op.benchmark();
-        op.cleanUp();
+        if(op.maxSweepThreads > 0) {
+          op.sweepThreads();
+        } else {
+          op.benchmark();
+          op.cleanUp();
+        }
       }
       // print statistics
       for(OperationStatsBase op : ops) {
@@ -50,6 +50,7 @@
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -528,6 +529,63 @@ public void testSyncBatching() throws Exception {
     }
   }
   
+  /**
+   * Test that with async edit logging the responses of concurrent RPCs are
+   * deferred and group synced, and that their edits are durable.
+   */
+  @Test
+  public void testAsyncLogSync() throws Exception {
+    Configuration conf = new HdfsConfiguration();
+    conf.setBoolean(DFSConfigKeys.DFS_NAMENODE_EDITS_ASYNC_LOGGING, true);
+    conf.setInt(DFSConfigKeys.DFS_NAMENODE_HANDLER_COUNT_KEY, 2);
+    final int numThreads = 8;
+    final int dirsPerThread = 20;
+    MiniDFSCluster cluster = null;
+    ExecutorService pool = Executors.newFixedThreadPool(numThreads);
+    try {
+      cluster = new MiniDFSCluster.Builder(conf).numDataNodes(0).build();
+      cluster.waitActive();
+      final FileSystem fs = cluster.getFileSystem();
+      List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+      for (int i = 0; i < numThreads; i++) {
+        final int t = i;
+        tasks.add(new Callable<Void>() {
+          @Override
+          public Void call() throws Exception {
+            for (int j = 0; j < dirsPerThread; j++) {
+              assertTrue(fs.mkdirs(new Path("/async/" + t + "/" + j)));
+            }
+            return null;
+          }
+        });
+      }
+      for (Future<Void> f : pool.invokeAll(tasks)) {
+        f.get();
+      }
+
+      FSEditLog editLog = cluster.getNamesystem().getEditLog();
+      AsyncEditLogSyncer syncer = editLog.getAsyncSyncer();
+      assertNotNull(syncer);
+      assertTrue(syncer.getNumDeferred() >= numThreads * dirsPerThread);
+      assertTrue(syncer.getNumSyncs() > 0);
+      assertTrue(syncer.getNumSyncs() <= syncer.getNumDeferred());
+
+      // every response was sent after its edits were synced
+      cluster.restartNameNode();
+      FileSystem restarted = cluster.getFileSystem();
+      for (int i = 0; i < numThreads; i++) {
+        for (int j = 0; j < dirsPerThread; j++) {
+          assertTrue(restarted.exists(new Path("/async/" + i + "/" + j)));
+        }
+      }
+    } finally {
+      pool.shutdown();
+      if (cluster != null) {
+        cluster.shutdown();
+      }
+    }
+  }
+
   /**
    * Test what happens with the following sequence:
    *
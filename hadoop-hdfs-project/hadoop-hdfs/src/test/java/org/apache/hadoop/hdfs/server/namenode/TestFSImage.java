@@ -22,6 +22,7 @@
 
 import java.io.File;
 import java.io.IOException;
+import java.io.RandomAccessFile;
 import java.util.EnumSet;
 
 import org.junit.Assert;
@@ -42,6 +43,7 @@
 import org.apache.hadoop.hdfs.server.blockmanagement.BlockInfoContiguous;
 import org.apache.hadoop.hdfs.server.common.HdfsServerConstants.BlockUCState;
 import org.apache.hadoop.hdfs.server.common.HdfsServerConstants.StartupOption;
+import org.apache.hadoop.hdfs.server.namenode.FsImageProto.FileSummary;
 import org.apache.hadoop.hdfs.server.namenode.LeaseManager.Lease;
 import org.apache.hadoop.hdfs.util.MD5FileUtils;
 import org.apache.hadoop.test.GenericTestUtils;
@@ -67,6 +69,81 @@ public void testCompression() throws IOException {
     testPersistHelper(conf);
   }
 
+  /**
+   * Ensure that an image written with sub-sections is loaded in parallel
+   * to the same namespace.
+   */
+  @Test(timeout=60000)
+  public void testParallelSaveAndLoad() throws IOException {
+    Configuration conf = new Configuration();
+    conf.setBoolean(DFSConfigKeys.DFS_IMAGE_PARALLEL_LOAD_KEY, true);
+    conf.setInt(DFSConfigKeys.DFS_IMAGE_PARALLEL_INODE_THRESHOLD_KEY, 10);
+    conf.setInt(DFSConfigKeys.DFS_IMAGE_PARALLEL_TARGET_SECTIONS_KEY, 4);
+    conf.setInt(DFSConfigKeys.DFS_IMAGE_PARALLEL_THREADS_KEY, 3);
+    // the usual checks still hold for an image with sub-sections
+    testPersistHelper(conf);
+
+    MiniDFSCluster cluster = null;
+    try {
+      cluster = new MiniDFSCluster.Builder(conf).numDataNodes(0).build();
+      cluster.waitActive();
+      DistributedFileSystem fs = cluster.getFileSystem();
+      for (int i = 0; i < 10; i++) {
+        for (int j = 0; j < 10; j++) {
+          fs.create(new Path("/dir" + i + "/file" + j)).close();
+        }
+      }
+      fs.setSafeMode(SafeModeAction.SAFEMODE_ENTER);
+      fs.saveNamespace();
+      fs.setSafeMode(SafeModeAction.SAFEMODE_LEAVE);
+
+      File currentDir = FSImageTestUtil.getNameNodeCurrentDirs(cluster, 0).get(
+          0);
+      File fsimage = FSImageTestUtil.findNewestImageFile(currentDir
+          .getAbsolutePath());
+      int inodeSubSections = 0, inodeDirSubSections = 0;
+      RandomAccessFile raFile = new RandomAccessFile(fsimage, "r");
+      try {
+        for (FileSummary.Section s :
+            FSImageUtil.loadSummary(raFile).getSectionsList()) {
+          if (s.getName().equals("INODE_SUB")) {
+            inodeSubSections++;
+          } else if (s.getName().equals("INODE_DIR_SUB")) {
+            inodeDirSubSections++;
+          }
+        }
+      } finally {
+        raFile.close();
+      }
+      assertTrue(inodeSubSections > 1);
+      assertTrue(inodeDirSubSections > 1);
+
+      cluster.restartNameNode();
+      cluster.waitActive();
+      fs = cluster.getFileSystem();
+      for (int i = 0; i < 10; i++) {
+        assertEquals(10, fs.listStatus(new Path("/dir" + i)).length);
+        for (int j = 0; j < 10; j++) {
+          assertTrue(fs.exists(new Path("/dir" + i + "/file" + j)));
+        }
+      }
+      // 1 root, 10 directories and 100 files
+      assertEquals(111, cluster.getNamesystem().dir.getINodeMap().size());
+
+      // the image also loads sequentially
+      cluster.getConfiguration(0).setBoolean(
+          DFSConfigKeys.DFS_IMAGE_PARALLEL_LOAD_KEY, false);
+      cluster.restartNameNode();
+      cluster.waitActive();
+      fs = cluster.getFileSystem();
+      assertEquals(10, fs.listStatus(new Path("/")).length);
+    } finally {
+      if (cluster != null) {
+        cluster.shutdown();
+      }
+    }
+  }
+
   private void testPersistHelper(Configuration conf) throws IOException {
     MiniDFSCluster cluster = null;
     try {
@@ -26,9 +26,11 @@
 import java.io.IOException;
 import java.net.URI;
 import java.util.Collection;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FileUtil;
+import org.apache.hadoop.hdfs.DFSConfigKeys;
 import org.apache.hadoop.hdfs.DFSTestUtil;
 import org.apache.hadoop.hdfs.HdfsConfiguration;
 import org.apache.hadoop.hdfs.MiniDFSCluster;
@@ -196,6 +198,115 @@ public void testFSNamesystemLockCompatibility() {
     assertEquals(0, rwLock.getWriteHoldCount());
   }
 
+  @Test
+  public void testFineGrainedLockSeparatesBlockState() throws Exception {
+    Configuration conf = new Configuration();
+    conf.setBoolean(
+        DFSConfigKeys.DFS_NAMENODE_FINE_GRAINED_LOCKING_ENABLED_KEY, true);
+    FSEditLog fsEditLog = Mockito.mock(FSEditLog.class);
+    FSImage fsImage = Mockito.mock(FSImage.class);
+    Mockito.when(fsImage.getEditLog()).thenReturn(fsEditLog);
+    final FSNamesystem fsn = new FSNamesystem(conf, fsImage);
+
+    final AtomicBoolean acquired = new AtomicBoolean(false);
+    Thread reader = new Thread() {
+      @Override
+      public void run() {
+        fsn.blockReadLock();
+        try {
+          acquired.set(fsn.hasBlockReadLock() && !fsn.hasReadLock());
+        } finally {
+          fsn.blockReadUnlock();
+        }
+      }
+    };
+
+    // a namespace only writer does not exclude block state readers
+    fsn.namespaceWriteLock();
+    try {
+      assertTrue(fsn.hasWriteLock());
+      assertFalse(fsn.hasBlockWriteLock());
+      reader.start();
+      reader.join(10000);
+      assertTrue(acquired.get());
+    } finally {
+      fsn.namespaceWriteUnlock();
+    }
+
+    // the global write lock covers both
+    fsn.writeLock();
+    try {
+      assertTrue(fsn.hasWriteLock());
+      assertTrue(fsn.hasBlockWriteLock());
+      assertTrue(fsn.hasBlockReadLock());
+    } finally {
+      fsn.writeUnlock();
+    }
+    assertFalse(fsn.hasWriteLock());
+    assertFalse(fsn.hasBlockWriteLock());
+  }
+
+  @Test
+  public void testNamespacePartitionLocks() throws Exception {
+    try {
+      new FSNamesystemLock(true, false, 4);
+      fail("Partitions should require fine grained locking");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+    final FSNamesystemLock lock = new FSNamesystemLock(true, true, 4);
+    assertTrue(lock.isPartitioned());
+    assertFalse(lock.writeUnlockPartitions());
+
+    // ids 1 and 5 share a lock, which is only taken once
+    lock.readLock().lock();
+    lock.writeLockPartitions(new long[] {5, 1}, false);
+    assertTrue(lock.hasPartitionWriteLock());
+    assertFalse(lock.isBlockWriteLockedByCurrentThread());
+
+    // another partition can be written concurrently
+    final AtomicBoolean otherPartition = new AtomicBoolean(false);
+    Thread writer = new Thread() {
+      @Override
+      public void run() {
+        lock.readLock().lock();
+        try {
+          lock.writeLockPartitions(new long[] {2}, true);
+          otherPartition.set(lock.hasPartitionWriteLock()
+              && lock.isBlockWriteLockedByCurrentThread());
+          assertTrue(lock.writeUnlockPartitions());
+        } finally {
+          lock.readLock().unlock();
+        }
+      }
+    };
+    writer.start();
+    writer.join(10000);
+    assertTrue(otherPartition.get());
+
+    // but the whole namespace cannot be read
+    final AtomicBoolean read = new AtomicBoolean(false);
+    Thread reader = new Thread() {
+      @Override
+      public void run() {
+        lock.readLock().lock();
+        lock.readLockPartitions();
+        read.set(true);
+        lock.readUnlockPartitions();
+        lock.readLock().unlock();
+      }
+    };
+    reader.start();
+    reader.join(1000);
+    assertFalse(read.get());
+
+    assertTrue(lock.writeUnlockPartitions());
+    assertFalse(lock.hasPartitionWriteLock());
+    lock.readLock().unlock();
+    reader.join(10000);
+    assertTrue(read.get());
+  }
+
   @Test
   public void testReset() throws Exception {
     Configuration conf = new Configuration();
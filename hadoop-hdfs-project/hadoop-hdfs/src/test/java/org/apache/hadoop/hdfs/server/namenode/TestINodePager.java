@@ -0,0 +1,213 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.namenode;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hdfs.DFSConfigKeys;
+import org.apache.hadoop.hdfs.DFSTestUtil;
+import org.apache.hadoop.hdfs.DFSUtil;
+import org.apache.hadoop.hdfs.DistributedFileSystem;
+import org.apache.hadoop.hdfs.MiniDFSCluster;
+import org.apache.hadoop.hdfs.protocol.Block;
+import org.apache.hadoop.hdfs.protocol.HdfsConstants.SafeModeAction;
+import org.apache.hadoop.hdfs.server.blockmanagement.BlockCollection;
+import org.apache.hadoop.hdfs.server.blockmanagement.BlockManager;
+import org.apache.hadoop.hdfs.server.namenode.snapshot.Snapshot;
+import org.apache.hadoop.test.GenericTestUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestINodePager {
+  private static final int NUM_DIRS = 3;
+  private static final int NUM_FILES = 3;
+  /** The directories and files below /a */
+  private static final int NUM_PAGED = NUM_DIRS * (NUM_FILES + 1);
+
+  private MiniDFSCluster cluster;
+  private DistributedFileSystem fs;
+
+  @Before
+  public void setUp() throws IOException {
+    Configuration conf = new Configuration();
+    conf.setBoolean(DFSConfigKeys.DFS_NAMENODE_INODE_PAGER_ENABLED_KEY, true);
+    conf.set(DFSConfigKeys.DFS_NAMENODE_INODE_PAGER_DIR_KEY,
+        new File(MiniDFSCluster.getBaseDirectory(), "inodepager")
+            .getAbsolutePath());
+    conf.setLong(DFSConfigKeys.DFS_NAMENODE_INODE_PAGER_MAX_RESIDENT_KEY, 1);
+    conf.setInt(DFSConfigKeys.DFS_NAMENODE_INODE_PAGER_PAGE_DEPTH_KEY, 1);
+    // the test pages out by itself
+    conf.setLong(DFSConfigKeys.DFS_NAMENODE_INODE_PAGER_INTERVAL_MS_KEY,
+        3600 * 1000);
+    cluster = new MiniDFSCluster.Builder(conf).numDataNodes(1).build();
+    cluster.waitActive();
+    fs = cluster.getFileSystem();
+    for (int i = 0; i < NUM_DIRS; i++) {
+      for (int j = 0; j < NUM_FILES; j++) {
+        DFSTestUtil.createFile(fs, getFile(i, j), 1024, (short) 1, 0L);
+      }
+    }
+  }
+
+  @After
+  public void tearDown() {
+    if (cluster != null) {
+      cluster.shutdown();
+    }
+  }
+
+  private static Path getFile(int dir, int file) {
+    return new Path("/a/d" + dir + "/f" + file);
+  }
+
+  /**
+   * Page out what the pager can, giving the directories accessed so far
+   * their second chance first.
+   */
+  private int evict() throws IOException {
+    final FSNamesystem fsn = cluster.getNamesystem();
+    int numPagedOut = 0;
+    for (int i = 0; i < 2; i++) {
+      fsn.writeLock();
+      fsn.dir.writeLock();
+      try {
+        numPagedOut += fsn.dir.getINodePager().evict();
+      } finally {
+        fsn.dir.writeUnlock();
+        fsn.writeUnlock();
+      }
+    }
+    return numPagedOut;
+  }
+
+  private INodeDirectory getPageRoot() {
+    return cluster.getNamesystem().dir.getRoot().getChild(
+        DFSUtil.string2Bytes("a"), Snapshot.CURRENT_STATE_ID).asDirectory();
+  }
+
+  @Test(timeout=60000)
+  public void testPageOutAndIn() throws Exception {
+    final FSNamesystem fsn = cluster.getNamesystem();
+    final INodePager pager = fsn.dir.getINodePager();
+    final BlockManager bm = fsn.getBlockManager();
+    final Path file = getFile(1, 2);
+    final long fileId = fsn.dir.getINode(file.toString()).getId();
+    final long length = fs.getFileStatus(file).getLen();
+    final Block block = DFSTestUtil.getFirstBlock(fs, file).getLocalBlock();
+    // an open file keeps its subtree on the heap
+    FSDataOutputStream out = fs.create(new Path("/b/open"));
+    out.write(1);
+    out.hflush();
+    final Block openBlock = DFSTestUtil.getFirstBlock(fs,
+        new Path("/b/open")).getLocalBlock();
+    final QuotaCounts usage = fsn.dir.getRoot().computeQuotaUsage(
+        bm.getStoragePolicySuite(), new QuotaCounts.Builder().build(), false);
+
+    assertEquals(NUM_PAGED, evict());
+    assertEquals(NUM_PAGED, pager.getNumPagedOutINodes());
+    assertEquals(1, pager.getNumPageOuts());
+    assertTrue(getPageRoot().isPagedOut());
+    assertTrue(bm.getBlockCollection(openBlock) instanceof INodeFile);
+
+    // the blocks of paged out files stay managed
+    BlockCollection paged = bm.getBlockCollection(block);
+    assertTrue(paged instanceof PagedOutFile);
+    assertEquals(file.toString(), paged.getName());
+    assertEquals(fileId, paged.getId());
+    // the quota usage is known without paging in
+    assertEquals(usage, fsn.dir.getRoot().computeQuotaUsage(
+        bm.getStoragePolicySuite(), new QuotaCounts.Builder().build(), false));
+    assertTrue(getPageRoot().isPagedOut());
+    assertEquals(NUM_PAGED + 4, fsn.dir.getInodeMapSize());
+
+    // resolving a path pages in
+    assertEquals(0, pager.getNumPageIns());
+    assertEquals(NUM_FILES, fs.listStatus(new Path("/a/d0")).length);
+    assertEquals(1, pager.getNumPageIns());
+    assertFalse(getPageRoot().isPagedOut());
+    assertEquals(0, pager.getNumPagedOutINodes());
+    assertEquals(length, fs.getFileStatus(file).getLen());
+    DFSTestUtil.readFile(fs, file);
+    // the blocks map only changes under the write lock
+    assertTrue(bm.getBlockCollection(block) instanceof PagedOutFile);
+    fs.mkdirs(new Path("/c"));
+    assertTrue(bm.getBlockCollection(block) == fsn.dir.getInode(fileId));
+
+    // so does a lookup by id
+    assertEquals(NUM_PAGED, evict());
+    INode inode = fsn.dir.getInode(fileId);
+    assertFalse(getPageRoot().isPagedOut());
+    assertEquals(file.toString(), inode.getFullPathName());
+    out.close();
+  }
+
+  @Test(timeout=60000)
+  public void testPageInFailure() throws Exception {
+    final FSNamesystem fsn = cluster.getNamesystem();
+    assertEquals(NUM_PAGED, evict());
+    fsn.dir.getINodePager().deleteStoredPage(getPageRoot());
+    try {
+      fs.listStatus(new Path("/a/d0"));
+      fail("Listing a lost page should fail");
+    } catch (IOException e) {
+      GenericTestUtils.assertExceptionContains(
+          "Failed to page in the children of /a", e);
+    }
+    // the directory stays paged out and the NameNode keeps serving
+    assertTrue(getPageRoot().isPagedOut());
+    assertTrue(cluster.isNameNodeUp(0));
+    fs.mkdirs(new Path("/c"));
+  }
+
+  @Test(timeout=60000)
+  public void testSaveWithPagesOut() throws Exception {
+    assertEquals(NUM_PAGED, evict());
+    fs.setSafeMode(SafeModeAction.SAFEMODE_ENTER);
+    fs.saveNamespace();
+    fs.setSafeMode(SafeModeAction.SAFEMODE_LEAVE);
+    // saving does not page in
+    assertTrue(getPageRoot().isPagedOut());
+
+    cluster.restartNameNode();
+    cluster.waitActive();
+    fs = cluster.getFileSystem();
+    // the subtree is paged out as the image is loaded, not by the evictor
+    final INodePager pager = cluster.getNamesystem().dir.getINodePager();
+    assertEquals(NUM_PAGED, pager.getNumPagedOutINodes());
+    assertEquals(1, pager.getNumPageOuts());
+    assertTrue(getPageRoot().isPagedOut());
+    for (int i = 0; i < NUM_DIRS; i++) {
+      assertEquals(NUM_FILES, fs.listStatus(new Path("/a/d" + i)).length);
+      for (int j = 0; j < NUM_FILES; j++) {
+        DFSTestUtil.readFile(fs, getFile(i, j));
+      }
+    }
+    assertEquals(0, pager.getNumPagedOutINodes());
+    assertEquals(1, pager.getNumPageIns());
+  }
+}
@@ -52,4 +52,46 @@ public void testNNThroughput() throws Exception {
     String[] args = new String[] {"-op", "all"};
     NNThroughputBenchmark.runBenchmark(conf, Arrays.asList(args));
   }
+
+  /**
+   * Run the mkdirs benchmark as a thread sweep with fine grained locking.
+   */
+  @Test
+  public void testNNThroughputThreadSweep() throws Exception {
+    Configuration conf = new HdfsConfiguration();
+    File nameDir = new File(MiniDFSCluster.getBaseDirectory(), "name");
+    conf.set(DFSConfigKeys.DFS_NAMENODE_NAME_DIR_KEY,
+        nameDir.getAbsolutePath());
+    FileSystem.setDefaultUri(conf, "hdfs://localhost:" + 0);
+    conf.set(DFSConfigKeys.DFS_NAMENODE_HTTP_ADDRESS_KEY, "0.0.0.0:0");
+    conf.setBoolean(
+        DFSConfigKeys.DFS_NAMENODE_FINE_GRAINED_LOCKING_ENABLED_KEY, true);
+    DFSTestUtil.formatNameNode(conf);
+    String[] args = new String[] {"-op", "mkdirs", "-dirs", "64",
+        "-threadSweep", "4"};
+    NNThroughputBenchmark.runBenchmark(conf, Arrays.asList(args));
+  }
+
+  /**
+   * Run the create benchmark as a thread sweep with namespace partitions
+   * rooted at the /nnThroughputBenchmark/create/ThroughputBenchDirN
+   * directories, each thread writing its own directories.
+   */
+  @Test
+  public void testNNThroughputPartitionedThreadSweep() throws Exception {
+    Configuration conf = new HdfsConfiguration();
+    File nameDir = new File(MiniDFSCluster.getBaseDirectory(), "name");
+    conf.set(DFSConfigKeys.DFS_NAMENODE_NAME_DIR_KEY,
+        nameDir.getAbsolutePath());
+    FileSystem.setDefaultUri(conf, "hdfs://localhost:" + 0);
+    conf.set(DFSConfigKeys.DFS_NAMENODE_HTTP_ADDRESS_KEY, "0.0.0.0:0");
+    conf.setBoolean(
+        DFSConfigKeys.DFS_NAMENODE_FINE_GRAINED_LOCKING_ENABLED_KEY, true);
+    conf.setInt(DFSConfigKeys.DFS_NAMENODE_NAMESPACE_PARTITION_LOCKS_KEY, 16);
+    conf.setInt(DFSConfigKeys.DFS_NAMENODE_NAMESPACE_PARTITION_DEPTH_KEY, 3);
+    DFSTestUtil.formatNameNode(conf);
+    String[] args = new String[] {"-op", "create", "-files", "256",
+        "-filesPerDir", "16", "-close", "-threadSweep", "4"};
+    NNThroughputBenchmark.runBenchmark(conf, Arrays.asList(args));
+  }
 }
@@ -0,0 +1,211 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.namenode;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.ContentSummary;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hdfs.DFSConfigKeys;
+import org.apache.hadoop.hdfs.DFSTestUtil;
+import org.apache.hadoop.hdfs.DistributedFileSystem;
+import org.apache.hadoop.hdfs.MiniDFSCluster;
+import org.apache.hadoop.hdfs.protocol.HdfsConstants;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the namespace partitions of {@link FSNamesystemLock}, with the
+ * partition roots at depth 2.
+ */
+public class TestNamespacePartitions {
+  private static final int NUM_THREADS = 4;
+  private static final int NUM_OPS = 20;
+  private static final int FILE_LEN = 1024;
+
+  private MiniDFSCluster cluster;
+  private DistributedFileSystem fs;
+  private FSNamesystem fsn;
+
+  @Before
+  public void setUp() throws IOException {
+    Configuration conf = new Configuration();
+    conf.setBoolean(
+        DFSConfigKeys.DFS_NAMENODE_FINE_GRAINED_LOCKING_ENABLED_KEY, true);
+    conf.setInt(DFSConfigKeys.DFS_NAMENODE_NAMESPACE_PARTITION_LOCKS_KEY, 16);
+    conf.setInt(DFSConfigKeys.DFS_NAMENODE_NAMESPACE_PARTITION_DEPTH_KEY, 2);
+    cluster = new MiniDFSCluster.Builder(conf).numDataNodes(1).build();
+    cluster.waitActive();
+    fs = cluster.getFileSystem();
+    fsn = cluster.getNamesystem();
+  }
+
+  @After
+  public void tearDown() {
+    if (cluster != null) {
+      cluster.shutdown();
+    }
+  }
+
+  private void assertPartitioned(boolean expected, long inodeId,
+      String... srcs) {
+    final boolean partitioned = fsn.partitionWriteLock(false, inodeId, srcs);
+    try {
+      assertEquals(expected, partitioned);
+      assertEquals(expected, fsn.hasPartitionWriteLock());
+      assertEquals(expected, fsn.hasWriteLock());
+    } finally {
+      if (partitioned) {
+        fsn.writeUnlock();
+      }
+    }
+    assertFalse(fsn.hasWriteLock());
+  }
+
+  /**
+   * Test which operations only lock their partitions.
+   */
+  @Test(timeout=60000)
+  public void testPartitionedPaths() throws Exception {
+    final long any = FSNamesystem.ANY_INODE_ID;
+    fs.mkdirs(new Path("/user/a"));
+    fs.mkdirs(new Path("/user/b"));
+    DFSTestUtil.createFile(fs, new Path("/user/a/file"), FILE_LEN, (short) 1,
+        0L);
+    final long fileId = fsn.getFSDirectory().getINode("/user/a/file").getId();
+
+    assertPartitioned(true, any, "/user/a/file");
+    assertPartitioned(true, any, "/user/a/x/y");
+    assertPartitioned(true, any, "/user/a/file", "/user/b/file");
+    assertPartitioned(true, fileId, "/user/a/file");
+    assertPartitioned(true, FSNamesystem.NEW_INODE_ID, "/user/a/new");
+
+    // the partition roots and the directories above them
+    assertPartitioned(false, any, "/user/a");
+    assertPartitioned(false, any, "/user");
+    assertPartitioned(false, any, "/user/a/file", "/user/c");
+    // a partition root which does not exist
+    assertPartitioned(false, any, "/user/c/file");
+    assertPartitioned(false, any, "/.reserved/.inodes/" + fileId);
+    // a file which exists or is not the expected one
+    assertPartitioned(false, FSNamesystem.NEW_INODE_ID, "/user/a/file");
+    assertPartitioned(false, fileId + 1, "/user/a/file");
+
+    // a quota above the partition roots
+    fs.setQuota(new Path("/user"), 100, HdfsConstants.QUOTA_DONT_SET);
+    assertPartitioned(false, any, "/user/a/file");
+    fs.setQuota(new Path("/user"), HdfsConstants.QUOTA_RESET,
+        HdfsConstants.QUOTA_DONT_SET);
+    assertPartitioned(true, any, "/user/a/file");
+
+    // snapshots anywhere
+    fs.allowSnapshot(new Path("/user/a"));
+    assertPartitioned(false, any, "/user/b/file");
+    fs.disallowSnapshot(new Path("/user/a"));
+    assertPartitioned(true, any, "/user/b/file");
+  }
+
+  /**
+   * Run creates, renames, mkdirs and deletes in several partitions at once,
+   * some renames moving directories across partitions, and check the
+   * namespace afterwards and after replaying the edits.
+   */
+  @Test(timeout=120000)
+  public void testConcurrentOperations() throws Exception {
+    for (int i = 0; i < NUM_THREADS; i++) {
+      assertTrue(fs.mkdirs(getHome(i)));
+    }
+    final List<Throwable> errors =
+        Collections.synchronizedList(new ArrayList<Throwable>());
+    final Thread[] threads = new Thread[NUM_THREADS];
+    for (int i = 0; i < NUM_THREADS; i++) {
+      final int id = i;
+      threads[i] = new Thread() {
+        @Override
+        public void run() {
+          try {
+            runOperations(id);
+          } catch (Throwable t) {
+            errors.add(t);
+          }
+        }
+      };
+      threads[i].start();
+    }
+    for (Thread t : threads) {
+      t.join();
+    }
+    assertTrue(errors.toString(), errors.isEmpty());
+    checkNamespace();
+
+    cluster.restartNameNode();
+    fs = cluster.getFileSystem();
+    fsn = cluster.getNamesystem();
+    checkNamespace();
+  }
+
+  private static Path getHome(int i) {
+    return new Path("/user/u" + i);
+  }
+
+  private static Path getMoved(int from, int op) {
+    return new Path(getHome((from + 1) % NUM_THREADS),
+        "moved" + from + "-" + op);
+  }
+
+  private void runOperations(int id) throws IOException {
+    for (int j = 0; j < NUM_OPS; j++) {
+      final Path dir = new Path(getHome(id), "dir" + j);
+      assertTrue(fs.mkdirs(dir));
+      final Path file = new Path(dir, "file");
+      DFSTestUtil.createFile(fs, file, FILE_LEN, (short) 1, j);
+      assertTrue(fs.rename(file, new Path(dir, "renamed")));
+      // move half of the directories to the next partition, delete the rest
+      if (j % 2 == 0) {
+        assertTrue(fs.rename(dir, getMoved(id, j)));
+      } else {
+        assertTrue(fs.delete(dir, true));
+      }
+    }
+  }
+
+  private void checkNamespace() throws IOException {
+    for (int i = 0; i < NUM_THREADS; i++) {
+      assertEquals(NUM_OPS / 2, fs.listStatus(getHome(i)).length);
+      for (int j = 0; j < NUM_OPS; j += 2) {
+        assertEquals(FILE_LEN, fs.getFileStatus(
+            new Path(getMoved(i, j), "renamed")).getLen());
+      }
+    }
+    // the usage of the root, which all the partitions update, and the inode
+    // map match the tree
+    final ContentSummary summary = fs.getContentSummary(new Path("/"));
+    final long inodes = summary.getFileCount() + summary.getDirectoryCount();
+    assertEquals(inodes, fsn.getFSDirectory().totalInodes());
+    assertEquals(inodes, fsn.getFSDirectory().getInodeMapSize());
+  }
+}
@@ -0,0 +1,153 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.namenode.ha;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.CommonConfigurationKeys;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.permission.FsPermission;
+import org.apache.hadoop.hdfs.DFSConfigKeys;
+import org.apache.hadoop.hdfs.HdfsConfiguration;
+import org.apache.hadoop.hdfs.MiniDFSCluster;
+import org.apache.hadoop.hdfs.MiniDFSNNTopology;
+import org.apache.hadoop.hdfs.NameNodeProxies;
+import org.apache.hadoop.hdfs.client.HdfsClientConfigKeys;
+import org.apache.hadoop.hdfs.protocol.ClientProtocol;
+import org.apache.hadoop.hdfs.protocol.HdfsFileStatus;
+import org.apache.hadoop.ipc.RemoteException;
+import org.apache.hadoop.ipc.StandbyException;
+import org.apache.hadoop.security.UserGroupInformation;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test reads served by the standby NameNode through the
+ * {@link ObserverReadProxyProvider}.
+ */
+public class TestObserverReads {
+  private Configuration conf;
+  private MiniDFSCluster cluster;
+
+  @Before
+  public void setUp() throws Exception {
+    conf = new HdfsConfiguration();
+    conf.setBoolean(DFSConfigKeys.DFS_NAMENODE_STATE_CONTEXT_ENABLED_KEY, true);
+    conf.setInt(DFSConfigKeys.DFS_HA_TAILEDITS_PERIOD_KEY, 1);
+    conf.setInt(DFSConfigKeys.DFS_HA_LOGROLL_PERIOD_KEY, 1);
+    cluster = new MiniDFSCluster.Builder(conf)
+        .nnTopology(MiniDFSNNTopology.simpleHATopology())
+        .numDataNodes(0)
+        .build();
+    cluster.waitActive();
+    cluster.transitionToActive(0);
+    HATestUtil.setFailoverConfigurations(cluster, conf);
+    conf.set(HdfsClientConfigKeys.Failover.PROXY_PROVIDER_KEY_PREFIX + "."
+        + HATestUtil.getLogicalHostname(cluster),
+        ObserverReadProxyProvider.class.getName());
+  }
+
+  @After
+  public void tearDown() {
+    if (cluster != null) {
+      cluster.shutdown();
+    }
+  }
+
+  @Test(timeout = 60000)
+  public void testReadYourWrites() throws Exception {
+    ObserverReadProxyProvider<ClientProtocol> provider =
+        new ObserverReadProxyProvider<ClientProtocol>(conf,
+            HATestUtil.getLogicalUri(cluster), ClientProtocol.class);
+    try {
+      ClientProtocol nn = provider.getProxy().proxy;
+      for (int i = 0; i < 3; i++) {
+        String dir = "/testReadYourWrites" + i;
+        assertTrue(nn.mkdirs(dir, FsPermission.getDirDefault(), true));
+        // served by the standby once it has applied the mkdirs
+        HdfsFileStatus status = nn.getFileInfo(dir);
+        assertNotNull(status);
+        assertTrue(status.isDir());
+      }
+      assertEquals(3, provider.getNumObserverReads());
+    } finally {
+      provider.close();
+    }
+  }
+
+  @Test(timeout = 60000)
+  public void testFileSystem() throws Exception {
+    FileSystem fs = FileSystem.get(HATestUtil.getLogicalUri(cluster), conf);
+    try {
+      Path p = new Path("/testFileSystem");
+      assertTrue(fs.mkdirs(p));
+      assertTrue(fs.getFileStatus(p).isDirectory());
+      assertTrue(fs.delete(p, true));
+      assertFalse(fs.exists(p));
+
+      // reads keep working when the other NameNode becomes active
+      cluster.transitionToStandby(0);
+      cluster.transitionToActive(1);
+      assertTrue(fs.mkdirs(p));
+      assertTrue(fs.exists(p));
+    } finally {
+      fs.close();
+    }
+  }
+
+  @Test(timeout = 60000)
+  public void testStandbyBehind() throws Exception {
+    cluster.getConfiguration(1).setLong(
+        CommonConfigurationKeys.IPC_SERVER_STATE_WAIT_TIMEOUT_MS_KEY, 500);
+    cluster.restartNameNode(1);
+    cluster.getNameNode(1).getNamesystem().getEditLogTailer().stop();
+    ObserverReadProxyProvider<ClientProtocol> provider =
+        new ObserverReadProxyProvider<ClientProtocol>(conf,
+            HATestUtil.getLogicalUri(cluster), ClientProtocol.class);
+    try {
+      ClientProtocol nn = provider.getProxy().proxy;
+      String dir = "/testStandbyBehind";
+      assertTrue(nn.mkdirs(dir, FsPermission.getDirDefault(), true));
+      // the standby gives up waiting, and the active serves the read
+      assertNotNull(nn.getFileInfo(dir));
+      assertEquals(0, provider.getNumObserverReads());
+    } finally {
+      provider.close();
+    }
+  }
+
+  @Test(timeout = 60000)
+  public void testReadWithoutStateId() throws Exception {
+    ClientProtocol standby = NameNodeProxies.createNonHAProxy(conf,
+        cluster.getNameNode(1).getNameNodeAddress(), ClientProtocol.class,
+        UserGroupInformation.getCurrentUser(), false).getProxy();
+    try {
+      standby.getFileInfo("/");
+      fail("A read without a state id must not be served by the standby");
+    } catch (RemoteException e) {
+      assertEquals(StandbyException.class.getName(), e.getClassName());
+    }
+  }
+}
@@ -18,13 +18,18 @@
 
 package org.apache.hadoop.fs.s3a;
 
+import com.amazonaws.AmazonClientException;
 import com.amazonaws.services.s3.AmazonS3Client;
 import com.amazonaws.services.s3.model.GetObjectRequest;
 import com.amazonaws.services.s3.model.S3Object;
 import com.amazonaws.services.s3.model.S3ObjectInputStream;
 import org.apache.hadoop.fs.FSExceptionMessages;
 import org.apache.hadoop.fs.FSInputStream;
+import org.apache.hadoop.fs.FileRange;
 import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.VectoredReadUtils;
+import org.apache.hadoop.fs.VectoredReadUtils.CombinedRange;
+import org.apache.hadoop.fs.VectoredReadable;
 
 import org.slf4j.Logger;
 
@@ -32,8 +37,9 @@
 import java.io.IOException;
 import java.net.SocketTimeoutException;
 import java.net.SocketException;
+import java.util.List;
 
-public class S3AInputStream extends FSInputStream {
+public class S3AInputStream extends FSInputStream implements VectoredReadable {
   private long pos;
   private boolean closed;
   private S3ObjectInputStream wrappedStream;
@@ -44,6 +50,8 @@ public class S3AInputStream extends FSInputStream {
   private long contentLength;
   public static final Logger LOG = S3AFileSystem.LOG;
   public static final long CLOSE_THRESHOLD = 4096;
+  // a GET costs more than skipping this many bytes of its data
+  public static final int VECTORED_READ_MIN_SEEK = 128 * 1024;
 
   public S3AInputStream(String bucket, String key, long contentLength, AmazonS3Client client,
                         FileSystem.Statistics stats) {
@@ -179,6 +187,60 @@ public synchronized int read(byte[] buf, int off, int len) throws IOException {
     return byteRead;
   }
 
+  /**
+   * Read the ranges with one ranged GET per group of ranges close to each
+   * other, without moving the wrapped stream.
+   */
+  @Override
+  public void readVectored(List<? extends FileRange> ranges)
+      throws IOException {
+    synchronized (this) {
+      checkNotClosed();
+    }
+    for (CombinedRange range : VectoredReadUtils.mergeSortedRanges(
+        VectoredReadUtils.sortRanges(ranges), VECTORED_READ_MIN_SEEK,
+        VectoredReadUtils.MAX_MERGED_LENGTH_DEFAULT)) {
+      final byte[] buf = new byte[range.getLength()];
+      final int length = (int) Math.max(0,
+          Math.min(buf.length, contentLength - range.getOffset()));
+      try {
+        if (length > 0) {
+          readRange(range.getOffset(), buf, length);
+        }
+        range.complete(buf, length);
+      } catch (IOException | AmazonClientException e) {
+        range.fail(e);
+      }
+    }
+  }
+
+  private void readRange(long offset, byte[] buf, int length)
+      throws IOException {
+    LOG.debug("Reading " + length + " bytes of " + key + " at pos " + offset);
+    GetObjectRequest request = new GetObjectRequest(bucket, key);
+    request.setRange(offset, offset + length - 1);
+    S3ObjectInputStream in = client.getObject(request).getObjectContent();
+    if (in == null) {
+      throw new IOException("Null IO stream");
+    }
+    try {
+      int n = 0;
+      while (n < length) {
+        int r = in.read(buf, n, length - n);
+        if (r < 0) {
+          throw new EOFException(FSExceptionMessages.CANNOT_SEEK_PAST_EOF
+              + " " + (offset + n));
+        }
+        n += r;
+      }
+    } finally {
+      in.close();
+    }
+    if (stats != null) {
+      stats.incrementBytesRead(length);
+    }
+  }
+
   private void checkNotClosed() throws IOException {
     if (closed) {
       throw new IOException(FSExceptionMessages.STREAM_IS_CLOSED);